@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Ticker;
+
+/**
+ * The number of node allocations and releases of a pool over time, counted in fixed-width buckets.
+ * Only the most recent buckets are kept.
+ * <p/>
+ * Recording is lock-free, except for the first event of each bucket, which resets the counts left
+ * in its slot by an expired bucket.
+ */
+public class DemandHistory {
+
+   private final long bucketNanos;
+   private final int size;
+   private final Ticker ticker;
+   private final AtomicLongArray buckets;
+   private final AtomicLongArray allocations;
+   private final AtomicLongArray releases;
+   // the bucket of the first event, only written under this
+   private volatile long firstBucket = Long.MAX_VALUE;
+
+   /**
+    * @param bucketWidth
+    *           the period each bucket counts events for
+    * @param size
+    *           the number of buckets to keep
+    */
+   public DemandHistory(long bucketWidth, TimeUnit unit, int size) {
+      this(bucketWidth, unit, size, Ticker.systemTicker());
+   }
+
+   public DemandHistory(long bucketWidth, TimeUnit unit, int size, Ticker ticker) {
+      checkArgument(bucketWidth > 0, "bucket width must be positive");
+      checkArgument(size > 0, "size must be positive");
+      this.bucketNanos = unit.toNanos(bucketWidth);
+      this.size = size;
+      this.ticker = checkNotNull(ticker, "ticker");
+      this.buckets = new AtomicLongArray(size);
+      this.allocations = new AtomicLongArray(size);
+      this.releases = new AtomicLongArray(size);
+      for (int i = 0; i < size; i++) {
+         buckets.set(i, Long.MIN_VALUE);
+      }
+   }
+
+   /**
+    * Counts a node assigned to a frontend group.
+    */
+   public void recordAllocation() {
+      allocations.incrementAndGet(slotFor(currentBucket()));
+   }
+
+   /**
+    * Counts a node returned by its frontend group.
+    */
+   public void recordRelease() {
+      releases.incrementAndGet(slotFor(currentBucket()));
+   }
+
+   private long currentBucket() {
+      return ticker.read() / bucketNanos;
+   }
+
+   private int slotFor(long bucket) {
+      int slot = slot(bucket);
+      if (buckets.get(slot) != bucket) {
+         synchronized (this) {
+            if (buckets.get(slot) < bucket) {
+               allocations.set(slot, 0);
+               releases.set(slot, 0);
+               buckets.set(slot, bucket);
+            }
+            if (bucket < firstBucket) {
+               firstBucket = bucket;
+            }
+         }
+      }
+      return slot;
+   }
+
+   private int slot(long bucket) {
+      return (int) (((bucket % size) + size) % size);
+   }
+
+   /**
+    * @param bucketsAgo
+    *           {@literal 0} for the current bucket, {@literal 1} for the previous one...
+    * @return the allocations counted in that bucket, {@literal 0} if it is no longer kept
+    */
+   public long allocations(int bucketsAgo) {
+      return count(allocations, bucketsAgo);
+   }
+
+   /**
+    * @see #allocations(int)
+    */
+   public long releases(int bucketsAgo) {
+      return count(releases, bucketsAgo);
+   }
+
+   private long count(AtomicLongArray counts, int bucketsAgo) {
+      if (bucketsAgo < 0 || bucketsAgo >= size) {
+         return 0;
+      }
+      long bucket = currentBucket() - bucketsAgo;
+      int slot = slot(bucket);
+      return buckets.get(slot) == bucket ? counts.get(slot) : 0;
+   }
+
+   /**
+    * The number of buckets kept.
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * The number of buckets, the current one included, since the first event was recorded, at most
+    * {@link #size()}. {@literal 0} until an event is recorded.
+    */
+   public int recorded() {
+      long first = firstBucket;
+      if (first == Long.MAX_VALUE) {
+         return 0;
+      }
+      return (int) Math.min(size, currentBucket() - first + 1);
+   }
+
+   /**
+    * The number of whole buckets in the given period, at least one.
+    */
+   public int buckets(long period, TimeUnit unit) {
+      return (int) Math.max(1, unit.toNanos(period) / bucketNanos);
+   }
+
+}
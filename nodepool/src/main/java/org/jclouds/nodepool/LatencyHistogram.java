@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations with a bounded relative error, in the style of HdrHistogram.
+ * <p/>
+ * Values below 32 nanoseconds get a bucket each. Above that, every power of two is split in 16
+ * linear sub-buckets, so any recorded value is reported within about 6% of its actual value, from
+ * nanoseconds to days, in under a thousand buckets. Recording is lock-free.
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BUCKET_BITS = 4;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+   private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+   private static final int BUCKETS = LINEAR_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong count = new AtomicLong();
+   private final AtomicLong sum = new AtomicLong();
+   private final AtomicLong max = new AtomicLong();
+
+   /**
+    * Records a duration. Negative durations are recorded as zero.
+    */
+   public void record(long duration, TimeUnit unit) {
+      long nanos = Math.max(0, unit.toNanos(duration));
+      counts.incrementAndGet(index(nanos));
+      count.incrementAndGet();
+      sum.addAndGet(nanos);
+      long current = max.get();
+      while (nanos > current && !max.compareAndSet(current, nanos)) {
+         current = max.get();
+      }
+   }
+
+   static int index(long value) {
+      if (value < LINEAR_BUCKETS) {
+         return (int) value;
+      }
+      int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+      return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+   }
+
+   /**
+    * The largest value that falls in the bucket.
+    */
+   static long highestEquivalentValue(int index) {
+      if (index < LINEAR_BUCKETS) {
+         return index;
+      }
+      int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+      long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+      return ((subBucket + 1) << shift) - 1;
+   }
+
+   /**
+    * The number of recorded durations.
+    */
+   public long count() {
+      return count.get();
+   }
+
+   /**
+    * The sum of the recorded durations.
+    */
+   public long sum(TimeUnit unit) {
+      return unit.convert(sum.get(), TimeUnit.NANOSECONDS);
+   }
+
+   /**
+    * The longest recorded duration.
+    */
+   public long max(TimeUnit unit) {
+      return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+   }
+
+   /**
+    * @param quantile
+    *           between {@literal 0} and {@literal 1}, {@literal 0.99} for the 99th percentile
+    * @return the duration under which that fraction of the recorded durations fall, {@literal 0} if
+    *         none was recorded
+    */
+   public long quantile(double quantile, TimeUnit unit) {
+      checkArgument(quantile >= 0 && quantile <= 1, "quantile must be between 0 and 1");
+      long total = count.get();
+      if (total == 0) {
+         return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(quantile * total));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+         seen += counts.get(i);
+         if (seen >= rank) {
+            return unit.convert(Math.min(highestEquivalentValue(i), max.get()), TimeUnit.NANOSECONDS);
+         }
+      }
+      // values recorded while we were reading
+      return max(unit);
+   }
+
+}
@@ -18,11 +18,32 @@ package org.jclouds.nodepool;
 
 import static org.jclouds.nodepool.config.NodePoolProperties.BACKEND_GROUP;
 import static org.jclouds.nodepool.config.NodePoolProperties.BACKEND_MODULES;
+import static org.jclouds.nodepool.config.NodePoolProperties.CLAIM_TIMEOUT;
+import static org.jclouds.nodepool.config.NodePoolProperties.DEMAND_BUCKET;
+import static org.jclouds.nodepool.config.NodePoolProperties.DEMAND_HISTORY;
+import static org.jclouds.nodepool.config.NodePoolProperties.HEALTH_CHECK_SCRIPT;
+import static org.jclouds.nodepool.config.NodePoolProperties.HIGH_WATERMARK;
+import static org.jclouds.nodepool.config.NodePoolProperties.INVENTORY_MAX_STALENESS;
+import static org.jclouds.nodepool.config.NodePoolProperties.INVENTORY_REFRESH_INTERVAL;
+import static org.jclouds.nodepool.config.NodePoolProperties.JOURNAL_FLUSH_INTERVAL;
+import static org.jclouds.nodepool.config.NodePoolProperties.LOW_WATERMARK;
 import static org.jclouds.nodepool.config.NodePoolProperties.MAX_SIZE;
+import static org.jclouds.nodepool.config.NodePoolProperties.METADATA_CACHE_SIZE;
 import static org.jclouds.nodepool.config.NodePoolProperties.METADATA_CONTAINER;
+import static org.jclouds.nodepool.config.NodePoolProperties.METADATA_STORE;
 import static org.jclouds.nodepool.config.NodePoolProperties.MIN_SIZE;
+import static org.jclouds.nodepool.config.NodePoolProperties.POOLS;
 import static org.jclouds.nodepool.config.NodePoolProperties.POOL_ADMIN_ACCESS;
 import static org.jclouds.nodepool.config.NodePoolProperties.REMOVE_DESTROYED;
+import static org.jclouds.nodepool.config.NodePoolProperties.REMOVE_QUARANTINED;
+import static org.jclouds.nodepool.config.NodePoolProperties.REPLENISH_BATCH_SIZE;
+import static org.jclouds.nodepool.config.NodePoolProperties.REPLENISH_CONCURRENCY;
+import static org.jclouds.nodepool.config.NodePoolProperties.REPLENISH_INTERVAL;
+import static org.jclouds.nodepool.config.NodePoolProperties.SCRUB_SCRIPT;
+import static org.jclouds.nodepool.config.NodePoolProperties.SCRUB_THREADS;
+import static org.jclouds.nodepool.config.NodePoolProperties.SIZING_EWMA_ALPHA;
+import static org.jclouds.nodepool.config.NodePoolProperties.SIZING_LEAD_TIME;
+import static org.jclouds.nodepool.config.NodePoolProperties.SIZING_POLICY;
 
 import java.io.File;
 import java.net.URI;
@@ -55,12 +76,33 @@ public class NodePoolApiMetadata extends BaseApiMetadata {
    public static Properties defaultProperties() {
       Properties properties = BaseRestApiMetadata.defaultProperties();
       properties.setProperty(BACKEND_GROUP, "nodepool");
+      properties.setProperty(POOLS, "");
       properties.setProperty(METADATA_CONTAINER, "nodes");
+      properties.setProperty(METADATA_STORE, "json");
+      properties.setProperty(JOURNAL_FLUSH_INTERVAL, 1000 + "");
+      properties.setProperty(METADATA_CACHE_SIZE, 10000 + "");
       properties.setProperty(BACKEND_MODULES,
                "org.jclouds.logging.slf4j.config.SLF4JLoggingModule,org.jclouds.sshj.config.SshjSshClientModule");
       properties.setProperty(MAX_SIZE, 10 + "");
       properties.setProperty(MIN_SIZE, 5 + "");
       properties.setProperty(REMOVE_DESTROYED, "true");
+      properties.setProperty(LOW_WATERMARK, 1 + "");
+      properties.setProperty(HIGH_WATERMARK, 2 + "");
+      properties.setProperty(REPLENISH_BATCH_SIZE, 2 + "");
+      properties.setProperty(REPLENISH_CONCURRENCY, 2 + "");
+      properties.setProperty(REPLENISH_INTERVAL, 30 * 1000 + "");
+      properties.setProperty(CLAIM_TIMEOUT, 10 * 60 * 1000 + "");
+      properties.setProperty(INVENTORY_REFRESH_INTERVAL, 60 * 1000 + "");
+      properties.setProperty(INVENTORY_MAX_STALENESS, 5 * 60 * 1000 + "");
+      properties.setProperty(DEMAND_BUCKET, 60 * 1000 + "");
+      properties.setProperty(DEMAND_HISTORY, 7 * 24 * 60 * 60 * 1000 + "");
+      properties.setProperty(SIZING_POLICY, "static");
+      properties.setProperty(SIZING_LEAD_TIME, 5 * 60 * 1000 + "");
+      properties.setProperty(SIZING_EWMA_ALPHA, 0.3 + "");
+      properties.setProperty(SCRUB_SCRIPT, "");
+      properties.setProperty(HEALTH_CHECK_SCRIPT, "");
+      properties.setProperty(SCRUB_THREADS, 4 + "");
+      properties.setProperty(REMOVE_QUARANTINED, "true");
       // by default use the current user's user and private key if one exists, if not the properties
       // will need to be set (no default passwords)
       if (new File(System.getProperty("user.home") + "/.ssh/id_rsa").exists()) {
@@ -18,13 +18,19 @@ package org.jclouds.nodepool;
 
 import org.jclouds.compute.ComputeServiceContext;
 import org.jclouds.compute.JCloudsNativeComputeServiceAdapter;
-import org.jclouds.nodepool.internal.EagerNodePoolComputeServiceAdapter;
+import org.jclouds.compute.domain.Template;
 
-import com.google.inject.ImplementedBy;
-
-@ImplementedBy(EagerNodePoolComputeServiceAdapter.class)
 public interface NodePoolComputeServiceAdapter extends JCloudsNativeComputeServiceAdapter {
 
+   /**
+    * Assigns {@code count} nodes to the frontend group at once. Idle nodes are claimed first and
+    * the shortfall is provisioned in a single backend call.
+    * 
+    * @throws IllegalStateException
+    *            if the pool cannot grow enough, in which case no node is assigned
+    */
+   Iterable<NodeWithInitialCredentials> createNodesInGroup(String group, int count, Template template);
+
    int idleNodes();
 
    int maxNodes();
@@ -32,12 +32,15 @@ import com.google.inject.Inject;
 public class NodePoolComputeServiceContext extends ComputeServiceContextImpl {
 
    private final NodePoolComputeServiceAdapter adapter;
+   private final NodePoolMetrics metrics;
 
    @Inject
    public NodePoolComputeServiceContext(@Provider Context backend, @Provider TypeToken<? extends Context> backendType,
-            ComputeService computeService, Utils utils, NodePoolComputeServiceAdapter adapter) {
+            ComputeService computeService, Utils utils, NodePoolComputeServiceAdapter adapter,
+            NodePoolMetrics metrics) {
       super(backend, backendType, computeService, utils);
       this.adapter = adapter;
+      this.metrics = metrics;
    }
 
    /**
@@ -50,6 +53,15 @@ public class NodePoolComputeServiceContext extends ComputeServiceContextImpl {
                adapter.minNodes());
    }
 
+   /**
+    * Returns the latencies and counters recorded by the pool.
+    * 
+    * @return
+    */
+   public NodePoolMetrics getMetrics() {
+      return metrics;
+   }
+
    /**
     * Destroys all (backing nodes) in the pool and deletes all state.
     */
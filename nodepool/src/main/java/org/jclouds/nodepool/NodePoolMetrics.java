@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Singleton;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+
+/**
+ * Counters and latency histograms of the node pool, so its size limits can be tuned from where
+ * the time actually goes. Shared by all the pools of a context.
+ * <p/>
+ * Everything is recorded in memory as it happens, reading the metrics never calls the backend.
+ * They can be rendered in the Prometheus text exposition format with {@link #exposition()}.
+ */
+@Singleton
+public class NodePoolMetrics {
+
+   /**
+    * The timed pool operations.
+    */
+   public static enum Operation {
+      /**
+       * Assigning nodes to a frontend group, including any wait for nodes to be provisioned.
+       */
+      CLAIM,
+      /**
+       * Creating nodes in the backend.
+       */
+      PROVISION,
+      /**
+       * Cleaning a node returned by its frontend group.
+       */
+      SCRUB,
+      /**
+       * Returning a node from its frontend group, and destroying it if destroyed nodes are removed.
+       */
+      DESTROY;
+
+      String metricName() {
+         return name().toLowerCase();
+      }
+   }
+
+   /**
+    * The counted pool events.
+    */
+   public static enum Event {
+      /**
+       * A node was assigned to a frontend group.
+       */
+      NODE_ASSIGNED,
+      /**
+       * A node was returned by its frontend group.
+       */
+      NODE_RELEASED,
+      /**
+       * A node was created in the backend.
+       */
+      NODE_PROVISIONED,
+      /**
+       * A node failed scrubbing.
+       */
+      NODE_QUARANTINED,
+      /**
+       * A request for nodes could not be served.
+       */
+      CLAIM_FAILED;
+
+      String metricName() {
+         return name().toLowerCase();
+      }
+   }
+
+   private final Map<Operation, LatencyHistogram> latencies = Maps.newEnumMap(Operation.class);
+   private final Map<Event, AtomicLong> events = Maps.newEnumMap(Event.class);
+   private final LatencyHistogram idleTimes = new LatencyHistogram();
+   private final ConcurrentMap<String, AtomicLong> backendCalls = Maps.newConcurrentMap();
+
+   public NodePoolMetrics() {
+      for (Operation operation : Operation.values()) {
+         latencies.put(operation, new LatencyHistogram());
+      }
+      for (Event event : Event.values()) {
+         events.put(event, new AtomicLong());
+      }
+   }
+
+   /**
+    * Records how long an operation took, started at the given {@link System#nanoTime()}.
+    */
+   public void recordLatency(Operation operation, long startNanos) {
+      latencies.get(operation).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+   }
+
+   public LatencyHistogram latency(Operation operation) {
+      return latencies.get(operation);
+   }
+
+   public void count(Event event) {
+      count(event, 1);
+   }
+
+   public void count(Event event, int times) {
+      events.get(event).addAndGet(times);
+   }
+
+   public long events(Event event) {
+      return events.get(event).get();
+   }
+
+   /**
+    * Records how long a node stayed idle before it was assigned.
+    */
+   public void recordIdleTime(long nanos) {
+      idleTimes.record(nanos, TimeUnit.NANOSECONDS);
+   }
+
+   public LatencyHistogram idleTimes() {
+      return idleTimes;
+   }
+
+   /**
+    * Counts a call to the backend compute service.
+    *
+    * @param method
+    *           the called method, such as {@code createNodesInGroup}
+    */
+   public void countBackendCall(String method) {
+      AtomicLong calls = backendCalls.get(checkNotNull(method, "method"));
+      if (calls == null) {
+         AtomicLong existing = backendCalls.putIfAbsent(method, calls = new AtomicLong());
+         if (existing != null) {
+            calls = existing;
+         }
+      }
+      calls.incrementAndGet();
+   }
+
+   /**
+    * The number of calls to the backend, by method.
+    */
+   public SortedMap<String, Long> backendCalls() {
+      ImmutableSortedMap.Builder<String, Long> calls = ImmutableSortedMap.naturalOrder();
+      for (Map.Entry<String, AtomicLong> entry : backendCalls.entrySet()) {
+         calls.put(entry.getKey(), entry.getValue().get());
+      }
+      return calls.build();
+   }
+
+   /**
+    * Renders the metrics in the Prometheus text exposition format, latencies in seconds.
+    */
+   public String exposition() {
+      StringBuilder text = new StringBuilder();
+      for (Operation operation : Operation.values()) {
+         appendSummary(text, "jclouds_nodepool_" + operation.metricName() + "_seconds", latencies.get(operation));
+      }
+      appendSummary(text, "jclouds_nodepool_idle_seconds", idleTimes);
+      for (Event event : Event.values()) {
+         String name = "jclouds_nodepool_" + event.metricName() + "_total";
+         text.append("# TYPE ").append(name).append(" counter\n");
+         text.append(name).append(' ').append(events.get(event).get()).append('\n');
+      }
+      text.append("# TYPE jclouds_nodepool_backend_calls_total counter\n");
+      for (Map.Entry<String, Long> calls : backendCalls().entrySet()) {
+         text.append("jclouds_nodepool_backend_calls_total{method=\"").append(calls.getKey()).append("\"} ")
+                  .append(calls.getValue()).append('\n');
+      }
+      return text.toString();
+   }
+
+   private static void appendSummary(StringBuilder text, String name, LatencyHistogram histogram) {
+      text.append("# TYPE ").append(name).append(" summary\n");
+      for (double quantile : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+         text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                  .append(seconds(histogram.quantile(quantile, TimeUnit.NANOSECONDS))).append('\n');
+      }
+      text.append(name).append("_sum ").append(seconds(histogram.sum(TimeUnit.NANOSECONDS))).append('\n');
+      text.append(name).append("_count ").append(histogram.count()).append('\n');
+   }
+
+   private static double seconds(long nanos) {
+      return nanos / 1e9;
+   }
+
+}
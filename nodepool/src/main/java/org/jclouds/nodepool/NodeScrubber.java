@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool;
+
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.nodepool.internal.RunScriptNodeScrubber;
+
+import com.google.inject.ImplementedBy;
+
+/**
+ * Cleans backend nodes returned by their frontend group, before they are handed out again. Only
+ * used when the pool does not remove destroyed nodes.
+ * <p/>
+ * Bind a different implementation in a module passed to the nodepool context to customize how
+ * nodes are cleaned.
+ */
+@ImplementedBy(RunScriptNodeScrubber.class)
+public interface NodeScrubber {
+
+   /**
+    * Cleans the backend node and checks it is healthy. Called from a scrubbing worker thread, so
+    * it may block.
+    * 
+    * @param backendNode
+    *           the backend node's {@link NodeMetadata}
+    * @return true if the node can be returned to the pool, false if it must be quarantined
+    */
+   boolean scrub(NodeMetadata backendNode);
+
+}
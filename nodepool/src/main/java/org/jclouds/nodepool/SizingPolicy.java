@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool;
+
+import org.jclouds.nodepool.internal.ConfiguredSizingPolicy;
+
+import com.google.inject.ImplementedBy;
+
+/**
+ * Decides how many idle nodes a pool should keep, from its past demand, so nodes can be
+ * provisioned ahead of demand spikes. The pool never keeps fewer idle nodes than its low watermark,
+ * nor grows past its maximum size.
+ * <p/>
+ * The implementation is selected with {@link org.jclouds.nodepool.config.NodePoolProperties#SIZING_POLICY},
+ * or bind a different implementation in a module passed to the nodepool context.
+ */
+@ImplementedBy(ConfiguredSizingPolicy.class)
+public interface SizingPolicy {
+
+   /**
+    * Called each time the pool checks whether it needs replenishing, so it should be cheap.
+    * 
+    * @param history
+    *           the pool's allocations and releases
+    * @return the number of idle nodes the pool should keep
+    */
+   int idleTarget(DemandHistory history);
+
+}
@@ -16,6 +16,19 @@
  */
 package org.jclouds.nodepool.config;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.jclouds.nodepool.config.NodePoolProperties.BACKEND_GROUP;
+import static org.jclouds.nodepool.config.NodePoolProperties.HIGH_WATERMARK;
+import static org.jclouds.nodepool.config.NodePoolProperties.LOW_WATERMARK;
+import static org.jclouds.nodepool.config.NodePoolProperties.MAX_SIZE;
+import static org.jclouds.nodepool.config.NodePoolProperties.METADATA_CACHE_SIZE;
+import static org.jclouds.nodepool.config.NodePoolProperties.METADATA_STORE;
+import static org.jclouds.nodepool.config.NodePoolProperties.MIN_SIZE;
+import static org.jclouds.nodepool.config.NodePoolProperties.POOLS;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
 import org.jclouds.apis.ApiMetadata;
 import org.jclouds.compute.ComputeServiceContext;
 import org.jclouds.compute.config.JCloudsNativeComputeServiceAdapterContextModule;
@@ -23,17 +36,28 @@ import org.jclouds.compute.domain.Hardware;
 import org.jclouds.compute.domain.Image;
 import org.jclouds.compute.domain.NodeMetadata;
 import org.jclouds.compute.domain.Template;
+import org.jclouds.compute.strategy.CreateNodesInGroupThenAddToSet;
 import org.jclouds.domain.Location;
 import org.jclouds.domain.LoginCredentials;
 import org.jclouds.javax.annotation.Nullable;
+import org.jclouds.nodepool.Backend;
 import org.jclouds.nodepool.NodePoolApiMetadata;
 import org.jclouds.nodepool.NodePoolComputeServiceAdapter;
 import org.jclouds.nodepool.NodePoolComputeServiceContext;
+import org.jclouds.nodepool.internal.ClaimNodesFromPoolThenAddToSet;
+import org.jclouds.nodepool.internal.EagerNodePoolComputeServiceAdapter;
+import org.jclouds.nodepool.internal.JournalNodeMetadataStore;
 import org.jclouds.nodepool.internal.JsonNodeMetadataStore;
+import org.jclouds.nodepool.internal.MultiNodePoolComputeServiceAdapter;
 import org.jclouds.nodepool.internal.NodeMetadataStore;
+import org.jclouds.nodepool.internal.NodeMetadataStoreCache;
 
 import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.inject.Injector;
+import com.google.inject.Provides;
 import com.google.inject.TypeLiteral;
+import com.google.inject.assistedinject.FactoryModuleBuilder;
 
 public class NodePoolComputeServiceContextModule extends JCloudsNativeComputeServiceAdapterContextModule {
 
@@ -54,12 +78,41 @@ public class NodePoolComputeServiceContextModule extends JCloudsNativeComputeSer
    @Override
    protected void configure() {
       super.configure();
-      bind(NodeMetadataStore.class).to(JsonNodeMetadataStore.class);
       bind(ApiMetadata.class).to(NodePoolApiMetadata.class);
       bind(ComputeServiceContext.class).to(NodePoolComputeServiceContext.class);
       install(new LocationsFromComputeServiceAdapterModule<NodeMetadata, Hardware, Image, Location>() {
       });
+      bind(CreateNodesInGroupThenAddToSet.class).to(ClaimNodesFromPoolThenAddToSet.class);
+      install(new FactoryModuleBuilder().build(EagerNodePoolComputeServiceAdapter.Factory.class));
+
+   }
 
+   // implementations are looked up from the injector, as the injector is built in production stage
+   // and would otherwise eagerly create the ones that are not used
+   @Provides
+   @Singleton
+   protected NodeMetadataStore provideNodeMetadataStore(@Named(METADATA_STORE) String store,
+            @Named(METADATA_CACHE_SIZE) long cacheSize, Injector injector) {
+      if ("journal".equals(store)) {
+         // the journal is already held in memory
+         return injector.getInstance(JournalNodeMetadataStore.class);
+      }
+      checkArgument("json".equals(store), "unsupported metadata store %s, use json or journal", store);
+      NodeMetadataStore json = injector.getInstance(JsonNodeMetadataStore.class);
+      return cacheSize > 0 ? new NodeMetadataStoreCache(json, cacheSize) : json;
+   }
+
+   @Provides
+   @Singleton
+   protected NodePoolComputeServiceAdapter provideNodePoolComputeServiceAdapter(@Named(POOLS) String pools,
+            @Backend Supplier<Template> backendTemplate, @Named(BACKEND_GROUP) String poolGroupName,
+            @Named(MAX_SIZE) int maxSize, @Named(MIN_SIZE) int minSize, @Named(LOW_WATERMARK) int lowWatermark,
+            @Named(HIGH_WATERMARK) int highWatermark, EagerNodePoolComputeServiceAdapter.Factory poolFactory,
+            Injector injector) {
+      if (pools.trim().isEmpty()) {
+         return poolFactory.create(backendTemplate, poolGroupName, maxSize, minSize, lowWatermark, highWatermark);
+      }
+      return injector.getInstance(MultiNodePoolComputeServiceAdapter.class);
    }
 
    @Override
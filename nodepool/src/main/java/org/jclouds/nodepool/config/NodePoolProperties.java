@@ -71,4 +71,148 @@ public interface NodePoolProperties {
     */
    public static final String REMOVE_DESTROYED = "jclouds.nodepool.remove-destroyed";
 
+   /**
+    * Property to set the number of idle nodes below which the pool is replenished in the
+    * background.
+    */
+   public static final String LOW_WATERMARK = "jclouds.nodepool.low-watermark";
+
+   /**
+    * Property to set the number of idle nodes the background replenisher provisions up to, once
+    * the pool fell below the {@link #LOW_WATERMARK low watermark}.
+    */
+   public static final String HIGH_WATERMARK = "jclouds.nodepool.high-watermark";
+
+   /**
+    * Property to set the maximum number of nodes requested from the backend in a single
+    * replenishing call.
+    */
+   public static final String REPLENISH_BATCH_SIZE = "jclouds.nodepool.replenish-batch-size";
+
+   /**
+    * Property to set the maximum number of replenishing calls to the backend that can be in
+    * flight at the same time.
+    */
+   public static final String REPLENISH_CONCURRENCY = "jclouds.nodepool.replenish-concurrency";
+
+   /**
+    * Property to set the period, in milliseconds, at which the replenisher checks the watermarks.
+    */
+   public static final String REPLENISH_INTERVAL = "jclouds.nodepool.replenish-interval";
+
+   /**
+    * Property to set how long, in milliseconds, an allocation waits for an idle node when none is
+    * available.
+    */
+   public static final String CLAIM_TIMEOUT = "jclouds.nodepool.claim-timeout";
+
+   /**
+    * Property to set the script run on nodes returned to the pool, before they are handed out
+    * again. Only used when destroyed nodes are not removed. Leave empty to skip cleaning.
+    * 
+    * @see org.jclouds.nodepool.NodeScrubber
+    */
+   public static final String SCRUB_SCRIPT = "jclouds.nodepool.scrub-script";
+
+   /**
+    * Property to set the script run after the {@link #SCRUB_SCRIPT scrub script} to check a
+    * returned node is healthy. Leave empty to skip the check.
+    */
+   public static final String HEALTH_CHECK_SCRIPT = "jclouds.nodepool.health-check-script";
+
+   /**
+    * Property to set the number of threads that scrub returned nodes.
+    */
+   public static final String SCRUB_THREADS = "jclouds.nodepool.scrub-threads";
+
+   /**
+    * Property to set whether nodes that fail scrubbing are destroyed, or kept out of the pool in
+    * quarantine for inspection.
+    */
+   public static final String REMOVE_QUARANTINED = "jclouds.nodepool.remove-quarantined";
+
+   /**
+    * Property to set how frontend node metadata is stored: {@code json} for a json file per node
+    * in the metadata container, or {@code journal} for a single append-only journal file.
+    */
+   public static final String METADATA_STORE = "jclouds.nodepool.metadata-store";
+
+   /**
+    * Property to set the period, in milliseconds, at which the journal metadata store forces its
+    * writes to disk.
+    */
+   public static final String JOURNAL_FLUSH_INTERVAL = "jclouds.nodepool.journal-flush-interval";
+
+   /**
+    * Property to set the maximum number of node mappings the json metadata store keeps in memory.
+    * Set to 0 to read every mapping from the blobstore.
+    */
+   public static final String METADATA_CACHE_SIZE = "jclouds.nodepool.metadata-cache-size";
+
+   /**
+    * Property to set the period, in milliseconds, at which the pool lists the backend nodes to
+    * refresh its inventory.
+    */
+   public static final String INVENTORY_REFRESH_INTERVAL = "jclouds.nodepool.inventory-refresh-interval";
+
+   /**
+    * Property to set how old, in milliseconds, the backend inventory can get before lookups list
+    * the backend nodes again.
+    */
+   public static final String INVENTORY_MAX_STALENESS = "jclouds.nodepool.inventory-max-staleness";
+
+   /**
+    * Property to set the comma separated names of the sub-pools this pool is made of, each with its
+    * own backend template and sizing. Leave empty for a single pool built from the backend's default
+    * template.
+    * 
+    * @see #POOL_PREFIX
+    */
+   public static final String POOLS = "jclouds.nodepool.pools";
+
+   /**
+    * Prefix of the properties of each of the {@link #POOLS sub-pools}, followed by the pool name and
+    * one of {@code template} (a {@link org.jclouds.compute.domain.TemplateBuilderSpec}),
+    * {@code min-size}, {@code max-size}, {@code low-watermark} or {@code high-watermark}. Sizes
+    * default to the properties of the whole pool, e.g.
+    * 
+    * <pre>
+    * jclouds.nodepool.pool.small.template=hardwareId=m1.small,imageId=us-east-1/ami-1234
+    * jclouds.nodepool.pool.small.min-size=4
+    * </pre>
+    */
+   public static final String POOL_PREFIX = "jclouds.nodepool.pool.";
+
+   /**
+    * Property to set the period, in milliseconds, over which node allocations and releases are
+    * counted in the pool's {@link org.jclouds.nodepool.DemandHistory demand history}.
+    */
+   public static final String DEMAND_BUCKET = "jclouds.nodepool.demand-bucket";
+
+   /**
+    * Property to set how long, in milliseconds, the pool's demand history is kept.
+    */
+   public static final String DEMAND_HISTORY = "jclouds.nodepool.demand-history";
+
+   /**
+    * Property to set how the number of idle nodes follows past demand: {@code static} to keep to
+    * the watermarks, {@code ewma} to follow the recent allocation rate, or {@code time-of-day} to
+    * follow the allocations at the same time on previous days.
+    * 
+    * @see org.jclouds.nodepool.SizingPolicy
+    */
+   public static final String SIZING_POLICY = "jclouds.nodepool.sizing-policy";
+
+   /**
+    * Property to set how far ahead, in milliseconds, sizing policies provision for the expected
+    * demand. Should cover the time the backend takes to provision a node.
+    */
+   public static final String SIZING_LEAD_TIME = "jclouds.nodepool.sizing-lead-time";
+
+   /**
+    * Property to set the weight, between 0 and 1, of the most recent period in the allocation rate
+    * average of the {@code ewma} sizing policy.
+    */
+   public static final String SIZING_EWMA_ALPHA = "jclouds.nodepool.sizing-ewma-alpha";
+
 }
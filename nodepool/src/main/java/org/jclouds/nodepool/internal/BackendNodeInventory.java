@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jclouds.compute.domain.NodeMetadata;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * An in-memory snapshot of the backend nodes in the pool's group, so lookups don't need a full
+ * listing of the backend provider.
+ * <p/>
+ * The snapshot is replaced by a full listing on {@link #refresh()}, and reads refresh it first if
+ * it is older than the staleness bound. Nodes the pool creates or destroys itself are applied as
+ * they happen. Those changes win over a listing that was started before them, as the backend may
+ * not report them yet.
+ */
+public class BackendNodeInventory {
+
+   private final Supplier<? extends Iterable<? extends NodeMetadata>> lister;
+   private final long maxStalenessNanos;
+   private final Ticker ticker;
+   private final ConcurrentMap<String, NodeMetadata> nodes = Maps.newConcurrentMap();
+   // when each node was last created or destroyed by the pool, guarded by this
+   private final Map<String, Long> modified = Maps.newHashMap();
+   private final Lock refreshLock = new ReentrantLock();
+   private volatile long lastRefresh;
+   private volatile boolean loaded;
+
+   /**
+    * @param lister
+    *           lists the backend nodes in the pool's group
+    * @param maxStaleness
+    *           how old the snapshot can get before reads list the backend again
+    */
+   public BackendNodeInventory(Supplier<? extends Iterable<? extends NodeMetadata>> lister, long maxStaleness,
+            TimeUnit unit) {
+      this(lister, maxStaleness, unit, Ticker.systemTicker());
+   }
+
+   BackendNodeInventory(Supplier<? extends Iterable<? extends NodeMetadata>> lister, long maxStaleness,
+            TimeUnit unit, Ticker ticker) {
+      checkArgument(maxStaleness >= 0, "max staleness must not be negative");
+      this.lister = checkNotNull(lister, "lister");
+      this.maxStalenessNanos = unit.toNanos(maxStaleness);
+      this.ticker = checkNotNull(ticker, "ticker");
+   }
+
+   /**
+    * The backend nodes in the pool's group.
+    */
+   public ImmutableSet<NodeMetadata> nodes() {
+      refreshIfStale();
+      return ImmutableSet.copyOf(nodes.values());
+   }
+
+   /**
+    * @return the backend node or null if it is not in the pool's group
+    */
+   public NodeMetadata get(String id) {
+      refreshIfStale();
+      return nodes.get(id);
+   }
+
+   public boolean isStale() {
+      return !loaded || ticker.read() - lastRefresh > maxStalenessNanos;
+   }
+
+   private void refreshIfStale() {
+      if (isStale()) {
+         refreshLock.lock();
+         try {
+            // another caller may have refreshed while we were waiting
+            if (isStale()) {
+               doRefresh();
+            }
+         } finally {
+            refreshLock.unlock();
+         }
+      }
+   }
+
+   /**
+    * Replaces the snapshot with a full listing of the backend.
+    */
+   public void refresh() {
+      refreshLock.lock();
+      try {
+         doRefresh();
+      } finally {
+         refreshLock.unlock();
+      }
+   }
+
+   private void doRefresh() {
+      long started = ticker.read();
+      Map<String, NodeMetadata> listed = Maps.newHashMap();
+      for (NodeMetadata node : lister.get()) {
+         listed.put(node.getId(), node);
+      }
+      synchronized (this) {
+         for (Iterator<Map.Entry<String, Long>> it = modified.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Long> entry = it.next();
+            if (entry.getValue() - started >= 0) {
+               listed.remove(entry.getKey());
+            } else {
+               it.remove();
+            }
+         }
+         for (String id : nodes.keySet()) {
+            if (!listed.containsKey(id) && !modified.containsKey(id)) {
+               nodes.remove(id);
+            }
+         }
+         nodes.putAll(listed);
+         lastRefresh = started;
+         loaded = true;
+      }
+   }
+
+   /**
+    * Records a node the pool created.
+    */
+   public synchronized void put(NodeMetadata node) {
+      modified.put(node.getId(), ticker.read());
+      nodes.put(node.getId(), node);
+   }
+
+   public void putAll(Iterable<? extends NodeMetadata> created) {
+      for (NodeMetadata node : created) {
+         put(node);
+      }
+   }
+
+   /**
+    * Records a node the pool destroyed.
+    */
+   public synchronized void remove(String id) {
+      modified.put(id, ticker.read());
+      nodes.remove(id);
+   }
+
+   public void removeAll(Iterable<String> destroyed) {
+      for (String id : destroyed) {
+         remove(id);
+      }
+   }
+
+}
@@ -17,10 +17,12 @@
 package org.jclouds.nodepool.internal;
 
 import static org.jclouds.nodepool.config.NodePoolProperties.BACKEND_GROUP;
+import static org.jclouds.nodepool.config.NodePoolProperties.INVENTORY_MAX_STALENESS;
 import static org.jclouds.nodepool.config.NodePoolProperties.POOL_ADMIN_ACCESS;
 
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Named;
 
@@ -35,9 +37,13 @@ import org.jclouds.compute.predicates.NodePredicates;
 import org.jclouds.domain.Location;
 import org.jclouds.nodepool.Backend;
 import org.jclouds.nodepool.NodePoolComputeServiceAdapter;
+import org.jclouds.nodepool.NodePoolMetrics;
+import org.jclouds.nodepool.NodePoolMetrics.Event;
+import org.jclouds.nodepool.NodePoolMetrics.Operation;
 import org.jclouds.scriptbuilder.statements.login.AdminAccess;
 import org.jclouds.scriptbuilder.statements.login.AdminAccessBuilderSpec;
 
+import com.google.common.base.Function;
 import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
@@ -46,6 +52,9 @@ import com.google.common.collect.Iterables;
 /**
  * A base class for {@link NodePoolComputeService}, takes care of keeping (not changing assignments)
  * and of everything that does not change the pool.
+ * <p/>
+ * Backend nodes are looked up in a {@link BackendNodeInventory} rather than listed from the
+ * backend on every call. Subclasses that destroy backend nodes must remove them from the inventory.
  * 
  * @author David Alves
  * 
@@ -57,24 +66,34 @@ public abstract class BaseNodePoolComputeServiceAdapter implements NodePoolCompu
    protected final String poolGroupName;
    protected final NodeMetadataStore metadataStore;
    protected final AdminAccess.Builder initialCredentialsBuilder;
+   protected final BackendNodeInventory inventory;
+   protected final NodePoolMetrics metrics;
 
    public BaseNodePoolComputeServiceAdapter(@Backend Supplier<ComputeService> backendComputeService,
 
    @Backend Supplier<Template> backendTemplate, @Named(BACKEND_GROUP) String poolGroupName,
 
    NodeMetadataStore metadataStore, @Named(POOL_ADMIN_ACCESS) String poolNodeAdminAccess,
-            AdminAccess.Configuration configuration) {
+            AdminAccess.Configuration configuration, @Named(INVENTORY_MAX_STALENESS) long inventoryMaxStaleness,
+            NodePoolMetrics metrics) {
       this.backendComputeService = backendComputeService;
       this.poolGroupName = poolGroupName;
       this.backendTemplate = backendTemplate;
       this.metadataStore = metadataStore;
+      this.metrics = metrics;
       this.initialCredentialsBuilder = AdminAccessBuilderSpec.parse(poolNodeAdminAccess).copyTo(
                new AdminAccess.Builder());
+      this.inventory = new BackendNodeInventory(new Supplier<Set<NodeMetadata>>() {
+         @Override
+         public Set<NodeMetadata> get() {
+            return listBackendNodes();
+         }
+      }, inventoryMaxStaleness, TimeUnit.MILLISECONDS);
    }
 
    @Override
    public NodeMetadata getNode(String id) {
-      NodeMetadata backendMetadata = backendComputeService.get().getNodeMetadata(id);
+      NodeMetadata backendMetadata = inventory.get(id);
       if (backendMetadata == null) {
          return null;
       }
@@ -86,6 +105,18 @@ public abstract class BaseNodePoolComputeServiceAdapter implements NodePoolCompu
       return metadataStore.loadAll(getBackendNodes());
    }
 
+   @Override
+   public Iterable<NodeMetadata> listNodesByIds(Iterable<String> ids) {
+      ImmutableSet.Builder<NodeMetadata> backendNodes = ImmutableSet.builder();
+      for (String id : ids) {
+         NodeMetadata backendNode = inventory.get(id);
+         if (backendNode != null) {
+            backendNodes.add(backendNode);
+         }
+      }
+      return metadataStore.loadAll(backendNodes.build());
+   }
+
    @Override
    public Iterable<Hardware> listHardwareProfiles() {
       return ImmutableSet.of(backendTemplate.get().getHardware());
@@ -111,6 +142,7 @@ public abstract class BaseNodePoolComputeServiceAdapter implements NodePoolCompu
    @Override
    public void suspendNode(String id) {
       if (getNode(id) != null) {
+         metrics.countBackendCall("suspendNode");
          backendComputeService.get().suspendNode(id);
       }
       throw new NoSuchElementException(id);
@@ -119,6 +151,7 @@ public abstract class BaseNodePoolComputeServiceAdapter implements NodePoolCompu
    @Override
    public void resumeNode(String id) {
       if (getNode(id) != null) {
+         metrics.countBackendCall("resumeNode");
          backendComputeService.get().resumeNode(id);
       }
       throw new NoSuchElementException(id);
@@ -127,12 +160,18 @@ public abstract class BaseNodePoolComputeServiceAdapter implements NodePoolCompu
    @Override
    public void rebootNode(String id) {
       if (getNode(id) != null) {
+         metrics.countBackendCall("rebootNode");
          backendComputeService.get().rebootNode(id);
       }
       throw new NoSuchElementException(id);
    }
 
    protected Set<NodeMetadata> getBackendNodes() {
+      return inventory.nodes();
+   }
+
+   private Set<NodeMetadata> listBackendNodes() {
+      metrics.countBackendCall("listNodesDetailsMatching");
       return ImmutableSet.copyOf(Iterables.filter(
                backendComputeService.get().listNodesDetailsMatching(NodePredicates.all()),
                NodePredicates.inGroup(poolGroupName)));
@@ -141,7 +180,15 @@ public abstract class BaseNodePoolComputeServiceAdapter implements NodePoolCompu
    @Override
    public void destroyPool() {
       metadataStore.deleteAllMappings();
-      backendComputeService.get().destroyNodesMatching(NodePredicates.inGroup(poolGroupName));
+      metrics.countBackendCall("destroyNodesMatching");
+      Set<? extends NodeMetadata> destroyed = backendComputeService.get().destroyNodesMatching(
+               NodePredicates.inGroup(poolGroupName));
+      inventory.removeAll(Iterables.transform(destroyed, new Function<NodeMetadata, String>() {
+         @Override
+         public String apply(NodeMetadata input) {
+            return input.getId();
+         }
+      }));
    }
 
    @Override
@@ -150,15 +197,36 @@ public abstract class BaseNodePoolComputeServiceAdapter implements NodePoolCompu
    }
 
    protected Set<? extends NodeMetadata> addToPool(int number) {
+      long start = System.nanoTime();
       try {
          Template template = backendTemplate.get().clone();
          template.getOptions().runScript(initialCredentialsBuilder.build());
-         return backendComputeService.get().createNodesInGroup(poolGroupName, number, template);
+         metrics.countBackendCall("createNodesInGroup");
+         Set<? extends NodeMetadata> created = backendComputeService.get().createNodesInGroup(poolGroupName,
+                  number, template);
+         inventory.putAll(created);
+         metrics.recordLatency(Operation.PROVISION, start);
+         metrics.count(Event.NODE_PROVISIONED, created.size());
+         return created;
       } catch (RunNodesException e) {
+         // the nodes that did start are in the pool group, keep them rather than leaking them
+         Set<? extends NodeMetadata> successful = e.getSuccessfulNodes();
+         if (!successful.isEmpty()) {
+            inventory.putAll(successful);
+            metrics.count(Event.NODE_PROVISIONED, successful.size());
+            adoptNodes(successful);
+         }
          throw Throwables.propagate(e);
       }
    }
 
+   /**
+    * Takes in the nodes that were provisioned by a call to {@link #addToPool} that failed for the
+    * others. Does nothing by default.
+    */
+   protected void adoptNodes(Set<? extends NodeMetadata> nodes) {
+   }
+
    @Override
    public String getPoolGroupName() {
       return this.poolGroupName;
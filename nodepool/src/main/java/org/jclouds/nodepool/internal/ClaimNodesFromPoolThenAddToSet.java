@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static org.jclouds.Constants.PROPERTY_USER_THREADS;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.jclouds.compute.JCloudsNativeComputeServiceAdapter.NodeWithInitialCredentials;
+import org.jclouds.compute.config.CustomizationResponse;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.jclouds.compute.domain.Template;
+import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.compute.strategy.CreateNodesInGroupThenAddToSet;
+import org.jclouds.compute.strategy.CustomizeNodeAndAddToGoodMapOrPutExceptionIntoBadMap;
+import org.jclouds.compute.strategy.PrioritizeCredentialsFromTemplate;
+import org.jclouds.domain.Credentials;
+import org.jclouds.domain.LoginCredentials;
+import org.jclouds.logging.Logger;
+import org.jclouds.nodepool.NodePoolComputeServiceAdapter;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Assigns all the requested nodes with a single call to the pool, instead of one call per node.
+ * Idle nodes are claimed at once, only the shortfall is provisioned, and their mappings are written
+ * in a single batch. The assigned nodes are then customized in parallel.
+ */
+@Singleton
+public class ClaimNodesFromPoolThenAddToSet implements CreateNodesInGroupThenAddToSet {
+
+   @Resource
+   @Named(ComputeServiceConstants.COMPUTE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final NodePoolComputeServiceAdapter pool;
+   private final Map<String, Credentials> credentialStore;
+   private final PrioritizeCredentialsFromTemplate credentialsFromTemplate;
+   private final CustomizeNodeAndAddToGoodMapOrPutExceptionIntoBadMap.Factory customizeNodeAndAddToGoodMapOrPutExceptionIntoBadMapFactory;
+   private final ListeningExecutorService userExecutor;
+
+   @Inject
+   public ClaimNodesFromPoolThenAddToSet(NodePoolComputeServiceAdapter pool, Map<String, Credentials> credentialStore,
+            PrioritizeCredentialsFromTemplate credentialsFromTemplate,
+            CustomizeNodeAndAddToGoodMapOrPutExceptionIntoBadMap.Factory customizeNodeAndAddToGoodMapOrPutExceptionIntoBadMapFactory,
+            @Named(PROPERTY_USER_THREADS) ListeningExecutorService userExecutor) {
+      this.pool = pool;
+      this.credentialStore = credentialStore;
+      this.credentialsFromTemplate = credentialsFromTemplate;
+      this.customizeNodeAndAddToGoodMapOrPutExceptionIntoBadMapFactory = customizeNodeAndAddToGoodMapOrPutExceptionIntoBadMapFactory;
+      this.userExecutor = userExecutor;
+   }
+
+   @Override
+   public Map<?, ListenableFuture<Void>> execute(String group, int count, Template template,
+            Set<NodeMetadata> goodNodes, Map<NodeMetadata, Exception> badNodes,
+            Multimap<NodeMetadata, CustomizationResponse> customizationResponses) {
+      Iterable<NodeWithInitialCredentials> assigned;
+      try {
+         assigned = pool.createNodesInGroup(group, count, template);
+      } catch (RuntimeException e) {
+         // reported like any failed node creation
+         logger.error(e, "could not assign %s nodes to group %s", count, group);
+         return ImmutableMap.of(group, Futures.<Void> immediateFailedFuture(e));
+      }
+      Map<String, ListenableFuture<Void>> responses = Maps.newLinkedHashMap();
+      for (NodeWithInitialCredentials from : assigned) {
+         NodeMetadata node = from.getNode();
+         LoginCredentials credentials = credentialsFromTemplate.apply(template, from.getCredentials());
+         if (credentials != null) {
+            credentialStore.put("node#" + from.getNodeId(), credentials);
+            node = NodeMetadataBuilder.fromNodeMetadata(node).credentials(credentials).build();
+         }
+         responses.put(node.getId(), userExecutor.submit(customizeNodeAndAddToGoodMapOrPutExceptionIntoBadMapFactory
+                  .create(template.getOptions(), new AtomicReference<NodeMetadata>(node), goodNodes, badNodes,
+                           customizationResponses)));
+      }
+      return responses;
+   }
+
+}
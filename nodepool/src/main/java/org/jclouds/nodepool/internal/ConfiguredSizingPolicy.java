@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.jclouds.nodepool.config.NodePoolProperties.SIZING_POLICY;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.jclouds.nodepool.DemandHistory;
+import org.jclouds.nodepool.SizingPolicy;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Injector;
+
+/**
+ * Delegates to the {@link SizingPolicy} named by {@link org.jclouds.nodepool.config.NodePoolProperties#SIZING_POLICY}.
+ */
+@Singleton
+public class ConfiguredSizingPolicy implements SizingPolicy {
+
+   private static final ImmutableMap<String, Class<? extends SizingPolicy>> POLICIES = ImmutableMap
+            .<String, Class<? extends SizingPolicy>> of("static", StaticSizingPolicy.class, "ewma",
+                     EwmaSizingPolicy.class, "time-of-day", TimeOfDaySizingPolicy.class);
+
+   private final SizingPolicy delegate;
+
+   @Inject
+   ConfiguredSizingPolicy(@Named(SIZING_POLICY) String policy, Injector injector) {
+      checkArgument(POLICIES.containsKey(policy), "unsupported sizing policy %s, use one of %s", policy,
+               POLICIES.keySet());
+      this.delegate = injector.getInstance(POLICIES.get(policy));
+   }
+
+   @Override
+   public int idleTarget(DemandHistory history) {
+      return delegate.idleTarget(history);
+   }
+
+}
@@ -16,21 +16,41 @@
  */
 package org.jclouds.nodepool.internal;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
-import static org.jclouds.nodepool.config.NodePoolProperties.BACKEND_GROUP;
+import static org.jclouds.Constants.PROPERTY_SCHEDULER_THREADS;
+import static org.jclouds.Constants.PROPERTY_USER_THREADS;
+import static org.jclouds.nodepool.config.NodePoolProperties.CLAIM_TIMEOUT;
+import static org.jclouds.nodepool.config.NodePoolProperties.DEMAND_BUCKET;
+import static org.jclouds.nodepool.config.NodePoolProperties.DEMAND_HISTORY;
+import static org.jclouds.nodepool.config.NodePoolProperties.HIGH_WATERMARK;
+import static org.jclouds.nodepool.config.NodePoolProperties.INVENTORY_MAX_STALENESS;
+import static org.jclouds.nodepool.config.NodePoolProperties.INVENTORY_REFRESH_INTERVAL;
+import static org.jclouds.nodepool.config.NodePoolProperties.LOW_WATERMARK;
 import static org.jclouds.nodepool.config.NodePoolProperties.MAX_SIZE;
 import static org.jclouds.nodepool.config.NodePoolProperties.MIN_SIZE;
 import static org.jclouds.nodepool.config.NodePoolProperties.POOL_ADMIN_ACCESS;
 import static org.jclouds.nodepool.config.NodePoolProperties.REMOVE_DESTROYED;
+import static org.jclouds.nodepool.config.NodePoolProperties.REMOVE_QUARANTINED;
+import static org.jclouds.nodepool.config.NodePoolProperties.REPLENISH_BATCH_SIZE;
+import static org.jclouds.nodepool.config.NodePoolProperties.REPLENISH_CONCURRENCY;
+import static org.jclouds.nodepool.config.NodePoolProperties.REPLENISH_INTERVAL;
+import static org.jclouds.nodepool.config.NodePoolProperties.SCRUB_THREADS;
 
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.inject.Inject;
 import javax.inject.Named;
-import javax.inject.Singleton;
 
 import org.jclouds.compute.ComputeService;
 import org.jclouds.compute.domain.NodeMetadata;
@@ -40,21 +60,50 @@ import org.jclouds.compute.reference.ComputeServiceConstants;
 import org.jclouds.domain.LoginCredentials;
 import org.jclouds.logging.Logger;
 import org.jclouds.nodepool.Backend;
+import org.jclouds.nodepool.DemandHistory;
+import org.jclouds.nodepool.NodePoolMetrics;
+import org.jclouds.nodepool.NodePoolMetrics.Event;
+import org.jclouds.nodepool.NodePoolMetrics.Operation;
+import org.jclouds.nodepool.NodeScrubber;
+import org.jclouds.nodepool.SizingPolicy;
+import org.jclouds.nodepool.internal.NodePoolIndex.State;
 import org.jclouds.scriptbuilder.statements.login.AdminAccess;
 
+import com.google.common.base.Function;
 import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Sets;
-import com.google.common.collect.Sets.SetView;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.assistedinject.Assisted;
 
 /**
  * An eager {@link NodePoolComputeService}. Eagerly builds and maintains a pool of nodes. It's only
  * "started" after min nodes are allocated and available.
+ * <p/>
+ * Pool state is kept in a {@link NodePoolIndex}, seeded from the backend when the pool starts, so
+ * assigning an idle node does not need to list the backend or load the metadata store. Once
+ * started, idle capacity is topped up in the background by a {@link NodePoolReplenisher}.
+ * <p/>
+ * When destroyed nodes are not removed, returned nodes are cleaned by the {@link NodeScrubber} on a
+ * bounded pool of worker threads before they become idle again. Nodes that fail scrubbing are
+ * quarantined, and destroyed unless configured otherwise.
+ * <p/>
+ * The backend inventory is refreshed periodically. Idle nodes that disappeared from the backend
+ * are then dropped from the pool, and the backend metadata of the others is updated.
+ * <p/>
+ * Allocations and releases are recorded in a {@link DemandHistory}, from which the
+ * {@link SizingPolicy} may raise the number of idle nodes kept ahead of expected demand.
  * 
  * @author David Alves
  * 
  */
-@Singleton
 public class EagerNodePoolComputeServiceAdapter extends BaseNodePoolComputeServiceAdapter {
 
    @Resource
@@ -64,108 +113,445 @@ public class EagerNodePoolComputeServiceAdapter extends BaseNodePoolComputeServi
    private final int maxSize;
    private final int minSize;
    private final boolean removeDestroyed;
+   private final boolean removeQuarantined;
+   private final NodeScrubber scrubber;
+   private final ListeningExecutorService scrubExecutor;
+   private final NodePoolIndex index;
+   private final ListeningExecutorService userExecutor;
+   private final ScheduledExecutorService scheduler;
+   private final int lowWatermark;
+   private final int highWatermark;
+   private final int replenishBatchSize;
+   private final int replenishConcurrency;
+   private final long replenishInterval;
+   private final long claimTimeout;
+   private final long inventoryRefreshInterval;
+   private final SizingPolicy sizingPolicy;
+   private final DemandHistory demandHistory;
+   private NodePoolReplenisher replenisher;
+   private ScheduledFuture<?> inventoryRefresh;
+
+   /**
+    * Creates pools that share the backend and the settings bound in the injector, each with its own
+    * backend template, backend group and sizing.
+    */
+   public static interface Factory {
+      EagerNodePoolComputeServiceAdapter create(Supplier<Template> backendTemplate, String poolGroupName,
+               @Assisted(MAX_SIZE) int maxSize, @Assisted(MIN_SIZE) int minSize,
+               @Assisted(LOW_WATERMARK) int lowWatermark, @Assisted(HIGH_WATERMARK) int highWatermark);
+   }
 
    @Inject
    public EagerNodePoolComputeServiceAdapter(@Backend Supplier<ComputeService> backendComputeService,
-            @Backend Supplier<Template> backendTemplate, @Named(BACKEND_GROUP) String poolGroupPrefix,
-            @Named(MAX_SIZE) int maxSize, @Named(MIN_SIZE) int minSize,
+            @Assisted Supplier<Template> backendTemplate, @Assisted String poolGroupPrefix,
+            @Assisted(MAX_SIZE) int maxSize, @Assisted(MIN_SIZE) int minSize,
             @Named(REMOVE_DESTROYED) boolean removeDestroyed, NodeMetadataStore storage,
-            @Named(POOL_ADMIN_ACCESS) String poolNodeAdminAccess, AdminAccess.Configuration configuration) {
-      super(backendComputeService, backendTemplate, poolGroupPrefix, storage, poolNodeAdminAccess, configuration);
+            @Named(POOL_ADMIN_ACCESS) String poolNodeAdminAccess, AdminAccess.Configuration configuration,
+            @Named(PROPERTY_USER_THREADS) ListeningExecutorService userExecutor,
+            @Named(PROPERTY_SCHEDULER_THREADS) ScheduledExecutorService scheduler,
+            @Assisted(LOW_WATERMARK) int lowWatermark, @Assisted(HIGH_WATERMARK) int highWatermark,
+            @Named(REPLENISH_BATCH_SIZE) int replenishBatchSize,
+            @Named(REPLENISH_CONCURRENCY) int replenishConcurrency,
+            @Named(REPLENISH_INTERVAL) long replenishInterval, @Named(CLAIM_TIMEOUT) long claimTimeout,
+            NodeScrubber scrubber, @Named(SCRUB_THREADS) int scrubThreads,
+            @Named(REMOVE_QUARANTINED) boolean removeQuarantined,
+            @Named(INVENTORY_REFRESH_INTERVAL) long inventoryRefreshInterval,
+            @Named(INVENTORY_MAX_STALENESS) long inventoryMaxStaleness, SizingPolicy sizingPolicy,
+            @Named(DEMAND_BUCKET) long demandBucket, @Named(DEMAND_HISTORY) long demandHistory,
+            NodePoolMetrics metrics) {
+      super(backendComputeService, backendTemplate, poolGroupPrefix, storage, poolNodeAdminAccess, configuration,
+               inventoryMaxStaleness, metrics);
       this.maxSize = maxSize;
       this.minSize = minSize;
       this.removeDestroyed = removeDestroyed;
+      this.index = new NodePoolIndex(maxSize, metrics);
+      this.userExecutor = userExecutor;
+      this.scheduler = scheduler;
+      this.lowWatermark = lowWatermark;
+      this.highWatermark = highWatermark;
+      this.replenishBatchSize = replenishBatchSize;
+      this.replenishConcurrency = replenishConcurrency;
+      this.replenishInterval = replenishInterval;
+      this.claimTimeout = claimTimeout;
+      this.scrubber = scrubber;
+      this.removeQuarantined = removeQuarantined;
+      this.inventoryRefreshInterval = inventoryRefreshInterval;
+      this.sizingPolicy = sizingPolicy;
+      this.demandHistory = new DemandHistory(demandBucket, TimeUnit.MILLISECONDS, (int) Math.max(1, demandHistory
+               / demandBucket));
+      this.scrubExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(scrubThreads,
+               new ThreadFactoryBuilder().setNameFormat("nodepool-scrubber-%d").setDaemon(true).build()));
    }
 
    @PostConstruct
    public void startEagerPool() {
-      Set<? extends NodeMetadata> backendNodes = getBackendNodes();
+      Set<NodeMetadata> backendNodes = getBackendNodes();
+      Set<String> assignedIds = ImmutableSet.copyOf(Iterables.transform(metadataStore.loadAll(backendNodes),
+               new Function<NodeMetadata, String>() {
+                  @Override
+                  public String apply(NodeMetadata input) {
+                     return input.getId();
+                  }
+               }));
+      for (NodeMetadata backendNode : backendNodes) {
+         if (assignedIds.contains(backendNode.getId())) {
+            index.addAssigned(backendNode);
+         } else {
+            index.addIdle(backendNode);
+         }
+      }
       int currentNodes = backendNodes.size();
       int newNodes = backendNodes.size() < minSize ? minSize - backendNodes.size() : 0;
       logger.info(
                ">> initializing nodepool [backend provider: %s]. [existing nodes: %s, min nodes: %s, allocating: %s ]",
                backendComputeService.get().getClass().getSimpleName(), currentNodes, minSize, newNodes);
-      if (backendNodes.size() < minSize) {
-         addToPool(minSize - backendNodes.size());
+      if (newNodes > 0) {
+         growPool(newNodes);
+      }
+      replenisher = new NodePoolReplenisher(index, new Function<Integer, Set<? extends NodeMetadata>>() {
+         @Override
+         public Set<? extends NodeMetadata> apply(Integer count) {
+            return addToPool(count);
+         }
+      }, userExecutor, scheduler, logger, minSize, lowWatermark, highWatermark, replenishBatchSize,
+               replenishConcurrency, new Supplier<Integer>() {
+                  @Override
+                  public Integer get() {
+                     return sizingPolicy.idleTarget(demandHistory);
+                  }
+               });
+      replenisher.start(replenishInterval, TimeUnit.MILLISECONDS);
+      replenisher.replenish();
+      if (inventoryRefreshInterval > 0) {
+         inventoryRefresh = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  refreshInventory();
+               } catch (RuntimeException e) {
+                  logger.error(e, "could not refresh the backend inventory of pool %s", poolGroupName);
+               }
+            }
+         }, inventoryRefreshInterval, inventoryRefreshInterval, TimeUnit.MILLISECONDS);
       }
       logger.info("<< pool initialized.");
    }
 
+   @PreDestroy
+   public void stopEagerPool() {
+      if (inventoryRefresh != null) {
+         inventoryRefresh.cancel(false);
+      }
+      if (replenisher != null) {
+         replenisher.stop();
+      }
+      scrubExecutor.shutdownNow();
+   }
+
    @Override
    public NodeWithInitialCredentials createNodeWithGroupEncodedIntoName(String group, String name, Template template) {
-      int count = 1;
-      synchronized (this) {
-         TemplateOptions options = template.getOptions().clone();
-
-         // if no user is provided we set the pool's user
-         if (options.getLoginUser() == null) {
-            options.overrideLoginCredentials(LoginCredentials.fromCredentials(checkNotNull(initialCredentialsBuilder
-                     .build().getAdminCredentials())));
-         }
-
-         logger.info(">> assigning pool node to frontend group %s", group);
-         Set<NodeMetadata> backendNodes = getBackendNodes();
-         checkState(!backendNodes.isEmpty());
-         Set<NodeMetadata> frontendNodes = metadataStore.loadAll(backendNodes);
-         checkState(frontendNodes.size() + count <= maxSize,
-                  "cannot add more nodes to pool [requested: %s, current: %s, max: %s]", count, frontendNodes.size(),
-                  maxSize);
-
-         SetView<NodeMetadata> availableNodes = Sets.difference(backendNodes, frontendNodes);
-
-         if (availableNodes.size() < 1) {
-            if (backendNodes.size() < maxSize && backendNodes.size() + count <= maxSize) {
-               logger.info(
-                        ">> all pool nodes are assigned, requiring additional nodes [requested: %s, current: %s, next: %s, max: %s]",
-                        count, frontendNodes.size(), frontendNodes.size() + 1, maxSize);
-               addToPool(count);
-               // update backend and available sets, no need to update frontend
-               backendNodes = getBackendNodes();
-               availableNodes = Sets.difference(backendNodes, frontendNodes);
-               logger.info("<< additional nodes added to the pool and ready");
-            } else {
-               logger.error("maximum pool size reached (%s)", maxSize);
-               throw new IllegalStateException(String.format("maximum pool size reached (%s)", maxSize));
-            }
+      TemplateOptions options = frontendOptions(template);
+      logger.info(">> assigning pool node to frontend group %s", group);
+      long start = System.nanoTime();
+      demandHistory.recordAllocation();
+      NodeMetadata userNode = index.claim();
+      try {
+         if (userNode == null) {
+            userNode = awaitIdleNode();
          }
-         NodeMetadata userNode = Iterables.get(availableNodes, 0);
+      } catch (RuntimeException e) {
+         metrics.count(Event.CLAIM_FAILED);
+         throw e;
+      }
+      replenisher.replenish();
+      try {
          NodeMetadata node = metadataStore.store(userNode, options, group);
+         metrics.recordLatency(Operation.CLAIM, start);
+         metrics.count(Event.NODE_ASSIGNED);
          logger.info("pool node assigned");
          return new NodeWithInitialCredentials(node);
+      } catch (RuntimeException e) {
+         metrics.count(Event.CLAIM_FAILED);
+         index.makeIdle(userNode.getId());
+         throw e;
       }
    }
 
    @Override
-   public synchronized void destroyNode(String id) {
-      checkState(getNode(id) != null);
-      logger.info(">> destroying node %s", id);
-      metadataStore.deleteMapping(id);
-      if (removeDestroyed) {
-         backendComputeService.get().destroyNode(id);
-         if (currentSize() < minSize) {
-            logger.info(">> policy is remove destroyed node and pool "
-                     + "would fall below minsize, replacing node with id %s", id);
-            Set<? extends NodeMetadata> replacement = addToPool(1);
-            logger.info("<< node %s replaced with %s", id, Iterables.getOnlyElement(replacement));
+   public Iterable<NodeWithInitialCredentials> createNodesInGroup(String group, int count, Template template) {
+      checkArgument(count > 0, "count must be positive");
+      TemplateOptions options = frontendOptions(template);
+      logger.info(">> assigning %s pool nodes to frontend group %s", count, group);
+      long start = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+         demandHistory.recordAllocation();
+      }
+      List<NodeMetadata> claimed = index.claim(count);
+      int shortfall = count - claimed.size();
+      if (shortfall > 0) {
+         if (!index.reserve(shortfall)) {
+            metrics.count(Event.CLAIM_FAILED);
+            release(claimed);
+            logger.error("maximum pool size reached (%s)", maxSize);
+            throw new IllegalStateException(String.format("cannot grow the pool by %s nodes, maximum pool size "
+                     + "reached (%s)", shortfall, maxSize));
+         }
+         logger.info(">> %s idle nodes claimed, provisioning the remaining %s", claimed.size(), shortfall);
+         try {
+            for (NodeMetadata created : addToPool(shortfall)) {
+               index.addAssigned(created);
+               claimed.add(created);
+            }
+         } catch (RuntimeException e) {
+            metrics.count(Event.CLAIM_FAILED);
+            release(claimed);
+            throw e;
+         } finally {
+            index.unreserve(shortfall);
          }
       }
-      // TODO we should allow the user to hook a way to "clean" the node
-      else {
+      replenisher.replenish();
+      try {
+         Set<NodeMetadata> nodes = metadataStore.storeAll(claimed, options, group);
+         metrics.recordLatency(Operation.CLAIM, start);
+         metrics.count(Event.NODE_ASSIGNED, nodes.size());
+         logger.info("<< %s pool nodes assigned", nodes.size());
+         return Iterables.transform(ImmutableList.copyOf(nodes),
+                  new Function<NodeMetadata, NodeWithInitialCredentials>() {
+                     @Override
+                     public NodeWithInitialCredentials apply(NodeMetadata input) {
+                        return new NodeWithInitialCredentials(input);
+                     }
+                  });
+      } catch (RuntimeException e) {
+         metrics.count(Event.CLAIM_FAILED);
+         release(claimed);
+         throw e;
+      }
+   }
+
+   /**
+    * Returns nodes claimed for a frontend group that could not be assigned to the idle set.
+    */
+   private void release(Iterable<NodeMetadata> claimed) {
+      for (NodeMetadata node : claimed) {
+         index.makeIdle(node.getId());
+      }
+   }
+
+   private TemplateOptions frontendOptions(Template template) {
+      TemplateOptions options = template.getOptions().clone();
+
+      // if no user is provided we set the pool's user
+      if (options.getLoginUser() == null) {
+         options.overrideLoginCredentials(LoginCredentials.fromCredentials(checkNotNull(initialCredentialsBuilder
+                  .build().getAdminCredentials())));
+      }
+      return options;
+   }
 
+   @Override
+   public void destroyNode(String id) {
+      if (!index.unassign(id)) {
+         logger.warn("node %s is not assigned to a frontend group, ignoring", id);
+         return;
+      }
+      logger.info(">> destroying node %s", id);
+      long start = System.nanoTime();
+      try {
+         metadataStore.deleteMapping(id);
+      } catch (RuntimeException e) {
+         // the mapping is still there, so the node still belongs to its frontend group
+         index.reassign(id);
+         throw e;
+      }
+      demandHistory.recordRelease();
+      metrics.count(Event.NODE_RELEASED);
+      try {
+         if (removeDestroyed) {
+            metrics.countBackendCall("destroyNode");
+            backendComputeService.get().destroyNode(id);
+            inventory.remove(id);
+            index.remove(id);
+            if (replenisher.needsReplenishing()) {
+               logger.info(">> policy is remove destroyed node and pool "
+                        + "fell below its watermarks, replenishing in the background after removing node %s", id);
+               replenisher.replenish();
+            }
+         }
+         else {
+            recycle(id);
+         }
+      } catch (RuntimeException e) {
+         // unassigned but in an unknown state, keep it out of the idle set
+         if (index.quarantine(id)) {
+            metrics.count(Event.NODE_QUARANTINED);
+            logger.error(e, "could not destroy node %s, quarantining it", id);
+         }
+         throw e;
       }
+      metrics.recordLatency(Operation.DESTROY, start);
       logger.info("<< node destroyed %s", id);
    }
 
+   /**
+    * Scrubs a released node in the background, then returns it to the idle set or quarantines it.
+    */
+   private void recycle(final String id) {
+      checkState(index.scrub(id), "node %s is not being released", id);
+      final NodeMetadata backendNode = index.get(id);
+      ListenableFuture<Boolean> scrubbed = scrubExecutor.submit(new Callable<Boolean>() {
+         @Override
+         public Boolean call() {
+            long start = System.nanoTime();
+            try {
+               return scrubber.scrub(backendNode);
+            } finally {
+               metrics.recordLatency(Operation.SCRUB, start);
+            }
+         }
+      });
+      Futures.addCallback(scrubbed, new FutureCallback<Boolean>() {
+         @Override
+         public void onSuccess(Boolean clean) {
+            if (clean) {
+               index.makeIdle(id);
+               logger.debug("<< node %s scrubbed and returned to the pool", id);
+            } else {
+               quarantine(id, null);
+            }
+         }
+
+         @Override
+         public void onFailure(Throwable t) {
+            quarantine(id, t);
+         }
+      });
+   }
+
+   private void quarantine(String id, Throwable cause) {
+      if (!index.quarantine(id)) {
+         return;
+      }
+      metrics.count(Event.NODE_QUARANTINED);
+      if (cause != null) {
+         logger.error(cause, "could not scrub node %s, quarantining it", id);
+      } else {
+         logger.warn("node %s failed scrubbing, quarantining it", id);
+      }
+      if (removeQuarantined) {
+         try {
+            metrics.countBackendCall("destroyNode");
+            backendComputeService.get().destroyNode(id);
+            inventory.remove(id);
+            index.remove(id);
+            logger.info("<< quarantined node %s destroyed", id);
+         } catch (RuntimeException e) {
+            logger.error(e, "could not destroy quarantined node %s", id);
+         }
+         replenisher.replenish();
+      }
+   }
+
+   /**
+    * Lists the backend, then drops idle nodes that no longer exist from the pool.
+    */
+   void refreshInventory() {
+      inventory.refresh();
+      boolean removed = false;
+      for (String id : index.ids()) {
+         NodeMetadata backendNode = inventory.get(id);
+         if (backendNode != null) {
+            index.update(backendNode);
+         } else if (index.remove(id, State.IDLE) != null) {
+            logger.warn("idle node %s is no longer in the backend, removing it from the pool", id);
+            removed = true;
+         }
+      }
+      if (removed) {
+         replenisher.replenish();
+      }
+   }
+
+   private NodeMetadata awaitIdleNode() {
+      if (index.remainingCapacity() == 0 && index.reserved() == 0 && index.count(State.RELEASING) == 0
+               && index.count(State.SCRUBBING) == 0) {
+         logger.error("maximum pool size reached (%s)", maxSize);
+         throw new IllegalStateException(String.format("maximum pool size reached (%s)", maxSize));
+      }
+      logger.info(">> all pool nodes are assigned, waiting for the replenisher [current: %s, max: %s]",
+               index.size(), maxSize);
+      replenisher.replenish(1);
+      try {
+         NodeMetadata node = index.claim(claimTimeout, TimeUnit.MILLISECONDS);
+         if (node == null) {
+            throw new IllegalStateException(String.format("no pool node became available within %sms",
+                     claimTimeout));
+         }
+         logger.info("<< additional nodes added to the pool and ready");
+         return node;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw Throwables.propagate(e);
+      }
+   }
+
+   /**
+    * Provisions idle nodes, within the pool's maximum size.
+    */
+   protected Set<? extends NodeMetadata> growPool(int count) {
+      checkState(index.reserve(count), "cannot add more nodes to pool [requested: %s, current: %s, max: %s]", count,
+               index.size(), maxSize);
+      try {
+         Set<? extends NodeMetadata> added = addToPool(count);
+         for (NodeMetadata node : added) {
+            index.addIdle(node);
+         }
+         return added;
+      } finally {
+         index.unreserve(count);
+      }
+   }
+
+   @Override
+   protected void adoptNodes(Set<? extends NodeMetadata> nodes) {
+      logger.warn("keeping %s nodes of a failed provisioning as idle", nodes.size());
+      for (NodeMetadata node : nodes) {
+         index.addIdle(node);
+      }
+   }
+
+   @Override
+   public void destroyPool() {
+      replenisher.stop();
+      super.destroyPool();
+      for (String id : index.ids()) {
+         index.remove(id);
+      }
+   }
+
+   /**
+    * The allocations and releases of this pool.
+    */
+   public DemandHistory getDemandHistory() {
+      return demandHistory;
+   }
+
+   /**
+    * Whether the backend node is in this pool, in any state.
+    */
+   public boolean contains(String id) {
+      return index.getState(id) != null;
+   }
+
    @Override
    public int currentSize() {
-      return getBackendNodes().size();
+      return index.size();
    }
 
    @Override
    public int idleNodes() {
-      Set<NodeMetadata> backendNodes = getBackendNodes();
-      Set<NodeMetadata> frontendNodes = metadataStore.loadAll(backendNodes);
-      return backendNodes.size() - frontendNodes.size();
+      return index.count(State.IDLE);
    }
 
    @Override
@@ -180,7 +566,7 @@ public class EagerNodePoolComputeServiceAdapter extends BaseNodePoolComputeServi
 
    @Override
    public int usedNodes() {
-      return metadataStore.loadAll(getBackendNodes()).size();
+      return index.count(State.ASSIGNED);
    }
 
 }
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.jclouds.nodepool.config.NodePoolProperties.SIZING_EWMA_ALPHA;
+import static org.jclouds.nodepool.config.NodePoolProperties.SIZING_LEAD_TIME;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.jclouds.nodepool.DemandHistory;
+import org.jclouds.nodepool.SizingPolicy;
+
+/**
+ * Keeps enough idle nodes for the allocations expected during the lead time, at the exponentially
+ * weighted moving average of the recent allocation rate.
+ */
+@Singleton
+public class EwmaSizingPolicy implements SizingPolicy {
+
+   private final double alpha;
+   private final long leadTime;
+   // older buckets weigh less than 1% of the average
+   private final int window;
+
+   @Inject
+   EwmaSizingPolicy(@Named(SIZING_EWMA_ALPHA) double alpha, @Named(SIZING_LEAD_TIME) long leadTime) {
+      checkArgument(alpha > 0 && alpha <= 1, "alpha must be in (0, 1]");
+      this.alpha = alpha;
+      this.leadTime = leadTime;
+      this.window = alpha == 1 ? 1 : (int) Math.ceil(Math.log(0.01) / Math.log(1 - alpha));
+   }
+
+   @Override
+   public int idleTarget(DemandHistory history) {
+      // the current bucket is not complete yet
+      int oldest = Math.min(window, history.size() - 1);
+      double rate = history.allocations(oldest);
+      for (int bucketsAgo = oldest - 1; bucketsAgo > 0; bucketsAgo--) {
+         rate = alpha * history.allocations(bucketsAgo) + (1 - alpha) * rate;
+      }
+      return (int) Math.ceil(rate * history.buckets(leadTime, TimeUnit.MILLISECONDS));
+   }
+
+}
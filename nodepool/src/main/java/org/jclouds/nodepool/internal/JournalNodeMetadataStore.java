@@ -0,0 +1,525 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.jclouds.Constants.PROPERTY_SCHEDULER_THREADS;
+import static org.jclouds.nodepool.config.NodePoolProperties.BASEDIR;
+import static org.jclouds.nodepool.config.NodePoolProperties.JOURNAL_FLUSH_INTERVAL;
+import static org.jclouds.nodepool.config.NodePoolProperties.METADATA_CONTAINER;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.jclouds.compute.options.TemplateOptions;
+import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.domain.LoginCredentials;
+import org.jclouds.logging.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+/**
+ * An implementation of {@link NodeMetadataStore} that keeps all mappings in memory and persists
+ * them to a single append-only journal file.
+ * <p/>
+ * Every change is appended as a checksummed binary record to a memory-mapped region of the
+ * journal, so it survives a crash of the process as soon as it is stored. The journal is forced to
+ * disk in batches, every {@link org.jclouds.nodepool.config.NodePoolProperties#JOURNAL_FLUSH_INTERVAL
+ * flush interval}, and rewritten with only the live mappings once it has grown to twice their
+ * size. The journal is replayed once, when the store is created, up to the first incomplete or
+ * corrupt record.
+ */
+@Singleton
+public class JournalNodeMetadataStore implements NodeMetadataStore {
+
+   private static final byte PUT = 1;
+   private static final byte DELETE = 2;
+   private static final byte CLEAR = 3;
+
+   // record length and crc
+   private static final int HEADER_SIZE = 8;
+   private static final int MIN_CAPACITY = 1024 * 1024;
+
+   @Resource
+   @Named(ComputeServiceConstants.COMPUTE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final File journal;
+   private final ConcurrentMap<String, StoredMapping> mappings = Maps.newConcurrentMap();
+   private final ScheduledFuture<?> flusher;
+
+   // guarded by this
+   private RandomAccessFile file;
+   private MappedByteBuffer buffer;
+   private int position;
+   private long liveBytes;
+   private boolean dirty;
+
+   private static class StoredMapping {
+      private final String group;
+      private final Set<String> tags;
+      private final Map<String, String> userMetadata;
+      private final String user;
+      private final String password;
+      private final String privateKey;
+      private final boolean authenticateSudo;
+      private final int recordSize;
+
+      private StoredMapping(String group, Set<String> tags, Map<String, String> userMetadata, String user,
+               String password, String privateKey, boolean authenticateSudo, int recordSize) {
+         this.group = group;
+         this.tags = tags;
+         this.userMetadata = userMetadata;
+         this.user = user;
+         this.password = password;
+         this.privateKey = privateKey;
+         this.authenticateSudo = authenticateSudo;
+         this.recordSize = recordSize;
+      }
+
+      private StoredMapping withRecordSize(int recordSize) {
+         return new StoredMapping(group, tags, userMetadata, user, password, privateKey, authenticateSudo,
+                  recordSize);
+      }
+   }
+
+   @Inject
+   public JournalNodeMetadataStore(@Named(BASEDIR) String basedir, @Named(METADATA_CONTAINER) String container,
+            @Named(PROPERTY_SCHEDULER_THREADS) ScheduledExecutorService scheduler,
+            @Named(JOURNAL_FLUSH_INTERVAL) long flushInterval) {
+      File dir = new File(basedir);
+      dir.mkdirs();
+      this.journal = new File(dir, container + ".journal");
+      try {
+         replay(open());
+      } catch (IOException e) {
+         throw Throwables.propagate(e);
+      }
+      this.flusher = scheduler.scheduleWithFixedDelay(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               flush();
+            } catch (RuntimeException e) {
+               logger.error(e, "could not flush node metadata journal %s", journal);
+            }
+         }
+      }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+   }
+
+   @Override
+   public NodeMetadata store(NodeMetadata backendNodeMetadata, TemplateOptions userOptions, String userGroup) {
+      checkNotNull(backendNodeMetadata);
+      StoredMapping mapping = toMapping(userOptions, userGroup);
+      String id = backendNodeMetadata.getId();
+      byte[] record = encodePut(id, mapping);
+      synchronized (this) {
+         append(record);
+         put(id, mapping.withRecordSize(HEADER_SIZE + record.length));
+      }
+      return buildFromMappingAndBackendMetadata(backendNodeMetadata, mapping);
+   }
+
+   @Override
+   public Set<NodeMetadata> storeAll(Iterable<NodeMetadata> backendNodes, TemplateOptions userOptions,
+            String userGroup) {
+      StoredMapping mapping = toMapping(userOptions, userGroup);
+      Map<String, byte[]> records = Maps.newLinkedHashMap();
+      Set<NodeMetadata> storedSet = Sets.newLinkedHashSet();
+      for (NodeMetadata backendNodeMetadata : backendNodes) {
+         records.put(backendNodeMetadata.getId(), encodePut(backendNodeMetadata.getId(), mapping));
+         storedSet.add(buildFromMappingAndBackendMetadata(backendNodeMetadata, mapping));
+      }
+      synchronized (this) {
+         for (Map.Entry<String, byte[]> record : records.entrySet()) {
+            append(record.getValue());
+            put(record.getKey(), mapping.withRecordSize(HEADER_SIZE + record.getValue().length));
+         }
+      }
+      return storedSet;
+   }
+
+   private static StoredMapping toMapping(TemplateOptions userOptions, String userGroup) {
+      checkNotNull(userGroup);
+      checkNotNull(userOptions);
+      checkNotNull(userOptions.getLoginUser());
+      checkState(userOptions.getLoginPassword() != null || userOptions.getLoginPrivateKey() != null);
+      return new StoredMapping(userGroup, ImmutableSet.copyOf(userOptions.getTags()),
+               ImmutableMap.copyOf(userOptions.getUserMetadata()), userOptions.getLoginUser(),
+               userOptions.getLoginPassword(), userOptions.getLoginPrivateKey(),
+               userOptions.shouldAuthenticateSudo() != null ? userOptions.shouldAuthenticateSudo().booleanValue()
+                        : false, 0);
+   }
+
+   @Override
+   public NodeMetadata load(NodeMetadata backendNodeMetadata) {
+      StoredMapping mapping = mappings.get(checkNotNull(backendNodeMetadata).getId());
+      if (mapping == null) {
+         return null;
+      }
+      return buildFromMappingAndBackendMetadata(backendNodeMetadata, mapping);
+   }
+
+   @Override
+   public Set<NodeMetadata> loadAll(Set<NodeMetadata> backendNodes) {
+      if (backendNodes == null || backendNodes.isEmpty()) {
+         return ImmutableSet.of();
+      }
+      Set<NodeMetadata> loadedSet = Sets.newLinkedHashSet();
+      for (NodeMetadata input : backendNodes) {
+         NodeMetadata loaded = load(input);
+         if (loaded != null) {
+            loadedSet.add(loaded);
+         }
+      }
+      return loadedSet;
+   }
+
+   @Override
+   public void deleteMapping(String backendNodeId) {
+      byte[] record = encodeDelete(backendNodeId);
+      synchronized (this) {
+         append(record);
+         remove(backendNodeId);
+      }
+   }
+
+   @Override
+   public void deleteAllMappings() {
+      byte[] record = encodeClear();
+      synchronized (this) {
+         append(record);
+         mappings.clear();
+         liveBytes = 0;
+      }
+   }
+
+   /**
+    * Forces pending writes to disk, and compacts the journal if it has grown to twice the size of
+    * the live mappings.
+    */
+   public void flush() {
+      MappedByteBuffer pending;
+      synchronized (this) {
+         checkState(file != null, "journal %s is closed", journal);
+         pending = dirty ? buffer : null;
+         dirty = false;
+      }
+      // forcing ignores the buffer position, so stores keep appending while the pages are written
+      if (pending != null) {
+         try {
+            pending.force();
+         } catch (RuntimeException e) {
+            synchronized (this) {
+               dirty = true;
+            }
+            throw e;
+         }
+      }
+      synchronized (this) {
+         if (file != null && position > MIN_CAPACITY && position > 2 * liveBytes) {
+            compact();
+         }
+      }
+   }
+
+   @PreDestroy
+   public synchronized void close() {
+      if (file == null) {
+         return;
+      }
+      flusher.cancel(false);
+      buffer.force();
+      closeQuietly();
+   }
+
+   private void put(String id, StoredMapping mapping) {
+      StoredMapping previous = mappings.put(id, mapping);
+      liveBytes += mapping.recordSize - (previous != null ? previous.recordSize : 0);
+   }
+
+   private void remove(String id) {
+      StoredMapping previous = mappings.remove(id);
+      if (previous != null) {
+         liveBytes -= previous.recordSize;
+      }
+   }
+
+   /**
+    * Rewrites the journal with a single record per live mapping.
+    */
+   synchronized void compact() {
+      File compacted = new File(journal.getPath() + ".compact");
+      try {
+         int size = 0;
+         FileOutputStream fileOut = new FileOutputStream(compacted);
+         try {
+            BufferedOutputStream out = new BufferedOutputStream(fileOut);
+            for (Map.Entry<String, StoredMapping> entry : mappings.entrySet()) {
+               byte[] record = encodePut(entry.getKey(), entry.getValue());
+               out.write(header(record));
+               out.write(record);
+               size += HEADER_SIZE + record.length;
+            }
+            out.flush();
+            fileOut.getFD().sync();
+         } finally {
+            fileOut.close();
+         }
+         logger.debug(">> compacting node metadata journal %s [from: %s bytes, to: %s bytes]", journal, position,
+                  size);
+         closeQuietly();
+         Files.move(compacted, journal);
+         open();
+         position = size;
+         liveBytes = size;
+         dirty = false;
+      } catch (IOException e) {
+         throw Throwables.propagate(e);
+      }
+   }
+
+   private int open() throws IOException {
+      file = new RandomAccessFile(journal, "rw");
+      int length = (int) file.length();
+      map(Math.max(MIN_CAPACITY, length));
+      return length;
+   }
+
+   private void map(int capacity) throws IOException {
+      buffer = file.getChannel().map(MapMode.READ_WRITE, 0, capacity);
+   }
+
+   private void closeQuietly() {
+      try {
+         file.close();
+      } catch (IOException e) {
+         logger.warn(e, "could not close node metadata journal %s", journal);
+      }
+      file = null;
+      buffer = null;
+   }
+
+   private void append(byte[] record) {
+      checkState(file != null, "journal %s is closed", journal);
+      int end = position + HEADER_SIZE + record.length;
+      try {
+         if (end > buffer.capacity()) {
+            map(Math.max(end, buffer.capacity() * 2));
+         }
+      } catch (IOException e) {
+         throw Throwables.propagate(e);
+      }
+      buffer.position(position + 4);
+      buffer.putInt(crc(record));
+      buffer.put(record);
+      // the length goes last, so a record interrupted halfway reads as the end of the journal
+      buffer.putInt(position, record.length);
+      position = end;
+      dirty = true;
+   }
+
+   private synchronized void replay(int length) throws IOException {
+      int offset = 0;
+      while (offset + HEADER_SIZE <= length) {
+         int recordLength = buffer.getInt(offset);
+         if (recordLength <= 0 || offset + HEADER_SIZE + recordLength > length) {
+            break;
+         }
+         int crc = buffer.getInt(offset + 4);
+         byte[] record = new byte[recordLength];
+         buffer.position(offset + HEADER_SIZE);
+         buffer.get(record);
+         if (crc(record) != crc) {
+            logger.warn("corrupt record in node metadata journal %s at offset %s, ignoring the rest", journal, offset);
+            break;
+         }
+         apply(record);
+         offset += HEADER_SIZE + recordLength;
+      }
+      position = offset;
+      // wipe whatever is left of an incomplete write so it cannot be mistaken for a record later
+      if (offset + HEADER_SIZE <= length && (buffer.getInt(offset) != 0 || buffer.getInt(offset + 4) != 0)) {
+         for (int i = offset; i < length; i++) {
+            buffer.put(i, (byte) 0);
+         }
+      }
+      logger.debug("<< replayed node metadata journal %s [mappings: %s, bytes: %s]", journal, mappings.size(),
+               offset);
+   }
+
+   private void apply(byte[] record) throws IOException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+      byte op = in.readByte();
+      switch (op) {
+         case PUT:
+            String id = readString(in);
+            put(id, decodeMapping(in, HEADER_SIZE + record.length));
+            break;
+         case DELETE:
+            remove(readString(in));
+            break;
+         case CLEAR:
+            mappings.clear();
+            liveBytes = 0;
+            break;
+         default:
+            throw new IOException("unknown journal operation " + op);
+      }
+   }
+
+   private static byte[] encodePut(String id, StoredMapping mapping) {
+      try {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+         DataOutputStream out = new DataOutputStream(bytes);
+         out.writeByte(PUT);
+         writeString(out, id);
+         writeString(out, mapping.group);
+         out.writeInt(mapping.tags.size());
+         for (String tag : mapping.tags) {
+            writeString(out, tag);
+         }
+         out.writeInt(mapping.userMetadata.size());
+         for (Map.Entry<String, String> entry : mapping.userMetadata.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+         }
+         writeString(out, mapping.user);
+         writeString(out, mapping.password);
+         writeString(out, mapping.privateKey);
+         out.writeBoolean(mapping.authenticateSudo);
+         return bytes.toByteArray();
+      } catch (IOException e) {
+         throw Throwables.propagate(e);
+      }
+   }
+
+   private static StoredMapping decodeMapping(DataInputStream in, int recordSize) throws IOException {
+      String group = readString(in);
+      int tagCount = in.readInt();
+      ImmutableSet.Builder<String> tags = ImmutableSet.builder();
+      for (int i = 0; i < tagCount; i++) {
+         tags.add(readString(in));
+      }
+      int metadataCount = in.readInt();
+      ImmutableMap.Builder<String, String> userMetadata = ImmutableMap.builder();
+      for (int i = 0; i < metadataCount; i++) {
+         userMetadata.put(readString(in), readString(in));
+      }
+      String user = readString(in);
+      String password = readString(in);
+      String privateKey = readString(in);
+      boolean authenticateSudo = in.readBoolean();
+      return new StoredMapping(group, tags.build(), userMetadata.build(), user, password, privateKey,
+               authenticateSudo, recordSize);
+   }
+
+   private static byte[] encodeDelete(String id) {
+      try {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+         DataOutputStream out = new DataOutputStream(bytes);
+         out.writeByte(DELETE);
+         writeString(out, id);
+         return bytes.toByteArray();
+      } catch (IOException e) {
+         throw Throwables.propagate(e);
+      }
+   }
+
+   private static byte[] encodeClear() {
+      return new byte[] { CLEAR };
+   }
+
+   // strings are length prefixed, -1 for null, as private keys can exceed the modified UTF-8 limit
+   private static void writeString(DataOutputStream out, String value) throws IOException {
+      if (value == null) {
+         out.writeInt(-1);
+      } else {
+         byte[] bytes = value.getBytes(Charsets.UTF_8);
+         out.writeInt(bytes.length);
+         out.write(bytes);
+      }
+   }
+
+   private static String readString(DataInputStream in) throws IOException {
+      int length = in.readInt();
+      if (length < 0) {
+         return null;
+      }
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return new String(bytes, Charsets.UTF_8);
+   }
+
+   private static byte[] header(byte[] record) {
+      int crc = crc(record);
+      return new byte[] { (byte) (record.length >>> 24), (byte) (record.length >>> 16),
+               (byte) (record.length >>> 8), (byte) record.length, (byte) (crc >>> 24), (byte) (crc >>> 16),
+               (byte) (crc >>> 8), (byte) crc };
+   }
+
+   private static int crc(byte[] record) {
+      CRC32 crc = new CRC32();
+      crc.update(record);
+      return (int) crc.getValue();
+   }
+
+   private NodeMetadata buildFromMappingAndBackendMetadata(NodeMetadata backendNodeMetadata, StoredMapping mapping) {
+      return NodeMetadataBuilder
+               .fromNodeMetadata(backendNodeMetadata)
+               .tags(mapping.tags)
+               .group(mapping.group)
+               .userMetadata(mapping.userMetadata)
+               .credentials(LoginCredentials.builder()
+                                            .user(mapping.user)
+                                            .privateKey(mapping.privateKey)
+                                            .password(mapping.password)
+                                            .authenticateSudo(mapping.authenticateSudo).build()).build();
+   }
+
+}
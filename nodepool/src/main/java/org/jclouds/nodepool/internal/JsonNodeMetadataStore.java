@@ -36,6 +36,7 @@ import org.jclouds.util.Strings2;
 import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -72,6 +73,27 @@ public class JsonNodeMetadataStore implements NodeMetadataStore {
    @Override
    public NodeMetadata store(NodeMetadata backendNodeMetadata, TemplateOptions userOptions, String userGroup) {
       checkNotNull(backendNodeMetadata);
+      JsonUserNodeMetadata jsonMetadata = toJsonMetadata(userOptions, userGroup);
+      storage.get().put(backendNodeMetadata.getId(), Strings2.toInputStream(json.toJson(jsonMetadata)));
+      return buildFromJsonAndBackendMetadata(backendNodeMetadata, jsonMetadata);
+   }
+
+   @Override
+   public Set<NodeMetadata> storeAll(Iterable<NodeMetadata> backendNodes, TemplateOptions userOptions,
+            String userGroup) {
+      JsonUserNodeMetadata jsonMetadata = toJsonMetadata(userOptions, userGroup);
+      String jsonMetadataAsString = json.toJson(jsonMetadata);
+      Map<String, InputStream> batch = Maps.newLinkedHashMap();
+      Set<NodeMetadata> storedSet = Sets.newLinkedHashSet();
+      for (NodeMetadata backendNodeMetadata : backendNodes) {
+         batch.put(backendNodeMetadata.getId(), Strings2.toInputStream(jsonMetadataAsString));
+         storedSet.add(buildFromJsonAndBackendMetadata(backendNodeMetadata, jsonMetadata));
+      }
+      storage.get().putAll(batch);
+      return storedSet;
+   }
+
+   private JsonUserNodeMetadata toJsonMetadata(TemplateOptions userOptions, String userGroup) {
       checkNotNull(userGroup);
       checkNotNull(userOptions);
       checkNotNull(userOptions.getLoginUser());
@@ -85,8 +107,7 @@ public class JsonNodeMetadataStore implements NodeMetadataStore {
       jsonMetadata.userMetadata = userOptions.getUserMetadata();
       jsonMetadata.tags = userOptions.getTags();
       jsonMetadata.group = userGroup;
-      storage.get().put(backendNodeMetadata.getId(), Strings2.toInputStream(json.toJson(jsonMetadata)));
-      return buildFromJsonAndBackendMetadata(backendNodeMetadata, jsonMetadata);
+      return jsonMetadata;
    }
 
    @Override
@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.jclouds.nodepool.config.NodePoolProperties.BACKEND_GROUP;
+import static org.jclouds.nodepool.config.NodePoolProperties.HIGH_WATERMARK;
+import static org.jclouds.nodepool.config.NodePoolProperties.LOW_WATERMARK;
+import static org.jclouds.nodepool.config.NodePoolProperties.MAX_SIZE;
+import static org.jclouds.nodepool.config.NodePoolProperties.MIN_SIZE;
+import static org.jclouds.nodepool.config.NodePoolProperties.POOLS;
+import static org.jclouds.nodepool.config.NodePoolProperties.POOL_PREFIX;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.ComputeServiceContext;
+import org.jclouds.compute.domain.Hardware;
+import org.jclouds.compute.domain.Image;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.Template;
+import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.domain.Location;
+import org.jclouds.internal.FilterStringsBoundToInjectorByName;
+import org.jclouds.logging.Logger;
+import org.jclouds.nodepool.Backend;
+import org.jclouds.nodepool.NodePoolComputeServiceAdapter;
+import org.jclouds.util.Predicates2;
+
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * A {@link NodePoolComputeService} made of several named {@link EagerNodePoolComputeServiceAdapter
+ * sub-pools}, each built from its own backend template, in its own backend group, and with its own
+ * sizing.
+ * <p/>
+ * Node requests go to the sub-pool whose template has the requested image, hardware and location.
+ * Requests no sub-pool serves exactly are rejected, rather than served with other hardware or in
+ * another location.
+ * <p/>
+ * Sub-pools are created by an injected {@link EagerNodePoolComputeServiceAdapter.Factory}, so they
+ * are started and stopped with the context, like a single pool.
+ *
+ * @see org.jclouds.nodepool.config.NodePoolProperties#POOLS
+ */
+@Singleton
+public class MultiNodePoolComputeServiceAdapter implements NodePoolComputeServiceAdapter {
+
+   @Resource
+   @Named(ComputeServiceConstants.COMPUTE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final Supplier<ComputeService> backendComputeService;
+   private final String poolGroupName;
+   // in configuration order, the first pool matching a request takes it
+   private final Map<String, EagerNodePoolComputeServiceAdapter> pools;
+
+   @Inject
+   public MultiNodePoolComputeServiceAdapter(@Backend final Supplier<ComputeService> backendComputeService,
+            @Named(BACKEND_GROUP) String poolGroupPrefix, @Named(POOLS) String poolNames,
+            FilterStringsBoundToInjectorByName filterStringsBoundByName, @Named(MAX_SIZE) int maxSize,
+            @Named(MIN_SIZE) int minSize, @Named(LOW_WATERMARK) int lowWatermark,
+            @Named(HIGH_WATERMARK) int highWatermark, EagerNodePoolComputeServiceAdapter.Factory poolFactory) {
+      this.backendComputeService = backendComputeService;
+      this.poolGroupName = poolGroupPrefix;
+      Map<String, String> properties = filterStringsBoundByName.apply(Predicates2.startsWith(POOL_PREFIX));
+      ImmutableMap.Builder<String, EagerNodePoolComputeServiceAdapter> pools = ImmutableMap.builder();
+      for (String name : Splitter.on(',').trimResults().omitEmptyStrings().split(poolNames)) {
+         final String spec = properties.get(POOL_PREFIX + name + ".template");
+         checkArgument(spec != null, "no template configured for pool %s, set %s", name, POOL_PREFIX + name
+                  + ".template");
+         Supplier<Template> template = Suppliers.memoize(new Supplier<Template>() {
+            @Override
+            public Template get() {
+               return backendComputeService.get().templateBuilder().from(spec).build();
+            }
+         });
+         pools.put(name, poolFactory.create(template, poolGroupPrefix + "-" + name,
+                  intProperty(properties, name, "max-size", maxSize),
+                  intProperty(properties, name, "min-size", minSize),
+                  intProperty(properties, name, "low-watermark", lowWatermark),
+                  intProperty(properties, name, "high-watermark", highWatermark)));
+      }
+      this.pools = pools.build();
+      checkArgument(!this.pools.isEmpty(), "no pools configured in %s", POOLS);
+   }
+
+   private static int intProperty(Map<String, String> properties, String pool, String key, int defaultValue) {
+      String value = properties.get(POOL_PREFIX + pool + "." + key);
+      return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+   }
+
+   @Override
+   public NodeWithInitialCredentials createNodeWithGroupEncodedIntoName(String group, String name, Template template) {
+      return poolFor(group, template).createNodeWithGroupEncodedIntoName(group, name, template);
+   }
+
+   @Override
+   public Iterable<NodeWithInitialCredentials> createNodesInGroup(String group, int count, Template template) {
+      return poolFor(group, template).createNodesInGroup(group, count, template);
+   }
+
+   private EagerNodePoolComputeServiceAdapter poolFor(String group, Template template) {
+      String pool = route(Maps.transformValues(pools, new Function<EagerNodePoolComputeServiceAdapter, Template>() {
+         @Override
+         public Template apply(EagerNodePoolComputeServiceAdapter input) {
+            return input.backendTemplate.get();
+         }
+      }), template);
+      logger.debug(">> routing request for frontend group %s to pool %s", group, pool);
+      return pools.get(pool);
+   }
+
+   /**
+    * @return the name of the pool the requested template should be served from
+    */
+   static String route(Map<String, Template> poolTemplates, Template requested) {
+      for (Map.Entry<String, Template> pool : poolTemplates.entrySet()) {
+         Template template = pool.getValue();
+         if (template.getImage().getId().equals(requested.getImage().getId())
+                  && template.getHardware().getId().equals(requested.getHardware().getId())
+                  && template.getLocation().getId().equals(requested.getLocation().getId())) {
+            return pool.getKey();
+         }
+      }
+      throw new IllegalArgumentException(String.format("no pool serves image %s, hardware %s in %s, pools: %s",
+               requested.getImage().getId(), requested.getHardware().getId(), requested.getLocation().getId(),
+               Joiner.on(", ").withKeyValueSeparator("=").join(Maps.transformValues(poolTemplates,
+                        new Function<Template, String>() {
+                           @Override
+                           public String apply(Template input) {
+                              return String.format("[image: %s, hardware: %s, location: %s]", input.getImage()
+                                       .getId(), input.getHardware().getId(), input.getLocation().getId());
+                           }
+                        }))));
+   }
+
+   private EagerNodePoolComputeServiceAdapter poolOf(String id) {
+      for (EagerNodePoolComputeServiceAdapter pool : pools.values()) {
+         if (pool.contains(id)) {
+            return pool;
+         }
+      }
+      return null;
+   }
+
+   @Override
+   public NodeMetadata getNode(String id) {
+      EagerNodePoolComputeServiceAdapter pool = poolOf(id);
+      return pool != null ? pool.getNode(id) : null;
+   }
+
+   @Override
+   public Iterable<NodeMetadata> listNodes() {
+      ImmutableSet.Builder<NodeMetadata> nodes = ImmutableSet.builder();
+      for (EagerNodePoolComputeServiceAdapter pool : pools.values()) {
+         nodes.addAll(pool.listNodes());
+      }
+      return nodes.build();
+   }
+
+   @Override
+   public Iterable<NodeMetadata> listNodesByIds(Iterable<String> ids) {
+      ImmutableSet.Builder<NodeMetadata> nodes = ImmutableSet.builder();
+      for (EagerNodePoolComputeServiceAdapter pool : pools.values()) {
+         nodes.addAll(pool.listNodesByIds(ids));
+      }
+      return nodes.build();
+   }
+
+   @Override
+   public Iterable<Hardware> listHardwareProfiles() {
+      ImmutableSet.Builder<Hardware> hardware = ImmutableSet.builder();
+      for (EagerNodePoolComputeServiceAdapter pool : pools.values()) {
+         hardware.addAll(pool.listHardwareProfiles());
+      }
+      return hardware.build();
+   }
+
+   @Override
+   public Iterable<Image> listImages() {
+      ImmutableSet.Builder<Image> images = ImmutableSet.builder();
+      for (EagerNodePoolComputeServiceAdapter pool : pools.values()) {
+         images.addAll(pool.listImages());
+      }
+      return images.build();
+   }
+
+   @Override
+   public Iterable<Location> listLocations() {
+      ImmutableSet.Builder<Location> locations = ImmutableSet.builder();
+      for (EagerNodePoolComputeServiceAdapter pool : pools.values()) {
+         locations.addAll(pool.listLocations());
+      }
+      return locations.build();
+   }
+
+   @Override
+   public Image getImage(String id) {
+      for (EagerNodePoolComputeServiceAdapter pool : pools.values()) {
+         Image image = pool.getImage(id);
+         if (image != null) {
+            return image;
+         }
+      }
+      return null;
+   }
+
+   @Override
+   public void destroyNode(String id) {
+      EagerNodePoolComputeServiceAdapter pool = poolOf(id);
+      if (pool == null) {
+         logger.warn("node %s is not in any pool, ignoring", id);
+         return;
+      }
+      pool.destroyNode(id);
+   }
+
+   @Override
+   public void rebootNode(String id) {
+      ownerOf(id).rebootNode(id);
+   }
+
+   @Override
+   public void resumeNode(String id) {
+      ownerOf(id).resumeNode(id);
+   }
+
+   @Override
+   public void suspendNode(String id) {
+      ownerOf(id).suspendNode(id);
+   }
+
+   private EagerNodePoolComputeServiceAdapter ownerOf(String id) {
+      EagerNodePoolComputeServiceAdapter pool = poolOf(id);
+      if (pool == null) {
+         throw new NoSuchElementException(id);
+      }
+      return pool;
+   }
+
+   @Override
+   public void destroyPool() {
+      for (EagerNodePoolComputeServiceAdapter pool : pools.values()) {
+         pool.destroyPool();
+      }
+   }
+
+   @Override
+   public int currentSize() {
+      int size = 0;
+      for (EagerNodePoolComputeServiceAdapter pool : pools.values()) {
+         size += pool.currentSize();
+      }
+      return size;
+   }
+
+   @Override
+   public int idleNodes() {
+      int idle = 0;
+      for (EagerNodePoolComputeServiceAdapter pool : pools.values()) {
+         idle += pool.idleNodes();
+      }
+      return idle;
+   }
+
+   @Override
+   public int usedNodes() {
+      int used = 0;
+      for (EagerNodePoolComputeServiceAdapter pool : pools.values()) {
+         used += pool.usedNodes();
+      }
+      return used;
+   }
+
+   @Override
+   public int maxNodes() {
+      int max = 0;
+      for (EagerNodePoolComputeServiceAdapter pool : pools.values()) {
+         if (pool.maxNodes() < 0) {
+            // unlimited
+            return -1;
+         }
+         max += pool.maxNodes();
+      }
+      return max;
+   }
+
+   @Override
+   public int minNodes() {
+      int min = 0;
+      for (EagerNodePoolComputeServiceAdapter pool : pools.values()) {
+         min += pool.minNodes();
+      }
+      return min;
+   }
+
+   @Override
+   public ComputeServiceContext getBackendComputeServiceContext() {
+      return backendComputeService.get().getContext();
+   }
+
+   @Override
+   public String getPoolGroupName() {
+      return poolGroupName;
+   }
+
+}
@@ -46,6 +46,15 @@ public interface NodeMetadataStore {
     */
    public NodeMetadata store(NodeMetadata backendNode, TemplateOptions userOptions, String userGroup);
 
+   /**
+    * Associates the same user options and group with several backend nodes at once.
+    * 
+    * @see #store(NodeMetadata, TemplateOptions, String)
+    * @return the frontend {@link NodeMetadata} of each of the backend nodes, in the same order
+    */
+   public Set<NodeMetadata> storeAll(Iterable<NodeMetadata> backendNodes, TemplateOptions userOptions,
+            String userGroup);
+
    /**
     * Removes the mapping from storage.
     * 
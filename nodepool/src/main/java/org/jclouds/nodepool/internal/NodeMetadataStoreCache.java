@@ -16,71 +16,114 @@
  */
 package org.jclouds.nodepool.internal;
 
-import java.util.Map;
-import java.util.Set;
+import static com.google.common.base.Preconditions.checkNotNull;
 
-import javax.inject.Inject;
-import javax.inject.Singleton;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
 import org.jclouds.compute.options.TemplateOptions;
 
-import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
-@Singleton
+/**
+ * A size-bounded, concurrent cache in front of another {@link NodeMetadataStore}.
+ * <p/>
+ * Backend nodes without a mapping are cached as well, so idle nodes don't hit the backing store on
+ * every lookup. Entries are updated on {@link #store} and {@link #deleteMapping}, which must
+ * therefore go through this cache. Cached mappings are applied to the backend node passed to
+ * {@link #load}, so its backend state (status, addresses...) is always current.
+ */
 public class NodeMetadataStoreCache implements NodeMetadataStore {
 
-   private Map<String, NodeMetadata> frontendMetadataCache = Maps.newHashMap();
-   private NodeMetadataStore backend;
+   private final Cache<String, Optional<NodeMetadata>> frontendMetadataCache;
+   private final NodeMetadataStore backend;
 
-   @Inject
-   public NodeMetadataStoreCache(NodeMetadataStore backend) {
-      this.backend = backend;
+   public NodeMetadataStoreCache(NodeMetadataStore backend, long maximumSize) {
+      this.backend = checkNotNull(backend, "backend");
+      this.frontendMetadataCache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
    }
 
    @Override
-   public synchronized NodeMetadata store(NodeMetadata backendNode, TemplateOptions userOptions, String userGroup) {
+   public NodeMetadata store(NodeMetadata backendNode, TemplateOptions userOptions, String userGroup) {
       NodeMetadata frontEndNode = backend.store(backendNode, userOptions, userGroup);
-      frontendMetadataCache.put(backendNode.getId(), frontEndNode);
+      frontendMetadataCache.put(backendNode.getId(), Optional.of(frontEndNode));
       return frontEndNode;
    }
 
    @Override
-   public synchronized void deleteMapping(String backendNodeId) {
-      frontendMetadataCache.remove(backendNodeId);
-      backend.deleteMapping(backendNodeId);
+   public Set<NodeMetadata> storeAll(Iterable<NodeMetadata> backendNodes, TemplateOptions userOptions,
+            String userGroup) {
+      Set<NodeMetadata> frontEndNodes = backend.storeAll(backendNodes, userOptions, userGroup);
+      for (NodeMetadata frontEndNode : frontEndNodes) {
+         frontendMetadataCache.put(frontEndNode.getId(), Optional.of(frontEndNode));
+      }
+      return frontEndNodes;
+   }
 
+   @Override
+   public void deleteMapping(String backendNodeId) {
+      backend.deleteMapping(backendNodeId);
+      frontendMetadataCache.put(backendNodeId, Optional.<NodeMetadata> absent());
    }
 
    @Override
-   public synchronized void deleteAllMappings() {
-      frontendMetadataCache.clear();
+   public void deleteAllMappings() {
       backend.deleteAllMappings();
+      frontendMetadataCache.invalidateAll();
    }
 
    @Override
-   public synchronized NodeMetadata load(NodeMetadata backendNode) {
-      NodeMetadata frontendNode = frontendMetadataCache.get(backendNode.getId());
-      if (frontendNode == null) {
-         frontendNode = backend.load(backendNode);
-         if (frontendNode != null) {
-            frontendMetadataCache.put(backendNode.getId(), frontendNode);
-         }
+   public NodeMetadata load(final NodeMetadata backendNode) {
+      Optional<NodeMetadata> frontendNode;
+      try {
+         frontendNode = frontendMetadataCache.get(backendNode.getId(), new Callable<Optional<NodeMetadata>>() {
+            @Override
+            public Optional<NodeMetadata> call() {
+               return Optional.fromNullable(backend.load(backendNode));
+            }
+         });
+      } catch (ExecutionException e) {
+         throw Throwables.propagate(e.getCause());
+      } catch (UncheckedExecutionException e) {
+         throw Throwables.propagate(e.getCause());
       }
-      return frontendNode;
+      if (!frontendNode.isPresent()) {
+         return null;
+      }
+      NodeMetadata cached = frontendNode.get();
+      return NodeMetadataBuilder.fromNodeMetadata(backendNode)
+                                .tags(cached.getTags())
+                                .group(cached.getGroup())
+                                .userMetadata(cached.getUserMetadata())
+                                .credentials(cached.getCredentials()).build();
    }
 
    @Override
-   public synchronized Set<NodeMetadata> loadAll(Set<NodeMetadata> backendNodes) {
-      return ImmutableSet.copyOf(Iterables.transform(backendNodes, new Function<NodeMetadata, NodeMetadata>() {
-         @Override
-         public NodeMetadata apply(NodeMetadata input) {
-            return load(input);
+   public Set<NodeMetadata> loadAll(Set<NodeMetadata> backendNodes) {
+      ImmutableSet.Builder<NodeMetadata> loaded = ImmutableSet.builder();
+      for (NodeMetadata backendNode : backendNodes) {
+         NodeMetadata frontendNode = load(backendNode);
+         if (frontendNode != null) {
+            loaded.add(frontendNode);
          }
-      }));
+      }
+      return loaded.build();
+   }
+
+   /**
+    * Hit, miss and eviction counts of the cache. Hits include cached absent mappings.
+    */
+   public CacheStats stats() {
+      return frontendMetadataCache.stats();
    }
 
 }
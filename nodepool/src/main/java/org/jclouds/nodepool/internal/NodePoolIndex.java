@@ -0,0 +1,389 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.nodepool.NodePoolMetrics;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * In-memory index of the backend nodes that make up a pool. Tracks which nodes are idle and which
+ * are assigned to a frontend group, so allocations never need to list the backend or load every
+ * mapping from the {@link NodeMetadataStore}.
+ * <p/>
+ * Idle node ids are handed off through a lock-free queue and every state change is a
+ * compare-and-set on the node's entry, so concurrent callers can claim distinct nodes without
+ * holding a monitor. Only callers that {@link #claim(long, TimeUnit) wait} for an idle node ever
+ * block.
+ */
+public class NodePoolIndex {
+
+   /**
+    * The state of a pooled backend node.
+    */
+   public static enum State {
+      /**
+       * Ready to be claimed by a frontend group.
+       */
+      IDLE,
+      /**
+       * Assigned to a frontend group.
+       */
+      ASSIGNED,
+      /**
+       * Returned by its frontend group, its mapping is being removed.
+       */
+      RELEASING,
+      /**
+       * Being cleaned before it is returned to the idle set.
+       */
+      SCRUBBING,
+      /**
+       * Failed cleaning, kept out of the idle set.
+       */
+      QUARANTINED;
+   }
+
+   private final int maxSize;
+   private final ConcurrentMap<String, NodeMetadata> nodes = Maps.newConcurrentMap();
+   private final ConcurrentMap<String, State> states = Maps.newConcurrentMap();
+   private final Map<State, AtomicInteger> counts = new EnumMap<State, AtomicInteger>(State.class);
+   // may hold ids that were since claimed or removed, claim() skips those
+   private final Queue<String> idle = new ConcurrentLinkedQueue<String>();
+   private final AtomicInteger size = new AtomicInteger();
+   private final AtomicInteger reserved = new AtomicInteger();
+   private final AtomicInteger waiters = new AtomicInteger();
+   private final Object idleSignal = new Object();
+   // when each idle node was made idle, in System.nanoTime()
+   private final ConcurrentMap<String, Long> idleSince = Maps.newConcurrentMap();
+   private final NodePoolMetrics metrics;
+
+   /**
+    * @param maxSize
+    *           the maximum number of nodes in the pool, {@literal -1} for an unlimited pool.
+    */
+   public NodePoolIndex(int maxSize) {
+      this(maxSize, new NodePoolMetrics());
+   }
+
+   /**
+    * @param metrics
+    *           records how long nodes stay idle before they are claimed
+    */
+   public NodePoolIndex(int maxSize, NodePoolMetrics metrics) {
+      this.maxSize = maxSize;
+      this.metrics = checkNotNull(metrics, "metrics");
+      for (State state : State.values()) {
+         counts.put(state, new AtomicInteger());
+      }
+   }
+
+   /**
+    * Adds a backend node that is ready to be claimed.
+    */
+   public void addIdle(NodeMetadata backendNode) {
+      add(backendNode, State.IDLE);
+      offerIdle(backendNode.getId());
+   }
+
+   /**
+    * Adds a backend node that is already assigned to a frontend group.
+    */
+   public void addAssigned(NodeMetadata backendNode) {
+      add(backendNode, State.ASSIGNED);
+   }
+
+   private void add(NodeMetadata backendNode, State state) {
+      String id = checkNotNull(backendNode, "backendNode").getId();
+      nodes.put(id, backendNode);
+      State previous = states.put(id, state);
+      if (previous != null) {
+         counts.get(previous).decrementAndGet();
+      } else {
+         size.incrementAndGet();
+      }
+      counts.get(state).incrementAndGet();
+   }
+
+   /**
+    * Claims an idle node, marking it as assigned.
+    *
+    * @return the claimed backend node or null if no node is idle
+    */
+   public NodeMetadata claim() {
+      String id;
+      while ((id = idle.poll()) != null) {
+         if (transition(id, State.IDLE, State.ASSIGNED)) {
+            Long since = idleSince.remove(id);
+            if (since != null) {
+               metrics.recordIdleTime(System.nanoTime() - since);
+            }
+            return nodes.get(id);
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Claims up to {@code count} idle nodes, marking them as assigned.
+    *
+    * @return the claimed backend nodes, fewer than requested if not enough nodes are idle
+    */
+   public List<NodeMetadata> claim(int count) {
+      List<NodeMetadata> claimed = Lists.newArrayListWithCapacity(count);
+      NodeMetadata node;
+      while (claimed.size() < count && (node = claim()) != null) {
+         claimed.add(node);
+      }
+      return claimed;
+   }
+
+   /**
+    * Claims an idle node, waiting for one to be added or released if none is idle.
+    *
+    * @return the claimed backend node or null if no node became idle before the timeout
+    */
+   public NodeMetadata claim(long timeout, TimeUnit unit) throws InterruptedException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      NodeMetadata node;
+      while ((node = claim()) == null) {
+         long remaining = deadline - System.nanoTime();
+         if (remaining <= 0) {
+            return null;
+         }
+         waiters.incrementAndGet();
+         try {
+            synchronized (idleSignal) {
+               if (idle.isEmpty()) {
+                  TimeUnit.NANOSECONDS.timedWait(idleSignal, remaining);
+               }
+            }
+         } finally {
+            waiters.decrementAndGet();
+         }
+      }
+      return node;
+   }
+
+   /**
+    * Marks an assigned node as being released by its frontend group.
+    *
+    * @return false if the node was not assigned
+    */
+   public boolean unassign(String id) {
+      return transition(id, State.ASSIGNED, State.RELEASING);
+   }
+
+   /**
+    * Returns a releasing node to its frontend group, when its release could not complete.
+    *
+    * @return false if the node was not releasing
+    */
+   public boolean reassign(String id) {
+      return transition(id, State.RELEASING, State.ASSIGNED);
+   }
+
+   /**
+    * Marks a releasing node as being scrubbed.
+    *
+    * @return false if the node was not releasing
+    */
+   public boolean scrub(String id) {
+      return transition(id, State.RELEASING, State.SCRUBBING);
+   }
+
+   /**
+    * Marks a node that is releasing or being scrubbed as quarantined.
+    *
+    * @return false if the node was neither releasing nor being scrubbed
+    */
+   public boolean quarantine(String id) {
+      return transition(id, State.SCRUBBING, State.QUARANTINED)
+               || transition(id, State.RELEASING, State.QUARANTINED);
+   }
+
+   /**
+    * Returns a node to the idle set. The node must be assigned, releasing or being scrubbed.
+    *
+    * @return false if the node was not in the pool or already idle
+    */
+   public boolean makeIdle(String id) {
+      if (transition(id, State.RELEASING, State.IDLE) || transition(id, State.SCRUBBING, State.IDLE)
+               || transition(id, State.ASSIGNED, State.IDLE)) {
+         offerIdle(id);
+         return true;
+      }
+      return false;
+   }
+
+   private void offerIdle(String id) {
+      idleSince.put(id, System.nanoTime());
+      idle.offer(id);
+      if (waiters.get() > 0) {
+         synchronized (idleSignal) {
+            idleSignal.notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Removes a node from the pool regardless of its state.
+    *
+    * @return the removed backend node or null if it was not in the pool
+    */
+   public NodeMetadata remove(String id) {
+      State previous = states.remove(id);
+      if (previous == null) {
+         return null;
+      }
+      counts.get(previous).decrementAndGet();
+      size.decrementAndGet();
+      idleSince.remove(id);
+      return nodes.remove(id);
+   }
+
+   /**
+    * Removes a node from the pool if it is in the expected state.
+    *
+    * @return the removed backend node or null if it was not in the pool or in another state
+    */
+   public NodeMetadata remove(String id, State expected) {
+      if (!states.remove(id, expected)) {
+         return null;
+      }
+      counts.get(expected).decrementAndGet();
+      size.decrementAndGet();
+      idleSince.remove(id);
+      return nodes.remove(id);
+   }
+
+   /**
+    * Replaces the backend metadata of a node in the pool, keeping its state.
+    *
+    * @return false if the node is not in the pool
+    */
+   public boolean update(NodeMetadata backendNode) {
+      return nodes.replace(backendNode.getId(), backendNode) != null;
+   }
+
+   private boolean transition(String id, State from, State to) {
+      if (states.replace(id, from, to)) {
+         counts.get(from).decrementAndGet();
+         counts.get(to).incrementAndGet();
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Reserves room for nodes that are about to be provisioned, so concurrent callers cannot grow
+    * the pool past its maximum size.
+    *
+    * @return false if the pool cannot grow by the requested number of nodes
+    */
+   public boolean reserve(int count) {
+      checkArgument(count >= 0, "count must be positive");
+      while (true) {
+         int current = reserved.get();
+         if (maxSize >= 0 && size.get() + current + count > maxSize) {
+            return false;
+         }
+         if (reserved.compareAndSet(current, current + count)) {
+            return true;
+         }
+      }
+   }
+
+   /**
+    * Releases a previous {@link #reserve(int) reservation}, once the provisioned nodes were added
+    * or the provisioning failed.
+    */
+   public void unreserve(int count) {
+      reserved.addAndGet(-count);
+   }
+
+   /**
+    * The number of nodes the pool can still grow by, taking reservations into account.
+    */
+   public int remainingCapacity() {
+      if (maxSize < 0) {
+         return Integer.MAX_VALUE;
+      }
+      return Math.max(0, maxSize - size.get() - reserved.get());
+   }
+
+   public State getState(String id) {
+      return states.get(id);
+   }
+
+   public boolean isAssigned(String id) {
+      return states.get(id) == State.ASSIGNED;
+   }
+
+   public NodeMetadata get(String id) {
+      return nodes.get(id);
+   }
+
+   public ImmutableSet<String> ids() {
+      return ImmutableSet.copyOf(states.keySet());
+   }
+
+   /**
+    * The number of nodes in the pool, in any state.
+    */
+   public int size() {
+      return size.get();
+   }
+
+   /**
+    * The number of nodes being provisioned for the pool.
+    */
+   public int reserved() {
+      return reserved.get();
+   }
+
+   /**
+    * The number of callers waiting for a node to become idle.
+    */
+   public int waiters() {
+      return waiters.get();
+   }
+
+   public int count(State state) {
+      return counts.get(state).get();
+   }
+
+   public int maxSize() {
+      return maxSize;
+   }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.logging.Logger;
+import org.jclouds.nodepool.internal.NodePoolIndex.State;
+
+import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
+/**
+ * Keeps idle capacity in a {@link NodePoolIndex} between a low and a high watermark, provisioning
+ * backend nodes in the background so allocations do not pay for it.
+ * <p/>
+ * Whenever the idle count falls below the low watermark, the pool falls below its minimum size or
+ * callers are waiting for a node, batches of nodes are requested from the backend until there are
+ * high watermark idle nodes. At most {@code concurrency} batches are in flight at any time.
+ * <p/>
+ * Both watermarks are raised to the idle target, when one is given, so a
+ * {@link org.jclouds.nodepool.SizingPolicy} can keep more nodes ready ahead of expected demand.
+ */
+public class NodePoolReplenisher {
+
+   private final NodePoolIndex index;
+   private final Function<Integer, Set<? extends NodeMetadata>> provisioner;
+   private final ExecutorService userExecutor;
+   private final ScheduledExecutorService scheduler;
+   private final Logger logger;
+   private final int minSize;
+   private final int lowWatermark;
+   private final int highWatermark;
+   private final int batchSize;
+   private final Semaphore batches;
+   private final Supplier<Integer> idleTarget;
+   private volatile ScheduledFuture<?> schedule;
+
+   public NodePoolReplenisher(NodePoolIndex index, Function<Integer, Set<? extends NodeMetadata>> provisioner,
+            ExecutorService userExecutor, ScheduledExecutorService scheduler, Logger logger, int minSize,
+            int lowWatermark, int highWatermark, int batchSize, int concurrency) {
+      this(index, provisioner, userExecutor, scheduler, logger, minSize, lowWatermark, highWatermark, batchSize,
+               concurrency, Suppliers.ofInstance(0));
+   }
+
+   public NodePoolReplenisher(NodePoolIndex index, Function<Integer, Set<? extends NodeMetadata>> provisioner,
+            ExecutorService userExecutor, ScheduledExecutorService scheduler, Logger logger, int minSize,
+            int lowWatermark, int highWatermark, int batchSize, int concurrency, Supplier<Integer> idleTarget) {
+      checkArgument(lowWatermark <= highWatermark, "low watermark (%s) must not exceed the high watermark (%s)",
+               lowWatermark, highWatermark);
+      checkArgument(batchSize > 0, "batch size must be positive");
+      checkArgument(concurrency > 0, "concurrency must be positive");
+      this.index = checkNotNull(index, "index");
+      this.provisioner = checkNotNull(provisioner, "provisioner");
+      this.userExecutor = checkNotNull(userExecutor, "userExecutor");
+      this.scheduler = checkNotNull(scheduler, "scheduler");
+      this.logger = checkNotNull(logger, "logger");
+      this.minSize = minSize;
+      this.lowWatermark = lowWatermark;
+      this.highWatermark = highWatermark;
+      this.batchSize = batchSize;
+      this.batches = new Semaphore(concurrency);
+      this.idleTarget = checkNotNull(idleTarget, "idleTarget");
+   }
+
+   /**
+    * Checks the watermarks periodically, in addition to the checks triggered by allocations.
+    */
+   public synchronized void start(long period, TimeUnit unit) {
+      if (schedule == null) {
+         schedule = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+               replenish();
+            }
+         }, period, period, unit);
+      }
+   }
+
+   public synchronized void stop() {
+      if (schedule != null) {
+         schedule.cancel(false);
+         schedule = null;
+      }
+   }
+
+   /**
+    * Submits provisioning batches if the pool needs replenishing. Never blocks on the backend.
+    */
+   public void replenish() {
+      replenish(0);
+   }
+
+   /**
+    * Submits provisioning batches if the pool needs replenishing, accounting for callers about to
+    * wait for an idle node that are not yet {@link NodePoolIndex#waiters() waiting}.
+    */
+   public void replenish(int demand) {
+      int target = idleTarget();
+      if (!needsReplenishing(demand, target)) {
+         return;
+      }
+      while (true) {
+         final int batch = Math.min(Math.min(deficit(demand, target), batchSize), index.remainingCapacity());
+         if (batch <= 0) {
+            return;
+         }
+         // batches in flight trigger another check once they complete
+         if (!batches.tryAcquire()) {
+            return;
+         }
+         if (!index.reserve(batch)) {
+            batches.release();
+            continue;
+         }
+         logger.debug(">> replenishing pool [idle: %s, size: %s, adding: %s]", index.count(State.IDLE),
+                  index.size(), batch);
+         try {
+            userExecutor.execute(new Runnable() {
+               @Override
+               public void run() {
+                  provision(batch);
+               }
+            });
+         } catch (RuntimeException e) {
+            index.unreserve(batch);
+            batches.release();
+            logger.warn(e, "could not schedule replenishing of %s nodes", batch);
+            return;
+         }
+      }
+   }
+
+   private void provision(int batch) {
+      boolean provisioned = false;
+      try {
+         for (NodeMetadata node : provisioner.apply(batch)) {
+            index.addIdle(node);
+         }
+         provisioned = true;
+         logger.debug("<< replenished pool with %s nodes [idle: %s, size: %s]", batch, index.count(State.IDLE),
+                  index.size());
+      } catch (RuntimeException e) {
+         logger.error(e, "could not add %s nodes to the pool", batch);
+      } finally {
+         index.unreserve(batch);
+         batches.release();
+      }
+      // don't retry straight away on failure, the next scheduled check will
+      if (provisioned) {
+         replenish();
+      }
+   }
+
+   public boolean needsReplenishing() {
+      return needsReplenishing(0, idleTarget());
+   }
+
+   private int idleTarget() {
+      try {
+         return Math.max(0, idleTarget.get());
+      } catch (RuntimeException e) {
+         logger.warn(e, "could not compute the idle target, keeping to the watermarks");
+         return 0;
+      }
+   }
+
+   private boolean needsReplenishing(int demand, int target) {
+      return index.count(State.IDLE) < Math.max(lowWatermark, target)
+               || index.size() + index.reserved() < minSize
+               || index.waiters() + demand > index.count(State.IDLE) + index.reserved();
+   }
+
+   /**
+    * The number of nodes to provision to reach the high watermark, the minimum size and to serve
+    * waiting callers, minus what is idle or already being provisioned.
+    */
+   private int deficit(int demand, int target) {
+      int idle = index.count(State.IDLE);
+      int reserved = index.reserved();
+      int toHighWatermark = Math.max(highWatermark, target) - idle - reserved;
+      int toMinSize = minSize - index.size() - reserved;
+      int toWaiters = index.waiters() + demand - idle - reserved;
+      return Math.max(toHighWatermark, Math.max(toMinSize, toWaiters));
+   }
+
+}
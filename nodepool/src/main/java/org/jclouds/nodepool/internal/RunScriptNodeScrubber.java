@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.jclouds.compute.options.RunScriptOptions.Builder.overrideLoginCredentials;
+import static org.jclouds.nodepool.config.NodePoolProperties.HEALTH_CHECK_SCRIPT;
+import static org.jclouds.nodepool.config.NodePoolProperties.POOL_ADMIN_ACCESS;
+import static org.jclouds.nodepool.config.NodePoolProperties.SCRUB_SCRIPT;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.domain.ExecResponse;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.domain.LoginCredentials;
+import org.jclouds.logging.Logger;
+import org.jclouds.nodepool.Backend;
+import org.jclouds.nodepool.NodeScrubber;
+import org.jclouds.scriptbuilder.domain.Statements;
+import org.jclouds.scriptbuilder.statements.login.AdminAccess;
+import org.jclouds.scriptbuilder.statements.login.AdminAccessBuilderSpec;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+
+/**
+ * A {@link NodeScrubber} that runs the configured cleanup script on the node as the pool's admin
+ * user, then the configured health check. Either script is skipped when empty, and a non-zero
+ * exit status of either fails the scrub.
+ */
+@Singleton
+public class RunScriptNodeScrubber implements NodeScrubber {
+
+   @Resource
+   @Named(ComputeServiceConstants.COMPUTE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final Supplier<ComputeService> backendComputeService;
+   private final AdminAccess.Builder adminAccessBuilder;
+   private final String scrubScript;
+   private final String healthCheckScript;
+
+   @Inject
+   public RunScriptNodeScrubber(@Backend Supplier<ComputeService> backendComputeService,
+            @Named(POOL_ADMIN_ACCESS) String poolNodeAdminAccess, @Named(SCRUB_SCRIPT) String scrubScript,
+            @Named(HEALTH_CHECK_SCRIPT) String healthCheckScript) {
+      this.backendComputeService = backendComputeService;
+      this.adminAccessBuilder = AdminAccessBuilderSpec.parse(poolNodeAdminAccess).copyTo(new AdminAccess.Builder());
+      this.scrubScript = scrubScript;
+      this.healthCheckScript = healthCheckScript;
+   }
+
+   @Override
+   public boolean scrub(NodeMetadata backendNode) {
+      LoginCredentials credentials = LoginCredentials.fromCredentials(checkNotNull(adminAccessBuilder.build()
+               .getAdminCredentials()));
+      return run(backendNode, "scrub", scrubScript, credentials)
+               && run(backendNode, "healthcheck", healthCheckScript, credentials);
+   }
+
+   private boolean run(NodeMetadata backendNode, String task, String script, LoginCredentials credentials) {
+      if (Strings.isNullOrEmpty(script)) {
+         return true;
+      }
+      logger.debug(">> running %s on node %s", task, backendNode.getId());
+      ExecResponse response = backendComputeService.get().runScriptOnNode(backendNode.getId(),
+               Statements.exec(script), overrideLoginCredentials(credentials).nameTask("nodepool-" + task));
+      if (response.getExitStatus() != 0) {
+         logger.warn("<< %s failed on node %s [exit status: %s]: %s", task, backendNode.getId(),
+                  response.getExitStatus(), response.getError());
+         return false;
+      }
+      logger.debug("<< %s succeeded on node %s", task, backendNode.getId());
+      return true;
+   }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static org.jclouds.nodepool.config.NodePoolProperties.SIZING_LEAD_TIME;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.jclouds.nodepool.DemandHistory;
+import org.jclouds.nodepool.SizingPolicy;
+
+/**
+ * Keeps enough idle nodes for the allocations made at the same time of day on previous days, over
+ * the lead time. Suits daily demand peaks, such as nightly builds. Only days since the first
+ * recorded event that are still in the history are averaged, so the demand history should cover
+ * several days.
+ */
+@Singleton
+public class TimeOfDaySizingPolicy implements SizingPolicy {
+
+   private final long leadTime;
+
+   @Inject
+   TimeOfDaySizingPolicy(@Named(SIZING_LEAD_TIME) long leadTime) {
+      this.leadTime = leadTime;
+   }
+
+   @Override
+   public int idleTarget(DemandHistory history) {
+      int day = history.buckets(1, TimeUnit.DAYS);
+      int lead = history.buckets(leadTime, TimeUnit.MILLISECONDS);
+      long allocations = 0;
+      int days = 0;
+      int recorded = history.recorded();
+      for (int dayAgo = day; dayAgo < recorded; dayAgo += day) {
+         // the lead time starting at this time of day, that day
+         for (int bucketsAgo = dayAgo; bucketsAgo > dayAgo - lead; bucketsAgo--) {
+            allocations += history.allocations(bucketsAgo);
+         }
+         days++;
+      }
+      return days == 0 ? 0 : (int) Math.ceil((double) allocations / days);
+   }
+
+}
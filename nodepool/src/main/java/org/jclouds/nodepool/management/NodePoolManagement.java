@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.management;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.management.ViewMBean;
+import org.jclouds.nodepool.LatencyHistogram;
+import org.jclouds.nodepool.NodePoolComputeServiceContext;
+import org.jclouds.nodepool.NodePoolMetrics;
+import org.jclouds.nodepool.NodePoolMetrics.Event;
+import org.jclouds.nodepool.NodePoolMetrics.Operation;
+
+public class NodePoolManagement implements NodePoolManagementMBean, ViewMBean<NodePoolComputeServiceContext> {
+
+   private final NodePoolComputeServiceContext context;
+   private final NodePoolMetrics metrics;
+
+   public NodePoolManagement(NodePoolComputeServiceContext context) {
+      this.context = checkNotNull(context, "context");
+      this.metrics = context.getMetrics();
+   }
+
+   @Override
+   public int getCurrentSize() {
+      return context.getPoolStats().currentSize();
+   }
+
+   @Override
+   public int getIdleNodes() {
+      return context.getPoolStats().idleNodes();
+   }
+
+   @Override
+   public int getUsedNodes() {
+      return context.getPoolStats().usedNodes();
+   }
+
+   @Override
+   public int getMaxNodes() {
+      return context.getPoolStats().maxNodes();
+   }
+
+   @Override
+   public int getMinNodes() {
+      return context.getPoolStats().minNodes();
+   }
+
+   @Override
+   public long getNodesAssigned() {
+      return metrics.events(Event.NODE_ASSIGNED);
+   }
+
+   @Override
+   public long getNodesReleased() {
+      return metrics.events(Event.NODE_RELEASED);
+   }
+
+   @Override
+   public long getNodesProvisioned() {
+      return metrics.events(Event.NODE_PROVISIONED);
+   }
+
+   @Override
+   public long getNodesQuarantined() {
+      return metrics.events(Event.NODE_QUARANTINED);
+   }
+
+   @Override
+   public long getClaimFailures() {
+      return metrics.events(Event.CLAIM_FAILED);
+   }
+
+   @Override
+   public long getBackendCalls() {
+      long calls = 0;
+      for (long count : metrics.backendCalls().values()) {
+         calls += count;
+      }
+      return calls;
+   }
+
+   @Override
+   public double latencyMillis(String operation, double quantile) {
+      LatencyHistogram histogram = "idle".equalsIgnoreCase(operation) ? metrics.idleTimes() : metrics
+               .latency(Operation.valueOf(operation.toUpperCase()));
+      return histogram.quantile(quantile, TimeUnit.MICROSECONDS) / 1000.0;
+   }
+
+   @Override
+   public String getExposition() {
+      return metrics.exposition();
+   }
+
+   @Override
+   public String getType() {
+      return "nodepool";
+   }
+
+}
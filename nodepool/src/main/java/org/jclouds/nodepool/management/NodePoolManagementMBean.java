@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.management;
+
+/**
+ * The statistics and metrics of a node pool, as exposed over JMX.
+ */
+public interface NodePoolManagementMBean {
+
+   int getCurrentSize();
+
+   int getIdleNodes();
+
+   int getUsedNodes();
+
+   int getMaxNodes();
+
+   int getMinNodes();
+
+   long getNodesAssigned();
+
+   long getNodesReleased();
+
+   long getNodesProvisioned();
+
+   long getNodesQuarantined();
+
+   long getClaimFailures();
+
+   /**
+    * The total number of calls to the backend compute service.
+    */
+   long getBackendCalls();
+
+   /**
+    * @param operation
+    *           claim, provision, scrub, destroy or idle
+    * @param quantile
+    *           between {@literal 0} and {@literal 1}
+    * @return the latency of the operation at that quantile, in milliseconds
+    */
+   double latencyMillis(String operation, double quantile);
+
+   /**
+    * All the metrics, in the Prometheus text exposition format.
+    */
+   String getExposition();
+
+}
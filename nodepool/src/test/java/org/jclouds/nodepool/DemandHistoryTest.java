@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+@Test(groups = "unit", testName = "DemandHistoryTest")
+public class DemandHistoryTest {
+
+   public void testCountsPerBucket() {
+      FakeTicker ticker = new FakeTicker();
+      DemandHistory history = new DemandHistory(1, TimeUnit.MINUTES, 3, ticker);
+      history.recordAllocation();
+      history.recordAllocation();
+      history.recordRelease();
+      ticker.advance(1, TimeUnit.MINUTES);
+      history.recordAllocation();
+
+      assertEquals(history.allocations(0), 1);
+      assertEquals(history.allocations(1), 2);
+      assertEquals(history.releases(0), 0);
+      assertEquals(history.releases(1), 1);
+   }
+
+   public void testForgetsExpiredBuckets() {
+      FakeTicker ticker = new FakeTicker();
+      DemandHistory history = new DemandHistory(1, TimeUnit.MINUTES, 3, ticker);
+      history.recordAllocation();
+      ticker.advance(2, TimeUnit.MINUTES);
+      assertEquals(history.allocations(2), 1);
+      ticker.advance(1, TimeUnit.MINUTES);
+      assertEquals(history.allocations(3), 0);
+
+      // reuses the slot of the expired bucket
+      history.recordAllocation();
+      assertEquals(history.allocations(0), 1);
+      assertEquals(history.allocations(1), 0);
+      assertEquals(history.buckets(150, TimeUnit.SECONDS), 2);
+   }
+
+   public void testRecordedSinceTheFirstEvent() {
+      FakeTicker ticker = new FakeTicker();
+      DemandHistory history = new DemandHistory(1, TimeUnit.MINUTES, 3, ticker);
+      ticker.advance(5, TimeUnit.MINUTES);
+      assertEquals(history.recorded(), 0);
+      history.recordRelease();
+      assertEquals(history.recorded(), 1);
+      ticker.advance(1, TimeUnit.MINUTES);
+      assertEquals(history.recorded(), 2);
+      ticker.advance(10, TimeUnit.MINUTES);
+      assertEquals(history.recorded(), 3);
+   }
+}
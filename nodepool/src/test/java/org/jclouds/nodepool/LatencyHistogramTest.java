@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+@Test(groups = "unit", testName = "LatencyHistogramTest")
+public class LatencyHistogramTest {
+
+   public void testBucketsCoverEveryValue() {
+      for (long value : new long[] { 0, 1, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE }) {
+         int index = LatencyHistogram.index(value);
+         assertTrue(LatencyHistogram.highestEquivalentValue(index) >= value, "value " + value);
+         if (index > 0) {
+            assertTrue(LatencyHistogram.highestEquivalentValue(index - 1) < value, "value " + value);
+         }
+      }
+   }
+
+   public void testQuantilesWithinRelativeError() {
+      LatencyHistogram histogram = new LatencyHistogram();
+      for (int i = 1; i <= 1000; i++) {
+         histogram.record(i, TimeUnit.MILLISECONDS);
+      }
+      assertEquals(histogram.count(), 1000);
+      assertEquals(histogram.max(TimeUnit.MILLISECONDS), 1000);
+      assertEquals(histogram.sum(TimeUnit.MILLISECONDS), 500500);
+      assertWithin(histogram.quantile(0.5, TimeUnit.MICROSECONDS), 500000);
+      assertWithin(histogram.quantile(0.99, TimeUnit.MICROSECONDS), 990000);
+      assertEquals(histogram.quantile(1, TimeUnit.MILLISECONDS), 1000);
+   }
+
+   public void testEmptyHistogram() {
+      assertEquals(new LatencyHistogram().quantile(0.99, TimeUnit.SECONDS), 0);
+   }
+
+   private static void assertWithin(long actual, long expected) {
+      assertTrue(actual >= expected && actual <= expected * 1.07, actual + " is not within 7% of " + expected);
+   }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.jclouds.nodepool.NodePoolMetrics.Event;
+import org.jclouds.nodepool.NodePoolMetrics.Operation;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+@Test(groups = "unit", testName = "NodePoolMetricsTest")
+public class NodePoolMetricsTest {
+
+   public void testExposition() {
+      NodePoolMetrics metrics = new NodePoolMetrics();
+      metrics.recordLatency(Operation.CLAIM, System.nanoTime());
+      metrics.count(Event.NODE_ASSIGNED, 3);
+      metrics.countBackendCall("createNodesInGroup");
+      metrics.countBackendCall("createNodesInGroup");
+      metrics.countBackendCall("destroyNode");
+
+      assertEquals(metrics.backendCalls(), ImmutableMap.of("createNodesInGroup", 2L, "destroyNode", 1L));
+      String text = metrics.exposition();
+      assertTrue(text.contains("# TYPE jclouds_nodepool_claim_seconds summary\n"), text);
+      assertTrue(text.contains("jclouds_nodepool_claim_seconds_count 1\n"), text);
+      assertTrue(text.contains("jclouds_nodepool_provision_seconds_count 0\n"), text);
+      assertTrue(text.contains("jclouds_nodepool_node_assigned_total 3\n"), text);
+      assertTrue(text.contains("jclouds_nodepool_backend_calls_total{method=\"createNodesInGroup\"} 2\n"), text);
+   }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadata.Status;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.jclouds.nodepool.FakeTicker;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+@Test(groups = "unit", testName = "BackendNodeInventoryTest")
+public class BackendNodeInventoryTest {
+
+   private static class Backend implements Supplier<Set<NodeMetadata>> {
+      private final Set<NodeMetadata> nodes = Sets.newLinkedHashSet();
+      private int listings;
+      private Runnable duringListing;
+
+      @Override
+      public Set<NodeMetadata> get() {
+         listings++;
+         Set<NodeMetadata> listed = ImmutableSet.copyOf(nodes);
+         if (duringListing != null) {
+            duringListing.run();
+            duringListing = null;
+         }
+         return listed;
+      }
+   }
+
+   private static NodeMetadata node(String id) {
+      return new NodeMetadataBuilder().id(id).status(Status.RUNNING).build();
+   }
+
+   public void testListsOnlyWhenStale() {
+      FakeTicker ticker = new FakeTicker();
+      Backend backend = new Backend();
+      backend.nodes.add(node("1"));
+      BackendNodeInventory inventory = new BackendNodeInventory(backend, 10, TimeUnit.SECONDS, ticker);
+
+      assertTrue(inventory.isStale());
+      assertEquals(inventory.nodes().size(), 1);
+      assertNotNull(inventory.get("1"));
+      assertNull(inventory.get("2"));
+      assertEquals(backend.listings, 1);
+
+      backend.nodes.add(node("2"));
+      ticker.advance(11, TimeUnit.SECONDS);
+      assertNotNull(inventory.get("2"));
+      assertEquals(backend.listings, 2);
+   }
+
+   public void testAppliesPoolChangesWithoutListing() {
+      FakeTicker ticker = new FakeTicker();
+      Backend backend = new Backend();
+      backend.nodes.add(node("1"));
+      BackendNodeInventory inventory = new BackendNodeInventory(backend, 10, TimeUnit.SECONDS, ticker);
+      inventory.refresh();
+
+      inventory.put(node("2"));
+      inventory.remove("1");
+      assertEquals(inventory.nodes(), ImmutableSet.of(node("2")));
+      assertEquals(backend.listings, 1);
+   }
+
+   public void testPoolChangesWinOverOlderListings() {
+      final FakeTicker ticker = new FakeTicker();
+      Backend backend = new Backend();
+      backend.nodes.add(node("1"));
+      final BackendNodeInventory inventory = new BackendNodeInventory(backend, 10, TimeUnit.SECONDS, ticker);
+      inventory.refresh();
+
+      // the pool creates 2 and destroys 1 while a listing that still reports the old state is running
+      backend.duringListing = new Runnable() {
+         @Override
+         public void run() {
+            ticker.advance(1, TimeUnit.SECONDS);
+            inventory.put(node("2"));
+            inventory.remove("1");
+         }
+      };
+      inventory.refresh();
+      assertEquals(inventory.nodes(), ImmutableSet.of(node("2")));
+
+      // later listings are authoritative again
+      ticker.advance(1, TimeUnit.SECONDS);
+      inventory.refresh();
+      assertEquals(inventory.nodes(), ImmutableSet.of(node("1")));
+   }
+}
@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.RunNodesException;
+import org.jclouds.compute.domain.Hardware;
+import org.jclouds.compute.domain.Image;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadata.Status;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.jclouds.compute.domain.Template;
+import org.jclouds.compute.options.TemplateOptions;
+import org.jclouds.domain.Location;
+import org.jclouds.nodepool.NodePoolMetrics;
+import org.jclouds.nodepool.NodePoolMetrics.Event;
+import org.jclouds.nodepool.NodeScrubber;
+import org.jclouds.scriptbuilder.statements.login.AdminAccess;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+@Test(groups = "unit", testName = "EagerNodePoolComputeServiceAdapterTest", singleThreaded = true)
+public class EagerNodePoolComputeServiceAdapterTest {
+
+   private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+   private final String baseDir = "target/eagernodepoolcomputeserviceadaptertest";
+   private final NodeMetadata backendNode = new NodeMetadataBuilder().id("1").group("nodepool")
+            .status(Status.RUNNING).build();
+   private JournalNodeMetadataStore store;
+   private EagerNodePoolComputeServiceAdapter running;
+
+   @BeforeMethod
+   public void openStore() {
+      new File(baseDir, "nodes.journal").delete();
+      store = new JournalNodeMetadataStore(baseDir, "nodes", scheduler, 60 * 1000);
+   }
+
+   @AfterMethod
+   public void stopPool() {
+      if (running != null) {
+         running.stopEagerPool();
+         running = null;
+      }
+      store.close();
+   }
+
+   @AfterClass
+   public void shutdown() {
+      scheduler.shutdownNow();
+   }
+
+   @SuppressWarnings("unchecked")
+   private static ComputeService backendWith(NodeMetadata node) {
+      ComputeService backend = createNiceMock(ComputeService.class);
+      expect(backend.listNodesDetailsMatching(anyObject(Predicate.class))).andReturn((Set) ImmutableSet.of(node))
+               .anyTimes();
+      return backend;
+   }
+
+   private EagerNodePoolComputeServiceAdapter startPool(ComputeService backend, NodeScrubber scrubber,
+            boolean removeQuarantined, NodePoolMetrics metrics) {
+      return startPool(backend, createNiceMock(Template.class), scrubber, removeQuarantined, metrics);
+   }
+
+   private EagerNodePoolComputeServiceAdapter startPool(ComputeService backend, Template backendTemplate,
+            NodeScrubber scrubber, boolean removeQuarantined, NodePoolMetrics metrics) {
+      running = new EagerNodePoolComputeServiceAdapter(Suppliers.ofInstance(backend),
+               Suppliers.ofInstance(backendTemplate), "nodepool", 10, 0, false, store,
+               "adminUsername=pooluser,adminPassword=poolpass", createNiceMock(AdminAccess.Configuration.class),
+               MoreExecutors.sameThreadExecutor(), scheduler, 0, 0, 1, 1, 60 * 1000, 1000, scrubber, 1,
+               removeQuarantined, 0, 60 * 1000, new StaticSizingPolicy(), 60 * 1000, 60 * 60 * 1000, metrics);
+      running.startEagerPool();
+      return running;
+   }
+
+   private static Template frontendTemplate() {
+      Template template = createNiceMock(Template.class);
+      expect(template.getOptions()).andReturn(
+               TemplateOptions.Builder.overrideLoginUser("user").overrideLoginPassword("password")).anyTimes();
+      replay(template);
+      return template;
+   }
+
+   private static void await(Supplier<Boolean> condition) {
+      long deadline = System.currentTimeMillis() + 10 * 1000;
+      while (!condition.get()) {
+         assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for the scrubber");
+         Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   private static NodeScrubber scrubber(final boolean clean) {
+      return new NodeScrubber() {
+         @Override
+         public boolean scrub(NodeMetadata backendNode) {
+            return clean;
+         }
+      };
+   }
+
+   public void testScrubbedNodeIsReturnedToTheIdleSet() {
+      ComputeService backend = backendWith(backendNode);
+      replay(backend);
+      final EagerNodePoolComputeServiceAdapter pool = startPool(backend, scrubber(true), true,
+               new NodePoolMetrics());
+      assertEquals(pool.idleNodes(), 1);
+
+      String id = pool.createNodeWithGroupEncodedIntoName("frontend", "node", frontendTemplate()).getNodeId();
+      assertEquals(pool.usedNodes(), 1);
+      pool.destroyNode(id);
+      await(new Supplier<Boolean>() {
+         @Override
+         public Boolean get() {
+            return pool.idleNodes() == 1;
+         }
+      });
+
+      assertEquals(pool.usedNodes(), 0);
+      assertEquals(pool.currentSize(), 1);
+      assertNull(store.load(backendNode));
+      assertEquals(pool.createNodeWithGroupEncodedIntoName("frontend", "node", frontendTemplate()).getNodeId(), id);
+   }
+
+   public void testNodeThatFailsScrubbingIsQuarantined() {
+      ComputeService backend = backendWith(backendNode);
+      replay(backend);
+      final NodePoolMetrics metrics = new NodePoolMetrics();
+      EagerNodePoolComputeServiceAdapter pool = startPool(backend, scrubber(false), false, metrics);
+
+      pool.destroyNode(pool.createNodeWithGroupEncodedIntoName("frontend", "node", frontendTemplate()).getNodeId());
+      await(new Supplier<Boolean>() {
+         @Override
+         public Boolean get() {
+            return metrics.events(Event.NODE_QUARANTINED) == 1;
+         }
+      });
+
+      // kept in the pool, but never handed out again
+      assertEquals(pool.idleNodes(), 0);
+      assertEquals(pool.usedNodes(), 0);
+      assertEquals(pool.currentSize(), 1);
+   }
+
+   public void testQuarantinedNodeIsDestroyed() {
+      ComputeService backend = backendWith(backendNode);
+      backend.destroyNode("1");
+      expectLastCall();
+      replay(backend);
+      final EagerNodePoolComputeServiceAdapter pool = startPool(backend, new NodeScrubber() {
+         @Override
+         public boolean scrub(NodeMetadata backendNode) {
+            throw new IllegalStateException("ssh connection refused");
+         }
+      }, true, new NodePoolMetrics());
+
+      pool.destroyNode(pool.createNodeWithGroupEncodedIntoName("frontend", "node", frontendTemplate()).getNodeId());
+      await(new Supplier<Boolean>() {
+         @Override
+         public Boolean get() {
+            return pool.currentSize() == 0;
+         }
+      });
+
+      verify(backend);
+   }
+
+   public void testDestroyingAnUnassignedNodeIsIgnored() {
+      ComputeService backend = backendWith(backendNode);
+      replay(backend);
+      EagerNodePoolComputeServiceAdapter pool = startPool(backend, scrubber(true), true, new NodePoolMetrics());
+
+      pool.destroyNode("1");
+      pool.destroyNode("unknown");
+
+      assertEquals(pool.idleNodes(), 1);
+   }
+
+   @SuppressWarnings("unchecked")
+   public void testNodesStartedByAFailedBatchAreKeptIdle() throws RunNodesException {
+      NodeMetadata started = new NodeMetadataBuilder().id("2").group("nodepool").status(Status.RUNNING).build();
+      Template backendTemplate = createNiceMock(Template.class);
+      expect(backendTemplate.clone()).andReturn(backendTemplate).anyTimes();
+      expect(backendTemplate.getOptions()).andReturn(new TemplateOptions()).anyTimes();
+      expect(backendTemplate.getLocation()).andReturn(createNiceMock(Location.class)).anyTimes();
+      expect(backendTemplate.getImage()).andReturn(createNiceMock(Image.class)).anyTimes();
+      expect(backendTemplate.getHardware()).andReturn(createNiceMock(Hardware.class)).anyTimes();
+      replay(backendTemplate);
+      ComputeService backend = backendWith(backendNode);
+      expect(backend.createNodesInGroup("nodepool", 2, backendTemplate)).andThrow(
+               new RunNodesException("nodepool", 2, backendTemplate, ImmutableSet.of(started),
+                        ImmutableMap.<Object, Exception> of(), ImmutableMap.of(
+                                 new NodeMetadataBuilder().id("3").group("nodepool").status(Status.ERROR).build(),
+                                 new IllegalStateException("did not boot"))));
+      replay(backend);
+      NodePoolMetrics metrics = new NodePoolMetrics();
+      EagerNodePoolComputeServiceAdapter pool = startPool(backend, backendTemplate, scrubber(true), true, metrics);
+
+      try {
+         pool.growPool(2);
+         fail("expected the failed batch to propagate");
+      } catch (RuntimeException e) {
+         assertTrue(e.getCause() instanceof RunNodesException, e.toString());
+      }
+
+      assertTrue(pool.contains("2"));
+      assertEquals(pool.idleNodes(), 2);
+      assertEquals(pool.currentSize(), 2);
+      assertEquals(metrics.events(Event.NODE_PROVISIONED), 1);
+   }
+}
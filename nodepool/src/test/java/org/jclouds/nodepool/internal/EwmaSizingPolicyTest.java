@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jclouds.nodepool.DemandHistory;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+
+@Test(groups = "unit", testName = "EwmaSizingPolicyTest")
+public class EwmaSizingPolicyTest {
+
+   private final AtomicLong nanos = new AtomicLong();
+   private final Ticker ticker = new Ticker() {
+      @Override
+      public long read() {
+         return nanos.get();
+      }
+   };
+
+   private void allocate(DemandHistory history, int... perMinute) {
+      for (int allocations : perMinute) {
+         for (int i = 0; i < allocations; i++) {
+            history.recordAllocation();
+         }
+         nanos.addAndGet(TimeUnit.MINUTES.toNanos(1));
+      }
+   }
+
+   public void testFollowsTheAllocationRate() {
+      DemandHistory history = new DemandHistory(1, TimeUnit.MINUTES, 60, ticker);
+      EwmaSizingPolicy policy = new EwmaSizingPolicy(0.5, TimeUnit.MINUTES.toMillis(5));
+      assertEquals(policy.idleTarget(history), 0);
+
+      allocate(history, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2);
+      // 2 per minute over 5 minutes
+      assertEquals(policy.idleTarget(history), 10);
+
+      allocate(history, 10);
+      int spike = policy.idleTarget(history);
+      assertTrue(spike > 10 && spike <= 50, "target after spike: " + spike);
+
+      allocate(history, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+      assertTrue(policy.idleTarget(history) <= 1);
+   }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadata.Status;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.jclouds.compute.options.TemplateOptions;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+@Test(groups = "unit", testName = "JournalNodeMetadataStoreTest", singleThreaded = true)
+public class JournalNodeMetadataStoreTest {
+
+   private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+   private final String baseDir = "target/journalnodemetadatastoretest";
+   private final File journal = new File(baseDir, "nodes.journal");
+   private final NodeMetadata nodeMeta1 = new NodeMetadataBuilder().id("testmeta1").status(Status.ERROR).build();
+   private final NodeMetadata nodeMeta2 = new NodeMetadataBuilder().id("testmeta2").status(Status.ERROR).build();
+   private final TemplateOptions templateOptions = new TemplateOptions().overrideLoginUser("testuser")
+            .overrideLoginPassword("testpass").overrideAuthenticateSudo(true)
+            .userMetadata("testmetakey", "testmetavalue").overrideLoginPrivateKey("pk")
+            .tags(ImmutableList.of("tag1", "tag2"));
+
+   @BeforeMethod
+   public void deleteJournal() {
+      journal.delete();
+   }
+
+   @AfterClass
+   public void shutdown() {
+      scheduler.shutdownNow();
+   }
+
+   private JournalNodeMetadataStore newStore() {
+      return new JournalNodeMetadataStore(baseDir, "nodes", scheduler, 60 * 1000);
+   }
+
+   public void testStoreAndLoad() {
+      JournalNodeMetadataStore store = newStore();
+      store.store(nodeMeta1, templateOptions, "testgroup");
+      NodeMetadata loaded = store.load(nodeMeta1);
+      assertEquals(loaded.getId(), nodeMeta1.getId());
+      assertEquals(loaded.getTags(), ImmutableSet.of("tag1", "tag2"));
+      assertEquals(loaded.getUserMetadata().get("testmetakey"), "testmetavalue");
+      assertEquals(loaded.getCredentials().getUser(), "testuser");
+      assertEquals(loaded.getCredentials().getPassword(), "testpass");
+      assertEquals(loaded.getCredentials().getPrivateKey(), "pk");
+      assertEquals(loaded.getCredentials().shouldAuthenticateSudo(), true);
+      assertEquals(loaded.getGroup(), "testgroup");
+      assertNull(store.load(nodeMeta2));
+      store.close();
+   }
+
+   public void testReplay() {
+      JournalNodeMetadataStore store = newStore();
+      store.store(nodeMeta1, templateOptions, "testgroup");
+      store.store(nodeMeta2, templateOptions, "testgroup");
+      store.deleteMapping(nodeMeta1.getId());
+      store.store(nodeMeta2, templateOptions, "othergroup");
+      store.close();
+
+      store = newStore();
+      assertNull(store.load(nodeMeta1));
+      assertEquals(store.load(nodeMeta2).getGroup(), "othergroup");
+      assertEquals(store.loadAll(ImmutableSet.of(nodeMeta1, nodeMeta2)).size(), 1);
+      store.deleteAllMappings();
+      store.close();
+
+      store = newStore();
+      assertNull(store.load(nodeMeta2));
+      store.close();
+   }
+
+   public void testCompactionKeepsLiveMappings() {
+      JournalNodeMetadataStore store = newStore();
+      for (int i = 0; i < 100; i++) {
+         store.store(nodeMeta1, templateOptions, "group" + i);
+      }
+      store.store(nodeMeta2, templateOptions, "testgroup");
+      store.compact();
+      assertEquals(store.load(nodeMeta1).getGroup(), "group99");
+      store.close();
+
+      store = newStore();
+      assertEquals(store.load(nodeMeta1).getGroup(), "group99");
+      assertEquals(store.load(nodeMeta2).getGroup(), "testgroup");
+      store.close();
+   }
+
+   public void testIgnoresIncompleteRecord() throws IOException {
+      JournalNodeMetadataStore store = newStore();
+      store.store(nodeMeta1, templateOptions, "testgroup");
+      store.store(nodeMeta2, templateOptions, "testgroup");
+      store.close();
+
+      // corrupt the payload of the last record, as an interrupted write would
+      RandomAccessFile file = new RandomAccessFile(journal, "rw");
+      try {
+         int first = file.readInt();
+         file.seek(8 + first + 8 + 2);
+         file.writeByte(0x7f);
+      } finally {
+         file.close();
+      }
+
+      store = newStore();
+      assertEquals(store.load(nodeMeta1).getGroup(), "testgroup");
+      assertNull(store.load(nodeMeta2));
+      store.store(nodeMeta2, templateOptions, "othergroup");
+      store.close();
+
+      store = newStore();
+      assertEquals(store.load(nodeMeta2).getGroup(), "othergroup");
+      assertTrue(journal.length() > 0);
+      store.close();
+   }
+}
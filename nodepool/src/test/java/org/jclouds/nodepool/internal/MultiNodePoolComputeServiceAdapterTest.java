@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.jclouds.Constants.PROPERTY_IO_WORKER_THREADS;
+import static org.jclouds.Constants.PROPERTY_SCHEDULER_THREADS;
+import static org.jclouds.Constants.PROPERTY_USER_THREADS;
+import static org.jclouds.nodepool.config.NodePoolProperties.BACKEND_GROUP;
+import static org.jclouds.nodepool.config.NodePoolProperties.CLAIM_TIMEOUT;
+import static org.jclouds.nodepool.config.NodePoolProperties.DEMAND_BUCKET;
+import static org.jclouds.nodepool.config.NodePoolProperties.DEMAND_HISTORY;
+import static org.jclouds.nodepool.config.NodePoolProperties.HIGH_WATERMARK;
+import static org.jclouds.nodepool.config.NodePoolProperties.INVENTORY_MAX_STALENESS;
+import static org.jclouds.nodepool.config.NodePoolProperties.INVENTORY_REFRESH_INTERVAL;
+import static org.jclouds.nodepool.config.NodePoolProperties.LOW_WATERMARK;
+import static org.jclouds.nodepool.config.NodePoolProperties.MAX_SIZE;
+import static org.jclouds.nodepool.config.NodePoolProperties.MIN_SIZE;
+import static org.jclouds.nodepool.config.NodePoolProperties.POOLS;
+import static org.jclouds.nodepool.config.NodePoolProperties.POOL_ADMIN_ACCESS;
+import static org.jclouds.nodepool.config.NodePoolProperties.POOL_PREFIX;
+import static org.jclouds.nodepool.config.NodePoolProperties.REMOVE_DESTROYED;
+import static org.jclouds.nodepool.config.NodePoolProperties.REMOVE_QUARANTINED;
+import static org.jclouds.nodepool.config.NodePoolProperties.REPLENISH_BATCH_SIZE;
+import static org.jclouds.nodepool.config.NodePoolProperties.REPLENISH_CONCURRENCY;
+import static org.jclouds.nodepool.config.NodePoolProperties.REPLENISH_INTERVAL;
+import static org.jclouds.nodepool.config.NodePoolProperties.SCRUB_THREADS;
+import static org.jclouds.nodepool.config.NodePoolProperties.SIZING_POLICY;
+import static org.jclouds.nodepool.internal.MultiNodePoolComputeServiceAdapter.route;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.JCloudsNativeComputeServiceAdapter.NodeWithInitialCredentials;
+import org.jclouds.compute.config.AdminAccessConfiguration;
+import org.jclouds.compute.domain.HardwareBuilder;
+import org.jclouds.compute.domain.Image;
+import org.jclouds.compute.domain.ImageBuilder;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadata.Status;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.jclouds.compute.domain.OperatingSystem;
+import org.jclouds.compute.domain.OsFamily;
+import org.jclouds.compute.domain.Template;
+import org.jclouds.compute.domain.TemplateBuilder;
+import org.jclouds.compute.domain.internal.TemplateImpl;
+import org.jclouds.compute.options.TemplateOptions;
+import org.jclouds.domain.Location;
+import org.jclouds.domain.LocationBuilder;
+import org.jclouds.domain.LocationScope;
+import org.jclouds.lifecycle.Closer;
+import org.jclouds.lifecycle.config.LifeCycleModule;
+import org.jclouds.nodepool.Backend;
+import org.jclouds.nodepool.NodeScrubber;
+import org.jclouds.scriptbuilder.statements.login.AdminAccess;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ExecutionList;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.TypeLiteral;
+import com.google.inject.assistedinject.FactoryModuleBuilder;
+import com.google.inject.name.Names;
+
+@Test(groups = "unit", testName = "MultiNodePoolComputeServiceAdapterTest")
+public class MultiNodePoolComputeServiceAdapterTest {
+
+   private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+   @AfterClass
+   public void shutdown() {
+      scheduler.shutdownNow();
+   }
+
+   private static final Location EAST = new LocationBuilder().scope(LocationScope.REGION).id("east")
+            .description("east").build();
+   private static final Location WEST = new LocationBuilder().scope(LocationScope.REGION).id("west")
+            .description("west").build();
+
+   private static Template template(String imageId, String hardwareId, Location location) {
+      Image image = new ImageBuilder().id(imageId).status(Image.Status.AVAILABLE)
+               .operatingSystem(OperatingSystem.builder().family(OsFamily.UBUNTU).description("ubuntu").build())
+               .build();
+      return new TemplateImpl(image, new HardwareBuilder().id(hardwareId).build(), location, new TemplateOptions());
+   }
+
+   private final Map<String, Template> pools = ImmutableMap.of(
+            "small", template("ubuntu", "small", EAST),
+            "large", template("ubuntu", "large", EAST),
+            "large-west", template("ubuntu", "large", WEST),
+            "centos", template("centos", "small", EAST));
+
+   public void testRoutesToExactMatch() {
+      assertEquals(route(pools, template("ubuntu", "large", WEST)), "large-west");
+      assertEquals(route(pools, template("centos", "small", EAST)), "centos");
+      assertEquals(route(pools, template("ubuntu", "large", EAST)), "large");
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "no pool serves "
+            + "image centos, hardware large in east, pools: .*")
+   public void testDoesNotFallBackToAPoolWithTheSameImage() {
+      route(pools, template("centos", "large", EAST));
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "no pool serves "
+            + "image debian, hardware large in east, pools: small=\\[image: ubuntu, hardware: small, location: "
+            + "east\\], .*")
+   public void testRejectsTemplatesNoPoolServes() {
+      route(pools, template("debian", "large", EAST));
+   }
+
+   @SuppressWarnings("unchecked")
+   public void testAllocatesAndReleasesThroughTheSubPools() throws Exception {
+      TemplateBuilder small = createNiceMock(TemplateBuilder.class);
+      expect(small.build()).andReturn(template("ubuntu", "small", EAST)).anyTimes();
+      TemplateBuilder large = createNiceMock(TemplateBuilder.class);
+      expect(large.build()).andReturn(template("ubuntu", "large", EAST)).anyTimes();
+      TemplateBuilder templateBuilder = createNiceMock(TemplateBuilder.class);
+      expect(templateBuilder.from("hardwareId=small")).andReturn(small).anyTimes();
+      expect(templateBuilder.from("hardwareId=large")).andReturn(large).anyTimes();
+      final ComputeService backend = createNiceMock(ComputeService.class);
+      expect(backend.templateBuilder()).andReturn(templateBuilder).anyTimes();
+      expect(backend.listNodesDetailsMatching(anyObject(Predicate.class))).andReturn(
+               (Set) ImmutableSet.of(backendNode("small-1", "nodepool-small"),
+                        backendNode("large-1", "nodepool-large"))).anyTimes();
+      replay(small, large, templateBuilder, backend);
+
+      final Properties properties = new Properties();
+      properties.setProperty(POOLS, "small,large");
+      properties.setProperty(POOL_PREFIX + "small.template", "hardwareId=small");
+      properties.setProperty(POOL_PREFIX + "large.template", "hardwareId=large");
+      properties.setProperty(POOL_PREFIX + "large.max-size", "1");
+      properties.setProperty(BACKEND_GROUP, "nodepool");
+      properties.setProperty(MAX_SIZE, "10");
+      properties.setProperty(MIN_SIZE, "0");
+      properties.setProperty(LOW_WATERMARK, "0");
+      properties.setProperty(HIGH_WATERMARK, "0");
+      properties.setProperty(REMOVE_DESTROYED, "false");
+      properties.setProperty(REMOVE_QUARANTINED, "false");
+      properties.setProperty(POOL_ADMIN_ACCESS, "adminUsername=pooluser,adminPassword=poolpass");
+      properties.setProperty(REPLENISH_BATCH_SIZE, "1");
+      properties.setProperty(REPLENISH_CONCURRENCY, "1");
+      properties.setProperty(REPLENISH_INTERVAL, "60000");
+      properties.setProperty(CLAIM_TIMEOUT, "1000");
+      properties.setProperty(SCRUB_THREADS, "1");
+      properties.setProperty(INVENTORY_REFRESH_INTERVAL, "0");
+      properties.setProperty(INVENTORY_MAX_STALENESS, "60000");
+      properties.setProperty(SIZING_POLICY, "static");
+      properties.setProperty(DEMAND_BUCKET, "60000");
+      properties.setProperty(DEMAND_HISTORY, "3600000");
+      final JournalNodeMetadataStore store = new JournalNodeMetadataStore("target/multinodepoolcomputeserviceadaptertest",
+               "nodes", scheduler, 60 * 1000);
+      store.deleteAllMappings();
+
+      Injector injector = Guice.createInjector(new LifeCycleModule(), new AbstractModule() {
+         @Override
+         protected void configure() {
+            Names.bindProperties(binder(), properties);
+            bind(new TypeLiteral<Supplier<ComputeService>>() {
+            }).annotatedWith(Backend.class).toInstance(Suppliers.ofInstance(backend));
+            bind(NodeMetadataStore.class).toInstance(store);
+            bind(AdminAccess.Configuration.class).to(AdminAccessConfiguration.Default.class);
+            bind(ListeningExecutorService.class).annotatedWith(Names.named(PROPERTY_USER_THREADS)).toInstance(
+                     MoreExecutors.sameThreadExecutor());
+            bind(ListeningExecutorService.class).annotatedWith(Names.named(PROPERTY_IO_WORKER_THREADS))
+                     .toInstance(MoreExecutors.sameThreadExecutor());
+            bind(ScheduledExecutorService.class).annotatedWith(Names.named(PROPERTY_SCHEDULER_THREADS))
+                     .toInstance(scheduler);
+            bind(NodeScrubber.class).toInstance(new NodeScrubber() {
+               @Override
+               public boolean scrub(NodeMetadata backendNode) {
+                  return true;
+               }
+            });
+            install(new FactoryModuleBuilder().build(EagerNodePoolComputeServiceAdapter.Factory.class));
+         }
+      });
+      MultiNodePoolComputeServiceAdapter adapter = injector.getInstance(MultiNodePoolComputeServiceAdapter.class);
+      // starts the sub-pools
+      injector.getInstance(ExecutionList.class).execute();
+      try {
+         assertEquals(adapter.idleNodes(), 2);
+         assertEquals(adapter.maxNodes(), 11);
+
+         Template request = template("ubuntu", "large", EAST);
+         request.getOptions().overrideLoginUser("user").overrideLoginPassword("password");
+         NodeWithInitialCredentials node = adapter.createNodeWithGroupEncodedIntoName("frontend", "node", request);
+         assertEquals(node.getNodeId(), "large-1");
+         assertEquals(adapter.getNode("large-1").getGroup(), "frontend");
+         assertEquals(adapter.usedNodes(), 1);
+
+         adapter.destroyNode("large-1");
+         for (int i = 0; i < 500 && adapter.idleNodes() < 2; i++) {
+            Thread.sleep(10);
+         }
+         assertEquals(adapter.idleNodes(), 2);
+         assertEquals(adapter.usedNodes(), 0);
+         assertNull(store.load(backendNode("large-1", "nodepool-large")));
+      } finally {
+         // stops the sub-pools and closes the store
+         injector.getInstance(Closer.class).close();
+      }
+   }
+
+   private static NodeMetadata backendNode(String id, String group) {
+      return new NodeMetadataBuilder().id(id).group(group).status(Status.RUNNING).build();
+   }
+}
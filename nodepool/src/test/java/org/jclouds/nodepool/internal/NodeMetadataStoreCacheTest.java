@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadata.Status;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.jclouds.compute.options.TemplateOptions;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+@Test(groups = "unit", testName = "NodeMetadataStoreCacheTest")
+public class NodeMetadataStoreCacheTest {
+
+   private static class CountingStore implements NodeMetadataStore {
+      private final Map<String, NodeMetadata> mappings = Maps.newHashMap();
+      private final AtomicInteger loads = new AtomicInteger();
+
+      @Override
+      public NodeMetadata store(NodeMetadata backendNode, TemplateOptions userOptions, String userGroup) {
+         NodeMetadata frontendNode = NodeMetadataBuilder.fromNodeMetadata(backendNode).group(userGroup)
+                  .tags(userOptions.getTags()).build();
+         mappings.put(backendNode.getId(), frontendNode);
+         return frontendNode;
+      }
+
+      @Override
+      public Set<NodeMetadata> storeAll(Iterable<NodeMetadata> backendNodes, TemplateOptions userOptions,
+               String userGroup) {
+         Set<NodeMetadata> frontendNodes = Sets.newLinkedHashSet();
+         for (NodeMetadata backendNode : backendNodes) {
+            frontendNodes.add(store(backendNode, userOptions, userGroup));
+         }
+         return frontendNodes;
+      }
+
+      @Override
+      public NodeMetadata load(NodeMetadata backendNode) {
+         loads.incrementAndGet();
+         return mappings.get(backendNode.getId());
+      }
+
+      @Override
+      public Set<NodeMetadata> loadAll(Set<NodeMetadata> backendNodes) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void deleteMapping(String backendNodeId) {
+         mappings.remove(backendNodeId);
+      }
+
+      @Override
+      public void deleteAllMappings() {
+         mappings.clear();
+      }
+   }
+
+   private static NodeMetadata node(String id, Status status) {
+      return new NodeMetadataBuilder().id(id).status(status).build();
+   }
+
+   public void testCachesMissingMappings() {
+      CountingStore store = new CountingStore();
+      NodeMetadataStoreCache cache = new NodeMetadataStoreCache(store, 10);
+      assertNull(cache.load(node("1", Status.RUNNING)));
+      assertNull(cache.load(node("1", Status.RUNNING)));
+      assertEquals(store.loads.get(), 1);
+      assertEquals(cache.stats().hitCount(), 1);
+      assertEquals(cache.stats().missCount(), 1);
+   }
+
+   public void testStoreAndDeleteUpdateTheCache() {
+      CountingStore store = new CountingStore();
+      NodeMetadataStoreCache cache = new NodeMetadataStoreCache(store, 10);
+      assertNull(cache.load(node("1", Status.RUNNING)));
+      cache.store(node("1", Status.RUNNING), TemplateOptions.Builder.tags(ImmutableSet.of("tag")), "group");
+
+      NodeMetadata loaded = cache.load(node("1", Status.SUSPENDED));
+      assertEquals(loaded.getGroup(), "group");
+      assertEquals(loaded.getTags(), ImmutableSet.of("tag"));
+      // backend state comes from the node being loaded, not from the cached mapping
+      assertEquals(loaded.getStatus(), Status.SUSPENDED);
+
+      cache.deleteMapping("1");
+      assertNull(cache.load(node("1", Status.RUNNING)));
+      assertEquals(store.loads.get(), 1);
+   }
+
+   public void testStoreAllUpdatesTheCache() {
+      CountingStore store = new CountingStore();
+      NodeMetadataStoreCache cache = new NodeMetadataStoreCache(store, 10);
+      Set<NodeMetadata> stored = cache.storeAll(ImmutableSet.of(node("1", Status.RUNNING), node("2", Status.RUNNING)),
+               TemplateOptions.NONE, "group");
+      assertEquals(stored.size(), 2);
+      assertEquals(cache.load(node("1", Status.RUNNING)).getGroup(), "group");
+      assertEquals(cache.load(node("2", Status.RUNNING)).getGroup(), "group");
+      assertEquals(store.loads.get(), 0);
+   }
+
+   public void testLoadAllSkipsUnmappedNodes() {
+      CountingStore store = new CountingStore();
+      NodeMetadataStoreCache cache = new NodeMetadataStoreCache(store, 10);
+      cache.store(node("1", Status.RUNNING), TemplateOptions.NONE, "group");
+      Set<NodeMetadata> loaded = cache.loadAll(ImmutableSet.of(node("1", Status.RUNNING), node("2", Status.RUNNING)));
+      assertEquals(loaded.size(), 1);
+      assertEquals(loaded.iterator().next().getId(), "1");
+   }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadata.Status;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.jclouds.nodepool.internal.NodePoolIndex.State;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+@Test(groups = "unit", testName = "NodePoolIndexTest")
+public class NodePoolIndexTest {
+
+   private static NodeMetadata node(String id) {
+      return new NodeMetadataBuilder().id(id).status(Status.RUNNING).build();
+   }
+
+   public void testClaimAndRelease() {
+      NodePoolIndex index = new NodePoolIndex(10);
+      index.addIdle(node("1"));
+      index.addAssigned(node("2"));
+      assertEquals(index.size(), 2);
+      assertEquals(index.count(State.IDLE), 1);
+      assertEquals(index.count(State.ASSIGNED), 1);
+
+      assertEquals(index.claim().getId(), "1");
+      assertNull(index.claim());
+      assertEquals(index.count(State.ASSIGNED), 2);
+
+      assertTrue(index.unassign("2"));
+      assertFalse(index.unassign("2"));
+      assertEquals(index.getState("2"), State.RELEASING);
+      assertTrue(index.makeIdle("2"));
+      assertFalse(index.makeIdle("2"));
+      assertEquals(index.claim().getId(), "2");
+   }
+
+   public void testClaimSeveral() {
+      NodePoolIndex index = new NodePoolIndex(10);
+      index.addIdle(node("1"));
+      index.addIdle(node("2"));
+      index.addIdle(node("3"));
+      assertEquals(index.claim(2).size(), 2);
+      assertEquals(index.claim(2).size(), 1);
+      assertTrue(index.claim(2).isEmpty());
+      assertEquals(index.count(State.ASSIGNED), 3);
+   }
+
+   public void testScrubAndQuarantine() {
+      NodePoolIndex index = new NodePoolIndex(10);
+      index.addAssigned(node("1"));
+      index.addAssigned(node("2"));
+      assertFalse(index.scrub("1"));
+      assertTrue(index.unassign("1"));
+      assertTrue(index.scrub("1"));
+      assertNull(index.claim());
+      assertTrue(index.makeIdle("1"));
+      assertEquals(index.claim().getId(), "1");
+
+      assertTrue(index.unassign("2"));
+      assertTrue(index.scrub("2"));
+      assertTrue(index.quarantine("2"));
+      assertFalse(index.makeIdle("2"));
+      assertEquals(index.count(State.QUARANTINED), 1);
+      assertEquals(index.size(), 2);
+   }
+
+   public void testFailedReleaseIsReassignedOrQuarantined() {
+      NodePoolIndex index = new NodePoolIndex(10);
+      index.addAssigned(node("1"));
+      index.addAssigned(node("2"));
+      assertFalse(index.reassign("1"));
+      assertTrue(index.unassign("1"));
+      assertTrue(index.reassign("1"));
+      assertEquals(index.getState("1"), State.ASSIGNED);
+
+      assertTrue(index.unassign("2"));
+      assertTrue(index.quarantine("2"));
+      assertFalse(index.quarantine("2"));
+      assertNull(index.claim());
+      assertEquals(index.count(State.QUARANTINED), 1);
+      assertEquals(index.count(State.RELEASING), 0);
+   }
+
+   public void testRemovedNodeIsNotClaimed() {
+      NodePoolIndex index = new NodePoolIndex(10);
+      index.addIdle(node("1"));
+      assertEquals(index.remove("1").getId(), "1");
+      assertNull(index.claim());
+      assertEquals(index.size(), 0);
+      assertEquals(index.count(State.IDLE), 0);
+   }
+
+   public void testConditionalRemove() {
+      NodePoolIndex index = new NodePoolIndex(10);
+      index.addIdle(node("1"));
+      index.addAssigned(node("2"));
+      assertNull(index.remove("2", State.IDLE));
+      assertEquals(index.remove("1", State.IDLE).getId(), "1");
+      assertEquals(index.size(), 1);
+      assertEquals(index.count(State.ASSIGNED), 1);
+   }
+
+   public void testReserveHonoursMaxSize() {
+      NodePoolIndex index = new NodePoolIndex(3);
+      index.addIdle(node("1"));
+      assertTrue(index.reserve(2));
+      assertFalse(index.reserve(1));
+      index.unreserve(2);
+      assertTrue(index.reserve(1));
+      assertTrue(new NodePoolIndex(-1).reserve(1000));
+   }
+
+   public void testConcurrentClaimsGetDistinctNodes() throws Exception {
+      final NodePoolIndex index = new NodePoolIndex(-1);
+      for (int i = 0; i < 200; i++) {
+         index.addIdle(node(Integer.toString(i)));
+      }
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      try {
+         List<Future<NodeMetadata>> claims = Lists.newArrayList();
+         for (int i = 0; i < 250; i++) {
+            claims.add(executor.submit(new Callable<NodeMetadata>() {
+               @Override
+               public NodeMetadata call() {
+                  return index.claim();
+               }
+            }));
+         }
+         Set<String> claimed = Sets.newHashSet();
+         int misses = 0;
+         for (Future<NodeMetadata> claim : claims) {
+            NodeMetadata node = claim.get();
+            if (node == null) {
+               misses++;
+            } else {
+               assertTrue(claimed.add(node.getId()), "node claimed twice: " + node.getId());
+            }
+         }
+         assertEquals(claimed.size(), 200);
+         assertEquals(misses, 50);
+         assertEquals(index.count(State.IDLE), 0);
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+}
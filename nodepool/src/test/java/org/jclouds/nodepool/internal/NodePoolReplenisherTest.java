@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadata.Status;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.jclouds.logging.Logger;
+import org.jclouds.nodepool.internal.NodePoolIndex.State;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+
+@Test(groups = "unit", testName = "NodePoolReplenisherTest")
+public class NodePoolReplenisherTest {
+
+   private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+   @AfterClass
+   public void shutdown() {
+      scheduler.shutdownNow();
+   }
+
+   private static class CountingProvisioner implements Function<Integer, Set<? extends NodeMetadata>> {
+      private final AtomicInteger ids = new AtomicInteger();
+      private final List<Integer> batches = Lists.newArrayList();
+
+      @Override
+      public Set<? extends NodeMetadata> apply(Integer count) {
+         batches.add(count);
+         ImmutableSet.Builder<NodeMetadata> nodes = ImmutableSet.builder();
+         for (int i = 0; i < count; i++) {
+            nodes.add(new NodeMetadataBuilder().id("node" + ids.incrementAndGet()).status(Status.RUNNING).build());
+         }
+         return nodes.build();
+      }
+   }
+
+   private NodePoolReplenisher replenisher(NodePoolIndex index, CountingProvisioner provisioner, int minSize,
+            int low, int high, int batchSize) {
+      return new NodePoolReplenisher(index, provisioner, MoreExecutors.sameThreadExecutor(), scheduler,
+               Logger.NULL, minSize, low, high, batchSize, 1);
+   }
+
+   public void testReplenishesToHighWatermarkInBatches() {
+      NodePoolIndex index = new NodePoolIndex(10);
+      CountingProvisioner provisioner = new CountingProvisioner();
+      NodePoolReplenisher replenisher = replenisher(index, provisioner, 0, 2, 5, 2);
+
+      assertTrue(replenisher.needsReplenishing());
+      replenisher.replenish();
+      assertEquals(index.count(State.IDLE), 5);
+      assertEquals(provisioner.batches, Lists.newArrayList(2, 2, 1));
+      assertEquals(index.reserved(), 0);
+
+      // claiming down to the low watermark does not trigger replenishing
+      index.claim();
+      index.claim();
+      index.claim();
+      assertFalse(replenisher.needsReplenishing());
+      index.claim();
+      assertTrue(replenisher.needsReplenishing());
+   }
+
+   public void testDoesNotGrowPastMaxSize() {
+      NodePoolIndex index = new NodePoolIndex(3);
+      CountingProvisioner provisioner = new CountingProvisioner();
+      replenisher(index, provisioner, 0, 4, 4, 2).replenish();
+      assertEquals(index.size(), 3);
+   }
+
+   public void testProvisionsForCallersAboutToWait() {
+      NodePoolIndex index = new NodePoolIndex(10);
+      CountingProvisioner provisioner = new CountingProvisioner();
+      NodePoolReplenisher replenisher = replenisher(index, provisioner, 0, 0, 0, 2);
+      replenisher.replenish();
+      assertEquals(index.size(), 0);
+      replenisher.replenish(1);
+      assertEquals(index.count(State.IDLE), 1);
+   }
+
+   public void testIdleTargetRaisesTheWatermarks() {
+      NodePoolIndex index = new NodePoolIndex(10);
+      CountingProvisioner provisioner = new CountingProvisioner();
+      final AtomicInteger target = new AtomicInteger(6);
+      NodePoolReplenisher replenisher = new NodePoolReplenisher(index, provisioner,
+               MoreExecutors.sameThreadExecutor(), scheduler, Logger.NULL, 0, 1, 2, 2, 1, new Supplier<Integer>() {
+                  @Override
+                  public Integer get() {
+                     return target.get();
+                  }
+               });
+      replenisher.replenish();
+      assertEquals(index.count(State.IDLE), 6);
+
+      target.set(0);
+      for (int i = 0; i < 5; i++) {
+         index.claim();
+      }
+      assertFalse(replenisher.needsReplenishing());
+   }
+}
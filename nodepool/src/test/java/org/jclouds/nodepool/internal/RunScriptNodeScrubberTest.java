@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createStrictMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.domain.ExecResponse;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadata.Status;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.jclouds.compute.options.RunScriptOptions;
+import org.jclouds.scriptbuilder.domain.OsFamily;
+import org.jclouds.scriptbuilder.domain.Statement;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Suppliers;
+
+@Test(groups = "unit", testName = "RunScriptNodeScrubberTest")
+public class RunScriptNodeScrubberTest {
+
+   private static final String ADMIN_ACCESS = "adminUsername=pooluser,adminPassword=poolpass";
+   private static final NodeMetadata NODE = new NodeMetadataBuilder().id("1").status(Status.RUNNING).build();
+
+   private final Capture<Statement> statements = new Capture<Statement>(CaptureType.ALL);
+   private final Capture<RunScriptOptions> options = new Capture<RunScriptOptions>(CaptureType.ALL);
+
+   @BeforeMethod
+   public void resetCaptures() {
+      statements.reset();
+      options.reset();
+   }
+
+   private void expectScript(ComputeService backend, int exitStatus) {
+      expect(backend.runScriptOnNode(eq("1"), capture(statements), capture(options))).andReturn(
+               new ExecResponse("", "error", exitStatus));
+   }
+
+   public void testRunsTheScrubScriptThenTheHealthCheck() {
+      ComputeService backend = createStrictMock(ComputeService.class);
+      expectScript(backend, 0);
+      expectScript(backend, 0);
+      replay(backend);
+
+      assertTrue(new RunScriptNodeScrubber(Suppliers.ofInstance(backend), ADMIN_ACCESS, "rm -rf /tmp/work",
+               "test -d /home/pooluser").scrub(NODE));
+
+      verify(backend);
+      assertTrue(statements.getValues().get(0).render(OsFamily.UNIX).contains("rm -rf /tmp/work"));
+      assertTrue(statements.getValues().get(1).render(OsFamily.UNIX).contains("test -d /home/pooluser"));
+      assertEquals(options.getValues().get(0).getTaskName(), "nodepool-scrub");
+      assertEquals(options.getValues().get(1).getTaskName(), "nodepool-healthcheck");
+      assertEquals(options.getValues().get(0).getLoginUser(), "pooluser");
+   }
+
+   public void testFailedScrubSkipsTheHealthCheck() {
+      ComputeService backend = createStrictMock(ComputeService.class);
+      expectScript(backend, 1);
+      replay(backend);
+
+      assertFalse(new RunScriptNodeScrubber(Suppliers.ofInstance(backend), ADMIN_ACCESS, "rm -rf /tmp/work",
+               "test -d /home/pooluser").scrub(NODE));
+
+      verify(backend);
+   }
+
+   public void testFailedHealthCheckFailsTheScrub() {
+      ComputeService backend = createStrictMock(ComputeService.class);
+      expectScript(backend, 0);
+      expectScript(backend, 2);
+      replay(backend);
+
+      assertFalse(new RunScriptNodeScrubber(Suppliers.ofInstance(backend), ADMIN_ACCESS, "rm -rf /tmp/work",
+               "test -d /home/pooluser").scrub(NODE));
+
+      verify(backend);
+   }
+
+   public void testEmptyScriptsAreSkipped() {
+      ComputeService backend = createStrictMock(ComputeService.class);
+      expectScript(backend, 0);
+      replay(backend);
+
+      assertTrue(new RunScriptNodeScrubber(Suppliers.ofInstance(backend), ADMIN_ACCESS, "",
+               "test -d /home/pooluser").scrub(NODE));
+      assertTrue(new RunScriptNodeScrubber(Suppliers.ofInstance(backend), ADMIN_ACCESS, "", "").scrub(NODE));
+
+      verify(backend);
+      assertEquals(options.getValue().getTaskName(), "nodepool-healthcheck");
+   }
+}
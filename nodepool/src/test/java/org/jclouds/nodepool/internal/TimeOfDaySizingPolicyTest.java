@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.nodepool.internal;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.nodepool.DemandHistory;
+import org.jclouds.nodepool.FakeTicker;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit", testName = "TimeOfDaySizingPolicyTest")
+public class TimeOfDaySizingPolicyTest {
+
+   public void testProvisionsForYesterdaysPeak() {
+      FakeTicker ticker = new FakeTicker();
+      DemandHistory history = new DemandHistory(1, TimeUnit.HOURS, 3 * 24, ticker);
+      TimeOfDaySizingPolicy policy = new TimeOfDaySizingPolicy(TimeUnit.HOURS.toMillis(1));
+
+      // a nightly wave of 20 allocations, two days in a row
+      for (int day = 0; day < 2; day++) {
+         ticker.advance(23, TimeUnit.HOURS);
+         for (int i = 0; i < 20; i++) {
+            history.recordAllocation();
+         }
+         ticker.advance(1, TimeUnit.HOURS);
+      }
+      ticker.advance(22, TimeUnit.HOURS);
+
+      // one hour before the wave: nothing was allocated at this time on previous days
+      assertEquals(policy.idleTarget(history), 0);
+      ticker.advance(1, TimeUnit.HOURS);
+      assertEquals(policy.idleTarget(history), 20);
+   }
+
+   public void testAveragesOnlyTheDaysThatWereRecorded() {
+      FakeTicker ticker = new FakeTicker();
+      DemandHistory history = new DemandHistory(1, TimeUnit.HOURS, 3 * 24, ticker);
+      TimeOfDaySizingPolicy policy = new TimeOfDaySizingPolicy(TimeUnit.HOURS.toMillis(1));
+
+      // a single wave of 20 allocations yesterday, the day before is not in the history
+      ticker.advance(23, TimeUnit.HOURS);
+      for (int i = 0; i < 20; i++) {
+         history.recordAllocation();
+      }
+      ticker.advance(24, TimeUnit.HOURS);
+      assertEquals(history.recorded(), 25);
+      assertEquals(policy.idleTarget(history), 20);
+   }
+}
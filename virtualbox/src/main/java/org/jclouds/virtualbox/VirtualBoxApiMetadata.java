@@ -17,9 +17,16 @@
 package org.jclouds.virtualbox;
 
 import static org.jclouds.compute.config.ComputeServiceProperties.TEMPLATE;
+import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_BOOT_WORKERS;
+import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_CLONE_WORKERS;
 import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_DEFAULT_DIR;
+import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_DOWNLOAD_CONNECTIONS;
 import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_GUEST_MEMORY;
 import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_IMAGES_DESCRIPTOR;
+import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_IP_ADDRESS_NEGATIVE_TTL;
+import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_IP_ADDRESS_TTL;
+import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_NETWORK_WORKERS;
+import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_POST_CONFIGURATION_WORKERS;
 import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_PRECONFIGURATION_URL;
 import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_WORKINGDIR;
 
@@ -63,6 +70,16 @@ public class VirtualBoxApiMetadata extends BaseApiMetadata {
 
       String ram = System.getProperty(VIRTUALBOX_GUEST_MEMORY, "512");
       properties.put(VIRTUALBOX_GUEST_MEMORY, ram);
+
+      // cloning and booting are bound by the disk, configuring the nodes by the guests
+      properties.put(VIRTUALBOX_CLONE_WORKERS, "4");
+      properties.put(VIRTUALBOX_BOOT_WORKERS, "4");
+      properties.put(VIRTUALBOX_NETWORK_WORKERS, "8");
+      properties.put(VIRTUALBOX_POST_CONFIGURATION_WORKERS, "8");
+      properties.put(VIRTUALBOX_DOWNLOAD_CONNECTIONS, "4");
+      // seconds an ip address, or its absence, is cached unless a vbox event invalidates it first
+      properties.put(VIRTUALBOX_IP_ADDRESS_TTL, "600");
+      properties.put(VIRTUALBOX_IP_ADDRESS_NEGATIVE_TTL, "5");
       
       String yamlDescriptor = System.getProperty("test.virtualbox.image.descriptor.yaml", VIRTUALBOX_WORKINGDIR
                + File.separator + "images.yaml");
@@ -43,7 +43,9 @@ import org.jclouds.logging.Logger;
 import org.jclouds.virtualbox.domain.Master;
 import org.jclouds.virtualbox.domain.NodeSpec;
 import org.jclouds.virtualbox.domain.YamlImage;
+import org.jclouds.virtualbox.functions.IpAddressesLoadingCache;
 import org.jclouds.virtualbox.functions.admin.UnregisterMachineIfExistsAndForceDeleteItsMedia;
+import org.jclouds.virtualbox.util.GoldenSnapshots;
 import org.jclouds.virtualbox.util.MachineController;
 import org.virtualbox_4_2.IMachine;
 import org.virtualbox_4_2.IProgress;
@@ -57,6 +59,7 @@ import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
@@ -81,19 +84,24 @@ public class VirtualBoxComputeServiceAdapter implements ComputeServiceAdapter<IM
    private final Function<NodeSpec, NodeAndInitialCredentials<IMachine>> cloneCreator;
    private final Function<IMachine, Image> imachineToImage;
    private final MachineController machineController;
+   private final GoldenSnapshots goldenSnapshots;
+   private final IpAddressesLoadingCache ipAddresses;
 
    @Inject
    public VirtualBoxComputeServiceAdapter(Supplier<VirtualBoxManager> manager,
             Supplier<Map<Image, YamlImage>> imagesMapper, LoadingCache<Image, Master> mastersLoader,
             Function<NodeSpec, NodeAndInitialCredentials<IMachine>> cloneCreator,
             Function<IMachine, Image> imachineToImage,
-            MachineController machineController) {
+            MachineController machineController, GoldenSnapshots goldenSnapshots,
+            IpAddressesLoadingCache ipAddresses) {
       this.manager = checkNotNull(manager, "virtualbox manager can't be null");
       this.imagesToYamlImages = imagesMapper.get();
       this.mastersLoader = mastersLoader;
       this.cloneCreator = cloneCreator;
       this.imachineToImage = imachineToImage;
       this.machineController = machineController;
+      this.goldenSnapshots = checkNotNull(goldenSnapshots, "goldenSnapshots");
+      this.ipAddresses = checkNotNull(ipAddresses, "ipAddresses");
    }
 
    @Override
@@ -115,12 +123,16 @@ public class VirtualBoxComputeServiceAdapter implements ComputeServiceAdapter<IM
 
    @Override
    public Iterable<IMachine> listNodes() {
-      return Iterables.filter(manager.get().getVBox().getMachines(), new Predicate<IMachine>() {
-         @Override
-         public boolean apply(IMachine arg0) {
-            return arg0.getName().startsWith(VIRTUALBOX_NODE_PREFIX);
-         }
-      });
+      ImmutableList<IMachine> nodes = ImmutableList.copyOf(Iterables.filter(manager.get().getVBox().getMachines(),
+               new Predicate<IMachine>() {
+                  @Override
+                  public boolean apply(IMachine arg0) {
+                     return arg0.getName().startsWith(VIRTUALBOX_NODE_PREFIX);
+                  }
+               }));
+      // the nodes are mapped with their ip addresses right after
+      ipAddresses.prefetch(nodes);
+      return nodes;
    }
 
    @Override
@@ -215,6 +227,9 @@ public class VirtualBoxComputeServiceAdapter implements ComputeServiceAdapter<IM
          new UnregisterMachineIfExistsAndForceDeleteItsMedia().apply(machine);
       } catch (Exception e) {
          logger.error("Machine (%s) not unregistered!", vmName);
+      } finally {
+         goldenSnapshots.release(vmName);
+         ipAddresses.invalidateMachine(vmName);
       }
    }
 
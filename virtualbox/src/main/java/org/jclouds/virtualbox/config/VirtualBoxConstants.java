@@ -50,6 +50,20 @@ public interface VirtualBoxConstants {
 
    public static final String VIRTUALBOX_HOST_ID = "jclouds.virtualbox.hostid";
 
+   public static final String VIRTUALBOX_CLONE_WORKERS = "jclouds.virtualbox.pipeline.clone.workers";
+
+   public static final String VIRTUALBOX_BOOT_WORKERS = "jclouds.virtualbox.pipeline.boot.workers";
+
+   public static final String VIRTUALBOX_NETWORK_WORKERS = "jclouds.virtualbox.pipeline.network.workers";
+
+   public static final String VIRTUALBOX_POST_CONFIGURATION_WORKERS = "jclouds.virtualbox.pipeline.postconfiguration.workers";
+
+   public static final String VIRTUALBOX_DOWNLOAD_CONNECTIONS = "jclouds.virtualbox.download.connections";
+
+   public static final String VIRTUALBOX_IP_ADDRESS_TTL = "jclouds.virtualbox.ipaddress.ttl";
+
+   public static final String VIRTUALBOX_IP_ADDRESS_NEGATIVE_TTL = "jclouds.virtualbox.ipaddress.negative-ttl";
+
    public static final String VIRTUALBOX_WEBSERVER_IDENTITY = "jclouds.virtualbox.webserver.identity";
 
    public static final String VIRTUALBOX_WEBSERVER_CREDENTIAL = "jclouds.virtualbox.webserver.credential";
@@ -18,6 +18,7 @@ package org.jclouds.virtualbox.domain;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import org.jclouds.javax.annotation.Nullable;
 import org.virtualbox_4_2.IMachine;
 
 import com.google.common.base.Objects;
@@ -32,6 +33,7 @@ public class CloneSpec {
    private final NetworkSpec networkSpec;
    private final IMachine master;
    private final boolean isLinked;
+   private final String snapshotId;
 
    public static Builder builder() {
       return new Builder();
@@ -43,6 +45,7 @@ public class CloneSpec {
       private NetworkSpec networkSpec;
       private IMachine master;
       private boolean isLinked;
+      private String snapshotId;
 
       public Builder vm(VmSpec vmSpec) {
          this.vmSpec = vmSpec;
@@ -64,17 +67,31 @@ public class CloneSpec {
          return this;
       }
 
+      /**
+       * The snapshot of the master to clone, its current snapshot by default.
+       */
+      public Builder snapshotId(String snapshotId) {
+         this.snapshotId = snapshotId;
+         return this;
+      }
+
       public CloneSpec build() {
-         return new CloneSpec(vmSpec, networkSpec, master, isLinked);
+         return new CloneSpec(vmSpec, networkSpec, master, isLinked, snapshotId);
       }
 
    }
 
    public CloneSpec(VmSpec vmSpec, NetworkSpec networkSpec, IMachine master, boolean isLinked) {
+      this(vmSpec, networkSpec, master, isLinked, null);
+   }
+
+   public CloneSpec(VmSpec vmSpec, NetworkSpec networkSpec, IMachine master, boolean isLinked,
+            @Nullable String snapshotId) {
       this.vmSpec = checkNotNull(vmSpec, "vmSpec can't be null");
       this.networkSpec =  checkNotNull(networkSpec, "networkSpec can't be null");
       this.master =  checkNotNull(master, "master can't be null");
       this.isLinked = isLinked;
+      this.snapshotId = snapshotId;
    }
 
    public VmSpec getVmSpec() {
@@ -93,6 +110,11 @@ public class CloneSpec {
       return isLinked;
    }
 
+   @Nullable
+   public String getSnapshotId() {
+      return snapshotId;
+   }
+
    @Override
    public boolean equals(Object o) {
       if (this == o)
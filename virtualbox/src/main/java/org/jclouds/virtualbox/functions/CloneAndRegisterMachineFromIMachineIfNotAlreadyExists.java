@@ -106,8 +106,8 @@ public class CloneAndRegisterMachineFromIMachineIfNotAlreadyExists implements Fu
       if (isLinkedClone)
          options.add(CloneOptions.Link);
 
-      ISnapshot currentSnapshot = new TakeSnapshotIfNotAlreadyAttached(manager,
-            "snapshotName", "snapshotDesc", logger).apply(master);
+      ISnapshot currentSnapshot = cloneSpec.getSnapshotId() != null ? master.findSnapshot(cloneSpec.getSnapshotId())
+               : new TakeSnapshotIfNotAlreadyAttached(manager, "snapshotName", "snapshotDesc", logger).apply(master);
       IProgress progress = currentSnapshot.getMachine().cloneTo(clonedMachine,
             CloneMode.MachineState, options);
       progress.waitForCompletion(-1);
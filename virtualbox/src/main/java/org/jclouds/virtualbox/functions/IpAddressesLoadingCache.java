@@ -16,11 +16,24 @@
  */
 package org.jclouds.virtualbox.functions;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.jclouds.Constants.PROPERTY_USER_THREADS;
+import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_IP_ADDRESS_NEGATIVE_TTL;
+import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_IP_ADDRESS_TTL;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -29,16 +42,33 @@ import javax.inject.Singleton;
 import org.jclouds.compute.reference.ComputeServiceConstants;
 import org.jclouds.logging.Logger;
 import org.jclouds.virtualbox.util.MachineNameOrIdAndNicSlot;
+import org.virtualbox_4_2.Holder;
+import org.virtualbox_4_2.IEvent;
+import org.virtualbox_4_2.IEventListener;
+import org.virtualbox_4_2.IEventSource;
+import org.virtualbox_4_2.IGuestPropertyChangedEvent;
+import org.virtualbox_4_2.IMachine;
+import org.virtualbox_4_2.IMachineEvent;
+import org.virtualbox_4_2.VBoxEventType;
 import org.virtualbox_4_2.VirtualBoxManager;
 
 import com.google.common.base.Strings;
 import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
 import com.google.common.cache.AbstractLoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 /**
  * A {@link LoadingCache} for ip addresses. If the requested ip address has been
  * previously extracted this returns it, if not it calls vbox api.
+ * <p/>
+ * An ip address is cached for a while, and the absence of one, while the
+ * guest is booting, for a shorter while. The entries of a machine are also
+ * invalidated as soon as vbox reports its state or its network guest
+ * properties changed, or the machine was unregistered. The vbox events are
+ * read on the user executor until the cache is closed.
  * 
  * @author Andrea Turli
  * 
@@ -46,43 +76,254 @@ import com.google.common.collect.Maps;
 @Singleton
 public class IpAddressesLoadingCache extends
       AbstractLoadingCache<MachineNameOrIdAndNicSlot, String> {
-  
+
+   public static final String GUEST_INFO_NET = "/VirtualBox/GuestInfo/Net/";
+
+   private static final Pattern IP_ADDRESS_PROPERTY = Pattern.compile("/VirtualBox/GuestInfo/Net/(\\d+)/V4/IP");
+   private static final int NIC_SLOTS = 4;
+   private static final int EVENT_TIMEOUT_MILLIS = 1000;
+   private static final long LISTEN_RETRY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
    @Resource
    @Named(ComputeServiceConstants.COMPUTE_LOGGER)
    protected Logger logger = Logger.NULL;
 
-   private final Map<MachineNameOrIdAndNicSlot, String> masters = Maps.newHashMap();
+   private final ConcurrentMap<MachineNameOrIdAndNicSlot, Entry> entries = Maps.newConcurrentMap();
    private final Supplier<VirtualBoxManager> manager;
+   private final ListeningExecutorService userExecutor;
+   private final long ttlNanos;
+   private final long negativeTtlNanos;
+   private final Ticker ticker;
+   // incremented on each invalidation, so loads racing with one are not kept
+   private final AtomicLong invalidations = new AtomicLong();
+   private final AtomicBoolean listening = new AtomicBoolean();
+   private volatile long nextListenAttempt;
+   private volatile boolean closed;
+   private volatile Future<?> eventLoop;
+
+   /**
+    * An ip address, or its absence, and when it expires.
+    */
+   private static class Entry {
+      private final String ipAddress;
+      private final String machineId;
+      private final long expiresAt;
+
+      private Entry(String ipAddress, String machineId, long expiresAt) {
+         this.ipAddress = ipAddress;
+         this.machineId = machineId;
+         this.expiresAt = expiresAt;
+      }
+   }
 
    @Inject
-   public IpAddressesLoadingCache(Supplier<VirtualBoxManager> manager) {
+   public IpAddressesLoadingCache(Supplier<VirtualBoxManager> manager,
+         @Named(PROPERTY_USER_THREADS) ListeningExecutorService userExecutor,
+         @Named(VIRTUALBOX_IP_ADDRESS_TTL) long ttlSeconds,
+         @Named(VIRTUALBOX_IP_ADDRESS_NEGATIVE_TTL) long negativeTtlSeconds) {
+      this(manager, userExecutor, ttlSeconds, negativeTtlSeconds, Ticker.systemTicker());
+   }
+
+   IpAddressesLoadingCache(Supplier<VirtualBoxManager> manager, ListeningExecutorService userExecutor,
+         long ttlSeconds, long negativeTtlSeconds, Ticker ticker) {
+      checkArgument(ttlSeconds >= 0 && negativeTtlSeconds >= 0, "ttls must be non-negative");
       this.manager = checkNotNull(manager, "vboxmanager");
+      this.userExecutor = checkNotNull(userExecutor, "userExecutor");
+      this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+      this.negativeTtlNanos = TimeUnit.SECONDS.toNanos(negativeTtlSeconds);
+      this.ticker = checkNotNull(ticker, "ticker");
+      this.nextListenAttempt = ticker.read();
    }
 
    @Override
-   public synchronized String get(MachineNameOrIdAndNicSlot machineNameOrIdAndNicPort) throws ExecutionException {
-      if (masters.containsKey(machineNameOrIdAndNicPort)) {
-         return masters.get(machineNameOrIdAndNicPort);
+   public String get(MachineNameOrIdAndNicSlot machineNameOrIdAndNicPort) throws ExecutionException {
+      String cached = getIfPresent(machineNameOrIdAndNicPort);
+      if (cached != null) {
+         return cached;
       }
+      listenForChanges();
+      long invalidationsBefore = invalidations.get();
       String query = String.format("/VirtualBox/GuestInfo/Net/%s/V4/IP", machineNameOrIdAndNicPort.getSlotText());
-      String ipAddress = Strings.nullToEmpty(manager.get().getVBox()
-            .findMachine(machineNameOrIdAndNicPort.getMachineNameOrId()).getGuestPropertyValue(query));
+      IMachine machine = manager.get().getVBox().findMachine(machineNameOrIdAndNicPort.getMachineNameOrId());
+      String ipAddress = Strings.nullToEmpty(machine.getGuestPropertyValue(query));
       if (!ipAddress.isEmpty()) {
          logger.debug("<< vm(%s) has IP address(%s) at slot(%s)", machineNameOrIdAndNicPort.getMachineNameOrId(),
             ipAddress, machineNameOrIdAndNicPort.getSlotText());
       }
-      masters.put(machineNameOrIdAndNicPort, ipAddress);
+      put(machineNameOrIdAndNicPort, ipAddress, machine.getId(), invalidationsBefore);
       return ipAddress;
    }
 
+   /**
+    * Loads the ip addresses of all the nic slots of many machines, reading
+    * their network guest properties at once for each machine.
+    */
+   public void prefetch(Iterable<IMachine> machines) {
+      listenForChanges();
+      long invalidationsBefore = invalidations.get();
+      for (IMachine machine : machines) {
+         Holder<List<String>> names = new Holder<List<String>>();
+         Holder<List<String>> values = new Holder<List<String>>();
+         Holder<List<Long>> timestamps = new Holder<List<Long>>();
+         Holder<List<String>> flags = new Holder<List<String>>();
+         String machineName;
+         try {
+            machineName = machine.getName();
+            machine.enumerateGuestProperties(GUEST_INFO_NET + "*", names, values, timestamps, flags);
+         } catch (RuntimeException e) {
+            logger.debug("could not read the guest properties of vm(%s): %s", machine, e.getMessage());
+            continue;
+         }
+         Map<Long, String> ipAddresses = Maps.newHashMap();
+         if (names.value != null) {
+            for (int i = 0; i < names.value.size(); i++) {
+               Matcher matcher = IP_ADDRESS_PROPERTY.matcher(names.value.get(i));
+               if (matcher.matches())
+                  ipAddresses.put(Long.parseLong(matcher.group(1)), values.value.get(i));
+            }
+         }
+         for (long slot = 0; slot < NIC_SLOTS; slot++) {
+            put(MachineNameOrIdAndNicSlot.fromParts(machineName, slot), Strings.nullToEmpty(ipAddresses.get(slot)),
+                  machine.getId(), invalidationsBefore);
+         }
+      }
+   }
+
+   private void put(MachineNameOrIdAndNicSlot key, String ipAddress, String machineId, long invalidationsBefore) {
+      Entry entry = new Entry(ipAddress, machineId, ticker.read() + (ipAddress.isEmpty() ? negativeTtlNanos : ttlNanos));
+      entries.put(key, entry);
+      // the entry may have been loaded before an invalidation it missed
+      if (invalidations.get() != invalidationsBefore) {
+         entries.remove(key, entry);
+      }
+   }
+
    @Override
    public String getIfPresent(Object key) {
-      return masters.get((MachineNameOrIdAndNicSlot) key);
+      Entry entry = entries.get(key);
+      if (entry == null) {
+         return null;
+      }
+      if (ticker.read() - entry.expiresAt >= 0) {
+         entries.remove(key, entry);
+         return null;
+      }
+      return entry.ipAddress;
    }
 
    @Override
    public void invalidate(Object key) {
-      masters.remove(key);
+      invalidations.incrementAndGet();
+      entries.remove(key);
+   }
+
+   @Override
+   public void invalidateAll() {
+      invalidations.incrementAndGet();
+      entries.clear();
+   }
+
+   /**
+    * Invalidates the ip addresses of all the nic slots of a machine.
+    */
+   public void invalidateMachine(String machineNameOrId) {
+      invalidations.incrementAndGet();
+      for (Map.Entry<MachineNameOrIdAndNicSlot, Entry> entry : entries.entrySet()) {
+         if (entry.getKey().getMachineNameOrId().equals(machineNameOrId)
+               || machineNameOrId.equals(entry.getValue().machineId)) {
+            entries.remove(entry.getKey(), entry.getValue());
+         }
+      }
+   }
+
+   @Override
+   public long size() {
+      return entries.size();
+   }
+
+   @PreDestroy
+   public void close() {
+      closed = true;
+      Future<?> running = eventLoop;
+      if (running != null) {
+         running.cancel(true);
+      }
+   }
+
+   private void listenForChanges() {
+      if (closed || ticker.read() - nextListenAttempt < 0 || !listening.compareAndSet(false, true)) {
+         return;
+      }
+      final IEventSource source;
+      final IEventListener listener;
+      try {
+         // registered before loading anything, so no change is missed
+         source = manager.get().getVBox().getEventSource();
+         listener = source.createListener();
+         source.registerListener(listener, ImmutableList.of(VBoxEventType.OnMachineStateChanged,
+               VBoxEventType.OnMachineRegistered, VBoxEventType.OnGuestPropertyChanged), false);
+      } catch (RuntimeException e) {
+         stopListening(e);
+         return;
+      }
+      try {
+         eventLoop = userExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  listen(source, listener);
+               } catch (RuntimeException e) {
+                  // changes may have been missed
+                  invalidateAll();
+                  stopListening(e);
+               } finally {
+                  listening.set(false);
+               }
+            }
+         });
+      } catch (RuntimeException e) {
+         source.unregisterListener(listener);
+         stopListening(e);
+      }
+   }
+
+   private void stopListening(RuntimeException e) {
+      logger.warn(e, "could not listen to vbox events, ip addresses are only invalidated by their ttl");
+      nextListenAttempt = ticker.read() + LISTEN_RETRY_NANOS;
+      listening.set(false);
+   }
+
+   private void listen(IEventSource source, IEventListener listener) {
+      try {
+         while (!closed) {
+            IEvent event = source.getEvent(listener, EVENT_TIMEOUT_MILLIS);
+            if (event != null) {
+               try {
+                  onEvent(event);
+               } finally {
+                  source.eventProcessed(listener, event);
+               }
+            }
+         }
+      } finally {
+         source.unregisterListener(listener);
+      }
+   }
+
+   void onEvent(IEvent event) {
+      switch (event.getType()) {
+         case OnMachineStateChanged:
+         case OnMachineRegistered:
+            invalidateMachine(IMachineEvent.queryInterface(event).getMachineId());
+            break;
+         case OnGuestPropertyChanged:
+            IGuestPropertyChangedEvent changed = IGuestPropertyChangedEvent.queryInterface(event);
+            if (Strings.nullToEmpty(changed.getName()).startsWith(GUEST_INFO_NET))
+               invalidateMachine(changed.getMachineId());
+            break;
+         default:
+            break;
+      }
    }
 
 }
@@ -19,7 +19,6 @@ package org.jclouds.virtualbox.functions;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
-import static org.jclouds.compute.options.RunScriptOptions.Builder.runAsRoot;
 import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_DEFAULT_DIR;
 import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_IMAGE_PREFIX;
 import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_NODE_NAME_SEPARATOR;
@@ -29,10 +28,10 @@ import static org.jclouds.virtualbox.util.MachineUtils.machineNotFoundException;
 
 import java.io.File;
 import java.net.URI;
-import java.net.URISyntaxException;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 
 import javax.annotation.PostConstruct;
@@ -41,18 +40,12 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
-import org.jclouds.compute.callables.RunScriptOnNode.Factory;
-import org.jclouds.compute.domain.ExecResponse;
 import org.jclouds.compute.domain.Image;
-import org.jclouds.compute.domain.NodeMetadata;
 import org.jclouds.compute.reference.ComputeServiceConstants;
 import org.jclouds.domain.LoginCredentials;
 import org.jclouds.location.Provider;
 import org.jclouds.logging.Logger;
 import org.jclouds.rest.annotations.BuildVersion;
-import org.jclouds.scriptbuilder.domain.Statement;
-import org.jclouds.scriptbuilder.domain.StatementList;
-import org.jclouds.scriptbuilder.domain.Statements;
 import org.jclouds.virtualbox.domain.HardDisk;
 import org.jclouds.virtualbox.domain.IsoSpec;
 import org.jclouds.virtualbox.domain.Master;
@@ -65,7 +58,7 @@ import org.jclouds.virtualbox.domain.VmSpec;
 import org.jclouds.virtualbox.domain.YamlImage;
 import org.jclouds.virtualbox.functions.admin.PreseedCfgServer;
 import org.jclouds.virtualbox.predicates.RetryIfSocketNotYetOpen;
-import org.jclouds.virtualbox.statements.Md5;
+import org.jclouds.virtualbox.util.DownloadManager;
 import org.jclouds.virtualbox.util.NetworkUtils;
 import org.virtualbox_4_2.CleanupMode;
 import org.virtualbox_4_2.IMachine;
@@ -78,20 +71,26 @@ import com.google.common.base.CaseFormat;
 import com.google.common.base.Function;
 import com.google.common.base.Splitter;
 import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
 import com.google.common.cache.AbstractLoadingCache;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
  * A {@link LoadingCache} for masters. If the requested master has been
  * previously created this returns it, if not it coordinates its creation
- * including downloading isos and creating cache/config directories. This also
- * implements {@link Supplier} in order to provide jetty with the current image
- * (only one master can be created at a time).
+ * including downloading isos and creating cache/config directories.
+ * <p/>
+ * Each master is loaded through its own future, so different masters are
+ * created in parallel while concurrent requests for the same master wait for
+ * the one creation in progress. A master that could not be created is
+ * forgotten, the next request tries again.
  * 
  * @author dralves, andrea turli
  * 
@@ -103,32 +102,32 @@ public class MastersLoadingCache extends AbstractLoadingCache<Image, Master> {
    @Named(ComputeServiceConstants.COMPUTE_LOGGER)
    protected Logger logger = Logger.NULL;
 
-   private final Map<String, Master> masters = Maps.newHashMap();
+   // the masters created or being created, by image id
+   private final ConcurrentMap<String, ListenableFuture<Master>> masters = Maps.newConcurrentMap();
+   // the host ports forwarded to the ssh port of the masters being created
+   private final Set<Integer> sshPorts = Sets.newHashSet();
    private final Function<MasterSpec, IMachine> masterCreatorAndInstaller;
    private final Map<String, YamlImage> imageMapping;
    private final String workingDir;
-   private final String isosDir;
    private final Supplier<VirtualBoxManager> manager;
    private final String version;
    private final String preconfigurationUrl;
 
-   private final Factory runScriptOnNodeFactory;
    private final RetryIfSocketNotYetOpen socketTester;
-   private final Supplier<NodeMetadata> host;
    private final Supplier<URI> providerSupplier;
-   private final HardcodedHostToHostNodeMetadata hardcodedHostToHostNodeMetadata;
+   private final PreseedCfgServer preseedServer;
+   private final DownloadManager downloads;
 
    @Inject
    public MastersLoadingCache(@BuildVersion String version,
          @Named(VIRTUALBOX_PRECONFIGURATION_URL) String preconfigurationUrl,
          @Named(VIRTUALBOX_WORKINGDIR) String workingDir, Function<MasterSpec, IMachine> masterLoader,
          Supplier<Map<Image, YamlImage>> yamlMapper, Supplier<VirtualBoxManager> manager,
-         Factory runScriptOnNodeFactory, RetryIfSocketNotYetOpen socketTester, Supplier<NodeMetadata> host,
-         @Provider Supplier<URI> providerSupplier, HardcodedHostToHostNodeMetadata hardcodedHostToHostNodeMetadata) {
+         RetryIfSocketNotYetOpen socketTester, @Provider Supplier<URI> providerSupplier,
+         PreseedCfgServer preseedServer, DownloadManager downloads) {
       this.manager = checkNotNull(manager, "vboxmanager can't be null");
       this.masterCreatorAndInstaller = masterLoader;
       this.workingDir = workingDir == null ? VIRTUALBOX_DEFAULT_DIR : workingDir;
-      this.isosDir = workingDir + File.separator + "isos";
       this.imageMapping = Maps.newLinkedHashMap();
       for (Entry<Image, YamlImage> entry : yamlMapper.get().entrySet()) {
          this.imageMapping.put(entry.getKey().getId(), entry.getValue());
@@ -136,12 +135,11 @@ public class MastersLoadingCache extends AbstractLoadingCache<Image, Master> {
       this.version = Iterables.get(Splitter.on('r').split(checkNotNull(version, "version")), 0);
       this.preconfigurationUrl = preconfigurationUrl;
 
-      this.runScriptOnNodeFactory = checkNotNull(runScriptOnNodeFactory, "runScriptOnNodeFactory");
       this.socketTester = checkNotNull(socketTester, "socketTester");
       this.socketTester.seconds(3L);
-      this.host = checkNotNull(host, "host");
       this.providerSupplier = checkNotNull(providerSupplier, "endpoint to virtualbox websrvd is needed");
-      this.hardcodedHostToHostNodeMetadata = hardcodedHostToHostNodeMetadata;
+      this.preseedServer = checkNotNull(preseedServer, "preseedServer");
+      this.downloads = checkNotNull(downloads, "downloads");
    }
 
    @PostConstruct
@@ -152,61 +150,94 @@ public class MastersLoadingCache extends AbstractLoadingCache<Image, Master> {
    }
 
    @Override
-   public synchronized Master get(Image key) throws ExecutionException {
-      // check if we have loaded this machine before
-      if (masters.containsKey(key.getId())) {
-         return masters.get(key.getId());
+   public Master get(Image key) throws ExecutionException {
+      // check if we have loaded this machine before, or are loading it
+      SettableFuture<Master> loading = SettableFuture.create();
+      ListenableFuture<Master> master = masters.putIfAbsent(key.getId(), loading);
+      if (master != null) {
+         return Uninterruptibles.getUninterruptibly(master);
       }
+      try {
+         Master loaded = load(key);
+         loading.set(loaded);
+         return loaded;
+      } catch (Throwable e) {
+         masters.remove(key.getId(), loading);
+         loading.setException(e);
+         Throwables.propagateIfPossible(e, ExecutionException.class);
+         throw new ExecutionException(e);
+      }
+   }
+
+   private Master load(Image key) throws ExecutionException {
       checkState(!key.getId().contains(VIRTUALBOX_NODE_NAME_SEPARATOR), "master image names cannot contain \""
             + VIRTUALBOX_NODE_NAME_SEPARATOR + "\"");
       String vmName = VIRTUALBOX_IMAGE_PREFIX + key.getId();
       IMachine masterMachine;
-      Master master;
-      // ready the preseed file server
-      PreseedCfgServer server = new PreseedCfgServer();
       try {
          // try and find a master machine in vbox
          masterMachine = manager.get().getVBox().findMachine(vmName);
-         master = Master.builder().machine(masterMachine).build();
+         return Master.builder().machine(masterMachine).build();
       } catch (VBoxException e) {
-         if (machineNotFoundException(e)) {
-            // machine was not found try to build one from a yaml file
-            YamlImage currentImage = checkNotNull(imageMapping.get(key.getId()), "currentImage");
-            URI preseedServer;
-            try {
-               preseedServer = new URI(preconfigurationUrl);
-               if (!socketTester.apply(HostAndPort.fromParts(preseedServer.getHost(), preseedServer.getPort()))) {
-                  server.start(preconfigurationUrl, currentImage.preseed_cfg);
-               }
-            } catch (URISyntaxException e1) {
-               logger.error("Cannot start the preseed server", e);
-               throw e;
-            }
-
-            MasterSpec masterSpec = buildMasterSpecFromYaml(currentImage, vmName);
-            masterMachine = masterCreatorAndInstaller.apply(masterSpec);
-            master = Master.builder().machine(masterMachine).spec(masterSpec).build();
-         } else {
+         if (!machineNotFoundException(e)) {
             logger.error("Problem during master creation", e);
             throw e;
          }
+      }
+      // machine was not found try to build one from a yaml file
+      YamlImage currentImage = checkNotNull(imageMapping.get(key.getId()), "currentImage");
+      int sshPort = reserveSshPort();
+      try {
+         // ready the preseed file server
+         String preseedUrl = servePreseedCfg(key.getId(), currentImage.preseed_cfg);
+         MasterSpec masterSpec = buildMasterSpecFromYaml(currentImage, vmName, preseedUrl, sshPort);
+         masterMachine = masterCreatorAndInstaller.apply(masterSpec);
+         return Master.builder().machine(masterMachine).spec(masterSpec).build();
       } finally {
-         server.stop();
+         preseedServer.unserve(key.getId());
+         releaseSshPort(sshPort);
       }
+   }
 
-      masters.put(key.getId(), master);
-      return master;
+   /**
+    * Serves the preseed file of an image, unless a preseed server not started by
+    * jclouds already listens on the preconfiguration url.
+    * 
+    * @return the url the preseed file is served at
+    */
+   private synchronized String servePreseedCfg(String imageId, String preseedCfg) {
+      URI preconfiguration = URI.create(preconfigurationUrl);
+      if (!preseedServer.isRunning()
+            && socketTester.apply(HostAndPort.fromParts(preconfiguration.getHost(), preconfiguration.getPort()))) {
+         logger.debug("preseed server already listening on %s", preconfigurationUrl);
+         return preconfigurationUrl;
+      }
+      return preseedServer.serve(imageId, preseedCfg).toString();
    }
 
-   private MasterSpec buildMasterSpecFromYaml(YamlImage currentImage, String vmName) throws ExecutionException {
+   private int reserveSshPort() {
+      synchronized (sshPorts) {
+         int port = NetworkUtils.MASTER_PORT;
+         while (!sshPorts.add(port)) {
+            port++;
+         }
+         return port;
+      }
+   }
+
+   private void releaseSshPort(int port) {
+      synchronized (sshPorts) {
+         sshPorts.remove(port);
+      }
+   }
+
+   private MasterSpec buildMasterSpecFromYaml(YamlImage currentImage, String vmName, String preseedUrl, int sshPort)
+         throws ExecutionException {
       String guestAdditionsFileName = String.format("VBoxGuestAdditions_%s.iso", version);
-      String guestAdditionsIso = String.format("%s/%s", isosDir, guestAdditionsFileName);
       String guestAdditionsUri = "http://download.virtualbox.org/virtualbox/" + version + "/" + guestAdditionsFileName;
-      if (!new File(guestAdditionsIso).exists()) {
-         getFilePathOrDownload(guestAdditionsUri, null);
-      }
+      downloads.download(URI.create(guestAdditionsUri), null);
       // check if the iso is here, download if not
-      String localIsoUrl = checkNotNull(getFilePathOrDownload(currentImage.iso, currentImage.iso_md5), "distro iso");
+      String localIsoUrl = downloads.download(URI.create(currentImage.iso), currentImage.iso_md5).getAbsolutePath();
       String adminDisk = workingDir + File.separator + vmName + ".vdi";
       HardDisk hardDisk = HardDisk.builder().diskpath(adminDisk).autoDelete(true).controllerPort(0).deviceSlot(1)
             .build();
@@ -220,14 +251,15 @@ public class MastersLoadingCache extends AbstractLoadingCache<Image, Master> {
             .cleanUpMode(CleanupMode.Full).build();
 
       NetworkAdapter networkAdapter = NetworkAdapter.builder().networkAttachmentType(NetworkAttachmentType.NAT)
-            .tcpRedirectRule(providerSupplier.get().getHost(), NetworkUtils.MASTER_PORT, "", 22).build();
+            .tcpRedirectRule(providerSupplier.get().getHost(), sshPort, "", 22).build();
 
       NetworkInterfaceCard networkInterfaceCard = NetworkInterfaceCard.builder().addNetworkAdapter(networkAdapter)
             .slot(0L).build();
 
       NetworkSpec networkSpec = NetworkSpec.builder().addNIC(networkInterfaceCard).build();
 
-      String installationSequence = currentImage.keystroke_sequence.replace("HOSTNAME", vmSpecification.getVmName());
+      String installationSequence = currentImage.keystroke_sequence.replace("HOSTNAME", vmSpecification.getVmName())
+            .replace("PRECONFIGURATION_URL", preseedUrl);
       return MasterSpec.builder()
                        .vm(vmSpecification)
                        .iso(IsoSpec.builder()
@@ -244,42 +276,18 @@ public class MastersLoadingCache extends AbstractLoadingCache<Image, Master> {
    }
 
    @Override
-   public synchronized Master getIfPresent(Object key) {
+   public Master getIfPresent(Object key) {
       checkArgument(key instanceof Image, "this cache is for entries who's keys are Images");
       Image image = Image.class.cast(key);
-      if (masters.containsKey(image.getId())) {
-         return masters.get(image.getId());
+      ListenableFuture<Master> master = masters.get(image.getId());
+      if (master == null || !master.isDone()) {
+         return null;
       }
-      return null;
-   }
-
-   private String getFilePathOrDownload(String httpUrl, String expectedMd5) throws ExecutionException {
-      String fileName = httpUrl.substring(httpUrl.lastIndexOf('/') + 1, httpUrl.length());
-      URI provider = providerSupplier.get();
-      if (!socketTester.apply(HostAndPort.fromParts(provider.getHost(), provider.getPort()))) {
-         throw new RuntimeException("could not connect to virtualbox");
-      }
-      File file = new File(isosDir, fileName);
-      List<Statement> statements = new ImmutableList.Builder<Statement>().add(
-            Statements.saveHttpResponseTo(URI.create(httpUrl), isosDir, fileName)).build();
-      StatementList statementList = new StatementList(statements);
-      NodeMetadata hostNode = checkNotNull(hardcodedHostToHostNodeMetadata.apply(host.get()), "hostNode");
-      ListenableFuture<ExecResponse> future = runScriptOnNodeFactory.submit(hostNode, statementList,
-            runAsRoot(false));
-      Futures.getUnchecked(future);
-
-      if (expectedMd5 != null) {
-         String filePath = isosDir + File.separator + fileName;
-         ListenableFuture<ExecResponse> md5future = runScriptOnNodeFactory.submit(hostNode, new Md5(filePath),
-               runAsRoot(false));
-
-         ExecResponse responseMd5 = Futures.getUnchecked(md5future);
-         assert responseMd5.getExitStatus() == 0 : hostNode.getId() + ": " + responseMd5;
-         checkNotNull(responseMd5.getOutput(), "iso_md5 missing");
-         String actualMd5 = responseMd5.getOutput().trim();
-         checkState(actualMd5.equals(expectedMd5), "md5 of %s is %s but expected %s", filePath, actualMd5, expectedMd5);
+      try {
+         return Futures.getUnchecked(master);
+      } catch (RuntimeException e) {
+         return null;
       }
-      return file.getAbsolutePath();
    }
 
    private String getOsTypeId(String os_family, boolean os_64bit) {
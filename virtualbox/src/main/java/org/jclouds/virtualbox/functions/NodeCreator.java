@@ -21,6 +21,7 @@ package org.jclouds.virtualbox.functions;
  import com.google.common.base.Optional;
  import com.google.common.base.Predicate;
  import com.google.common.base.Supplier;
+ import com.google.common.base.Throwables;
  import com.google.common.collect.ImmutableSet;
  import com.google.common.collect.Iterables;
  import com.google.common.io.Files;
@@ -39,16 +40,17 @@ package org.jclouds.virtualbox.functions;
  import org.jclouds.virtualbox.domain.NetworkSpec;
  import org.jclouds.virtualbox.domain.NodeSpec;
  import org.jclouds.virtualbox.domain.VmSpec;
+ import org.jclouds.virtualbox.functions.admin.UnregisterMachineIfExistsAndForceDeleteItsMedia;
  import org.jclouds.virtualbox.statements.DeleteGShadowLock;
  import org.jclouds.virtualbox.statements.PasswordlessSudo;
+ import org.jclouds.virtualbox.util.GoldenSnapshots;
+ import org.jclouds.virtualbox.util.GoldenSnapshots.Golden;
  import org.jclouds.virtualbox.util.MachineController;
  import org.jclouds.virtualbox.util.MachineUtils;
  import org.jclouds.virtualbox.util.NetworkUtils;
  import org.virtualbox_4_2.CleanupMode;
  import org.virtualbox_4_2.IMachine;
- import org.virtualbox_4_2.IProgress;
  import org.virtualbox_4_2.ISession;
- import org.virtualbox_4_2.LockType;
  import org.virtualbox_4_2.NetworkAttachmentType;
  import org.virtualbox_4_2.VirtualBoxManager;
  import com.google.common.collect.ImmutableList;
@@ -60,26 +62,44 @@ package org.jclouds.virtualbox.functions;
 
  import java.io.File;
  import java.io.IOException;
+ import java.util.EnumMap;
+ import java.util.Map;
+ import java.util.concurrent.Semaphore;
 
+ import static com.google.common.base.Preconditions.checkArgument;
  import static com.google.common.base.Preconditions.checkNotNull;
  import static com.google.common.base.Preconditions.checkState;
  import static org.jclouds.virtualbox.config.VirtualBoxConstants.GUEST_OS_PASSWORD;
  import static org.jclouds.virtualbox.config.VirtualBoxConstants.GUEST_OS_USER;
+ import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_BOOT_WORKERS;
+ import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_CLONE_WORKERS;
  import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_GUEST_MEMORY;
  import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_IMAGE_PREFIX;
+ import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_NETWORK_WORKERS;
  import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_NODE_NAME_SEPARATOR;
  import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_NODE_PREFIX;
+ import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_POST_CONFIGURATION_WORKERS;
  import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_WORKINGDIR;
 
 /**
- * Creates nodes, by cloning a master vm and based on the provided {@link NodeSpec}. Must be
- * synchronized mainly because of snapshot creation (must be synchronized on a per-master-basis).
+ * Creates nodes, by cloning a master vm and based on the provided {@link NodeSpec}.
+ * <p/>
+ * Nodes are created concurrently, going through a pipeline of {@link Stage stages}, each of which
+ * runs a limited number of nodes at once. Clones are linked to the {@link GoldenSnapshots golden
+ * snapshot} of their master, which is only taken again when the master changes.
  * 
  * @author David Alves, Andrea Turli
  * 
  */
 @Singleton
 public class NodeCreator implements Function<NodeSpec, NodeAndInitialCredentials<IMachine>> {
+
+   /**
+    * The stages a node goes through.
+    */
+   public static enum Stage {
+      CLONE, BOOT, NETWORK, POST_CONFIGURATION;
+   }
    
    @Resource
    @Named(ComputeServiceConstants.COMPUTE_LOGGER)
@@ -92,41 +112,80 @@ public class NodeCreator implements Function<NodeSpec, NodeAndInitialCredentials
    private final NetworkUtils networkUtils;
    private final int ram;
    private final String workingDir;
+   private final GoldenSnapshots goldenSnapshots;
+   private final Map<Stage, Semaphore> stages = new EnumMap<Stage, Semaphore>(Stage.class);
    
    @Inject
    public NodeCreator(Supplier<VirtualBoxManager> manager, Function<CloneSpec, IMachine> cloner,
             MachineUtils machineUtils, MachineController machineController,
-            NetworkUtils networkUtils,
+            NetworkUtils networkUtils, GoldenSnapshots goldenSnapshots,
             @Named(VIRTUALBOX_GUEST_MEMORY) String ram,
-            @Named(VIRTUALBOX_WORKINGDIR) String workingDir) {
+            @Named(VIRTUALBOX_WORKINGDIR) String workingDir,
+            @Named(VIRTUALBOX_CLONE_WORKERS) int cloneWorkers,
+            @Named(VIRTUALBOX_BOOT_WORKERS) int bootWorkers,
+            @Named(VIRTUALBOX_NETWORK_WORKERS) int networkWorkers,
+            @Named(VIRTUALBOX_POST_CONFIGURATION_WORKERS) int postConfigurationWorkers) {
       this.manager = checkNotNull(manager, "manager");
       this.cloner = checkNotNull(cloner, "cloner");
       this.networkUtils = checkNotNull(networkUtils, "networkUtils");
       this.machineUtils = checkNotNull(machineUtils, "machineUtils");
       this.machineController = checkNotNull(machineController, "machineController");
+      this.goldenSnapshots = checkNotNull(goldenSnapshots, "goldenSnapshots");
       this.ram = checkNotNull(Integer.valueOf(ram), "ram");
       this.workingDir = checkNotNull(workingDir, "workingDir");
+      stages.put(Stage.CLONE, workers(cloneWorkers));
+      stages.put(Stage.BOOT, workers(bootWorkers));
+      stages.put(Stage.NETWORK, workers(networkWorkers));
+      stages.put(Stage.POST_CONFIGURATION, workers(postConfigurationWorkers));
+   }
+
+   private static Semaphore workers(int count) {
+      checkArgument(count > 0, "each stage needs at least one worker");
+      return new Semaphore(count, true);
    }
 
    @Override
-   public synchronized NodeAndInitialCredentials<IMachine> apply(NodeSpec nodeSpec) {
+   public NodeAndInitialCredentials<IMachine> apply(NodeSpec nodeSpec) {
       checkNotNull(nodeSpec, "NodeSpec");
       Master master = checkNotNull(nodeSpec.getMaster(), "Master");
       IMachine masterMachine = master.getMachine();
       String guestOsUser = masterMachine.getExtraData(GUEST_OS_USER);
       String guestOsPassword = masterMachine.getExtraData(GUEST_OS_PASSWORD);
 
-      cleanUpMaster(master);
       CloneSpec cloneSpec = configureCloneSpec(nodeSpec, guestOsUser, guestOsPassword);
-      IMachine clone = cloner.apply(cloneSpec);
+      IMachine clone = cloneFromGoldenSnapshot(cloneSpec);
       String cloneName =  cloneSpec.getVmSpec().getVmName();
       logger.debug("<< cloned a vm(%s) from master(%s)", cloneName, nodeSpec.getMaster().getMachine().getName());
-      machineController.ensureMachineIsLaunched(cloneName);
-      logger.debug("<< cloned vm(%s) is up and running", cloneName);
 
-      reconfigureNetworkInterfaces(masterMachine, guestOsUser, guestOsPassword, cloneSpec.getNetworkSpec(), clone);
+      boolean configured = false;
+      try {
+         enter(Stage.BOOT);
+         try {
+            machineController.ensureMachineIsLaunched(cloneName);
+         } finally {
+            exit(Stage.BOOT);
+         }
+         logger.debug("<< cloned vm(%s) is up and running", cloneName);
+
+         enter(Stage.NETWORK);
+         try {
+            reconfigureNetworkInterfaces(masterMachine, guestOsUser, guestOsPassword, cloneSpec.getNetworkSpec(),
+                     clone);
+         } finally {
+            exit(Stage.NETWORK);
+         }
 
-      postConfigurations(clone, guestOsUser, guestOsPassword);
+         enter(Stage.POST_CONFIGURATION);
+         try {
+            postConfigurations(clone, guestOsUser, guestOsPassword);
+         } finally {
+            exit(Stage.POST_CONFIGURATION);
+         }
+         configured = true;
+      } finally {
+         if (!configured)
+            destroyClone(clone, cloneName);
+      }
 
       LoginCredentials credentials = LoginCredentials.builder()
                                                      .user(guestOsUser)
@@ -136,6 +195,61 @@ public class NodeCreator implements Function<NodeSpec, NodeAndInitialCredentials
       return new NodeAndInitialCredentials<IMachine>(clone, cloneName, credentials);
    }
 
+   /**
+    * Links a clone to the golden snapshot of its master, releasing the snapshot if the clone could
+    * not be created.
+    */
+   private IMachine cloneFromGoldenSnapshot(CloneSpec cloneSpec) {
+      String cloneName = cloneSpec.getVmSpec().getVmName();
+      Golden golden = goldenSnapshots.acquire(cloneSpec.getMaster(), cloneName);
+      boolean cloned = false;
+      enter(Stage.CLONE);
+      try {
+         IMachine clone = cloner.apply(new CloneSpec(cloneSpec.getVmSpec(), cloneSpec.getNetworkSpec(),
+                  cloneSpec.getMaster(), cloneSpec.isLinked(), golden.getSnapshotId()));
+         cloned = true;
+         return clone;
+      } finally {
+         exit(Stage.CLONE);
+         if (!cloned)
+            goldenSnapshots.release(cloneName);
+      }
+   }
+
+   /**
+    * Removes a clone that could not be started or configured, releasing its golden snapshot.
+    */
+   private void destroyClone(IMachine clone, String cloneName) {
+      try {
+         machineController.ensureMachineHasPowerDown(cloneName);
+         new UnregisterMachineIfExistsAndForceDeleteItsMedia().apply(clone);
+      } catch (RuntimeException e) {
+         logger.error(e, "could not remove vm(%s) after it failed to start", cloneName);
+      } finally {
+         goldenSnapshots.release(cloneName);
+      }
+   }
+
+   private void enter(Stage stage) {
+      try {
+         stages.get(stage).acquire();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw Throwables.propagate(e);
+      }
+   }
+
+   private void exit(Stage stage) {
+      stages.get(stage).release();
+   }
+
+   /**
+    * The number of nodes that can enter a stage without waiting.
+    */
+   public int availableWorkers(Stage stage) {
+      return stages.get(stage).availablePermits();
+   }
+
    private void reconfigureNetworkInterfaces(IMachine masterMachine, String guestOsUser, String guestOsPassword, NetworkSpec networkSpec, IMachine clone) {
       reconfigureHostOnlyInterfaceIfNeeded(guestOsUser, guestOsPassword, clone.getName(), masterMachine.getOSTypeId());
       logger.debug("<< reconfigured hostOnly interface of node(%s)", clone.getName());
@@ -182,10 +296,6 @@ public class NodeCreator implements Function<NodeSpec, NodeAndInitialCredentials
               .vm(cloneVmSpec).build();
    }
 
-   private void cleanUpMaster(Master master) {
-      deleteExistingSnapshot(master);
-   }
-
    private void reconfigureHostOnlyInterfaceIfNeeded(final String username, final String password,
                                                          String vmName, String osTypeId) {
       final String scriptName = "hostOnly";
@@ -244,15 +354,15 @@ public class NodeCreator implements Function<NodeSpec, NodeAndInitialCredentials
          public Void apply(ISession session) {
             String scriptName = scriptFile.getName();
 
-            manager.get().getSessionObject().getConsole().getGuest()
+            session.getConsole().getGuest()
                     .createSession(username, password, null, null)
                     .copyTo(scriptFile.getAbsolutePath(), "/tmp/" + scriptName, null);
 
-            manager.get().getSessionObject().getConsole().getGuest()
+            session.getConsole().getGuest()
                     .createSession(username, password, null, null)
                     .processCreate("/bin/chmod", ImmutableList.of("777", "/tmp/" + scriptName), null, null, 5 * 1000l);
 
-            manager.get().getSessionObject().getConsole().getGuest()
+            session.getConsole().getGuest()
                     .createSession(username, password, null, null)
                     .processCreate("/bin/sh", ImmutableList.of("/tmp/" + scriptName), null, null, 5 * 1000l);
             return null;
@@ -266,22 +376,6 @@ public class NodeCreator implements Function<NodeSpec, NodeAndInitialCredentials
                + nodeSpec.getTag() + VIRTUALBOX_NODE_NAME_SEPARATOR + nodeSpec.getName();
    }
 
-   private void deleteExistingSnapshot(Master master) {
-      if (master.getMachine().getCurrentSnapshot() != null) {
-         ISession session;
-         try {
-            session = manager.get().getSessionObject();
-            master.getMachine().lockMachine(session, LockType.Write);
-            IProgress progress = session.getConsole().deleteSnapshot(master.getMachine().getCurrentSnapshot().getId());
-            progress.waitForCompletion(-1);
-            session.unlockMachine();
-         } catch (Exception e) {
-            throw new RuntimeException("error opening vbox machine session: " + e.getMessage(), e);
-         }
-         logger.debug("<< deleted an existing snapshot of vm(%s)", master.getMachine().getName());
-      }
-   }
-
    private NodeMetadata buildPartialNodeMetadata(IMachine clone, String guestOsUser, String guestOsPassword) {
       NodeMetadataBuilder nodeMetadataBuilder = new NodeMetadataBuilder();
       nodeMetadataBuilder.id(clone.getName());
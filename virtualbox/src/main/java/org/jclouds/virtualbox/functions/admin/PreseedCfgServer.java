@@ -16,9 +16,16 @@
  */
 package org.jclouds.virtualbox.functions.admin;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_PRECONFIGURATION_URL;
+
 import java.io.IOException;
 import java.net.URI;
+import java.util.Map;
 
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -28,43 +35,99 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.net.UrlEscapers;
 
 /**
- * Sets up jetty so that it can serve the preseed.cfg file to automate master creation.
+ * Sets up jetty so that it can serve the preseed.cfg files to automate master creation.
+ * <p/>
+ * Several masters can be created at once, so each one is served under its own path, as in
+ * {@code http://10.0.2.2:23232/ubuntu-12.04/preseed.cfg}. Jetty is started when the first file is
+ * served and stopped once no file is served anymore.
  * 
  * @author Andrea Turli, David Alves
  */
+@Singleton
 public class PreseedCfgServer {
 
+   public static final String PRESEED_CFG = "preseed.cfg";
+
+   private final String preconfigurationUrl;
+   // the files served, by name
+   private final Map<String, String> preseedCfgs = Maps.newConcurrentMap();
    private Server jetty;
 
-   public void start(String preconfigurationUrl, final String preseedCfg) {
-      this.jetty = new Server(URI.create(preconfigurationUrl).getPort());
-      try {
-         // since we're only serving the preseed.cfg file respond to all requests with it
-         jetty.setHandler(new AbstractHandler() {
-            @Override
-            public void handle(String target, Request baseRequest, HttpServletRequest request,
-                     HttpServletResponse response) throws IOException, ServletException {
-               response.setContentType("text/plain;charset=utf-8");
-               response.setStatus(HttpServletResponse.SC_OK);
-               baseRequest.setHandled(true);
-               response.getWriter().println(preseedCfg);
+   @Inject
+   public PreseedCfgServer(@Named(VIRTUALBOX_PRECONFIGURATION_URL) String preconfigurationUrl) {
+      this.preconfigurationUrl = checkNotNull(preconfigurationUrl, "preconfigurationUrl");
+   }
+
+   /**
+    * Starts serving a preseed.cfg file, starting jetty if it isn't running yet.
+    * 
+    * @param name
+    *           the name of the path the file is served under, unique among the files served
+    * @return the url of the file
+    */
+   public synchronized URI serve(String name, String preseedCfg) {
+      preseedCfgs.put(checkNotNull(name, "name"), checkNotNull(preseedCfg, "preseedCfg"));
+      if (jetty == null)
+         start();
+      return URI.create(preconfigurationUrl.replaceAll("/+$", "") + "/"
+               + UrlEscapers.urlPathSegmentEscaper().escape(name) + "/" + PRESEED_CFG);
+   }
+
+   /**
+    * Stops serving a preseed.cfg file, stopping jetty if no other file is served.
+    */
+   public synchronized void unserve(String name) {
+      preseedCfgs.remove(name);
+      if (preseedCfgs.isEmpty())
+         stop();
+   }
+
+   public synchronized boolean isRunning() {
+      return jetty != null;
+   }
+
+   private void start() {
+      Server server = new Server(URI.create(preconfigurationUrl).getPort());
+      server.setHandler(new AbstractHandler() {
+         @Override
+         public void handle(String target, Request baseRequest, HttpServletRequest request,
+                  HttpServletResponse response) throws IOException, ServletException {
+            // the target is /<name>/preseed.cfg
+            String name = target.replaceAll("^/+", "");
+            int slash = name.indexOf('/');
+            String preseedCfg = preseedCfgs.get(slash < 0 ? name : name.substring(0, slash));
+            baseRequest.setHandled(true);
+            if (preseedCfg == null) {
+               response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+               return;
             }
-         });
-         jetty.start();
+            response.setContentType("text/plain;charset=utf-8");
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.getWriter().println(preseedCfg);
+         }
+      });
+      try {
+         server.start();
       } catch (Exception e) {
          throw Throwables.propagate(e);
       }
+      this.jetty = server;
    }
 
-   public void stop() {
+   public synchronized void stop() {
+      preseedCfgs.clear();
       try {
          if (jetty != null) {
             jetty.stop();
          }
       } catch (Exception e) {
          throw Throwables.propagate(e);
+      } finally {
+         jetty = null;
       }
    }
 
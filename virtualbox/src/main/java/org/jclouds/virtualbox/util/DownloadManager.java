@@ -0,0 +1,420 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.virtualbox.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.io.BaseEncoding.base16;
+import static org.jclouds.Constants.PROPERTY_USER_THREADS;
+import static org.jclouds.util.Closeables2.closeQuietly;
+import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_DOWNLOAD_CONNECTIONS;
+import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_WORKINGDIR;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.http.HttpRequest;
+import org.jclouds.http.HttpResponse;
+import org.jclouds.javax.annotation.Nullable;
+import org.jclouds.logging.Logger;
+import org.jclouds.rest.HttpClient;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.net.HttpHeaders;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Downloads the isos masters are installed from.
+ * <p/>
+ * A file with a known md5 is stored under its md5, so image descriptors pointing at the same iso
+ * share one copy whatever its url. Other files are stored under their name.
+ * <p/>
+ * When the server accepts range requests, the file is preallocated and downloaded in chunks over
+ * several connections. The chunks written are recorded next to the file, so a download that was
+ * interrupted resumes with the chunks it misses. The md5 is computed as the chunks complete, in
+ * order, so the file is verified as soon as its last chunk is written.
+ */
+@Singleton
+public class DownloadManager {
+
+   public static final String MD5_DIR = "md5";
+
+   private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+   private static final int MAX_ATTEMPTS = 3;
+   private static final long RETRY_DELAY_MILLIS = 1000;
+
+   @Resource
+   @Named(ComputeServiceConstants.COMPUTE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final HttpClient client;
+   private final ListeningExecutorService userExecutor;
+   private final String isosDir;
+   private final int connections;
+   private final int chunkSize;
+   // the downloads in progress, by file
+   private final ConcurrentMap<File, ListenableFuture<File>> downloads = Maps.newConcurrentMap();
+
+   @Inject
+   public DownloadManager(HttpClient client, @Named(PROPERTY_USER_THREADS) ListeningExecutorService userExecutor,
+            @Named(VIRTUALBOX_WORKINGDIR) String workingDir, @Named(VIRTUALBOX_DOWNLOAD_CONNECTIONS) int connections) {
+      this(client, userExecutor, workingDir, connections, CHUNK_SIZE);
+   }
+
+   DownloadManager(HttpClient client, ListeningExecutorService userExecutor, String workingDir, int connections,
+            int chunkSize) {
+      checkArgument(connections > 0, "at least one connection is needed");
+      checkArgument(chunkSize > 0, "chunkSize must be positive");
+      this.client = checkNotNull(client, "client");
+      this.userExecutor = checkNotNull(userExecutor, "userExecutor");
+      this.isosDir = checkNotNull(workingDir, "workingDir") + File.separator + "isos";
+      this.connections = connections;
+      this.chunkSize = chunkSize;
+   }
+
+   /**
+    * Returns the file downloaded from a url, downloading it first if it isn't there. Concurrent
+    * callers asking for the same file wait for the one download in progress.
+    * 
+    * @param expectedMd5
+    *           the md5 of the file, null if it isn't known
+    * @throws IllegalStateException
+    *            if the md5 of the downloaded file is not the expected one
+    */
+   public File download(URI uri, @Nullable String expectedMd5) {
+      File file = fileFor(uri, expectedMd5);
+      if (file.exists()) {
+         logger.debug("File %s already exists. Skipping download", file.getPath());
+         return file;
+      }
+      SettableFuture<File> downloading = SettableFuture.create();
+      ListenableFuture<File> download = downloads.putIfAbsent(file, downloading);
+      if (download != null) {
+         return Futures.getUnchecked(download);
+      }
+      try {
+         if (!file.exists()) {
+            fetch(uri, file, expectedMd5);
+         }
+         downloading.set(file);
+         return file;
+      } catch (Throwable e) {
+         downloading.setException(e);
+         throw Throwables.propagate(e);
+      } finally {
+         downloads.remove(file, downloading);
+      }
+   }
+
+   /**
+    * The file a url is downloaded to.
+    */
+   public File fileFor(URI uri, @Nullable String expectedMd5) {
+      String name = new File(checkNotNull(uri, "uri").getPath()).getName();
+      if (expectedMd5 == null) {
+         return new File(isosDir, name);
+      }
+      int dot = name.lastIndexOf('.');
+      return new File(isosDir + File.separator + MD5_DIR, expectedMd5.toLowerCase()
+               + (dot < 0 ? "" : name.substring(dot)));
+   }
+
+   private void fetch(URI uri, File file, @Nullable String expectedMd5) throws IOException, InterruptedException {
+      checkState(file.getParentFile().isDirectory() || file.getParentFile().mkdirs(), "could not create %s",
+               file.getParentFile());
+      File partial = new File(file.getPath() + ".part");
+      File progress = new File(file.getPath() + ".progress");
+      MessageDigest digest = expectedMd5 == null ? null : md5();
+
+      long length = -1;
+      boolean ranges = false;
+      try {
+         HttpResponse head = client.invoke(HttpRequest.builder().method("HEAD").endpoint(uri).build());
+         length = contentLength(head);
+         ranges = "bytes".equalsIgnoreCase(head.getFirstHeaderOrNull(HttpHeaders.ACCEPT_RANGES));
+      } catch (RuntimeException e) {
+         logger.debug("could not get the length of %s, downloading it at once: %s", uri, e.getMessage());
+      }
+
+      logger.debug(">> downloading %s to %s", uri, file);
+      if (length > 0 && ranges) {
+         fetchChunks(uri, partial, progress, length, digest);
+      } else {
+         fetchWhole(uri, partial, digest);
+      }
+
+      if (digest != null) {
+         String actualMd5 = base16().lowerCase().encode(digest.digest());
+         if (!actualMd5.equalsIgnoreCase(expectedMd5)) {
+            partial.delete();
+            progress.delete();
+            throw new IllegalStateException(String.format("md5 of %s is %s but expected %s", uri, actualMd5,
+                     expectedMd5));
+         }
+      }
+      checkState(partial.renameTo(file), "could not rename %s to %s", partial, file);
+      progress.delete();
+      logger.debug("<< downloaded %s", file);
+   }
+
+   private void fetchWhole(URI uri, File partial, @Nullable MessageDigest digest) throws IOException {
+      HttpResponse response = client.invoke(HttpRequest.builder().method("GET").endpoint(uri).build());
+      checkState(response.getPayload() != null, "%s not found", uri);
+      InputStream in = response.getPayload().openStream();
+      OutputStream out = new FileOutputStream(partial);
+      try {
+         byte[] buffer = new byte[64 * 1024];
+         int read;
+         while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            if (digest != null)
+               digest.update(buffer, 0, read);
+         }
+      } finally {
+         closeQuietly(in);
+         out.close();
+      }
+   }
+
+   private void fetchChunks(final URI uri, File partial, File progress, final long length,
+            @Nullable MessageDigest digest) throws IOException, InterruptedException {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(partial, "rw");
+      try {
+         final FileChannel channel = randomAccessFile.getChannel();
+         final Chunks chunks = new Chunks(channel, progress, length, digest);
+         chunks.resume(partial.length() == length);
+         randomAccessFile.setLength(length);
+
+         final Queue<Integer> pending = new ConcurrentLinkedQueue<Integer>(chunks.missing());
+         List<ListenableFuture<Void>> workers = Lists.newArrayList();
+         for (int i = 0; i < Math.min(connections, pending.size()); i++) {
+            workers.add(userExecutor.submit(new Callable<Void>() {
+               @Override
+               public Void call() throws Exception {
+                  Integer chunk;
+                  while ((chunk = pending.poll()) != null) {
+                     try {
+                        fetchChunk(uri, channel, chunk, length);
+                     } catch (Exception e) {
+                        // the others stop after their current chunk
+                        pending.clear();
+                        throw e;
+                     }
+                     chunks.written(chunk);
+                  }
+                  return null;
+               }
+            }));
+         }
+         try {
+            // wait for all the workers to stop before failing
+            Futures.successfulAsList(workers).get();
+            Futures.allAsList(workers).get();
+         } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+         } finally {
+            chunks.close();
+         }
+         checkState(chunks.missing().isEmpty(), "%s was not downloaded completely", uri);
+      } finally {
+         randomAccessFile.close();
+      }
+   }
+
+   private void fetchChunk(URI uri, FileChannel channel, int chunk, long length) throws IOException,
+            InterruptedException {
+      long start = (long) chunk * chunkSize;
+      long end = Math.min(start + chunkSize, length);
+      for (int attempt = 1;; attempt++) {
+         try {
+            HttpResponse response = client.invoke(HttpRequest.builder().method("GET").endpoint(uri)
+                     .addHeader(HttpHeaders.RANGE, "bytes=" + start + "-" + (end - 1)).build());
+            if (response.getStatusCode() != 206 || response.getPayload() == null)
+               throw new IOException("range of " + uri + " not returned: " + response.getStatusLine());
+            InputStream in = response.getPayload().openStream();
+            try {
+               long position = start;
+               byte[] buffer = new byte[64 * 1024];
+               int read;
+               while (position < end
+                        && (read = in.read(buffer, 0, (int) Math.min(buffer.length, end - position))) != -1) {
+                  ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                  while (bytes.hasRemaining()) {
+                     position += channel.write(bytes, position);
+                  }
+               }
+               if (position != end)
+                  throw new IOException("range of " + uri + " ended at " + position + " instead of " + end);
+            } finally {
+               closeQuietly(in);
+            }
+            return;
+         } catch (IOException e) {
+            if (attempt >= MAX_ATTEMPTS)
+               throw e;
+            logger.warn("download of chunk %d of %s failed, retrying: %s", chunk, uri, e.getMessage());
+            Thread.sleep(RETRY_DELAY_MILLIS << (attempt - 1));
+         }
+      }
+   }
+
+   /**
+    * The chunks of a download, which ones are written and how far they are digested.
+    * <p/>
+    * The progress file starts with the length of the file, followed by the index of each chunk
+    * written, one per line.
+    */
+   private class Chunks {
+
+      private final FileChannel channel;
+      private final File progress;
+      private final long length;
+      private final int count;
+      private final MessageDigest digest;
+
+      // guarded by this
+      private final BitSet written = new BitSet();
+      private int digested;
+      private Writer log;
+
+      Chunks(FileChannel channel, File progress, long length, @Nullable MessageDigest digest) {
+         this.channel = channel;
+         this.progress = progress;
+         this.length = length;
+         this.count = (int) ((length + chunkSize - 1) / chunkSize);
+         this.digest = digest;
+      }
+
+      /**
+       * Reads the chunks written by a previous download of the same file, if any, and starts
+       * recording the chunks written.
+       */
+      synchronized void resume(boolean partialFound) throws IOException {
+         if (partialFound && progress.exists()) {
+            List<String> lines = Files.readLines(progress, Charsets.UTF_8);
+            if (!lines.isEmpty() && lines.get(0).equals(String.valueOf(length))) {
+               for (String line : lines.subList(1, lines.size())) {
+                  // the last line may have been cut short
+                  Integer chunk = Ints.tryParse(line.trim());
+                  if (chunk != null && chunk < count)
+                     written.set(chunk);
+               }
+               logger.debug("resuming download of %s with %d of %d chunks", progress, written.cardinality(), count);
+            }
+         }
+         log = Files.newWriter(progress, Charsets.UTF_8);
+         log.write(String.valueOf(length) + "\n");
+         for (int chunk = written.nextSetBit(0); chunk >= 0; chunk = written.nextSetBit(chunk + 1)) {
+            log.write(chunk + "\n");
+         }
+         log.flush();
+         digestWritten();
+      }
+
+      synchronized List<Integer> missing() {
+         List<Integer> missing = Lists.newArrayList();
+         for (int chunk = written.nextClearBit(0); chunk < count; chunk = written.nextClearBit(chunk + 1)) {
+            missing.add(chunk);
+         }
+         return missing;
+      }
+
+      void written(int chunk) throws IOException {
+         // a chunk recorded in the progress file must survive a crash, so its data goes to disk first
+         channel.force(false);
+         synchronized (this) {
+            written.set(chunk);
+            log.write(chunk + "\n");
+            log.flush();
+            digestWritten();
+         }
+      }
+
+      synchronized void close() throws IOException {
+         if (log != null)
+            log.close();
+      }
+
+      // the chunks are digested in order, as soon as all the chunks before them are written
+      private void digestWritten() throws IOException {
+         if (digest == null)
+            return;
+         ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+         while (digested < count && written.get(digested)) {
+            long position = (long) digested * chunkSize;
+            long end = Math.min(position + chunkSize, length);
+            while (position < end) {
+               buffer.clear();
+               buffer.limit((int) Math.min(buffer.capacity(), end - position));
+               int read = channel.read(buffer, position);
+               checkState(read > 0, "could not read back chunk %d", digested);
+               digest.update(buffer.array(), 0, read);
+               position += read;
+            }
+            digested++;
+         }
+      }
+   }
+
+   private static long contentLength(HttpResponse response) {
+      if (response.getPayload() != null && response.getPayload().getContentMetadata().getContentLength() != null)
+         return response.getPayload().getContentMetadata().getContentLength();
+      String header = response.getFirstHeaderOrNull(HttpHeaders.CONTENT_LENGTH);
+      return header == null ? -1 : Long.parseLong(header);
+   }
+
+   private static MessageDigest md5() {
+      try {
+         return MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException e) {
+         throw Throwables.propagate(e);
+      }
+   }
+}
@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.virtualbox.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.logging.Logger;
+import org.virtualbox_4_2.IMachine;
+import org.virtualbox_4_2.ISession;
+import org.virtualbox_4_2.ISnapshot;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Keeps a golden snapshot per master, which linked clones of the master are cloned from.
+ * <p/>
+ * The golden snapshot is taken once and shared by all the clones, as long as the master does not
+ * change. When the master changes, a new version of the golden snapshot is taken and the previous
+ * version is deleted once the last clone linked to it is {@link #release(String) released}. A
+ * version is never modified, so clones never wait for a snapshot to be taken or deleted unless
+ * their master changed.
+ */
+@Singleton
+public class GoldenSnapshots {
+
+   public static final String SNAPSHOT_PREFIX = "jclouds-golden-v";
+
+   /**
+    * A version of the golden snapshot of a master, referenced by the clones linked to it.
+    */
+   public static class Golden {
+
+      private final String masterName;
+      private final String snapshotId;
+      private final int version;
+
+      // guarded by this
+      private int references;
+      private boolean current = true;
+      private boolean deleted;
+
+      Golden(String masterName, String snapshotId, int version) {
+         this.masterName = checkNotNull(masterName, "masterName");
+         this.snapshotId = checkNotNull(snapshotId, "snapshotId");
+         this.version = version;
+      }
+
+      public String getMasterName() {
+         return masterName;
+      }
+
+      public String getSnapshotId() {
+         return snapshotId;
+      }
+
+      public int getVersion() {
+         return version;
+      }
+
+      public synchronized int getReferences() {
+         return references;
+      }
+
+      synchronized boolean retain() {
+         if (deleted)
+            return false;
+         references++;
+         return true;
+      }
+
+      /**
+       * @return true if the snapshot is no longer referenced nor current, and must be deleted
+       */
+      synchronized boolean release() {
+         references--;
+         return markDeletedIfUnused();
+      }
+
+      /**
+       * @return true if the snapshot is not referenced, and must be deleted
+       */
+      synchronized boolean retire() {
+         current = false;
+         return markDeletedIfUnused();
+      }
+
+      private boolean markDeletedIfUnused() {
+         if (current || deleted || references > 0)
+            return false;
+         deleted = true;
+         return true;
+      }
+
+      @Override
+      public String toString() {
+         return Objects.toStringHelper(this).add("master", masterName).add("version", version)
+                  .add("snapshotId", snapshotId).toString();
+      }
+   }
+
+   @Resource
+   @Named(ComputeServiceConstants.COMPUTE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final MachineUtils machineUtils;
+   // the current version of the golden snapshot, by master id
+   private final ConcurrentMap<String, Golden> goldens = Maps.newConcurrentMap();
+   // the version each clone is linked to, by clone name
+   private final ConcurrentMap<String, Golden> clones = Maps.newConcurrentMap();
+   private final Striped<Lock> masterLocks = Striped.lazyWeakLock(16);
+
+   @Inject
+   public GoldenSnapshots(MachineUtils machineUtils) {
+      this.machineUtils = checkNotNull(machineUtils, "machineUtils");
+   }
+
+   /**
+    * References the golden snapshot of a master for a clone, taking a new version of it first if
+    * the master changed since the current version was taken.
+    */
+   public Golden acquire(IMachine master, String cloneName) {
+      checkNotNull(cloneName, "cloneName");
+      while (true) {
+         Golden golden = goldens.get(master.getId());
+         if (golden == null || !isCurrent(golden, master))
+            golden = renew(master);
+         // a version retired and deleted meanwhile can't be referenced anymore
+         if (golden.retain()) {
+            clones.put(cloneName, golden);
+            return golden;
+         }
+      }
+   }
+
+   /**
+    * Releases the golden snapshot referenced by a clone, once the clone is destroyed or could not
+    * be created.
+    */
+   public void release(String cloneName) {
+      Golden golden = clones.remove(cloneName);
+      if (golden != null && golden.release())
+         delete(golden);
+   }
+
+   /**
+    * The current version of the golden snapshot of a master.
+    * 
+    * @return null if no golden snapshot was taken for the master yet
+    */
+   public Golden get(IMachine master) {
+      return goldens.get(master.getId());
+   }
+
+   private static boolean isCurrent(Golden golden, IMachine master) {
+      ISnapshot snapshot = master.getCurrentSnapshot();
+      return snapshot != null && golden.getSnapshotId().equals(snapshot.getId())
+               && !Boolean.TRUE.equals(master.getCurrentStateModified());
+   }
+
+   private Golden renew(IMachine master) {
+      Lock lock = masterLocks.get(master.getId());
+      lock.lock();
+      try {
+         Golden previous = goldens.get(master.getId());
+         if (previous != null && isCurrent(previous, master))
+            return previous;
+
+         int version = previous == null ? 0 : previous.getVersion();
+         ISnapshot snapshot = master.getCurrentSnapshot();
+         Golden renewed;
+         if (snapshot != null && !Boolean.TRUE.equals(master.getCurrentStateModified())) {
+            // the master is unchanged since its current snapshot, there's nothing to take
+            renewed = new Golden(master.getName(), snapshot.getId(), Math.max(version, versionOf(snapshot)));
+         } else {
+            version = Math.max(version, snapshot == null ? 0 : versionOf(snapshot)) + 1;
+            renewed = new Golden(master.getName(), takeSnapshot(master, SNAPSHOT_PREFIX + version), version);
+            logger.debug("<< took golden snapshot version %d of master(%s)", version, master.getName());
+         }
+         goldens.put(master.getId(), renewed);
+         if (previous != null && previous.retire())
+            delete(previous);
+         return renewed;
+      } finally {
+         lock.unlock();
+      }
+   }
+
+   private static int versionOf(ISnapshot snapshot) {
+      String name = snapshot.getName();
+      if (name == null || !name.startsWith(SNAPSHOT_PREFIX))
+         return 0;
+      try {
+         return Integer.parseInt(name.substring(SNAPSHOT_PREFIX.length()));
+      } catch (NumberFormatException e) {
+         return 0;
+      }
+   }
+
+   private String takeSnapshot(final IMachine master, final String name) {
+      machineUtils.writeLockMachineAndApplyToSession(master.getName(), new Function<ISession, Void>() {
+         @Override
+         public Void apply(ISession session) {
+            session.getConsole().takeSnapshot(name, "golden snapshot of " + master.getName()).waitForCompletion(-1);
+            return null;
+         }
+      });
+      return checkNotNull(master.getCurrentSnapshot(), "snapshot of " + master.getName()).getId();
+   }
+
+   private void delete(final Golden golden) {
+      try {
+         machineUtils.writeLockMachineAndApplyToSession(golden.getMasterName(), new Function<ISession, Void>() {
+            @Override
+            public Void apply(ISession session) {
+               session.getConsole().deleteSnapshot(golden.getSnapshotId()).waitForCompletion(-1);
+               return null;
+            }
+         });
+         logger.debug("<< deleted %s", golden);
+      } catch (RuntimeException e) {
+         logger.warn(e, "could not delete %s, it is kept", golden);
+      }
+   }
+}
@@ -17,6 +17,7 @@
 package org.jclouds.virtualbox;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 
 import java.net.URI;
 import java.net.URL;
@@ -36,8 +37,8 @@ import com.google.common.collect.Iterables;
 
 /**
  * Tests that jetty is able to serve the preseed.cfg from the provided yaml
- * image. This test is here to have access to the defaultProperties() method in
- * {@link VirtualBoxPropertiesBuilder}.
+ * image, next to the one of another image. This test is here to have access
+ * to the defaultProperties() method in {@link VirtualBoxPropertiesBuilder}.
  * 
  * @author dralves
  * 
@@ -54,15 +55,20 @@ public class PreseedCfgServerTest {
 
       int port = URI.create(preconfigurationUrl).getPort();
 
-      PreseedCfgServer starter = new PreseedCfgServer();
+      PreseedCfgServer starter = new PreseedCfgServer(preconfigurationUrl);
 
-      starter.start(preconfigurationUrl, getDefaultImage().preseed_cfg);
+      URI first = starter.serve("first", getDefaultImage().preseed_cfg);
+      URI second = starter.serve("second", "second preseed");
 
-      String preseedFileFromJetty = Strings2.toStringAndClose(new URL("http://127.0.0.1:" + port + "/preseed.cfg").openStream());
+      String preseedFileFromJetty = Strings2.toStringAndClose(new URL("http://127.0.0.1:" + port + first.getPath()).openStream());
       String preseedFileFromFile = getDefaultImage().preseed_cfg + lineSeparator;
       assertEquals(preseedFileFromFile, preseedFileFromJetty);
+      assertEquals(Strings2.toStringAndClose(new URL("http://127.0.0.1:" + port + second.getPath()).openStream()),
+            "second preseed" + lineSeparator);
 
-      starter.stop();
+      starter.unserve("first");
+      starter.unserve("second");
+      assertFalse(starter.isRunning());
    }
 
    public static YamlImage getDefaultImage() {
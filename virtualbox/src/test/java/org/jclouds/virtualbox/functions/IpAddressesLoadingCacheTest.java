@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.virtualbox.functions;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.IAnswer;
+import org.jclouds.virtualbox.FakeTicker;
+import org.jclouds.virtualbox.util.MachineNameOrIdAndNicSlot;
+import org.testng.annotations.Test;
+import org.virtualbox_4_2.Holder;
+import org.virtualbox_4_2.IEvent;
+import org.virtualbox_4_2.IEventListener;
+import org.virtualbox_4_2.IEventSource;
+import org.virtualbox_4_2.IMachine;
+import org.virtualbox_4_2.IVirtualBox;
+import org.virtualbox_4_2.VirtualBoxManager;
+import org.virtualbox_4_2.jaxws.VBoxEventType;
+import org.virtualbox_4_2.jaxws.VboxPortType;
+
+import com.google.common.base.Suppliers;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+@Test(groups = "unit", testName = "IpAddressesLoadingCacheTest")
+public class IpAddressesLoadingCacheTest {
+
+   private static final MachineNameOrIdAndNicSlot SLOT_0 = MachineNameOrIdAndNicSlot.fromParts("node", 0);
+   private static final MachineNameOrIdAndNicSlot SLOT_1 = MachineNameOrIdAndNicSlot.fromParts("node", 1);
+
+   public void testCachesAnIpAddressUntilItExpires() throws Exception {
+      FakeTicker ticker = new FakeTicker();
+      IMachine machine = machine();
+      expect(machine.getGuestPropertyValue("/VirtualBox/GuestInfo/Net/0/V4/IP")).andReturn("192.168.56.101").times(2);
+      IpAddressesLoadingCache cache = cache(machine, 2, ticker);
+
+      assertEquals(cache.get(SLOT_0), "192.168.56.101");
+      ticker.advance(59, TimeUnit.SECONDS);
+      assertEquals(cache.get(SLOT_0), "192.168.56.101");
+      ticker.advance(1, TimeUnit.SECONDS);
+      assertEquals(cache.get(SLOT_0), "192.168.56.101");
+      verify(machine);
+   }
+
+   public void testExpiresAMissingIpAddressSooner() throws Exception {
+      FakeTicker ticker = new FakeTicker();
+      IMachine machine = machine();
+      expect(machine.getGuestPropertyValue("/VirtualBox/GuestInfo/Net/0/V4/IP")).andReturn(null);
+      expect(machine.getGuestPropertyValue("/VirtualBox/GuestInfo/Net/0/V4/IP")).andReturn("192.168.56.101");
+      IpAddressesLoadingCache cache = cache(machine, 2, ticker);
+
+      assertEquals(cache.get(SLOT_0), "");
+      ticker.advance(4, TimeUnit.SECONDS);
+      assertEquals(cache.get(SLOT_0), "");
+      ticker.advance(1, TimeUnit.SECONDS);
+      assertEquals(cache.get(SLOT_0), "192.168.56.101");
+      verify(machine);
+   }
+
+   public void testInvalidatesAllTheSlotsOfAMachine() throws Exception {
+      IMachine machine = machine();
+      expect(machine.getGuestPropertyValue("/VirtualBox/GuestInfo/Net/0/V4/IP")).andReturn("192.168.56.101");
+      expect(machine.getGuestPropertyValue("/VirtualBox/GuestInfo/Net/1/V4/IP")).andReturn("10.0.2.15");
+      IpAddressesLoadingCache cache = cache(machine, 2, new FakeTicker());
+
+      cache.get(SLOT_0);
+      cache.get(SLOT_1);
+      cache.invalidateMachine("node-id");
+
+      assertNull(cache.getIfPresent(SLOT_0));
+      assertNull(cache.getIfPresent(SLOT_1));
+      assertEquals(cache.size(), 0);
+   }
+
+   @SuppressWarnings("unchecked")
+   public void testPrefetchesAllTheSlotsOfEachMachineAtOnce() throws Exception {
+      IMachine machine = machine();
+      machine.enumerateGuestProperties(eq("/VirtualBox/GuestInfo/Net/*"), anyObject(Holder.class),
+               anyObject(Holder.class), anyObject(Holder.class), anyObject(Holder.class));
+      expectLastCall().andAnswer(new IAnswer<Void>() {
+         @Override
+         public Void answer() throws Throwable {
+            ((Holder<List<String>>) getCurrentArguments()[1]).value = ImmutableList.of(
+                     "/VirtualBox/GuestInfo/Net/0/V4/IP", "/VirtualBox/GuestInfo/Net/0/Status",
+                     "/VirtualBox/GuestInfo/Net/1/V4/IP");
+            ((Holder<List<String>>) getCurrentArguments()[2]).value = ImmutableList.of("192.168.56.101", "Up",
+                     "10.0.2.15");
+            return null;
+         }
+      });
+      // no lookup happens once the slots are prefetched
+      IpAddressesLoadingCache cache = cache(machine, 0, new FakeTicker());
+
+      cache.prefetch(ImmutableList.of(machine));
+
+      assertEquals(cache.get(SLOT_0), "192.168.56.101");
+      assertEquals(cache.get(SLOT_1), "10.0.2.15");
+      assertEquals(cache.get(MachineNameOrIdAndNicSlot.fromParts("node", 2)), "");
+      assertEquals(cache.size(), 4);
+      verify(machine);
+   }
+
+   public void testInvalidatesAMachineWhenItsStateChanges() throws Exception {
+      IMachine machine = machine();
+      expect(machine.getGuestPropertyValue("/VirtualBox/GuestInfo/Net/0/V4/IP")).andReturn("192.168.56.101");
+      IpAddressesLoadingCache cache = cache(machine, 1, new FakeTicker());
+      VboxPortType port = createMock(VboxPortType.class);
+      IEvent stateChanged = event(port, "event-1", VBoxEventType.ON_MACHINE_STATE_CHANGED, "node-id");
+      replay(port);
+
+      cache.get(SLOT_0);
+      cache.onEvent(stateChanged);
+
+      assertNull(cache.getIfPresent(SLOT_0));
+   }
+
+   public void testInvalidatesAMachineWhenItsNetworkPropertiesChange() throws Exception {
+      IMachine machine = machine();
+      expect(machine.getGuestPropertyValue("/VirtualBox/GuestInfo/Net/0/V4/IP")).andReturn("192.168.56.101");
+      IpAddressesLoadingCache cache = cache(machine, 1, new FakeTicker());
+      VboxPortType port = createMock(VboxPortType.class);
+      IEvent osChanged = event(port, "event-1", VBoxEventType.ON_GUEST_PROPERTY_CHANGED, "node-id");
+      expect(port.iGuestPropertyChangedEventGetName("event-1")).andReturn("/VirtualBox/GuestInfo/OS/Product");
+      IEvent netChanged = event(port, "event-2", VBoxEventType.ON_GUEST_PROPERTY_CHANGED, "node-id");
+      expect(port.iGuestPropertyChangedEventGetName("event-2")).andReturn("/VirtualBox/GuestInfo/Net/0/V4/IP");
+      replay(port);
+
+      cache.get(SLOT_0);
+      cache.onEvent(osChanged);
+      assertEquals(cache.getIfPresent(SLOT_0), "192.168.56.101");
+      cache.onEvent(netChanged);
+      assertNull(cache.getIfPresent(SLOT_0));
+   }
+
+   public void testInvalidatesEverythingWhenListeningFails() throws Exception {
+      IMachine machine = machine();
+      expect(machine.getGuestPropertyValue("/VirtualBox/GuestInfo/Net/0/V4/IP")).andReturn("192.168.56.101");
+      final CountDownLatch loaded = new CountDownLatch(1);
+      IEventSource events = createNiceMock(IEventSource.class);
+      IEventListener listener = createNiceMock(IEventListener.class);
+      expect(events.createListener()).andReturn(listener);
+      expect(events.getEvent(listener, 1000)).andAnswer(new IAnswer<IEvent>() {
+         @Override
+         public IEvent answer() throws Throwable {
+            loaded.await();
+            throw new IllegalStateException("connection lost");
+         }
+      });
+      events.unregisterListener(listener);
+      expectLastCall();
+      replay(events, listener);
+      ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+      try {
+         IpAddressesLoadingCache cache = cache(machine, 1, new FakeTicker(), events, executor);
+
+         assertEquals(cache.get(SLOT_0), "192.168.56.101");
+         loaded.countDown();
+         executor.shutdown();
+         assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+         // changes may have been missed while the events could not be read
+         assertNull(cache.getIfPresent(SLOT_0));
+         verify(events);
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   private static IMachine machine() {
+      IMachine machine = createMock(IMachine.class);
+      expect(machine.getName()).andReturn("node").anyTimes();
+      expect(machine.getId()).andReturn("node-id").anyTimes();
+      return machine;
+   }
+
+   private static IpAddressesLoadingCache cache(IMachine machine, int lookups, Ticker ticker) {
+      return cache(machine, lookups, ticker, null, MoreExecutors.sameThreadExecutor());
+   }
+
+   private static IpAddressesLoadingCache cache(IMachine machine, int lookups, Ticker ticker, IEventSource events,
+            ListeningExecutorService executor) {
+      VirtualBoxManager manager = createNiceMock(VirtualBoxManager.class);
+      IVirtualBox vbox = createNiceMock(IVirtualBox.class);
+      expect(manager.getVBox()).andReturn(vbox).anyTimes();
+      expect(vbox.getEventSource()).andReturn(events).anyTimes();
+      if (lookups > 0)
+         expect(vbox.findMachine("node")).andReturn(machine).times(lookups);
+      replay(manager, vbox, machine);
+      return new IpAddressesLoadingCache(Suppliers.ofInstance(manager), executor, 60, 5, ticker);
+   }
+
+   private static IEvent event(VboxPortType port, String id, VBoxEventType type, String machineId)
+            throws Exception {
+      expect(port.iEventGetType(id)).andReturn(type).anyTimes();
+      expect(port.iMachineEventGetMachineId(id)).andReturn(machineId).anyTimes();
+      return new IEvent(id, port);
+   }
+
+}
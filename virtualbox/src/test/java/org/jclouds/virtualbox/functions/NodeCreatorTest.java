@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.virtualbox.functions;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.jclouds.virtualbox.config.VirtualBoxConstants.GUEST_OS_PASSWORD;
+import static org.jclouds.virtualbox.config.VirtualBoxConstants.GUEST_OS_USER;
+import static org.jclouds.virtualbox.config.VirtualBoxConstants.VIRTUALBOX_IMAGE_PREFIX;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.compute.ComputeServiceAdapter.NodeAndInitialCredentials;
+import org.jclouds.virtualbox.domain.CloneSpec;
+import org.jclouds.virtualbox.domain.Master;
+import org.jclouds.virtualbox.domain.NetworkSpec;
+import org.jclouds.virtualbox.domain.NodeSpec;
+import org.jclouds.virtualbox.functions.NodeCreator.Stage;
+import org.jclouds.virtualbox.util.GoldenSnapshots;
+import org.jclouds.virtualbox.util.MachineController;
+import org.jclouds.virtualbox.util.MachineUtils;
+import org.jclouds.virtualbox.util.NetworkUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+import org.virtualbox_4_2.CleanupMode;
+import org.virtualbox_4_2.IMachine;
+import org.virtualbox_4_2.IMedium;
+import org.virtualbox_4_2.ISnapshot;
+import org.virtualbox_4_2.MachineState;
+import org.virtualbox_4_2.VirtualBoxManager;
+
+import com.google.common.base.Function;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+@Test(groups = "unit", testName = "NodeCreatorTest")
+public class NodeCreatorTest {
+
+   private final ExecutorService executor = Executors.newCachedThreadPool();
+
+   @AfterClass(alwaysRun = true)
+   public void shutdown() {
+      executor.shutdownNow();
+   }
+
+   public void testClonesOfDifferentMastersOverlap() throws Exception {
+      final CountDownLatch cloning = new CountDownLatch(2);
+      NodeCreator creator = creator(new Function<CloneSpec, IMachine>() {
+         @Override
+         public IMachine apply(CloneSpec spec) {
+            cloning.countDown();
+            if (!Uninterruptibles.awaitUninterruptibly(cloning, 5, TimeUnit.SECONDS))
+               throw new IllegalStateException("the clones did not overlap");
+            return cloneNamed(spec.getVmSpec().getVmName());
+         }
+      }, 2);
+
+      List<NodeAndInitialCredentials<IMachine>> nodes = createAll(creator,
+               node(master("ubuntu"), "node-1"), node(master("centos"), "node-2"));
+
+      assertEquals(nodes.get(0).getNodeId(), "jclouds-node-0x0-ubuntu-0x0-group-0x0-node-1");
+      assertEquals(nodes.get(0).getCredentials().identity, "user");
+      assertEquals(creator.availableWorkers(Stage.CLONE), 2);
+   }
+
+   public void testLimitsTheClonesRunningAtOnce() throws Exception {
+      final AtomicInteger running = new AtomicInteger();
+      final AtomicInteger maxRunning = new AtomicInteger();
+      NodeCreator creator = creator(new Function<CloneSpec, IMachine>() {
+         @Override
+         public IMachine apply(CloneSpec spec) {
+            int now = running.incrementAndGet();
+            if (now > maxRunning.get())
+               maxRunning.set(now);
+            Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+            running.decrementAndGet();
+            return cloneNamed(spec.getVmSpec().getVmName());
+         }
+      }, 1);
+
+      Master master = master("ubuntu");
+      createAll(creator, node(master, "node-1"), node(master, "node-2"), node(master("centos"), "node-3"));
+
+      assertEquals(maxRunning.get(), 1);
+      assertEquals(creator.availableWorkers(Stage.CLONE), 1);
+   }
+
+   public void testRemovesTheCloneWhenItFailsToStart() throws Exception {
+      final IMachine clone = createNiceMock(IMachine.class);
+      expect(clone.getName()).andReturn("jclouds-node-0x0-ubuntu-0x0-group-0x0-node-1").anyTimes();
+      expect(clone.unregister(CleanupMode.Full)).andReturn(ImmutableList.<IMedium>of());
+      replay(clone);
+      MachineController machineController = createNiceMock(MachineController.class);
+      expect(machineController.ensureMachineIsLaunched(anyObject(String.class))).andThrow(
+               new IllegalStateException("vm did not boot"));
+      replay(machineController);
+      MachineUtils machineUtils = createNiceMock(MachineUtils.class);
+      replay(machineUtils);
+      GoldenSnapshots goldenSnapshots = new GoldenSnapshots(machineUtils);
+      NodeCreator creator = creator(new Function<CloneSpec, IMachine>() {
+         @Override
+         public IMachine apply(CloneSpec spec) {
+            return clone;
+         }
+      }, 1, machineController, machineUtils, goldenSnapshots);
+
+      Master master = master("ubuntu");
+      try {
+         creator.apply(node(master, "node-1"));
+         fail("the node should not have been created");
+      } catch (IllegalStateException e) {
+         assertEquals(e.getMessage(), "vm did not boot");
+      }
+
+      verify(clone);
+      assertEquals(goldenSnapshots.get(master.getMachine()).getReferences(), 0);
+      assertEquals(creator.availableWorkers(Stage.BOOT), 2);
+   }
+
+   private List<NodeAndInitialCredentials<IMachine>> createAll(final NodeCreator creator, NodeSpec... specs)
+            throws Exception {
+      List<Future<NodeAndInitialCredentials<IMachine>>> futures = Lists.newArrayList();
+      for (final NodeSpec spec : specs) {
+         futures.add(executor.submit(new Callable<NodeAndInitialCredentials<IMachine>>() {
+            @Override
+            public NodeAndInitialCredentials<IMachine> call() {
+               return creator.apply(spec);
+            }
+         }));
+      }
+      List<NodeAndInitialCredentials<IMachine>> nodes = Lists.newArrayList();
+      for (Future<NodeAndInitialCredentials<IMachine>> future : futures) {
+         nodes.add(future.get(10, TimeUnit.SECONDS));
+      }
+      return nodes;
+   }
+
+   private static NodeCreator creator(Function<CloneSpec, IMachine> cloner, int cloneWorkers) {
+      MachineUtils machineUtils = createNiceMock(MachineUtils.class);
+      MachineController machineController = createNiceMock(MachineController.class);
+      replay(machineUtils, machineController);
+      return creator(cloner, cloneWorkers, machineController, machineUtils, new GoldenSnapshots(machineUtils));
+   }
+
+   private static NodeCreator creator(Function<CloneSpec, IMachine> cloner, int cloneWorkers,
+            MachineController machineController, MachineUtils machineUtils, GoldenSnapshots goldenSnapshots) {
+      VirtualBoxManager manager = createNiceMock(VirtualBoxManager.class);
+      NetworkUtils networkUtils = createNiceMock(NetworkUtils.class);
+      expect(networkUtils.createNetworkSpecWhenVboxIsLocalhost()).andReturn(NetworkSpec.builder().build()).anyTimes();
+      expect(networkUtils.getValidHostOnlyIpFromVm(anyObject(String.class))).andReturn("192.168.56.101").anyTimes();
+      replay(manager, networkUtils);
+      return new NodeCreator(Suppliers.ofInstance(manager), cloner, machineUtils, machineController, networkUtils,
+               goldenSnapshots, "512", "/tmp", cloneWorkers, 2, 2, 2);
+   }
+
+   private static Master master(String name) {
+      ISnapshot snapshot = createNiceMock(ISnapshot.class);
+      expect(snapshot.getId()).andReturn(name + "-snapshot").anyTimes();
+      IMachine machine = createNiceMock(IMachine.class);
+      expect(machine.getId()).andReturn(name).anyTimes();
+      expect(machine.getName()).andReturn(VIRTUALBOX_IMAGE_PREFIX + name).anyTimes();
+      expect(machine.getOSTypeId()).andReturn("Other").anyTimes();
+      expect(machine.getExtraData(GUEST_OS_USER)).andReturn("user").anyTimes();
+      expect(machine.getExtraData(GUEST_OS_PASSWORD)).andReturn("password").anyTimes();
+      expect(machine.getCurrentSnapshot()).andReturn(snapshot).anyTimes();
+      replay(snapshot, machine);
+      return Master.builder().machine(machine).build();
+   }
+
+   private static NodeSpec node(Master master, String name) {
+      return NodeSpec.builder().master(master).name(name).tag("group").build();
+   }
+
+   private static IMachine cloneNamed(String name) {
+      IMachine clone = createNiceMock(IMachine.class);
+      expect(clone.getName()).andReturn(name).anyTimes();
+      expect(clone.getOSTypeId()).andReturn("Other").anyTimes();
+      expect(clone.getState()).andReturn(MachineState.Running).anyTimes();
+      replay(clone);
+      return clone;
+   }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.virtualbox.util;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+import org.easymock.IAnswer;
+import org.jclouds.http.HttpRequest;
+import org.jclouds.http.HttpResponse;
+import org.jclouds.io.Payloads;
+import org.jclouds.rest.HttpClient;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+@Test(groups = "unit", testName = "DownloadManagerTest", singleThreaded = true)
+public class DownloadManagerTest {
+
+   private static final int CHUNK_SIZE = 1000;
+   private static final URI ISO = URI.create("http://mirror/ubuntu.iso");
+
+   private final ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors
+            .newCachedThreadPool());
+   private final byte[] content = new byte[10 * CHUNK_SIZE + 123];
+   private File workingDir;
+
+   @BeforeMethod
+   public void setUp() {
+      new Random(0).nextBytes(content);
+      workingDir = Files.createTempDir();
+   }
+
+   @AfterClass(alwaysRun = true)
+   public void shutdown() {
+      executor.shutdownNow();
+   }
+
+   public void testDownloadsTheChunksOverSeveralConnections() throws Exception {
+      List<String> ranges = Lists.newArrayList();
+      DownloadManager downloads = new DownloadManager(server(true, ranges), executor, workingDir.getPath(), 4,
+               CHUNK_SIZE);
+
+      File file = downloads.download(ISO, md5(content));
+
+      assertEquals(Files.toByteArray(file), content);
+      assertEquals(file, new File(workingDir, "isos/md5/" + md5(content) + ".iso"));
+      assertEquals(ranges.size(), 11);
+      assertFalse(new File(file.getPath() + ".progress").exists());
+   }
+
+   public void testDownloadsAtOnceWhenRangesAreNotAccepted() throws Exception {
+      List<String> ranges = Lists.newArrayList();
+      DownloadManager downloads = new DownloadManager(server(false, ranges), executor, workingDir.getPath(), 4,
+               CHUNK_SIZE);
+
+      File file = downloads.download(ISO, null);
+
+      assertEquals(Files.toByteArray(file), content);
+      assertEquals(file, new File(workingDir, "isos/ubuntu.iso"));
+      assertTrue(ranges.isEmpty());
+   }
+
+   public void testResumesAPartialDownload() throws Exception {
+      File file = new File(workingDir, "isos/md5/" + md5(content) + ".iso");
+      file.getParentFile().mkdirs();
+      File partial = new File(file.getPath() + ".part");
+      byte[] written = new byte[content.length];
+      System.arraycopy(content, 0, written, 0, 3 * CHUNK_SIZE);
+      System.arraycopy(content, 5 * CHUNK_SIZE, written, 5 * CHUNK_SIZE, CHUNK_SIZE);
+      Files.write(written, partial);
+      Files.write(content.length + "\n0\n1\n2\n5\n", new File(file.getPath() + ".progress"), Charsets.UTF_8);
+
+      List<String> ranges = Lists.newArrayList();
+      DownloadManager downloads = new DownloadManager(server(true, ranges), executor, workingDir.getPath(), 2,
+               CHUNK_SIZE);
+
+      assertEquals(Files.toByteArray(downloads.download(ISO, md5(content))), content);
+      assertEquals(ranges.size(), 7);
+      assertFalse(ranges.contains("bytes=0-999"));
+      assertFalse(ranges.contains("bytes=5000-5999"));
+   }
+
+   public void testSharesTheFilesWithTheSameMd5() throws Exception {
+      List<String> ranges = Lists.newArrayList();
+      DownloadManager downloads = new DownloadManager(server(true, ranges), executor, workingDir.getPath(), 4,
+               CHUNK_SIZE);
+
+      File file = downloads.download(ISO, md5(content));
+      ranges.clear();
+
+      assertEquals(downloads.download(URI.create("http://other-mirror/ubuntu-12.04.iso"), md5(content)), file);
+      assertTrue(ranges.isEmpty());
+   }
+
+   public void testFailsWhenTheMd5DoesNotMatch() throws Exception {
+      DownloadManager downloads = new DownloadManager(server(true, Lists.<String> newArrayList()), executor,
+               workingDir.getPath(), 4, CHUNK_SIZE);
+      String wrongMd5 = md5(new byte[1]);
+
+      try {
+         downloads.download(ISO, wrongMd5);
+         fail("the md5 was not verified");
+      } catch (IllegalStateException e) {
+         File file = downloads.fileFor(ISO, wrongMd5);
+         assertFalse(file.exists());
+         assertFalse(new File(file.getPath() + ".part").exists());
+      }
+   }
+
+   private HttpClient server(final boolean acceptRanges, final List<String> ranges) {
+      HttpClient client = createMock(HttpClient.class);
+      expect(client.invoke(anyObject(HttpRequest.class))).andAnswer(new IAnswer<HttpResponse>() {
+         @Override
+         public HttpResponse answer() throws Throwable {
+            HttpRequest request = (HttpRequest) getCurrentArguments()[0];
+            if (request.getMethod().equals("HEAD")) {
+               HttpResponse.Builder<?> head = HttpResponse.builder().statusCode(200)
+                        .addHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(content.length));
+               if (acceptRanges)
+                  head.addHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+               return head.build();
+            }
+            String range = request.getFirstHeaderOrNull(HttpHeaders.RANGE);
+            if (range == null)
+               return HttpResponse.builder().statusCode(200).payload(Payloads.newByteArrayPayload(content)).build();
+            synchronized (ranges) {
+               ranges.add(range);
+            }
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            byte[] bytes = Arrays.copyOfRange(content, Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1]) + 1);
+            return HttpResponse.builder().statusCode(206).payload(Payloads.newByteArrayPayload(bytes)).build();
+         }
+      }).anyTimes();
+      replay(client);
+      return client;
+   }
+
+   private static String md5(byte[] bytes) {
+      return Hashing.md5().hashBytes(bytes).toString();
+   }
+}
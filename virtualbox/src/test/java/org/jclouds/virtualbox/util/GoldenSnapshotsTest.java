@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.virtualbox.util;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import org.jclouds.virtualbox.util.GoldenSnapshots.Golden;
+import org.testng.annotations.Test;
+import org.virtualbox_4_2.IMachine;
+import org.virtualbox_4_2.ISnapshot;
+
+import com.google.common.base.Function;
+
+@Test(groups = "unit", testName = "GoldenSnapshotsTest")
+public class GoldenSnapshotsTest {
+
+   public void testAdoptsTheCurrentSnapshotOfAnUnchangedMaster() {
+      ISnapshot snapshot = snapshot("snapshot-1", GoldenSnapshots.SNAPSHOT_PREFIX + 3);
+      IMachine master = createNiceMock(IMachine.class);
+      expect(master.getId()).andReturn("master-id").anyTimes();
+      expect(master.getName()).andReturn("master").anyTimes();
+      expect(master.getCurrentSnapshot()).andReturn(snapshot).anyTimes();
+      expect(master.getCurrentStateModified()).andReturn(false).anyTimes();
+      MachineUtils machineUtils = createMock(MachineUtils.class);
+      replay(master, machineUtils);
+
+      GoldenSnapshots goldenSnapshots = new GoldenSnapshots(machineUtils);
+      Golden first = goldenSnapshots.acquire(master, "clone-1");
+      Golden second = goldenSnapshots.acquire(master, "clone-2");
+
+      assertSame(first, second);
+      assertEquals(first.getSnapshotId(), "snapshot-1");
+      assertEquals(first.getVersion(), 3);
+      assertEquals(first.getReferences(), 2);
+      verify(machineUtils);
+   }
+
+   @SuppressWarnings("unchecked")
+   public void testTakesANewVersionWhenTheMasterChangedAndDeletesTheOldOneOnceReleased() {
+      ISnapshot taken = snapshot("snapshot-1", GoldenSnapshots.SNAPSHOT_PREFIX + 1);
+      ISnapshot retaken = snapshot("snapshot-2", GoldenSnapshots.SNAPSHOT_PREFIX + 2);
+      IMachine master = createNiceMock(IMachine.class);
+      expect(master.getId()).andReturn("master-id").anyTimes();
+      expect(master.getName()).andReturn("master").anyTimes();
+      // no snapshot until the first version is taken, then modified before the second one
+      expect(master.getCurrentSnapshot()).andReturn(null);
+      expect(master.getCurrentSnapshot()).andReturn(taken).times(4);
+      expect(master.getCurrentSnapshot()).andReturn(retaken).anyTimes();
+      expect(master.getCurrentStateModified()).andReturn(true).times(3);
+      expect(master.getCurrentStateModified()).andReturn(false).anyTimes();
+      MachineUtils machineUtils = createMock(MachineUtils.class);
+      // takes both versions, then deletes the first one
+      expect(machineUtils.writeLockMachineAndApplyToSession(eq("master"), anyObject(Function.class)))
+               .andReturn(null).times(3);
+      replay(master, machineUtils);
+
+      GoldenSnapshots goldenSnapshots = new GoldenSnapshots(machineUtils);
+      Golden first = goldenSnapshots.acquire(master, "clone-1");
+      Golden second = goldenSnapshots.acquire(master, "clone-2");
+
+      assertNotSame(first, second);
+      assertEquals(first.getVersion(), 1);
+      assertEquals(second.getVersion(), 2);
+      assertEquals(second.getSnapshotId(), "snapshot-2");
+      assertSame(goldenSnapshots.get(master), second);
+
+      goldenSnapshots.release("clone-1");
+      goldenSnapshots.release("clone-2");
+      verify(machineUtils);
+   }
+
+   private static ISnapshot snapshot(String id, String name) {
+      ISnapshot snapshot = createNiceMock(ISnapshot.class);
+      expect(snapshot.getId()).andReturn(id).anyTimes();
+      expect(snapshot.getName()).andReturn(name).anyTimes();
+      replay(snapshot);
+      return snapshot;
+   }
+}
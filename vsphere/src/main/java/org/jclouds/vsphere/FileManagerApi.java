@@ -26,6 +26,7 @@ import com.vmware.vim25.UserNotFound;
 import com.vmware.vim25.mo.Datacenter;
 import com.vmware.vim25.mo.Task;
 
+import java.io.File;
 import java.io.IOException;
 import java.rmi.RemoteException;
 
@@ -43,6 +44,38 @@ public interface FileManagerApi {
      */
    void uploadFile(String srcFilePath, String destDirectory) throws IOException;
 
+    /**
+     * Notified of the progress of uploads, from the threads running them.
+     */
+   interface UploadListener {
+
+      /**
+       * Some more bytes of a file were sent.
+       *
+       * @param uploaded the number of bytes of the file sent so far, starting over if the upload is retried
+       * @param size the size of the file
+       */
+      void progress(File file, long uploaded, long size);
+   }
+
+    /**
+     * Upload one file to the active host, retrying if the upload fails.
+     * @param srcFilePath full path to source file
+     * @param destDirectory full path of destination directory on datastore
+     * @param listener notified of the progress of the upload
+     * @throws IOException
+     */
+   void uploadFile(String srcFilePath, String destDirectory, UploadListener listener) throws IOException;
+
+    /**
+     * Upload files to the active host at once, each one retried if its upload fails.
+     * @param srcFilePaths full paths to the source files
+     * @param destDirectory full path of destination directory on datastore, the files keep their names
+     * @param listener notified of the progress of the uploads
+     * @throws IOException if any of the uploads failed, once the others are finished
+     */
+   void uploadFiles(Iterable<String> srcFilePaths, String destDirectory, UploadListener listener) throws IOException;
+
     /**
      * Change oner of one file on datastore.
      * @param name
@@ -60,6 +60,17 @@ public class VSphereApiMetadata extends BaseHttpApiMetadata<VSphereApi> {
       properties.setProperty(PROPERTY_SESSION_INTERVAL, 300 + "");
       properties.setProperty(VSphereConstants.JCLOUDS_VSPHERE_VM_PASSWORD, "master");
       properties.setProperty(VSphereConstants.CLONING, "full");
+      properties.setProperty(VSphereConstants.SESSION_POOL_MAX_SIZE, "8");
+      properties.setProperty(VSphereConstants.SESSION_POOL_ACQUIRE_TIMEOUT, 60 * 1000 + "");
+      properties.setProperty(VSphereConstants.SESSION_POOL_IDLE_TIMEOUT, 10 * 60 * 1000 + "");
+      properties.setProperty(VSphereConstants.SESSION_POOL_KEEP_ALIVE, 2 * 60 * 1000 + "");
+      properties.setProperty(VSphereConstants.INVENTORY_PAGE_SIZE, "500");
+      properties.setProperty(VSphereConstants.CLONE_MAX_PER_HOST, "8");
+      properties.setProperty(VSphereConstants.CLONE_MAX_PER_DATASTORE, "4");
+      properties.setProperty(VSphereConstants.PLACEMENT_POLICY, "spread");
+      properties.setProperty(VSphereConstants.UPLOAD_BUFFERS, "4");
+      properties.setProperty(VSphereConstants.UPLOAD_MAX_RETRIES, "3");
+      properties.setProperty(VSphereConstants.GUEST_OPS_MAX_RUNNING, "16");
       return properties;
    }
 
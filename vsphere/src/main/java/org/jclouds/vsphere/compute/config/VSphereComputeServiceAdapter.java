@@ -19,21 +19,25 @@
 package org.jclouds.vsphere.compute.config;
 
 import com.google.common.base.Function;
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Closer;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.vmware.vim25.CustomFieldDef;
 import com.vmware.vim25.Description;
-import com.vmware.vim25.FileTransferInformation;
 import com.vmware.vim25.GuestNicInfo;
-import com.vmware.vim25.GuestProcessInfo;
-import com.vmware.vim25.GuestProgramSpec;
+import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.NamePasswordAuthentication;
 import com.vmware.vim25.TaskInProgress;
 import com.vmware.vim25.VirtualCdrom;
@@ -56,17 +60,15 @@ import com.vmware.vim25.VirtualMachinePowerState;
 import com.vmware.vim25.VirtualVmxnet3;
 import com.vmware.vim25.mo.Datastore;
 import com.vmware.vim25.mo.Folder;
-import com.vmware.vim25.mo.GuestAuthManager;
-import com.vmware.vim25.mo.GuestFileManager;
-import com.vmware.vim25.mo.GuestOperationsManager;
-import com.vmware.vim25.mo.GuestProcessManager;
 import com.vmware.vim25.mo.HostSystem;
 import com.vmware.vim25.mo.InventoryNavigator;
 import com.vmware.vim25.mo.ManagedEntity;
 import com.vmware.vim25.mo.ResourcePool;
+import com.vmware.vim25.mo.ServerConnection;
 import com.vmware.vim25.mo.Task;
 import com.vmware.vim25.mo.VirtualMachine;
 import org.jclouds.compute.ComputeServiceAdapter;
+import org.jclouds.compute.domain.ExecResponse;
 import org.jclouds.compute.domain.Hardware;
 import org.jclouds.compute.domain.HardwareBuilder;
 import org.jclouds.compute.domain.Image;
@@ -78,16 +80,27 @@ import org.jclouds.compute.reference.ComputeServiceConstants;
 import org.jclouds.domain.Location;
 import org.jclouds.domain.LoginCredentials;
 import org.jclouds.logging.Logger;
-import org.jclouds.vsphere.VSphereApiMetadata;
+import org.jclouds.rest.InsufficientResourcesException;
 import org.jclouds.vsphere.compute.options.VSphereTemplateOptions;
 import org.jclouds.vsphere.compute.strategy.NetworkConfigurationForNetworkAndOptions;
 import org.jclouds.vsphere.config.VSphereConstants;
+import org.jclouds.vsphere.domain.CollectedVirtualMachine;
 import org.jclouds.vsphere.domain.InstanceType;
 import org.jclouds.vsphere.domain.VSphereHost;
 import org.jclouds.vsphere.domain.VSphereServiceInstance;
+import org.jclouds.vsphere.domain.VirtualMachineProperties;
 import org.jclouds.vsphere.domain.network.NetworkConfig;
 import org.jclouds.vsphere.functions.MasterToVirtualMachineCloneSpec;
 import org.jclouds.vsphere.functions.VirtualMachineToImage;
+import org.jclouds.vsphere.internal.CloneScheduler;
+import org.jclouds.vsphere.internal.GuestScriptRunner;
+import org.jclouds.vsphere.internal.TemplateSnapshots;
+import org.jclouds.vsphere.internal.VSphereInventory;
+import org.jclouds.vsphere.internal.VirtualMachinePropertyCollector;
+import org.jclouds.vsphere.internal.VirtualMachineWaiter;
+import org.jclouds.vsphere.placement.Placement;
+import org.jclouds.vsphere.placement.PlacementEngine;
+import org.jclouds.vsphere.placement.PlacementRequest;
 import org.jclouds.vsphere.predicates.VSpherePredicate;
 import org.jclouds.vsphere.util.ComputerNameValidator;
 
@@ -101,11 +114,14 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.Lock;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Throwables.propagate;
+import static org.jclouds.Constants.PROPERTY_USER_THREADS;
 import static org.jclouds.vsphere.config.VSphereConstants.CLONING;
 
 /**
@@ -115,8 +131,6 @@ import static org.jclouds.vsphere.config.VSphereConstants.CLONING;
 public class VSphereComputeServiceAdapter implements
         ComputeServiceAdapter<VirtualMachine, Hardware, Image, Location> {
 
-    private final ReentrantLock lock = new ReentrantLock();
-
    @Resource
    @Named(ComputeServiceConstants.COMPUTE_LOGGER)
    protected Logger logger = Logger.NULL;
@@ -129,18 +143,42 @@ public class VSphereComputeServiceAdapter implements
    private final VirtualMachineToImage virtualMachineToImage;
    protected final NetworkConfigurationForNetworkAndOptions networkConfigurationForNetworkAndOptions;
    private final Supplier<VSphereHost> vSphereHost;
+   private final VirtualMachinePropertyCollector propertyCollector;
+   private final VSphereInventory inventory;
+   private final VirtualMachineWaiter waiter;
+   private final CloneScheduler cloneScheduler;
+   private final TemplateSnapshots templateSnapshots;
+   private final String cloningStrategy;
+   private final PlacementEngine placementEngine;
+   private final GuestScriptRunner guestScripts;
+   private final ListeningExecutorService userExecutor;
 
    @Inject
    public VSphereComputeServiceAdapter(Supplier<VSphereServiceInstance> serviceInstance, Supplier<Map<String, CustomFieldDef>> customFields, Supplier<VSphereHost> vSphereHost,
                                        VirtualMachineToImage virtualMachineToImage,
                                        NetworkConfigurationForNetworkAndOptions networkConfigurationForNetworkAndOptions,
-                                       @Named(VSphereConstants.JCLOUDS_VSPHERE_VM_PASSWORD) String vmInitPassword) {
+                                       @Named(VSphereConstants.JCLOUDS_VSPHERE_VM_PASSWORD) String vmInitPassword,
+                                       VirtualMachinePropertyCollector propertyCollector,
+                                       VSphereInventory inventory, VirtualMachineWaiter waiter,
+                                       CloneScheduler cloneScheduler, TemplateSnapshots templateSnapshots,
+                                       @Named(CLONING) String cloningStrategy, PlacementEngine placementEngine,
+                                       GuestScriptRunner guestScripts,
+                                       @Named(PROPERTY_USER_THREADS) ListeningExecutorService userExecutor) {
       this.serviceInstance = checkNotNull(serviceInstance, "serviceInstance");
       this.customFields = checkNotNull(customFields, "customFields");
       this.virtualMachineToImage = virtualMachineToImage;
       this.vmInitPassword = checkNotNull(vmInitPassword, "vmInitPassword");
       this.networkConfigurationForNetworkAndOptions = checkNotNull(networkConfigurationForNetworkAndOptions, "networkConfigurationForNetworkAndOptions");
       this.vSphereHost = checkNotNull(vSphereHost, "vSphereHost");
+      this.propertyCollector = checkNotNull(propertyCollector, "propertyCollector");
+      this.inventory = checkNotNull(inventory, "inventory");
+      this.waiter = checkNotNull(waiter, "waiter");
+      this.cloneScheduler = checkNotNull(cloneScheduler, "cloneScheduler");
+      this.templateSnapshots = checkNotNull(templateSnapshots, "templateSnapshots");
+      this.cloningStrategy = checkNotNull(cloningStrategy, "cloningStrategy");
+      this.placementEngine = checkNotNull(placementEngine, "placementEngine");
+      this.guestScripts = checkNotNull(guestScripts, "guestScripts");
+      this.userExecutor = checkNotNull(userExecutor, "userExecutor");
    }
 
    @Override
@@ -150,20 +188,23 @@ public class VSphereComputeServiceAdapter implements
          VSphereServiceInstance instance = null;
          try {
             instance = this.serviceInstance.get();
-            VSphereHost sphereHost = vSphereHost.get();
             closer.register(instance);
-            closer.register(sphereHost);
             Folder rootFolder = instance.getInstance().getRootFolder();
 
             ComputerNameValidator.INSTANCE.validate(name);
 
             VirtualMachine master = getVMwareTemplate(template.getImage().getId(), rootFolder);
+            VSphereTemplateOptions vOptions = VSphereTemplateOptions.class.cast(template.getOptions());
+            String strategy = Objects.firstNonNull(vOptions.cloningStrategy(), cloningStrategy);
+
+            VSphereHost sphereHost = place(tag, template, master, strategy, closer);
+            closer.register(sphereHost);
             ResourcePool resourcePool = checkNotNull(tryFindResourcePool(rootFolder, sphereHost.getHost().getName()), "resourcePool");
 
+            ManagedObjectReference snapshot = "linked".equals(strategy) ?
+                    templateSnapshots.get(master, resourcePool, sphereHost.getHost()) : null;
             VirtualMachineCloneSpec cloneSpec = new MasterToVirtualMachineCloneSpec(resourcePool, sphereHost.getDatastore(),
-                    VSphereApiMetadata.defaultProperties().getProperty(CLONING)).apply(master);
-
-            VSphereTemplateOptions vOptions = VSphereTemplateOptions.class.cast(template.getOptions());
+                    strategy, snapshot).apply(master);
             Set<String> networks = vOptions.getNetworks();
 
             VirtualMachineConfigSpec virtualMachineConfigSpec = new VirtualMachineConfigSpec();
@@ -211,7 +252,7 @@ public class VSphereComputeServiceAdapter implements
                      cdSpec.setOperation(VirtualDeviceConfigSpecOperation.edit);
 
                      VirtualCdromIsoBackingInfo iso = new VirtualCdromIsoBackingInfo();
-                     Datastore datastore = vSphereHost.get().getDatastore();
+                     Datastore datastore = sphereHost.getDatastore();
                      VirtualDeviceConnectInfo cInfo = new VirtualDeviceConnectInfo();
                      cInfo.setStartConnected(true);
                      cInfo.setConnected(true);
@@ -230,7 +271,7 @@ public class VSphereComputeServiceAdapter implements
                      floppySpec.setOperation(VirtualDeviceConfigSpecOperation.edit);
 
                      VirtualFloppyImageBackingInfo image = new VirtualFloppyImageBackingInfo();
-                     Datastore datastore = vSphereHost.get().getDatastore();
+                     Datastore datastore = sphereHost.getDatastore();
                      VirtualDeviceConnectInfo cInfo = new VirtualDeviceConnectInfo();
                      cInfo.setStartConnected(true);
                      cInfo.setConnected(true);
@@ -247,7 +288,7 @@ public class VSphereComputeServiceAdapter implements
                   int unitNumber = numberOfHardDrives;
                   List<? extends Volume> volumes = template.getHardware().getVolumes();
                   VirtualLsiLogicController lsiLogicController = (VirtualLsiLogicController) device;
-                  String dsName = vSphereHost.get().getDatastore().getName();
+                  String dsName = sphereHost.getDatastore().getName();
                   for (Volume volume : volumes) {
                      long currentVolumeSize = 1024 * 1024 * volume.getSize().longValue();
 
@@ -300,7 +341,7 @@ public class VSphereComputeServiceAdapter implements
 
             VirtualMachine cloned = null;
             try {
-               cloned = cloneMaster(master, tag, name, cloneSpec);
+               cloned = cloneMaster(master, sphereHost, name, cloneSpec);
                Set<String> tagsFromOption = vOptions.getTags();
                if (tagsFromOption.size() > 0) {
                   StringBuilder tags = new StringBuilder();
@@ -314,7 +355,7 @@ public class VSphereComputeServiceAdapter implements
                   if (vOptions.postConfiguration())
                      postConfiguration(cloned, name, tag, networkConfigs);
                   else {
-                      VSpherePredicate.WAIT_FOR_VMTOOLS(1000 * 60 * 60 * 2, TimeUnit.MILLISECONDS).apply(cloned);
+                      waiter.waitFor(cloned.getMOR().getVal(), VSpherePredicate.isToolsRunning, 1000 * 60 * 60 * 2, TimeUnit.MILLISECONDS);
                   }
                }
             } catch (Exception e) {
@@ -323,9 +364,15 @@ public class VSphereComputeServiceAdapter implements
             }
 
             if (vOptions.waitOnPort() != null) {
-
+               // the port is checked by a guest operation, which needs the tools whether or not they were awaited above
+               waiter.waitFor(cloned.getMOR().getVal(), VSpherePredicate.isToolsRunning, 1000 * 60 * 60 * 2, TimeUnit.MILLISECONDS);
+               waitForPort(cloned, name, vOptions.waitOnPort(), TimeUnit.MINUTES.toMillis(5));
             }
 
+            // the node is converted without waiting, so it has to report its address by now
+            if (!waiter.waitFor(cloned.getMOR().getVal(), VSpherePredicate.hasIpAddress, 10, TimeUnit.MINUTES))
+               logger.warn("vm %s did not report an ip address", name);
+
 
             NodeAndInitialCredentials<VirtualMachine> nodeAndInitialCredentials = new NodeAndInitialCredentials<VirtualMachine>(cloned, cloned.getName(),
                     LoginCredentials.builder().user("root")
@@ -346,13 +393,19 @@ public class VSphereComputeServiceAdapter implements
    private Iterable<VirtualMachine> listNodes(VSphereServiceInstance instance) {
       Iterable<VirtualMachine> vms = ImmutableSet.of();
       try {
-         Folder nodesFolder = instance.getInstance().getRootFolder();
-         ManagedEntity[] managedEntities = new InventoryNavigator(nodesFolder).searchManagedEntities("VirtualMachine");
-         vms = Iterables.transform(Arrays.asList(managedEntities), new Function<ManagedEntity, VirtualMachine>() {
-            public VirtualMachine apply(ManagedEntity input) {
-               return (VirtualMachine) input;
+         List<VirtualMachineProperties> collected;
+         try {
+            collected = inventory.virtualMachines();
+         } catch (RuntimeException e) {
+            logger.warn(e, "inventory unavailable, listing the vms from the server");
+            collected = propertyCollector.collectAll(instance.getInstance());
+         }
+         final ServerConnection connection = instance.getInstance().getServerConnection();
+         vms = ImmutableList.copyOf(Lists.transform(collected, new Function<VirtualMachineProperties, VirtualMachine>() {
+            public VirtualMachine apply(VirtualMachineProperties input) {
+               return new CollectedVirtualMachine(connection, input);
             }
-         });
+         }));
       } catch (Throwable e) {
          logger.error("Can't find vm", e);
       }
@@ -381,9 +434,56 @@ public class VSphereComputeServiceAdapter implements
 
    @Override
    public Iterable<VirtualMachine> listNodesByIds(Iterable<String> ids) {
-      Iterable<VirtualMachine> nodes = listNodes();
-      Iterable<VirtualMachine> selectedNodes = Iterables.filter(nodes, VSpherePredicate.isNodeIdInList(ids));
-      return selectedNodes;
+      Closer closer = Closer.create();
+      VSphereServiceInstance instance = serviceInstance.get();
+      closer.register(instance);
+      try {
+         try {
+            return findNodes(instance, ImmutableSet.copyOf(ids));
+         } catch (Throwable e) {
+            logger.error("Can't find vm", e);
+            throw closer.rethrow(e);
+         } finally {
+            closer.close();
+         }
+      } catch (Throwable t) {
+         return ImmutableSet.of();
+      }
+   }
+
+   /**
+    * Looks the nodes up by name in the inventory mirror, or searches them on the server all at once
+    * if the mirror is unavailable. Names that match no node are skipped.
+    */
+   private List<VirtualMachine> findNodes(VSphereServiceInstance instance, Set<String> vmNames)
+           throws InterruptedException, ExecutionException {
+      ImmutableList.Builder<VirtualMachine> nodes = ImmutableList.builder();
+      final ServerConnection connection = instance.getInstance().getServerConnection();
+      try {
+         for (String vmName : vmNames) {
+            VirtualMachineProperties mirrored = inventory.findVirtualMachine(vmName);
+            if (mirrored != null)
+               nodes.add(new CollectedVirtualMachine(connection, mirrored));
+         }
+         return nodes.build();
+      } catch (RuntimeException e) {
+         logger.debug("inventory unavailable, searching %s on the server: %s", vmNames, e.getMessage());
+      }
+      final Folder rootFolder = instance.getInstance().getRootFolder();
+      List<ListenableFuture<VirtualMachine>> searches = Lists.newArrayList();
+      for (final String vmName : vmNames) {
+         searches.add(userExecutor.submit(new Callable<VirtualMachine>() {
+            @Override
+            public VirtualMachine call() {
+               return getVM(vmName, rootFolder);
+            }
+         }));
+      }
+      for (VirtualMachine vm : Futures.successfulAsList(searches).get()) {
+         if (vm != null)
+            nodes.add(vm);
+      }
+      return nodes.build();
    }
 
    @Override
@@ -458,7 +558,11 @@ public class VSphereComputeServiceAdapter implements
       try {
          try {
             Iterable<VirtualMachine> nodes = listNodes(instance);
-            Iterable<VirtualMachine> templates = Iterables.filter(nodes, VSpherePredicate.isTemplatePredicate);
+            Iterable<VirtualMachine> templates = Iterables.filter(nodes, new Predicate<VirtualMachine>() {
+               public boolean apply(VirtualMachine input) {
+                  return ((CollectedVirtualMachine) input).getProperties().isTemplate();
+               }
+            });
             Iterable<Image> images = Iterables.transform(templates, virtualMachineToImage);
             return FluentIterable.from(images).toList();
 
@@ -485,6 +589,9 @@ public class VSphereComputeServiceAdapter implements
       closer.register(instance);
       try {
          try {
+            VirtualMachineProperties mirrored = findInInventory(vmName);
+            if (mirrored != null)
+               return new CollectedVirtualMachine(instance.getInstance().getServerConnection(), mirrored);
             return getVM(vmName, instance.getInstance().getRootFolder());
          } catch (Throwable t) {
             throw closer.rethrow(t);
@@ -594,20 +701,62 @@ public class VSphereComputeServiceAdapter implements
       return null;
    }
 
-   private VirtualMachine cloneMaster(VirtualMachine master, String tag, String name, VirtualMachineCloneSpec cloneSpec) {
-      VirtualMachine cloned = null;
+   /**
+    * Places the node with the placement engine, the capacity it needs stays reserved until the
+    * closer is closed. Falls back to the host supplier when the inventory is unavailable.
+    */
+   private VSphereHost place(String group, Template template, VirtualMachine master, String strategy, Closer closer) {
+      Placement placement = null;
       try {
+         int cpus = template.getHardware().getProcessors().size() > 0 ?
+                 (int) template.getHardware().getProcessors().get(0).getCores() : 1;
+         placement = placementEngine.place(new PlacementRequest(group, template.getHardware().getRam(), cpus,
+                 requiredDiskBytes(template, master, strategy)));
+      } catch (InsufficientResourcesException e) {
+         throw e;
+      } catch (RuntimeException e) {
+         logger.debug("inventory unavailable, searching the hosts on the server: %s", e.getMessage());
+      }
+      if (placement == null)
+         return vSphereHost.get();
+      closer.register(placement);
+      VSphereServiceInstance instance = serviceInstance.get();
+      ServerConnection connection = instance.getInstance().getServerConnection();
+      return new VSphereHost(new HostSystem(connection, placement.getHost()), instance,
+              new Datastore(connection, placement.getDatastore()));
+   }
 
-         Task task = master.cloneVM_Task((Folder) master.getParent(), name, cloneSpec);
-         String result = task.waitForTask();
-         if (result.equals(Task.SUCCESS)) {
-            cloned = (VirtualMachine) new InventoryNavigator((Folder) master.getParent()).searchManagedEntity("VirtualMachine", name);
-         } else {
-            String errorMessage = task.getTaskInfo().getError().getLocalizedMessage();
-            logger.error(errorMessage);
+   /**
+    * The space a node takes on its datastore, its extra volumes plus, unless it is a linked clone,
+    * the disks of its master.
+    */
+   private static long requiredDiskBytes(Template template, VirtualMachine master, String strategy) {
+      long bytes = 0;
+      for (Volume volume : template.getHardware().getVolumes()) {
+         if (volume.getSize() != null)
+            bytes += volume.getSize().longValue() * 1024 * 1024 * 1024;
+      }
+      if (!"linked".equals(strategy)) {
+         for (VirtualDevice device : master.getConfig().getHardware().getDevice()) {
+            if (device instanceof VirtualDisk)
+               bytes += ((VirtualDisk) device).getCapacityInKB() * 1024;
          }
+      }
+      return bytes;
+   }
+
+   private VirtualMachine cloneMaster(VirtualMachine master, VSphereHost sphereHost, String name, VirtualMachineCloneSpec cloneSpec) {
+      VirtualMachine cloned = null;
+      try {
+         cloned = cloneScheduler.submit(master, (Folder) master.getParent(), name, cloneSpec,
+                 sphereHost.getHost().getMOR().getVal(), sphereHost.getDatastore().getMOR().getVal()).get();
+      } catch (ExecutionException e) {
+         if (cloneSpec.getSnapshot() != null)
+            templateSnapshots.invalidate(master);
+         logger.error(e.getCause(), "Can't clone vm");
+         propagate(e.getCause());
       } catch (Exception e) {
-         logger.error("Can't clone vm", e);
+         logger.error(e, "Can't clone vm");
          propagate(e);
       }
       return checkNotNull(cloned, "cloned");
@@ -615,6 +764,13 @@ public class VSphereComputeServiceAdapter implements
 
    private ResourcePool tryFindResourcePool(Folder folder, String hostname) {
       Iterable<ResourcePool> resourcePools = ImmutableSet.<ResourcePool>of();
+      try {
+         ManagedObjectReference mirrored = inventory.findResourcePoolOf(hostname);
+         if (mirrored != null)
+            return new ResourcePool(folder.getServerConnection(), mirrored);
+      } catch (RuntimeException e) {
+         logger.debug("inventory unavailable, searching the resource pools on the server: %s", e.getMessage());
+      }
       try {
          ManagedEntity[] resourcePoolEntities = new InventoryNavigator(folder).searchManagedEntities("ResourcePool");
          resourcePools = Iterables.transform(Arrays.asList(resourcePoolEntities), new Function<ManagedEntity, ResourcePool>() {
@@ -630,6 +786,25 @@ public class VSphereComputeServiceAdapter implements
       return null;
    }
 
+   /**
+    * @return null if the vm is not in the inventory mirror yet, or the mirror is unavailable
+    */
+   private VirtualMachineProperties findInInventory(String vmName) {
+      try {
+         return inventory.findVirtualMachine(vmName);
+      } catch (RuntimeException e) {
+         logger.debug("inventory unavailable, searching %s on the server: %s", vmName, e.getMessage());
+         return null;
+      }
+   }
+
+   private static ManagedObjectReference vmReference(String id) {
+      ManagedObjectReference mor = new ManagedObjectReference();
+      mor.setType("VirtualMachine");
+      mor.set_value(id);
+      return mor;
+   }
+
    private VirtualMachine getVM(String vmName, Folder nodesFolder) {
       logger.trace(">> search for vm with name : " + vmName);
       VirtualMachine vm = null;
@@ -643,6 +818,9 @@ public class VSphereComputeServiceAdapter implements
    }
 
    private VirtualMachine getVMwareTemplate(String imageName, Folder rootFolder) {
+      VirtualMachineProperties mirrored = findInInventory(imageName);
+      if (mirrored != null && mirrored.isTemplate())
+         return new VirtualMachine(rootFolder.getServerConnection(), vmReference(mirrored.getId()));
       VirtualMachine image = null;
       try {
          VirtualMachine node = getVM(imageName, rootFolder);
@@ -681,7 +859,7 @@ public class VSphereComputeServiceAdapter implements
    }
 
    private void markVirtualMachineAsTemplate(VirtualMachine vm) throws RemoteException {
-
+      Lock lock = cloneScheduler.templateLock(vm).writeLock();
       lock.lock();
       try {
          if (!vm.getConfig().isTemplate())
@@ -694,6 +872,7 @@ public class VSphereComputeServiceAdapter implements
 
    private void markTemplateAsVirtualMachine(VirtualMachine master, ResourcePool resourcePool, HostSystem host)
            throws RemoteException, TaskInProgress, InterruptedException {
+      Lock lock = cloneScheduler.templateLock(master).writeLock();
       lock.lock();
       try {
          if (master.getConfig().isTemplate())
@@ -707,7 +886,7 @@ public class VSphereComputeServiceAdapter implements
    private GuestNicInfo[] getGuestNicInfo(VirtualMachine virtualMachine) {
       GuestNicInfo[] nics = virtualMachine.getGuest().getNet();
       if (nics == null) {
-         VSpherePredicate.WAIT_FOR_NIC(1000 * 60 * 5, TimeUnit.MILLISECONDS).apply(virtualMachine);
+         waiter.waitFor(virtualMachine.getMOR().getVal(), VSpherePredicate.hasNicAddresses, 1000 * 60 * 5, TimeUnit.MILLISECONDS);
          nics = virtualMachine.getGuest().getNet();
       }
       return nics;
@@ -720,125 +899,95 @@ public class VSphereComputeServiceAdapter implements
          return "none";
    }
 
-   private void waitForPort(VirtualMachine vm, int port, long timeout) {
-      GuestOperationsManager gom = serviceInstance.get().getInstance().getGuestOperationsManager();
-      GuestAuthManager gam = gom.getAuthManager(vm);
+   private NamePasswordAuthentication guestAuthentication() {
       NamePasswordAuthentication npa = new NamePasswordAuthentication();
       npa.setUsername("root");
       npa.setPassword(vmInitPassword);
-      GuestProgramSpec gps = new GuestProgramSpec();
-      gps.programPath = "/bin/sh";
-
-      StringBuilder openPortScript = new StringBuilder("netstat -nat | grep LIST | grep -q ':" + port + " ' && touch /tmp/portopen.txt");
-
-
-      gps.arguments = "-c \"" + openPortScript.toString() + "\"";
-
-      List<String> env = Lists.newArrayList("PATH=/usr/local/sbin:/usr/local/bin:/sbin:/bin:/usr/sbin:/usr/bin:/root/bin",
-              "SHELL=/bin/bash");
+      return npa;
+   }
 
-      gps.setEnvVariables(env.toArray(new String[env.size()]));
-      GuestProcessManager gpm = gom.getProcessManager(vm);
+   private ExecResponse execInGuest(VirtualMachine vm, String name, String script, long timeout) {
+      ExecResponse response;
       try {
-         long pid = gpm.startProgramInGuest(npa, gps);
-
-         GuestFileManager guestFileManager = vm.getServerConnection().getServiceInstance().getGuestOperationsManager().getFileManager(vm);
-         FileTransferInformation fti = guestFileManager.initiateFileTransferFromGuest(npa, "/tmp/portopen.txt");
-         if (fti.getSize() == 0)
-            logger.debug(" ");
-      } catch (RemoteException e) {
-         logger.error(e.getMessage(), e);
-         Throwables.propagate(e);
+         response = guestScripts.submit(vm, guestAuthentication(), script, timeout, TimeUnit.MILLISECONDS).get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw Throwables.propagate(e);
+      } catch (ExecutionException e) {
+         throw Throwables.propagate(e.getCause());
       }
+      logger.trace("<< script output on node ( " + name + " ) : " + response.getOutput());
+      return response;
    }
 
+   private void runInGuest(VirtualMachine vm, String name, String script, long timeout) {
+      ExecResponse response = execInGuest(vm, name, script, timeout);
+      if (response.getExitStatus() != 0) {
+         logger.error("failed to run init script on node ( " + name + " ) exit code : " + response.getExitStatus());
+         throw new IllegalStateException("Failed to customize vm ( " + name + " )");
+      }
+   }
+
+   private void waitForPort(VirtualMachine vm, String name, int port, long timeout) {
+      StringBuilder script = new StringBuilder();
+      script.append("for i in $(seq ").append(TimeUnit.MILLISECONDS.toSeconds(timeout)).append("); do\n");
+      script.append("   netstat -nat | grep LISTEN | grep -q ':").append(port).append(" ' && exit 0\n");
+      script.append("   sleep 1\n");
+      script.append("done\n");
+      script.append("exit 1\n");
+      ExecResponse response = execInGuest(vm, name, script.toString(), timeout + TimeUnit.MINUTES.toMillis(1));
+      if (response.getExitStatus() != 0)
+         throw new IllegalStateException(String.format("port %d not listening on %s after %ds", port, name,
+                 TimeUnit.MILLISECONDS.toSeconds(timeout)));
+   }
 
    private void postConfiguration(VirtualMachine vm, String name, String group, Set<NetworkConfig> networkConfigs) {
       if (!vm.getConfig().isTemplate())
-         VSpherePredicate.WAIT_FOR_VMTOOLS(10 * 1000 * 10, TimeUnit.MILLISECONDS).apply(vm);
+         waiter.waitFor(vm.getMOR().getVal(), VSpherePredicate.isToolsRunning, 10 * 1000 * 10, TimeUnit.MILLISECONDS);
 
-      GuestOperationsManager gom = serviceInstance.get().getInstance().getGuestOperationsManager();
-      GuestAuthManager gam = gom.getAuthManager(vm);
-      NamePasswordAuthentication npa = new NamePasswordAuthentication();
-      npa.setUsername("root");
-      npa.setPassword(vmInitPassword);
-      GuestProgramSpec gps = new GuestProgramSpec();
-      gps.programPath = "/bin/sh";
-
-      StringBuilder ethScript = new StringBuilder("rm -f /etc/sysconfig/network-scripts/ifcfg-eth*;");
+      StringBuilder script = new StringBuilder("rm -f /etc/sysconfig/network-scripts/ifcfg-eth*\n");
 
       int index = 0;
       for (NetworkConfig config : networkConfigs) {
-         ethScript.append("echo 'DEVICE=eth" + index);
-         ethScript.append("\nTYPE=Ethernet");
-         ethScript.append("\nONBOOT=yes");
-         ethScript.append("\nNM_CONTROLLED=yes");
-         ethScript.append("\nBOOTPROTO=" + getBOOTPROTO(config.getAddressType()) + "' > /etc/sysconfig/network-scripts/ifcfg-eth" + index + ";");
+         script.append("echo 'DEVICE=eth" + index);
+         script.append("\nTYPE=Ethernet");
+         script.append("\nONBOOT=yes");
+         script.append("\nNM_CONTROLLED=yes");
+         script.append("\nBOOTPROTO=" + getBOOTPROTO(config.getAddressType()) + "' > /etc/sysconfig/network-scripts/ifcfg-eth" + index + "\n");
          index++;
       }
 
-      ethScript.append("sed -i \"/HOSTNAME/d\" /etc/sysconfig/network;");
-      ethScript.append("echo \"HOSTNAME=" + name + "\" >> /etc/sysconfig/network;");
-      ethScript.append("hostname " + name + ";");
-
+      script.append("sed -i \"/HOSTNAME/d\" /etc/sysconfig/network\n");
+      script.append("echo \"HOSTNAME=" + name + "\" >> /etc/sysconfig/network\n");
+      script.append("hostname " + name + "\n");
 
-      ethScript.append("\necho 'fdisk /dev/sdb <<EOF");
-      ethScript.append("\np");
-      ethScript.append("\nn");
-      ethScript.append("\np");
-      ethScript.append("\n1");
-      ethScript.append("\n");
-      ethScript.append("\n");
-      ethScript.append("\nt");
-      ethScript.append("\n8e");
-      ethScript.append("\nw");
-      ethScript.append("\nEOF' > /tmp/fdisk.sh;");
-      ethScript.append("\nchmod 0700 /tmp/fdisk.sh >> /tmp/jclouds-init.log 2>&1;");
-      ethScript.append("\n/tmp/fdisk.sh >> /tmp/jclouds-init.log 2>&1;");
+      script.append("fdisk /dev/sdb >> /tmp/jclouds-init.log 2>&1 <<EOF");
+      script.append("\np");
+      script.append("\nn");
+      script.append("\np");
+      script.append("\n1");
+      script.append("\n");
+      script.append("\n");
+      script.append("\nt");
+      script.append("\n8e");
+      script.append("\nw");
+      script.append("\nEOF\n");
 
-      ethScript.append("\npvcreate /dev/sdb1 >> /tmp/jclouds-init.log 2>&1;");
-      ethScript.append("\nvgextend VolGroup /dev/sdb1 >> /tmp/jclouds-init.log 2>&1;");
+      script.append("pvcreate /dev/sdb1 >> /tmp/jclouds-init.log 2>&1\n");
+      script.append("vgextend VolGroup /dev/sdb1 >> /tmp/jclouds-init.log 2>&1\n");
 
-      ethScript.append("\nvgdisplay VolGroup >> /tmp/volgroup 2>&1;");
+      script.append("vgdisplay VolGroup >> /tmp/volgroup 2>&1\n");
 
-      ethScript.append("\nawk 'BEGIN { free=0; alloc=0; } /Alloc/ { alloc=\\$7 } /Free/ { free=\\$7 } END { print \\\"-L+\\\" free - alloc \\\"G\\\" }' /tmp/volgroup | xargs lvextend /dev/VolGroup/lv_root >> /tmp/jclouds-init.log 2>&1;");
-      ethScript.append("\nresize2fs /dev/VolGroup/lv_root >> /tmp/jclouds-init.log 2>&1;");
+      script.append("awk 'BEGIN { free=0; alloc=0; } /Alloc/ { alloc=$7 } /Free/ { free=$7 } END { print \"-L+\" free - alloc \"G\" }' /tmp/volgroup | xargs lvextend /dev/VolGroup/lv_root >> /tmp/jclouds-init.log 2>&1\n");
+      script.append("resize2fs /dev/VolGroup/lv_root >> /tmp/jclouds-init.log 2>&1\n");
 
-      ethScript.append("\nmkdir -p ~/.ssh;");
-      ethScript.append("\nrestorecon -FRvv ~/.ssh;");
+      script.append("mkdir -p ~/.ssh\n");
+      script.append("restorecon -FRvv ~/.ssh\n");
 
-      ethScript.append("\nservice network reload;");
+      script.append("service network reload\n");
 
-      ethScript.append("\nrm -f /tmp/fdisk.sh;");
-      ethScript.append("\nrm -f /tmp/volgroup;");
-
-      gps.arguments = "-c \"" + ethScript.toString() + "\"";
-
-      List<String> env = Lists.newArrayList("PATH=/usr/local/sbin:/usr/local/bin:/sbin:/bin:/usr/sbin:/usr/bin:/root/bin",
-              "SHELL=/bin/bash");
-
-      gps.setEnvVariables(env.toArray(new String[env.size()]));
-      GuestProcessManager gpm = gom.getProcessManager(vm);
-      try {
-         long pid = gpm.startProgramInGuest(npa, gps);
-         GuestProcessInfo[] processInfos = gpm.listProcessesInGuest(npa, new long[]{pid});
-         if (null != processInfos) {
-            for (GuestProcessInfo processInfo : processInfos) {
-               while (processInfo.getExitCode() == null) {
-                  processInfos = gpm.listProcessesInGuest(npa, new long[]{pid});
-                  processInfo = processInfos[0];
-               }
-               if (processInfo.getExitCode() != 0) {
-                  logger.error("failed to run init script on node ( " + name + " ) exit code : " + processInfo.getExitCode());
-                  Throwables.propagate(new Exception("Failed to customize vm ( " + name + " )"));
-               }
-            }
-         }
-         logger.trace("<< process pid : " + pid);
-      } catch (RemoteException e) {
-         logger.error(e.getMessage(), e);
-         Throwables.propagate(e);
-      }
+      script.append("rm -f /tmp/volgroup\n");
 
+      runInGuest(vm, name, script.toString(), TimeUnit.MINUTES.toMillis(30));
    }
 }
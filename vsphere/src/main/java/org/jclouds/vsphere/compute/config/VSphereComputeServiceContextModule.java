@@ -43,9 +43,9 @@ import org.jclouds.location.suppliers.LocationsSupplier;
 import org.jclouds.ssh.SshClient;
 import org.jclouds.vsphere.FileManagerApi;
 import org.jclouds.vsphere.compute.options.VSphereTemplateOptions;
+import org.jclouds.vsphere.config.VSphereConstants;
 import org.jclouds.vsphere.domain.VSphereHost;
 import org.jclouds.vsphere.domain.VSphereServiceInstance;
-import org.jclouds.vsphere.functions.CreateAndConnectVSphereClient;
 import org.jclouds.vsphere.functions.CreateOrGetTagsId;
 import org.jclouds.vsphere.functions.HostSystemToVSphereHost;
 import org.jclouds.vsphere.functions.NetworkConfigSupplier;
@@ -53,9 +53,13 @@ import org.jclouds.vsphere.functions.VirtualMachineToImage;
 import org.jclouds.vsphere.functions.VirtualMachineToNodeMetadata;
 import org.jclouds.vsphere.functions.VirtualMachineToSshClient;
 import org.jclouds.vsphere.internal.VSphereFileManager;
+import org.jclouds.vsphere.internal.VSphereSessionPool;
+import org.jclouds.vsphere.placement.PlacementPolicies;
+import org.jclouds.vsphere.placement.PlacementPolicy;
 import org.jclouds.vsphere.suppliers.VSphereHostSupplier;
 import org.jclouds.vsphere.suppliers.VSphereLocationSupplier;
 
+import javax.inject.Named;
 import javax.inject.Singleton;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -96,7 +100,7 @@ public class VSphereComputeServiceContextModule extends
       }).to(HostSystemToVSphereHost.class);
 
       bind(new TypeLiteral<Supplier<VSphereServiceInstance>>() {
-      }).to((Class) CreateAndConnectVSphereClient.class);
+      }).to((Class) VSphereSessionPool.class);
 
 //        bind(new TypeLiteral<Supplier<Set<? extends Location>>>() {
 //        }).to((Class) VSphereLocationSupplier.class);
@@ -169,6 +173,25 @@ public class VSphereComputeServiceContextModule extends
       return toPortableImageStatus;
    }
 
+   @Provides
+   @Singleton
+   protected PlacementPolicy placementPolicy(@Named(VSphereConstants.PLACEMENT_POLICY) String policy,
+                                             Injector injector) {
+      PlacementPolicies builtIn = PlacementPolicies.fromValue(policy);
+      if (builtIn != null)
+         return builtIn;
+      try {
+         return injector.getInstance(Class.forName(policy).asSubclass(PlacementPolicy.class));
+      } catch (ClassNotFoundException e) {
+         throw new IllegalArgumentException(String.format("%s: unknown placement policy %s, expected a built in "
+                 + "policy or the name of a %s class", VSphereConstants.PLACEMENT_POLICY, policy,
+                 PlacementPolicy.class.getName()), e);
+      } catch (ClassCastException e) {
+         throw new IllegalArgumentException(String.format("%s: %s does not implement %s",
+                 VSphereConstants.PLACEMENT_POLICY, policy, PlacementPolicy.class.getName()), e);
+      }
+   }
+
    @Override
    protected TemplateOptions provideTemplateOptions(Injector injector, TemplateOptions options) {
       return options.as(VSphereTemplateOptions.class);
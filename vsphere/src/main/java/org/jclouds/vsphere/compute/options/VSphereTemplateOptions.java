@@ -25,6 +25,7 @@ import org.jclouds.compute.options.TemplateOptions;
 import java.util.Map;
 
 import static com.google.common.base.Objects.equal;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Strings.emptyToNull;
 
@@ -73,6 +74,8 @@ public class VSphereTemplateOptions extends TemplateOptions implements Cloneable
          if (waitOnPort() != null)
             eTo.waitOnPort(waitOnPort());
          eTo.postConfiguration(postConfiguration());
+         if (cloningStrategy() != null)
+            eTo.cloningStrategy(cloningStrategy());
       }
    }
 
@@ -84,6 +87,7 @@ public class VSphereTemplateOptions extends TemplateOptions implements Cloneable
    private String flpFileName = null;
    private boolean postConfiguration = true;
    private Integer waitOnPort = null;
+   private String cloningStrategy = null;
 
    public Integer waitOnPort() {
       return waitOnPort;
@@ -104,6 +108,22 @@ public class VSphereTemplateOptions extends TemplateOptions implements Cloneable
       return this;
    }
 
+   public String cloningStrategy() {
+      return cloningStrategy;
+   }
+
+   /**
+    * How the nodes are cloned from their template, {@code full} to copy every disk of the template
+    * or {@code linked} to create delta disks on top of a snapshot of the template, taken once per
+    * template. Defaults to the {@code jclouds.vsphere.cloning} property.
+    */
+   public VSphereTemplateOptions cloningStrategy(String cloningStrategy) {
+      checkArgument("full".equals(cloningStrategy) || "linked".equals(cloningStrategy),
+              "cloning strategy %s not supported", cloningStrategy);
+      this.cloningStrategy = cloningStrategy;
+      return this;
+   }
+
    @Override
    public boolean equals(Object o) {
       if (this == o)
@@ -114,19 +134,21 @@ public class VSphereTemplateOptions extends TemplateOptions implements Cloneable
       return super.equals(that) && equal(this.description, that.description)
               && equal(this.customizationScript, that.customizationScript)
               && equal(this.addressType, that.addressType)
-              && equal(this.datacenterName, that.datacenterName);
+              && equal(this.datacenterName, that.datacenterName)
+              && equal(this.cloningStrategy, that.cloningStrategy);
    }
 
    @Override
    public int hashCode() {
       return Objects.hashCode(super.hashCode(), description, customizationScript,
-              addressType, datacenterName);
+              addressType, datacenterName, cloningStrategy);
    }
 
    @Override
    public ToStringHelper string() {
       return super.string().add("description", description).add("customizationScript", customizationScript)
-              .add("addressType", addressType).add("datacenterName", datacenterName);
+              .add("addressType", addressType).add("datacenterName", datacenterName)
+              .add("cloningStrategy", cloningStrategy);
    }
 
    /**
@@ -191,6 +213,13 @@ public class VSphereTemplateOptions extends TemplateOptions implements Cloneable
          return new VSphereTemplateOptions().datacenterName(datacenterName);
       }
 
+      /**
+       * @see VSphereTemplateOptions#cloningStrategy(String cloningStrategy)
+       */
+      public static VSphereTemplateOptions cloningStrategy(String cloningStrategy) {
+         return new VSphereTemplateOptions().cloningStrategy(cloningStrategy);
+      }
+
       // methods that only facilitate returning the correct object type
 
       /**
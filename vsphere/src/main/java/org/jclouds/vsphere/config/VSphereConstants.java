@@ -33,6 +33,64 @@ public class VSphereConstants {
 
    public static final String JCLOUDS_GROUP = "jclouds_group";
 
+   /**
+    * The maximum number of vSphere sessions kept logged in.
+    */
+   public static final String SESSION_POOL_MAX_SIZE = "jclouds.vsphere.session-pool.max-size";
+
+   /**
+    * How long to wait for a vSphere session when all of them are leased, in milliseconds.
+    */
+   public static final String SESSION_POOL_ACQUIRE_TIMEOUT = "jclouds.vsphere.session-pool.acquire-timeout";
+
+   /**
+    * How long a vSphere session can stay idle before it is logged out, in milliseconds.
+    */
+   public static final String SESSION_POOL_IDLE_TIMEOUT = "jclouds.vsphere.session-pool.idle-timeout";
+
+   /**
+    * How often idle vSphere sessions are kept alive, in milliseconds.
+    */
+   public static final String SESSION_POOL_KEEP_ALIVE = "jclouds.vsphere.session-pool.keep-alive-interval";
+
+   /**
+    * The maximum number of virtual machines retrieved per page when the inventory is listed.
+    */
+   public static final String INVENTORY_PAGE_SIZE = "jclouds.vsphere.inventory.page-size";
+
+   /**
+    * The maximum number of clone tasks running at once onto a single host.
+    */
+   public static final String CLONE_MAX_PER_HOST = "jclouds.vsphere.clone.max-per-host";
+
+   /**
+    * The maximum number of clone tasks running at once onto a single datastore.
+    */
+   public static final String CLONE_MAX_PER_DATASTORE = "jclouds.vsphere.clone.max-per-datastore";
+
+   /**
+    * How nodes are placed onto hosts: {@code spread}, {@code pack}, {@code anti-affinity} or the
+    * class name of a {@link org.jclouds.vsphere.placement.PlacementPolicy}.
+    */
+   public static final String PLACEMENT_POLICY = "jclouds.vsphere.placement.policy";
+
+   /**
+    * The number of files uploaded to datastores at once. Each upload holds a buffer of
+    * {@link org.jclouds.vsphere.internal.VSphereRestClient#CHUNKLEN} bytes.
+    */
+   public static final String UPLOAD_BUFFERS = "jclouds.vsphere.upload.buffers";
+
+   /**
+    * How many times a failed datastore upload is retried.
+    */
+   public static final String UPLOAD_MAX_RETRIES = "jclouds.vsphere.upload.max-retries";
+
+   /**
+    * The maximum number of scripts running at once in guests, such as the post configuration of
+    * new nodes.
+    */
+   public static final String GUEST_OPS_MAX_RUNNING = "jclouds.vsphere.guest-ops.max-running";
+
    public static final String VSPHERE_SNAPSHOT_DESCRITPION = "automatically created by Jclouds";
 
 }
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.domain;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.mo.ServerConnection;
+import com.vmware.vim25.mo.VirtualMachine;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A virtual machine listed together with its {@link VirtualMachineProperties}, so it can be
+ * converted to a node without calling the server again.
+ */
+public class CollectedVirtualMachine extends VirtualMachine {
+
+   private final VirtualMachineProperties properties;
+
+   public CollectedVirtualMachine(ServerConnection connection, VirtualMachineProperties properties) {
+      super(connection, toMOR(checkNotNull(properties, "properties").getId()));
+      this.properties = properties;
+   }
+
+   private static ManagedObjectReference toMOR(String id) {
+      ManagedObjectReference mor = new ManagedObjectReference();
+      mor.setType("VirtualMachine");
+      mor.set_value(id);
+      return mor;
+   }
+
+   /**
+    * The properties as they were when the virtual machine was listed.
+    */
+   public VirtualMachineProperties getProperties() {
+      return properties;
+   }
+}
@@ -31,18 +31,30 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class VSphereHost implements Closeable {
    private VSphereServiceInstance serviceInstance;
    private HostSystem host;
+   private Datastore datastore;
 
    public VSphereHost(HostSystem host, VSphereServiceInstance serviceInstance) {
       this.host = checkNotNull(host, "host");
       this.serviceInstance = checkNotNull(serviceInstance, "serviceInstance");
    }
 
+   /**
+    * @param datastore
+    *           the datastore to use, already chosen from the inventory
+    */
+   public VSphereHost(HostSystem host, VSphereServiceInstance serviceInstance, Datastore datastore) {
+      this(host, serviceInstance);
+      this.datastore = checkNotNull(datastore, "datastore");
+   }
+
    public HostSystem getHost() {
       return host;
    }
 
 
    public Datastore getDatastore() {
+      if (this.datastore != null)
+         return this.datastore;
       Datastore datastore = null;
       long freeSpace = 0;
       try {
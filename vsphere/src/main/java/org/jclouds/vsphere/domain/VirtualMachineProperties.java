@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.domain;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.vmware.vim25.ArrayOfCustomFieldValue;
+import com.vmware.vim25.ArrayOfGuestNicInfo;
+import com.vmware.vim25.CustomFieldStringValue;
+import com.vmware.vim25.CustomFieldValue;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.GuestNicInfo;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.VirtualMachinePowerState;
+import com.vmware.vim25.VirtualMachineToolsStatus;
+import org.jclouds.javax.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The properties of a virtual machine that are mapped to a node, as returned by the property
+ * collector in a single round trip.
+ */
+public class VirtualMachineProperties {
+
+   public static final String NAME = "name";
+   public static final String POWER_STATE = "runtime.powerState";
+   public static final String UUID = "summary.config.uuid";
+   public static final String TEMPLATE = "config.template";
+   public static final String IP_ADDRESS = "guest.ipAddress";
+   public static final String TOOLS_STATUS = "guest.toolsStatus";
+   public static final String NICS = "guest.net";
+   public static final String CUSTOM_VALUES = "customValue";
+   public static final String HOST = "runtime.host";
+
+   /**
+    * The property paths to collect.
+    */
+   public static final String[] PATHS = {NAME, POWER_STATE, UUID, TEMPLATE, IP_ADDRESS, TOOLS_STATUS, NICS, CUSTOM_VALUES, HOST};
+
+   private final String id;
+   private final String name;
+   private final VirtualMachinePowerState powerState;
+   private final String uuid;
+   private final boolean template;
+   private final String ipAddress;
+   private final VirtualMachineToolsStatus toolsStatus;
+   private final List<String> nicAddresses;
+   private final Map<Integer, String> customValues;
+   private final String hostId;
+
+   public VirtualMachineProperties(String id, String name, @Nullable VirtualMachinePowerState powerState,
+                                   @Nullable String uuid, boolean template, @Nullable String ipAddress,
+                                   @Nullable VirtualMachineToolsStatus toolsStatus, List<String> nicAddresses,
+                                   Map<Integer, String> customValues) {
+      this(id, name, powerState, uuid, template, ipAddress, toolsStatus, nicAddresses, customValues, null);
+   }
+
+   public VirtualMachineProperties(String id, String name, @Nullable VirtualMachinePowerState powerState,
+                                   @Nullable String uuid, boolean template, @Nullable String ipAddress,
+                                   @Nullable VirtualMachineToolsStatus toolsStatus, List<String> nicAddresses,
+                                   Map<Integer, String> customValues, @Nullable String hostId) {
+      this.id = checkNotNull(id, "id");
+      this.name = name;
+      this.powerState = powerState;
+      this.uuid = uuid;
+      this.template = template;
+      this.ipAddress = ipAddress;
+      this.toolsStatus = toolsStatus;
+      this.nicAddresses = ImmutableList.copyOf(checkNotNull(nicAddresses, "nicAddresses"));
+      this.customValues = ImmutableMap.copyOf(checkNotNull(customValues, "customValues"));
+      this.hostId = hostId;
+   }
+
+   /**
+    * Reads the properties of a virtual machine out of a property collector result. Properties the
+    * collector did not return, such as the guest ones of a virtual machine that is powered off, are
+    * left empty.
+    */
+   public static VirtualMachineProperties fromObjectContent(ObjectContent content) {
+      Map<String, Object> values = Maps.newHashMap();
+      DynamicProperty[] properties = content.getPropSet();
+      if (properties != null) {
+         for (DynamicProperty property : properties) {
+            values.put(property.getName(), property.getVal());
+         }
+      }
+      return fromValues(content.getObj().getVal(), values);
+   }
+
+   /**
+    * Reads the properties of a virtual machine out of its property values, by property path.
+    */
+   public static VirtualMachineProperties fromValues(String id, Map<String, ?> values) {
+      Object nicsValue = values.get(NICS);
+      ImmutableList.Builder<String> nicAddresses = ImmutableList.builder();
+      GuestNicInfo[] nics = nicsValue instanceof ArrayOfGuestNicInfo ?
+              ((ArrayOfGuestNicInfo) nicsValue).getGuestNicInfo() : (GuestNicInfo[]) nicsValue;
+      if (nics != null) {
+         for (GuestNicInfo nic : nics) {
+            if (nic.getIpAddress() != null)
+               nicAddresses.addAll(Arrays.asList(nic.getIpAddress()));
+         }
+      }
+
+      Object customValue = values.get(CUSTOM_VALUES);
+      ImmutableMap.Builder<Integer, String> customValues = ImmutableMap.builder();
+      CustomFieldValue[] fields = customValue instanceof ArrayOfCustomFieldValue ?
+              ((ArrayOfCustomFieldValue) customValue).getCustomFieldValue() : (CustomFieldValue[]) customValue;
+      if (fields != null) {
+         for (CustomFieldValue field : fields) {
+            if (field instanceof CustomFieldStringValue && ((CustomFieldStringValue) field).getValue() != null)
+               customValues.put(field.getKey(), ((CustomFieldStringValue) field).getValue());
+         }
+      }
+
+      Object host = values.get(HOST);
+      return new VirtualMachineProperties(id, (String) values.get(NAME),
+              (VirtualMachinePowerState) values.get(POWER_STATE), (String) values.get(UUID),
+              Boolean.TRUE.equals(values.get(TEMPLATE)), (String) values.get(IP_ADDRESS),
+              (VirtualMachineToolsStatus) values.get(TOOLS_STATUS), nicAddresses.build(), customValues.build(),
+              host instanceof ManagedObjectReference ? ((ManagedObjectReference) host).getVal() : null);
+   }
+
+   /**
+    * The managed object reference value of the virtual machine.
+    */
+   public String getId() {
+      return id;
+   }
+
+   public String getName() {
+      return name;
+   }
+
+   @Nullable
+   public VirtualMachinePowerState getPowerState() {
+      return powerState;
+   }
+
+   @Nullable
+   public String getUuid() {
+      return uuid;
+   }
+
+   public boolean isTemplate() {
+      return template;
+   }
+
+   /**
+    * The primary address reported by the guest tools.
+    */
+   @Nullable
+   public String getIpAddress() {
+      return ipAddress;
+   }
+
+   @Nullable
+   public VirtualMachineToolsStatus getToolsStatus() {
+      return toolsStatus;
+   }
+
+   /**
+    * The addresses of all the guest network interfaces.
+    */
+   public List<String> getNicAddresses() {
+      return nicAddresses;
+   }
+
+   /**
+    * The string custom field values, by custom field key.
+    */
+   public Map<Integer, String> getCustomValues() {
+      return customValues;
+   }
+
+   /**
+    * The managed object reference value of the host the virtual machine runs on.
+    */
+   @Nullable
+   public String getHostId() {
+      return hostId;
+   }
+
+   @Override
+   public String toString() {
+      return Objects.toStringHelper(this).omitNullValues().add("id", id).add("name", name)
+              .add("powerState", powerState).add("template", template).add("ipAddress", ipAddress).toString();
+   }
+}
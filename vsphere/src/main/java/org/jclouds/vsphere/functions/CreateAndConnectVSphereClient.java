@@ -74,6 +74,17 @@ public class CreateAndConnectVSphereClient implements Supplier<VSphereServiceIns
       }
    }
 
+   /**
+    * Logs in an existing session again, once the server dropped it.
+    */
+   public void login(ServiceInstance instance) {
+      try {
+         instance.getSessionManager().login(credentials.get().identity, credentials.get().credential, null);
+      } catch (RemoteException e) {
+         throw Throwables.propagate(e);
+      }
+   }
+
    @Override
    public VSphereServiceInstance get() {
       ServiceInstance client = start();
@@ -22,13 +22,9 @@ package org.jclouds.vsphere.functions;
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
-import com.vmware.vim25.FileFault;
-import com.vmware.vim25.InvalidName;
 import com.vmware.vim25.InvalidProperty;
-import com.vmware.vim25.InvalidState;
+import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.RuntimeFault;
-import com.vmware.vim25.SnapshotFault;
-import com.vmware.vim25.TaskInProgress;
 import com.vmware.vim25.VirtualDevice;
 import com.vmware.vim25.VirtualDeviceBackingInfo;
 import com.vmware.vim25.VirtualDisk;
@@ -41,13 +37,11 @@ import com.vmware.vim25.VirtualMachineCloneSpec;
 import com.vmware.vim25.VirtualMachineRelocateDiskMoveOptions;
 import com.vmware.vim25.VirtualMachineRelocateSpec;
 import com.vmware.vim25.VirtualMachineRelocateSpecDiskLocator;
-import com.vmware.vim25.VmConfigFault;
 import com.vmware.vim25.mo.Datastore;
 import com.vmware.vim25.mo.ResourcePool;
-import com.vmware.vim25.mo.Task;
 import com.vmware.vim25.mo.VirtualMachine;
-import com.vmware.vim25.mo.VirtualMachineSnapshot;
 import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.javax.annotation.Nullable;
 import org.jclouds.logging.Logger;
 
 import javax.annotation.Resource;
@@ -60,6 +54,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Throwables.propagate;
 
 
+/**
+ * The spec to clone a master with, either a full clone that copies every disk of the master or,
+ * with the {@code linked} strategy, a clone whose disks are delta disks on top of a snapshot of the
+ * master.
+ */
 @Singleton
 public class MasterToVirtualMachineCloneSpec implements Function<VirtualMachine, VirtualMachineCloneSpec> {
 
@@ -70,12 +69,24 @@ public class MasterToVirtualMachineCloneSpec implements Function<VirtualMachine,
    private final ResourcePool resourcePool;
    private final Datastore datastore;
    private String cloningStrategy;
+   private final ManagedObjectReference snapshot;
 
    @Inject
    public MasterToVirtualMachineCloneSpec(ResourcePool resourcePool, Datastore datastore, String cloningStrategy) {
+      this(resourcePool, datastore, cloningStrategy, null);
+   }
+
+   /**
+    * @param snapshot
+    *           the snapshot of the master linked clones are created from, required by the
+    *           {@code linked} strategy
+    */
+   public MasterToVirtualMachineCloneSpec(ResourcePool resourcePool, Datastore datastore, String cloningStrategy,
+                                          @Nullable ManagedObjectReference snapshot) {
       this.resourcePool = resourcePool;
       this.datastore = datastore;
       this.cloningStrategy = cloningStrategy;
+      this.snapshot = snapshot;
    }
 
    @Override
@@ -103,28 +114,13 @@ public class MasterToVirtualMachineCloneSpec implements Function<VirtualMachine,
       return cloneSpec;
    }
 
-   private VirtualMachineSnapshot getCurrentSnapshotOrCreate(String snapshotName, String snapshotDescription,
-                                                             VirtualMachine master) throws InvalidName, VmConfigFault, SnapshotFault, TaskInProgress, FileFault,
-           InvalidState, RuntimeFault, RemoteException {
-      if (master.getSnapshot() == null) {
-         Task task = master.createSnapshot_Task(snapshotName, snapshotDescription, false, false);
-         try {
-            if (task.waitForTask().equals(Task.SUCCESS)) {
-               logger.debug(String.format("snapshot taken for '%s'", master.getName()));
-            }
-         } catch (Exception e) {
-            logger.debug(String.format("Can't take snapshot for '%s'", master.getName()), e);
-            throw propagate(e);
-         }
-      } else
-         logger.debug(String.format("snapshot already available for '%s'", master.getName()));
-      return master.getCurrentSnapShot();
-   }
-
    private VirtualMachineRelocateSpec configureRelocateSpec(ResourcePool resourcePool, Datastore datastore, VirtualMachine master)
            throws Exception, InvalidProperty, RuntimeFault, RemoteException {
       VirtualMachineRelocateSpec rSpec = new VirtualMachineRelocateSpec();
       if (cloningStrategy.equals("linked")) {
+         checkNotNull(snapshot, "snapshot of " + master.getName() + " to link the clone to");
+         rSpec.setDatastore(datastore.getMOR());
+         rSpec.setPool(resourcePool.getMOR());
          ArrayList<Integer> diskKeys = getIndependentVirtualDiskKeys(master);
          if (diskKeys.size() > 0) {
             Datastore[] dss = master.getDatastores();
@@ -159,7 +155,8 @@ public class MasterToVirtualMachineCloneSpec implements Function<VirtualMachine,
       VirtualMachineCloneSpec cloneSpec = new VirtualMachineCloneSpec();
       cloneSpec.setPowerOn(true);
       cloneSpec.setTemplate(false);
-      //cloneSpec.setSnapshot(currentSnapshot.getMOR());
+      if (cloningStrategy.equals("linked"))
+         cloneSpec.setSnapshot(snapshot);
       cloneSpec.setLocation(rSpec);
       return cloneSpec;
    }
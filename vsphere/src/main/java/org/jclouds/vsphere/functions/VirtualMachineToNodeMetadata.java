@@ -21,7 +21,6 @@ package org.jclouds.vsphere.functions;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.base.Splitter;
-import com.google.common.base.Strings;
 import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
 import com.google.common.io.Closer;
@@ -29,13 +28,8 @@ import com.google.common.net.InetAddresses;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.vmware.vim25.CustomFieldDef;
-import com.vmware.vim25.CustomFieldStringValue;
-import com.vmware.vim25.CustomFieldValue;
-import com.vmware.vim25.GuestNicInfo;
 import com.vmware.vim25.VirtualMachinePowerState;
 import com.vmware.vim25.VirtualMachineToolsStatus;
-import com.vmware.vim25.mo.InventoryNavigator;
-import com.vmware.vim25.mo.ManagedEntity;
 import com.vmware.vim25.mo.VirtualMachine;
 import org.jclouds.compute.domain.NodeMetadata;
 import org.jclouds.compute.domain.NodeMetadata.Status;
@@ -45,10 +39,12 @@ import org.jclouds.domain.LocationBuilder;
 import org.jclouds.domain.LocationScope;
 import org.jclouds.logging.Logger;
 import org.jclouds.util.InetAddresses2;
-import org.jclouds.util.Predicates2;
 import org.jclouds.vsphere.config.VSphereConstants;
+import org.jclouds.vsphere.domain.CollectedVirtualMachine;
 import org.jclouds.vsphere.domain.VSphereServiceInstance;
-import org.jclouds.vsphere.predicates.VSpherePredicate;
+import org.jclouds.vsphere.domain.VirtualMachineProperties;
+import org.jclouds.vsphere.internal.VSphereInventory;
+import org.jclouds.vsphere.internal.VirtualMachinePropertyCollector;
 
 import javax.annotation.Resource;
 import javax.inject.Named;
@@ -59,7 +55,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Predicates.not;
@@ -77,14 +72,20 @@ public class VirtualMachineToNodeMetadata implements Function<VirtualMachine, No
     private final Map<VirtualMachinePowerState, Status> toPortableNodeStatus;
     private final Supplier<Map<String, CustomFieldDef>> customFields;
     private final Supplier<VSphereServiceInstance> serviceInstanceSupplier;
+    private final VirtualMachinePropertyCollector propertyCollector;
+    private final VSphereInventory inventory;
 
     @Inject
     public VirtualMachineToNodeMetadata(Map<VirtualMachinePowerState, NodeMetadata.Status> toPortableNodeStatus,
                                         Supplier<Map<String, CustomFieldDef>> customFields,
-                                        Supplier<VSphereServiceInstance> serviceInstanceSupplier) {
+                                        Supplier<VSphereServiceInstance> serviceInstanceSupplier,
+                                        VirtualMachinePropertyCollector propertyCollector,
+                                        VSphereInventory inventory) {
         this.toPortableNodeStatus = checkNotNull(toPortableNodeStatus, "PortableNodeStatus");
         this.customFields = checkNotNull(customFields, "customFields");
         this.serviceInstanceSupplier = checkNotNull(serviceInstanceSupplier, "serviceInstanceSupplier");
+        this.propertyCollector = checkNotNull(propertyCollector, "propertyCollector");
+        this.inventory = checkNotNull(inventory, "inventory");
     }
 
     @Override
@@ -92,29 +93,30 @@ public class VirtualMachineToNodeMetadata implements Function<VirtualMachine, No
         Closer closer = Closer.create();
         VSphereServiceInstance instance = serviceInstanceSupplier.get();
         closer.register(instance);
-        VirtualMachine freshVm = null;
         String virtualMachineName = "";
         NodeMetadataBuilder nodeMetadataBuilder = new NodeMetadataBuilder();
         try {
             try {
                 String vmMORId = vm.getMOR().get_value();
-                ManagedEntity[] vms = new InventoryNavigator(instance.getInstance().getRootFolder()).searchManagedEntities("VirtualMachine");
-                for (ManagedEntity machine : vms) {
-
-                    if (machine.getMOR().getVal().equals(vmMORId)) {
-                        freshVm = (VirtualMachine) machine;
-                        break;
-                    }
+                VirtualMachineProperties properties;
+                if (vm instanceof CollectedVirtualMachine) {
+                    // listed in bulk, with the properties the listing saw
+                    properties = ((CollectedVirtualMachine) vm).getProperties();
+                } else {
+                    // reported as it is, the adapter waits for the address of the nodes it creates
+                    properties = inventory.isCurrent() ? inventory.getVirtualMachine(vmMORId) : null;
+                    if (properties == null)
+                        properties = checkNotNull(propertyCollector.collect(instance.getInstance(), vm.getMOR()), "vm " + vmMORId);
                 }
                 LocationBuilder locationBuilder = new LocationBuilder();
                 locationBuilder.description("");
                 locationBuilder.id("");
                 locationBuilder.scope(LocationScope.HOST);
 
-                virtualMachineName = freshVm.getName();
+                virtualMachineName = properties.getName();
 
-                VirtualMachinePowerState vmState = freshVm.getRuntime().getPowerState();
-                NodeMetadata.Status nodeState = toPortableNodeStatus.get(vmState);
+                VirtualMachinePowerState vmState = properties.getPowerState();
+                NodeMetadata.Status nodeState = vmState == null ? null : toPortableNodeStatus.get(vmState);
                 if (nodeState == null)
                     nodeState = Status.UNRECOGNIZED;
 
@@ -123,10 +125,10 @@ public class VirtualMachineToNodeMetadata implements Function<VirtualMachine, No
                         .location(locationBuilder.build())
                         .hostname(virtualMachineName);
 
-                String host = freshVm.getServerConnection().getUrl().getHost();
+                String host = instance.getInstance().getServerConnection().getUrl().getHost();
 
                 try {
-                    nodeMetadataBuilder.uri(new URI("https://" + host + ":9443/vsphere-client/vmrc/vmrc.jsp?vm=urn:vmomi:VirtualMachine:" + vmMORId + ":" + freshVm.getSummary().getConfig().getUuid()));
+                    nodeMetadataBuilder.uri(new URI("https://" + host + ":9443/vsphere-client/vmrc/vmrc.jsp?vm=urn:vmomi:VirtualMachine:" + vmMORId + ":" + properties.getUuid()));
                 } catch (URISyntaxException e) {
                 }
 
@@ -134,52 +136,30 @@ public class VirtualMachineToNodeMetadata implements Function<VirtualMachine, No
                 Set<String> ipv4Addresses = newHashSet();
                 Set<String> ipv6Addresses = newHashSet();
 
-                if (nodeState == Status.RUNNING && !freshVm.getConfig().isTemplate()) {
-                    Predicates2.retry(new Predicate<VirtualMachine>() {
-                        @Override
-                        public boolean apply(VirtualMachine vm) {
-                            try {
-                                return !Strings.isNullOrEmpty(vm.getGuest().getIpAddress());
-                            } catch (Exception e) {
-                                return false;
-                            }
-                        }
-                    }, 60 * 1000 * 10, 10 * 1000, TimeUnit.MILLISECONDS).apply(freshVm);
-                }
-
-
-                if (VSpherePredicate.IsToolsStatusEquals(VirtualMachineToolsStatus.toolsNotInstalled).apply(freshVm))
+                if (properties.getToolsStatus() == VirtualMachineToolsStatus.toolsNotInstalled)
                     logger.trace("<< No VMware tools installed ( " + virtualMachineName + " )");
-                else if (nodeState == Status.RUNNING && not(VSpherePredicate.isTemplatePredicate).apply(freshVm)) {
-                    GuestNicInfo[] nics = freshVm.getGuest().getNet();
-                    if (null != nics) {
-                        for (GuestNicInfo nic : nics) {
-                            String[] addresses = nic.getIpAddress();
-
-                            if (null != addresses) {
-                                for (String address : addresses) {
-                                    if (logger.isTraceEnabled())
-                                        logger.trace("<< find IP addresses " + address +" for " + virtualMachineName);
-                                    if (isInet4Address.apply(address)) {
-                                        ipv4Addresses.add(address);
-                                    } else if (isInet6Address.apply(address)) {
-                                        ipv6Addresses.add(address);
-                                    }
-                                }
-                            }
+                else if (nodeState == Status.RUNNING && !properties.isTemplate()) {
+                    for (String address : properties.getNicAddresses()) {
+                        if (logger.isTraceEnabled())
+                            logger.trace("<< find IP addresses " + address +" for " + virtualMachineName);
+                        if (isInet4Address.apply(address)) {
+                            ipv4Addresses.add(address);
+                        } else if (isInet6Address.apply(address)) {
+                            ipv6Addresses.add(address);
                         }
                     }
                     nodeMetadataBuilder.publicAddresses(filter(ipv4Addresses, not(isPrivateAddress)));
                     nodeMetadataBuilder.privateAddresses(filter(ipv4Addresses, isPrivateAddress));
                 }
 
-                CustomFieldValue[] customFieldValues = freshVm.getCustomValue();
-                if (customFieldValues != null) {
-                    for (CustomFieldValue customFieldValue : customFieldValues) {
-                        if (customFieldValue.getKey() == customFields.get().get(VSphereConstants.JCLOUDS_TAGS).getKey()) {
-                            nodeMetadataBuilder.tags(COMMA_SPLITTER.split(((CustomFieldStringValue) customFieldValue).getValue()));
-                        } else if (customFieldValue.getKey() == customFields.get().get(VSphereConstants.JCLOUDS_GROUP).getKey()) {
-                            nodeMetadataBuilder.group(((CustomFieldStringValue) customFieldValue).getValue());
+                if (!properties.getCustomValues().isEmpty()) {
+                    int tagsKey = customFields.get().get(VSphereConstants.JCLOUDS_TAGS).getKey();
+                    int groupKey = customFields.get().get(VSphereConstants.JCLOUDS_GROUP).getKey();
+                    for (Map.Entry<Integer, String> customValue : properties.getCustomValues().entrySet()) {
+                        if (customValue.getKey() == tagsKey) {
+                            nodeMetadataBuilder.tags(COMMA_SPLITTER.split(customValue.getValue()));
+                        } else if (customValue.getKey() == groupKey) {
+                            nodeMetadataBuilder.group(customValue.getValue());
                         }
                     }
                 }
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.internal;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Striped;
+import com.vmware.vim25.LocalizedMethodFault;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.VirtualMachineCloneSpec;
+import com.vmware.vim25.mo.Folder;
+import com.vmware.vim25.mo.Task;
+import com.vmware.vim25.mo.VirtualMachine;
+import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.logging.Logger;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.jclouds.Constants.PROPERTY_USER_THREADS;
+import static org.jclouds.vsphere.config.VSphereConstants.CLONE_MAX_PER_DATASTORE;
+import static org.jclouds.vsphere.config.VSphereConstants.CLONE_MAX_PER_HOST;
+
+/**
+ * Runs clone tasks with a cap on how many run at once onto each host and each datastore.
+ * <p/>
+ * A clone is queued when it is {@link #submit submitted} and started as soon as both its host and
+ * its datastore have room, in submission order among the clones that fit. Clones onto other hosts
+ * and datastores never wait for each other.
+ * <p/>
+ * Every template has its own lock: clones hold the read lock of their template while they run, so
+ * any number of clones of a template overlap, and changes to a template, such as marking it as a
+ * virtual machine, take the write lock.
+ */
+@Singleton
+public class CloneScheduler {
+
+   @Resource
+   @Named(ComputeServiceConstants.COMPUTE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final ListeningExecutorService userExecutor;
+   private final int maxPerHost;
+   private final int maxPerDatastore;
+   private final Striped<ReadWriteLock> templateLocks = Striped.lazyWeakReadWriteLock(64);
+
+   // guarded by this
+   private final List<Clone> queued = Lists.newLinkedList();
+   private final Map<String, Integer> runningPerHost = Maps.newHashMap();
+   private final Map<String, Integer> runningPerDatastore = Maps.newHashMap();
+
+   private static class Clone {
+      private final VirtualMachine master;
+      private final Folder folder;
+      private final String name;
+      private final VirtualMachineCloneSpec spec;
+      private final String host;
+      private final String datastore;
+      private final SettableFuture<VirtualMachine> future = SettableFuture.create();
+
+      private Clone(VirtualMachine master, Folder folder, String name, VirtualMachineCloneSpec spec, String host,
+                    String datastore) {
+         this.master = checkNotNull(master, "master");
+         this.folder = checkNotNull(folder, "folder");
+         this.name = checkNotNull(name, "name");
+         this.spec = checkNotNull(spec, "spec");
+         this.host = checkNotNull(host, "host");
+         this.datastore = checkNotNull(datastore, "datastore");
+      }
+   }
+
+   @Inject
+   public CloneScheduler(@Named(PROPERTY_USER_THREADS) ListeningExecutorService userExecutor,
+                         @Named(CLONE_MAX_PER_HOST) int maxPerHost,
+                         @Named(CLONE_MAX_PER_DATASTORE) int maxPerDatastore) {
+      checkArgument(maxPerHost > 0, "at least one clone per host must be allowed");
+      checkArgument(maxPerDatastore > 0, "at least one clone per datastore must be allowed");
+      this.userExecutor = checkNotNull(userExecutor, "userExecutor");
+      this.maxPerHost = maxPerHost;
+      this.maxPerDatastore = maxPerDatastore;
+   }
+
+   /**
+    * The lock of a template, the read lock guards clones of the template, the write lock changes to
+    * it.
+    */
+   public ReadWriteLock templateLock(VirtualMachine template) {
+      return templateLocks.get(template.getMOR().getVal());
+   }
+
+   /**
+    * Queues a clone.
+    *
+    * @param host
+    *           the managed object reference value of the host the clone is placed on
+    * @param datastore
+    *           the managed object reference value of the datastore the clone is placed on
+    * @return a future that completes with the cloned virtual machine once the clone task succeeded
+    */
+   public ListenableFuture<VirtualMachine> submit(VirtualMachine master, Folder folder, String name,
+                                                  VirtualMachineCloneSpec spec, String host, String datastore) {
+      Clone clone = new Clone(master, folder, name, spec, host, datastore);
+      synchronized (this) {
+         queued.add(clone);
+      }
+      startQueued();
+      return clone.future;
+   }
+
+   private void startQueued() {
+      List<Clone> startable = Lists.newArrayList();
+      synchronized (this) {
+         for (Iterator<Clone> it = queued.iterator(); it.hasNext(); ) {
+            Clone clone = it.next();
+            if (running(runningPerHost, clone.host) < maxPerHost
+                    && running(runningPerDatastore, clone.datastore) < maxPerDatastore) {
+               it.remove();
+               runningPerHost.put(clone.host, running(runningPerHost, clone.host) + 1);
+               runningPerDatastore.put(clone.datastore, running(runningPerDatastore, clone.datastore) + 1);
+               startable.add(clone);
+            }
+         }
+      }
+      for (Clone clone : startable) {
+         start(clone);
+      }
+   }
+
+   private void start(final Clone clone) {
+      try {
+         userExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+               VirtualMachine cloned = null;
+               Throwable failure = null;
+               try {
+                  cloned = runClone(clone);
+               } catch (Throwable t) {
+                  failure = t;
+               }
+               // the slots are free by the time the caller wakes up on the future
+               finished(clone);
+               if (failure == null)
+                  clone.future.set(cloned);
+               else
+                  clone.future.setException(failure);
+            }
+         });
+      } catch (RuntimeException e) {
+         finished(clone);
+         clone.future.setException(e);
+      }
+   }
+
+   private void finished(Clone clone) {
+      synchronized (this) {
+         decrement(runningPerHost, clone.host);
+         decrement(runningPerDatastore, clone.datastore);
+      }
+      startQueued();
+   }
+
+   private VirtualMachine runClone(Clone clone) throws Exception {
+      Lock lock = templateLock(clone.master).readLock();
+      lock.lock();
+      try {
+         logger.debug(">> cloning %s to %s", clone.master.getMOR().getVal(), clone.name);
+         Task task = clone.master.cloneVM_Task(clone.folder, clone.name, clone.spec);
+         if (!Task.SUCCESS.equals(task.waitForTask())) {
+            LocalizedMethodFault error = task.getTaskInfo().getError();
+            throw new IllegalStateException("could not clone " + clone.name + ": "
+                    + (error == null ? "unknown error" : error.getLocalizedMessage()));
+         }
+         // the clone task reports the new virtual machine, no need to search for it
+         TaskInfo info = task.getTaskInfo();
+         return new VirtualMachine(clone.folder.getServerConnection(), (ManagedObjectReference) info.getResult());
+      } finally {
+         lock.unlock();
+      }
+   }
+
+   private static int running(Map<String, Integer> running, String key) {
+      Integer count = running.get(key);
+      return count == null ? 0 : count;
+   }
+
+   private static void decrement(Map<String, Integer> running, String key) {
+      int count = running(running, key) - 1;
+      if (count > 0)
+         running.put(key, count);
+      else
+         running.remove(key);
+   }
+
+   /**
+    * The number of clones waiting for room on their host or datastore.
+    */
+   public synchronized int queued() {
+      return queued.size();
+   }
+
+   /**
+    * The number of clone tasks running onto a host.
+    */
+   public synchronized int runningOnHost(String host) {
+      return running(runningPerHost, host);
+   }
+
+   /**
+    * The number of clone tasks running onto a datastore.
+    */
+   public synchronized int runningOnDatastore(String datastore) {
+      return running(runningPerDatastore, datastore);
+   }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.internal;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.javax.annotation.Nullable;
+import org.jclouds.logging.Logger;
+import org.jclouds.vsphere.FileManagerApi.UploadListener;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.jclouds.Constants.PROPERTY_USER_THREADS;
+import static org.jclouds.vsphere.config.VSphereConstants.UPLOAD_BUFFERS;
+import static org.jclouds.vsphere.config.VSphereConstants.UPLOAD_MAX_RETRIES;
+
+/**
+ * Uploads files to datastores, several at once.
+ * <p/>
+ * Files are streamed from their channel through buffers taken from a fixed pool, so the memory
+ * used does not depend on the size of the files and the number of buffers bounds the number of
+ * uploads running at once. Uploads beyond that wait for a buffer.
+ * <p/>
+ * A failed upload is retried after a growing delay. The datastore cannot append to a file, so a
+ * retry sends the file again, unless the server already has all of it, as when the connection
+ * broke after the last byte was sent.
+ */
+@Singleton
+public class DatastoreUploader {
+
+   private static final long RETRY_DELAY_MILLIS = 1000;
+
+   @Resource
+   @Named(ComputeServiceConstants.COMPUTE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final ListeningExecutorService userExecutor;
+   private final BlockingQueue<ByteBuffer> buffers;
+   private final int maxRetries;
+
+   @Inject
+   public DatastoreUploader(@Named(PROPERTY_USER_THREADS) ListeningExecutorService userExecutor,
+                            @Named(UPLOAD_BUFFERS) int bufferCount, @Named(UPLOAD_MAX_RETRIES) int maxRetries) {
+      checkArgument(bufferCount > 0, "at least one upload buffer is needed");
+      checkArgument(maxRetries >= 0, "maxRetries must be positive");
+      this.userExecutor = checkNotNull(userExecutor, "userExecutor");
+      this.maxRetries = maxRetries;
+      this.buffers = new ArrayBlockingQueue<ByteBuffer>(bufferCount);
+      for (int i = 0; i < bufferCount; i++) {
+         buffers.add(ByteBuffer.allocateDirect(VSphereRestClient.CHUNKLEN));
+      }
+   }
+
+   /**
+    * Starts uploading a file.
+    *
+    * @param path
+    *           the path of the file on the datastore
+    * @return a future that completes with the file once it is uploaded
+    */
+   public ListenableFuture<File> upload(final VSphereRestClient client, final String cookie, final String dcPath,
+                                        final String dsName, final File file, final String path,
+                                        @Nullable final UploadListener listener) {
+      checkNotNull(client, "client");
+      checkNotNull(file, "file");
+      checkNotNull(path, "path");
+      return userExecutor.submit(new Callable<File>() {
+         @Override
+         public File call() throws Exception {
+            ByteBuffer buffer = buffers.take();
+            try {
+               upload(client, cookie, dcPath, dsName, file, path, buffer, listener);
+               return file;
+            } finally {
+               buffer.clear();
+               buffers.add(buffer);
+            }
+         }
+      });
+   }
+
+   private void upload(VSphereRestClient client, String cookie, String dcPath, String dsName, File file, String path,
+                       ByteBuffer buffer, @Nullable UploadListener listener) throws IOException, InterruptedException {
+      for (int attempt = 0; ; attempt++) {
+         try {
+            logger.debug(">> uploading %s to [%s] %s", file, dsName, path);
+            client.putFile(cookie, path, dcPath, dsName, file, buffer, listener);
+            logger.debug("<< uploaded %s", file);
+            return;
+         } catch (IOException e) {
+            if (attempt >= maxRetries)
+               throw e;
+            logger.warn("upload of %s failed, retrying: %s", file, e.getMessage());
+            Thread.sleep(RETRY_DELAY_MILLIS << attempt);
+            if (uploadedSize(client, cookie, dcPath, dsName, path) == file.length()) {
+               logger.debug("<< %s was uploaded before the failure", file);
+               return;
+            }
+         }
+      }
+   }
+
+   private long uploadedSize(VSphereRestClient client, String cookie, String dcPath, String dsName, String path) {
+      try {
+         return client.sizeOf(cookie, path, dcPath, dsName);
+      } catch (IOException e) {
+         return -1;
+      }
+   }
+
+   /**
+    * The number of buffers not used by an upload.
+    */
+   public int availableBuffers() {
+      return buffers.size();
+   }
+}
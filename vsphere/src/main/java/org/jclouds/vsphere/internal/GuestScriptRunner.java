@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.internal;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.vmware.vim25.FileTransferInformation;
+import com.vmware.vim25.GuestAuthentication;
+import com.vmware.vim25.GuestPosixFileAttributes;
+import com.vmware.vim25.GuestProcessInfo;
+import com.vmware.vim25.GuestProgramSpec;
+import com.vmware.vim25.mo.GuestFileManager;
+import com.vmware.vim25.mo.GuestOperationsManager;
+import com.vmware.vim25.mo.GuestProcessManager;
+import com.vmware.vim25.mo.VirtualMachine;
+import org.jclouds.compute.domain.ExecResponse;
+import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.logging.Logger;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.rmi.RemoteException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.jclouds.Constants.PROPERTY_USER_THREADS;
+import static org.jclouds.vsphere.config.VSphereConstants.GUEST_OPS_MAX_RUNNING;
+
+/**
+ * Runs shell scripts inside guests through the guest operations of the tools, several guests at
+ * once.
+ * <p/>
+ * A script is uploaded as a single file and started once, with its output redirected to a second
+ * file. The process is then polled with a growing delay until it exits, and the output is
+ * downloaded along with its exit status, so a script costs a handful of calls to the server
+ * however many commands it holds.
+ * <p/>
+ * Scripts that run at once are capped, those beyond that wait for a running one to complete.
+ */
+@Singleton
+public class GuestScriptRunner {
+
+   private static final long MIN_POLL_MILLIS = 100;
+   private static final long MAX_POLL_MILLIS = 5000;
+   private static final String[] ENVIRONMENT = {
+           "PATH=/usr/local/sbin:/usr/local/bin:/sbin:/bin:/usr/sbin:/usr/bin:/root/bin", "SHELL=/bin/bash"};
+
+   @Resource
+   @Named(ComputeServiceConstants.COMPUTE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final ListeningExecutorService userExecutor;
+   private final Semaphore running;
+
+   @Inject
+   public GuestScriptRunner(@Named(PROPERTY_USER_THREADS) ListeningExecutorService userExecutor,
+                            @Named(GUEST_OPS_MAX_RUNNING) int maxRunning) {
+      checkArgument(maxRunning > 0, "at least one script must be allowed to run");
+      this.userExecutor = checkNotNull(userExecutor, "userExecutor");
+      this.running = new Semaphore(maxRunning, true);
+   }
+
+   /**
+    * Starts running a script in the guest of a virtual machine.
+    *
+    * @return a future that completes with the output and exit status of the script
+    */
+   public ListenableFuture<ExecResponse> submit(final VirtualMachine vm, final GuestAuthentication auth,
+                                                final String script, final long timeout, final TimeUnit unit) {
+      checkNotNull(vm, "vm");
+      checkNotNull(auth, "auth");
+      checkNotNull(script, "script");
+      return userExecutor.submit(new Callable<ExecResponse>() {
+         @Override
+         public ExecResponse call() throws Exception {
+            return run(vm, auth, script, timeout, unit);
+         }
+      });
+   }
+
+   /**
+    * Runs a script in the guest of a virtual machine, in the calling thread.
+    *
+    * @throws IllegalStateException
+    *            if the script did not exit before the timeout
+    */
+   public ExecResponse run(VirtualMachine vm, GuestAuthentication auth, String script, long timeout, TimeUnit unit)
+           throws IOException, InterruptedException {
+      return run(vm.getServerConnection().getServiceInstance().getGuestOperationsManager(), vm, auth, script,
+              timeout, unit);
+   }
+
+   ExecResponse run(GuestOperationsManager gom, VirtualMachine vm, GuestAuthentication auth, String script,
+                    long timeout, TimeUnit unit) throws IOException, InterruptedException {
+      running.acquire();
+      try {
+         GuestFileManager files = gom.getFileManager(vm);
+         String scriptPath = files.createTemporaryFileInGuest(auth, "jclouds-", ".sh", null);
+         String outputPath = scriptPath + ".out";
+         try {
+            logger.debug(">> running script %s on %s", scriptPath, vm.getName());
+            upload(gom, files, auth, scriptPath, script.getBytes(Charsets.UTF_8));
+            int exitStatus = runAndWait(gom.getProcessManager(vm), auth, scriptPath, outputPath, timeout, unit);
+            String output = download(gom, files, auth, outputPath);
+            logger.debug("<< script %s exited with %d", scriptPath, exitStatus);
+            return new ExecResponse(output, "", exitStatus);
+         } finally {
+            delete(files, auth, scriptPath);
+            delete(files, auth, outputPath);
+         }
+      } finally {
+         running.release();
+      }
+   }
+
+   private void upload(GuestOperationsManager gom, GuestFileManager files, GuestAuthentication auth, String path,
+                       byte[] content) throws IOException {
+      GuestPosixFileAttributes attributes = new GuestPosixFileAttributes();
+      attributes.setPermissions(0700L);
+      String url = files.initiateFileTransferToGuest(auth, path, attributes, content.length, true);
+      HttpURLConnection connection = (HttpURLConnection) transferUrl(gom, url).openConnection();
+      try {
+         connection.setRequestMethod("PUT");
+         connection.setDoOutput(true);
+         connection.setFixedLengthStreamingMode(content.length);
+         OutputStream out = connection.getOutputStream();
+         try {
+            out.write(content);
+         } finally {
+            out.close();
+         }
+         int code = connection.getResponseCode();
+         if (code / 100 != 2)
+            throw new IOException("upload of " + path + " failed with status " + code);
+      } finally {
+         connection.disconnect();
+      }
+   }
+
+   private int runAndWait(GuestProcessManager processes, GuestAuthentication auth, String scriptPath,
+                          String outputPath, long timeout, TimeUnit unit) throws RemoteException, InterruptedException {
+      GuestProgramSpec spec = new GuestProgramSpec();
+      spec.setProgramPath("/bin/sh");
+      spec.setArguments(scriptPath + " > " + outputPath + " 2>&1");
+      spec.setEnvVariables(ENVIRONMENT);
+      long pid = processes.startProgramInGuest(auth, spec);
+
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      long delay = MIN_POLL_MILLIS;
+      while (true) {
+         GuestProcessInfo[] infos = processes.listProcessesInGuest(auth, new long[]{pid});
+         if (infos != null && infos.length > 0 && infos[0].getExitCode() != null)
+            return infos[0].getExitCode();
+         if (System.nanoTime() >= deadline) {
+            processes.terminateProcessInGuest(auth, pid);
+            throw new IllegalStateException("script " + scriptPath + " did not exit within " + timeout + " " + unit);
+         }
+         Thread.sleep(delay);
+         delay = Math.min(delay * 2, MAX_POLL_MILLIS);
+      }
+   }
+
+   private String download(GuestOperationsManager gom, GuestFileManager files, GuestAuthentication auth, String path)
+           throws IOException {
+      FileTransferInformation transfer = files.initiateFileTransferFromGuest(auth, path);
+      HttpURLConnection connection = (HttpURLConnection) transferUrl(gom, transfer.getUrl()).openConnection();
+      try {
+         InputStream in = connection.getInputStream();
+         try {
+            return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+         } finally {
+            in.close();
+         }
+      } finally {
+         connection.disconnect();
+      }
+   }
+
+   private void delete(GuestFileManager files, GuestAuthentication auth, String path) {
+      try {
+         files.deleteFileInGuest(auth, path);
+      } catch (RemoteException e) {
+         logger.debug("could not delete %s: %s", path, e.getMessage());
+      }
+   }
+
+   /**
+    * The server answers transfer urls with a {@code *} in place of its host when the guest is
+    * reached through it.
+    */
+   private static URL transferUrl(GuestOperationsManager gom, String url) throws IOException {
+      if (url.contains("://*"))
+         url = url.replace("://*", "://" + gom.getServerConnection().getUrl().getHost());
+      return new URL(url);
+   }
+
+   /**
+    * The number of scripts that can still start without waiting.
+    */
+   public int availableSlots() {
+      return running.availablePermits();
+   }
+}
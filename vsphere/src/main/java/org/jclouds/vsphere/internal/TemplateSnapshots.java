@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.internal;
+
+import com.google.common.collect.Maps;
+import com.vmware.vim25.LocalizedMethodFault;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.mo.HostSystem;
+import com.vmware.vim25.mo.ResourcePool;
+import com.vmware.vim25.mo.Task;
+import com.vmware.vim25.mo.VirtualMachine;
+import com.vmware.vim25.mo.VirtualMachineSnapshot;
+import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.logging.Logger;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.propagate;
+import static org.jclouds.vsphere.config.VSphereConstants.VSPHERE_SNAPSHOT_DESCRITPION;
+
+/**
+ * The snapshots linked clones are created from, one per template.
+ * <p/>
+ * The current snapshot of a template is used when it has one, otherwise a snapshot is taken the
+ * first time the template is linked cloned. Either way the snapshot is looked up once and reused by
+ * every later clone. Snapshots are taken under the write lock of the template, so they never race
+ * with clones or with each other.
+ */
+@Singleton
+public class TemplateSnapshots {
+
+   /**
+    * The name of the snapshots taken for linked clones.
+    */
+   public static final String SNAPSHOT_NAME = "jclouds-linked-clone-base";
+
+   @Resource
+   @Named(ComputeServiceConstants.COMPUTE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final CloneScheduler cloneScheduler;
+   private final ConcurrentMap<String, ManagedObjectReference> snapshots = Maps.newConcurrentMap();
+
+   @Inject
+   public TemplateSnapshots(CloneScheduler cloneScheduler) {
+      this.cloneScheduler = checkNotNull(cloneScheduler, "cloneScheduler");
+   }
+
+   /**
+    * The snapshot to link clones of a template to, taken if the template has none.
+    *
+    * @param resourcePool
+    *           the resource pool the template is turned into a virtual machine in to be snapshotted
+    * @param host
+    *           the host the template is turned into a virtual machine on to be snapshotted
+    */
+   public ManagedObjectReference get(VirtualMachine template, ResourcePool resourcePool, HostSystem host) {
+      String id = template.getMOR().getVal();
+      ManagedObjectReference snapshot = snapshots.get(id);
+      if (snapshot != null)
+         return snapshot;
+      Lock lock = cloneScheduler.templateLock(template).writeLock();
+      lock.lock();
+      try {
+         snapshot = snapshots.get(id);
+         if (snapshot == null) {
+            snapshot = currentOrTake(template, resourcePool, host);
+            snapshots.put(id, snapshot);
+         }
+         return snapshot;
+      } catch (Exception e) {
+         throw propagate(e);
+      } finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Forgets the snapshot of a template, so it is looked up again, for instance when a clone linked
+    * to it failed because it was removed.
+    */
+   public void invalidate(VirtualMachine template) {
+      snapshots.remove(template.getMOR().getVal());
+   }
+
+   private ManagedObjectReference currentOrTake(VirtualMachine template, ResourcePool resourcePool, HostSystem host)
+           throws Exception {
+      VirtualMachineSnapshot current = template.getCurrentSnapShot();
+      if (current != null) {
+         logger.debug("linking clones of %s to its current snapshot", template.getName());
+         return current.getMOR();
+      }
+      // templates cannot be snapshotted
+      boolean isTemplate = template.getConfig().isTemplate();
+      if (isTemplate)
+         template.markAsVirtualMachine(resourcePool, host);
+      try {
+         logger.debug(">> taking snapshot of %s", template.getName());
+         Task task = template.createSnapshot_Task(SNAPSHOT_NAME, VSPHERE_SNAPSHOT_DESCRITPION, false, false);
+         if (!Task.SUCCESS.equals(task.waitForTask())) {
+            LocalizedMethodFault error = task.getTaskInfo().getError();
+            throw new IllegalStateException("could not snapshot " + template.getName() + ": "
+                    + (error == null ? "unknown error" : error.getLocalizedMessage()));
+         }
+         logger.debug("<< snapshot of %s taken", template.getName());
+         return (ManagedObjectReference) task.getTaskInfo().getResult();
+      } finally {
+         if (isTemplate)
+            template.markAsTemplate();
+      }
+   }
+}
@@ -20,6 +20,10 @@
 package org.jclouds.vsphere.internal;
 
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closer;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.vmware.vim25.FileFault;
 import com.vmware.vim25.InvalidDatastore;
 import com.vmware.vim25.RuntimeFault;
@@ -40,6 +44,8 @@ import javax.inject.Named;
 import java.io.File;
 import java.io.IOException;
 import java.rmi.RemoteException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -54,11 +60,14 @@ public class VSphereFileManager implements FileManagerApi {
 
    private final Supplier<VSphereServiceInstance> serviceInstance;
    private final VSphereHostSupplier hostSupplier;
+   private final DatastoreUploader uploader;
 
    @Inject
-   public VSphereFileManager(Supplier<VSphereServiceInstance> serviceInstance, VSphereHostSupplier hostSupplier) {
+   public VSphereFileManager(Supplier<VSphereServiceInstance> serviceInstance, VSphereHostSupplier hostSupplier,
+                             DatastoreUploader uploader) {
       this.serviceInstance = checkNotNull(serviceInstance, "serviceInstance");
       this.hostSupplier = checkNotNull(hostSupplier, "hostSupplier");
+      this.uploader = checkNotNull(uploader, "uploader");
    }
 
    private String getDatacenterName(ManagedEntity managedEntity) {
@@ -70,17 +79,70 @@ public class VSphereFileManager implements FileManagerApi {
 
    @Override
    public void uploadFile(String srcFilePath, String destDirectory) throws IOException {
+      uploadFile(srcFilePath, destDirectory, null);
+   }
+
+   @Override
+   public void uploadFile(String srcFilePath, String destDirectory, UploadListener listener) throws IOException {
+      upload(ImmutableList.of(new File(srcFilePath)), destDirectory, false, listener);
+   }
 
-      VSphereServiceInstance instance = serviceInstance.get();
-      String serverUrl = instance.getInstance().getServerConnection().getUrl().toString().replaceAll("/sdk", "");
-      String cookie = instance.getInstance().getServerConnection().getSessionStr();
-      VSphereHost vSphereHost = hostSupplier.get();
-      String dsName = vSphereHost.getDatastore().getSummary().getName();
-      String dcPath = getDatacenterName(vSphereHost.getHost());
+   @Override
+   public void uploadFiles(Iterable<String> srcFilePaths, String destDirectory, UploadListener listener)
+           throws IOException {
+      ImmutableList.Builder<File> files = ImmutableList.builder();
+      for (String srcFilePath : srcFilePaths) {
+         files.add(new File(srcFilePath));
+      }
+      upload(files.build(), destDirectory, true, listener);
+   }
 
-      VSphereRestClient client = new VSphereRestClient(serverUrl);
-      File file = new File(srcFilePath);
-      client.putFile(cookie, destDirectory, dcPath, dsName, file);
+   /**
+    * @param intoDirectory
+    *           whether the files are uploaded into the destination, keeping their names, or the
+    *           destination is the path of the single file
+    */
+   private void upload(List<File> files, String destination, boolean intoDirectory, UploadListener listener)
+           throws IOException {
+      Closer closer = Closer.create();
+      try {
+         VSphereServiceInstance instance = closer.register(serviceInstance.get());
+         String serverUrl = instance.getInstance().getServerConnection().getUrl().toString().replaceAll("/sdk", "");
+         String cookie = instance.getInstance().getServerConnection().getSessionStr();
+         VSphereHost vSphereHost = closer.register(hostSupplier.get());
+         String dsName = vSphereHost.getDatastore().getSummary().getName();
+         String dcPath = getDatacenterName(vSphereHost.getHost());
+
+         VSphereRestClient client = new VSphereRestClient(serverUrl);
+         List<ListenableFuture<File>> uploads = Lists.newArrayList();
+         for (File file : files) {
+            String path = intoDirectory ? destination + "/" + file.getName() : destination;
+            uploads.add(uploader.upload(client, cookie, dcPath, dsName, file, path, listener));
+         }
+         // wait for every upload before the session is released, then report the first failure
+         Throwable failure = null;
+         for (ListenableFuture<File> upload : uploads) {
+            try {
+               upload.get();
+            } catch (ExecutionException e) {
+               if (failure == null)
+                  failure = e.getCause();
+            } catch (InterruptedException e) {
+               // the session is released on the way out, so the uploads left can't go on
+               Thread.currentThread().interrupt();
+               for (ListenableFuture<File> pending : uploads) {
+                  pending.cancel(true);
+               }
+               throw e;
+            }
+         }
+         if (failure != null)
+            throw failure;
+      } catch (Throwable t) {
+         throw closer.rethrow(t);
+      } finally {
+         closer.close();
+      }
    }
 
    @Override
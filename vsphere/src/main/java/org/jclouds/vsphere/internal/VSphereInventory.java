@@ -0,0 +1,546 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.internal;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.vmware.vim25.ArrayOfManagedObjectReference;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.SelectionSpec;
+import com.vmware.vim25.TraversalSpec;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.WaitOptions;
+import com.vmware.vim25.mo.ContainerView;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.ServiceInstance;
+import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.logging.Logger;
+import org.jclouds.vsphere.domain.VirtualMachineProperties;
+import org.jclouds.vsphere.functions.CreateAndConnectVSphereClient;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.Closeable;
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An in-memory mirror of the virtual machines, templates, hosts, datastores and resource pools of
+ * the inventory, so lookups and status polling don't walk the inventory on the server.
+ * <p/>
+ * The mirror is loaded on first use and then kept current by a background thread that waits for
+ * property collector updates on a session of its own. If the update stream breaks, the mirror is
+ * loaded again right away, or on the next read if that fails. {@link Listener Listeners} are told
+ * about every virtual machine change as it is applied, including the whole content and the virtual
+ * machines that are gone when the mirror is loaded.
+ */
+@Singleton
+public class VSphereInventory implements Closeable {
+
+   public static final String VIRTUAL_MACHINE = "VirtualMachine";
+   public static final String HOST = "HostSystem";
+   public static final String DATASTORE = "Datastore";
+   public static final String RESOURCE_POOL = "ResourcePool";
+
+   public static final String NAME = "name";
+   public static final String PARENT = "parent";
+   public static final String HOST_DATASTORES = "datastore";
+   public static final String HOST_MEMORY_USAGE = "summary.quickStats.overallMemoryUsage";
+   public static final String HOST_MEMORY_LIMIT = "config.systemResources.config.memoryAllocation.limit";
+   public static final String HOST_MEMORY_SIZE = "summary.hardware.memorySize";
+   public static final String HOST_CPU_USAGE = "summary.quickStats.overallCpuUsage";
+   public static final String HOST_CPU_MHZ = "summary.hardware.cpuMhz";
+   public static final String HOST_CPU_CORES = "summary.hardware.numCpuCores";
+   public static final String HOST_IN_MAINTENANCE = "runtime.inMaintenanceMode";
+   public static final String DATASTORE_FREE_SPACE = "summary.freeSpace";
+   public static final String DATASTORE_ACCESSIBLE = "summary.accessible";
+   public static final String RESOURCE_POOL_OWNER = "owner";
+
+   /**
+    * The mirrored property paths, by managed object type.
+    */
+   static final Map<String, String[]> PATHS = ImmutableMap.of(
+           VIRTUAL_MACHINE, VirtualMachineProperties.PATHS,
+           HOST, new String[]{NAME, PARENT, HOST_DATASTORES, HOST_MEMORY_USAGE, HOST_MEMORY_LIMIT, HOST_MEMORY_SIZE,
+                   HOST_CPU_USAGE, HOST_CPU_MHZ, HOST_CPU_CORES, HOST_IN_MAINTENANCE},
+           DATASTORE, new String[]{NAME, DATASTORE_FREE_SPACE, DATASTORE_ACCESSIBLE},
+           RESOURCE_POOL, new String[]{NAME, PARENT, RESOURCE_POOL_OWNER});
+
+   // how long a single wait for updates lasts, so a dead connection is noticed
+   private static final int UPDATE_WAIT_SECONDS = 60;
+
+   /**
+    * Notified of the changes to the mirrored virtual machines, on the thread that applies them.
+    */
+   public interface Listener {
+
+      /**
+       * A virtual machine was added, or some of its properties changed.
+       */
+      void virtualMachineChanged(VirtualMachineProperties vm);
+
+      /**
+       * A virtual machine was removed from the inventory.
+       */
+      void virtualMachineRemoved(String id);
+
+      /**
+       * The update stream broke and the mirror could not be loaded again, so changes may be missed
+       * until the next read loads it.
+       */
+      void updatesStopped(Exception cause);
+   }
+
+   @Resource
+   @Named(ComputeServiceConstants.COMPUTE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final CreateAndConnectVSphereClient connector;
+   private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+   // property values by object id, by type. the values of an object are replaced, never modified
+   private final Map<String, ConcurrentMap<String, Map<String, Object>>> objects;
+   // virtual machine ids by name, kept in step with the mirror so name lookups don't scan it
+   private final ConcurrentMap<String, String> virtualMachineIds = Maps.newConcurrentMap();
+
+   // null until the mirror is loaded, and again once the update stream broke
+   private volatile String version;
+   private volatile boolean closed;
+   // guarded by this
+   private ServiceInstance session;
+   private Thread updater;
+
+   @Inject
+   public VSphereInventory(CreateAndConnectVSphereClient connector) {
+      this.connector = checkNotNull(connector, "connector");
+      ImmutableMap.Builder<String, ConcurrentMap<String, Map<String, Object>>> byType = ImmutableMap.builder();
+      for (String type : PATHS.keySet()) {
+         byType.put(type, Maps.<String, Map<String, Object>>newConcurrentMap());
+      }
+      this.objects = byType.build();
+   }
+
+   public void addListener(Listener listener) {
+      listeners.add(checkNotNull(listener, "listener"));
+   }
+
+   public void removeListener(Listener listener) {
+      listeners.remove(listener);
+   }
+
+   /**
+    * All the virtual machines and templates.
+    */
+   public List<VirtualMachineProperties> virtualMachines() {
+      ensureLoaded();
+      List<VirtualMachineProperties> virtualMachines = Lists.newArrayList();
+      for (Map.Entry<String, Map<String, Object>> vm : objects.get(VIRTUAL_MACHINE).entrySet()) {
+         virtualMachines.add(VirtualMachineProperties.fromValues(vm.getKey(), vm.getValue()));
+      }
+      return virtualMachines;
+   }
+
+   /**
+    * @return null if there is no virtual machine with that managed object reference value
+    */
+   public VirtualMachineProperties getVirtualMachine(String id) {
+      ensureLoaded();
+      Map<String, Object> values = objects.get(VIRTUAL_MACHINE).get(id);
+      return values == null ? null : VirtualMachineProperties.fromValues(id, values);
+   }
+
+   /**
+    * @return null if there is no virtual machine or template with that name
+    */
+   public VirtualMachineProperties findVirtualMachine(String name) {
+      ensureLoaded();
+      String id = virtualMachineIds.get(checkNotNull(name, "name"));
+      return id == null ? null : getVirtualMachine(id);
+   }
+
+   /**
+    * The managed object references of all the objects of a type.
+    */
+   public List<ManagedObjectReference> list(String type) {
+      ensureLoaded();
+      ImmutableList.Builder<ManagedObjectReference> references = ImmutableList.builder();
+      for (String id : checkNotNull(objects.get(type), type).keySet()) {
+         references.add(reference(type, id));
+      }
+      return references.build();
+   }
+
+   /**
+    * @return the first object of the type with that name, or null
+    */
+   public ManagedObjectReference find(String type, String name) {
+      ensureLoaded();
+      if (VIRTUAL_MACHINE.equals(type)) {
+         String id = virtualMachineIds.get(name);
+         return id == null ? null : reference(type, id);
+      }
+      for (Map.Entry<String, Map<String, Object>> object : checkNotNull(objects.get(type), type).entrySet()) {
+         if (name.equals(object.getValue().get(NAME)))
+            return reference(type, object.getKey());
+      }
+      return null;
+   }
+
+   /**
+    * The mirrored property values of an object, by property path.
+    *
+    * @return null if the object is not in the inventory
+    */
+   public Map<String, Object> getProperties(ManagedObjectReference object) {
+      ensureLoaded();
+      ConcurrentMap<String, Map<String, Object>> ofType = objects.get(object.getType());
+      return ofType == null ? null : ofType.get(object.getVal());
+   }
+
+   /**
+    * The resource pool to place virtual machines of a host in, the root one of its compute resource
+    * if it is mirrored.
+    *
+    * @return null if the host or its compute resource has no resource pool
+    */
+   public ManagedObjectReference findResourcePoolOf(String hostName) {
+      ManagedObjectReference host = find(HOST, hostName);
+      if (host == null)
+         return null;
+      Object computeResource = getProperties(host).get(PARENT);
+      if (!(computeResource instanceof ManagedObjectReference))
+         return null;
+      ManagedObjectReference found = null;
+      for (Map.Entry<String, Map<String, Object>> pool : objects.get(RESOURCE_POOL).entrySet()) {
+         if (sameObject(computeResource, pool.getValue().get(RESOURCE_POOL_OWNER))) {
+            found = reference(RESOURCE_POOL, pool.getKey());
+            if (sameObject(computeResource, pool.getValue().get(PARENT)))
+               break;
+         }
+      }
+      return found;
+   }
+
+   /**
+    * The datastores a host is connected to.
+    */
+   public List<ManagedObjectReference> datastoresOf(ManagedObjectReference host) {
+      Map<String, Object> values = getProperties(host);
+      Object datastores = values == null ? null : values.get(HOST_DATASTORES);
+      if (datastores instanceof ArrayOfManagedObjectReference)
+         datastores = ((ArrayOfManagedObjectReference) datastores).getManagedObjectReference();
+      if (datastores instanceof ManagedObjectReference[])
+         return ImmutableList.copyOf((ManagedObjectReference[]) datastores);
+      return ImmutableList.of();
+   }
+
+   private static boolean sameObject(Object expected, Object actual) {
+      if (!(actual instanceof ManagedObjectReference))
+         return false;
+      ManagedObjectReference a = (ManagedObjectReference) expected;
+      ManagedObjectReference b = (ManagedObjectReference) actual;
+      return a.getType().equals(b.getType()) && a.getVal().equals(b.getVal());
+   }
+
+   static ManagedObjectReference reference(String type, String id) {
+      ManagedObjectReference reference = new ManagedObjectReference();
+      reference.setType(type);
+      reference.set_value(id);
+      return reference;
+   }
+
+   /**
+    * Whether the mirror is loaded and receiving updates.
+    */
+   public boolean isCurrent() {
+      return version != null;
+   }
+
+   private void ensureLoaded() {
+      if (version == null) {
+         load();
+      }
+   }
+
+   private synchronized void load() {
+      if (version != null)
+         return;
+      if (closed)
+         throw new IllegalStateException("the inventory is closed");
+      logout();
+      try {
+         session = connector.start();
+         PropertyCollector collector = session.getPropertyCollector();
+         ContainerView view = session.getViewManager().createContainerView(session.getRootFolder(),
+                 PATHS.keySet().toArray(new String[PATHS.size()]), true);
+         // the filter is bound to the session, it is dropped with it
+         collector.createFilter(filterSpec(view), false);
+
+         // listeners are told about the virtual machines that left while the mirror was not current
+         Set<String> previous = ImmutableSet.copyOf(objects.get(VIRTUAL_MACHINE).keySet());
+         for (Map<String, Map<String, Object>> ofType : objects.values()) {
+            ofType.clear();
+         }
+         virtualMachineIds.clear();
+         // the first wait returns the whole content of the view
+         String loaded = "";
+         UpdateSet updates;
+         do {
+            updates = collector.waitForUpdatesEx(loaded, waitOptions());
+            if (updates != null) {
+               apply(updates);
+               loaded = updates.getVersion();
+            }
+         } while (updates == null || Boolean.TRUE.equals(updates.getTruncated()));
+         logger.debug("<< mirrored %s virtual machines", objects.get(VIRTUAL_MACHINE).size());
+         for (String id : previous) {
+            if (!objects.get(VIRTUAL_MACHINE).containsKey(id))
+               fireRemoved(id);
+         }
+         version = loaded;
+         startUpdater(collector);
+      } catch (RemoteException e) {
+         logout();
+         throw Throwables.propagate(e);
+      } catch (RuntimeException e) {
+         logout();
+         throw e;
+      }
+   }
+
+   private static PropertyFilterSpec filterSpec(ContainerView view) {
+      TraversalSpec viewToObjects = new TraversalSpec();
+      viewToObjects.setName("traverseView");
+      viewToObjects.setType("ContainerView");
+      viewToObjects.setPath("view");
+      viewToObjects.setSkip(false);
+
+      ObjectSpec objectSpec = new ObjectSpec();
+      objectSpec.setObj(view.getMOR());
+      objectSpec.setSkip(true);
+      objectSpec.setSelectSet(new SelectionSpec[]{viewToObjects});
+
+      List<PropertySpec> propertySpecs = Lists.newArrayList();
+      for (Map.Entry<String, String[]> paths : PATHS.entrySet()) {
+         PropertySpec propertySpec = new PropertySpec();
+         propertySpec.setType(paths.getKey());
+         propertySpec.setAll(false);
+         propertySpec.setPathSet(paths.getValue());
+         propertySpecs.add(propertySpec);
+      }
+
+      PropertyFilterSpec filterSpec = new PropertyFilterSpec();
+      filterSpec.setObjectSet(new ObjectSpec[]{objectSpec});
+      filterSpec.setPropSet(propertySpecs.toArray(new PropertySpec[propertySpecs.size()]));
+      return filterSpec;
+   }
+
+   private static WaitOptions waitOptions() {
+      WaitOptions options = new WaitOptions();
+      options.setMaxWaitSeconds(UPDATE_WAIT_SECONDS);
+      return options;
+   }
+
+   private void startUpdater(final PropertyCollector collector) {
+      final ServiceInstance updated = session;
+      updater = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               while (!closed && version != null) {
+                  UpdateSet updates = collector.waitForUpdatesEx(version, waitOptions());
+                  // null when nothing changed before the wait timed out
+                  if (updates != null) {
+                     apply(updates);
+                     version = updates.getVersion();
+                  }
+               }
+            } catch (Exception e) {
+               if (!closed)
+                  logger.warn(e, "inventory updates stopped, loading the inventory again");
+            } finally {
+               boolean broken;
+               synchronized (VSphereInventory.this) {
+                  broken = session == updated && !closed;
+                  if (session == updated) {
+                     version = null;
+                     // the reload must not interrupt this thread
+                     if (updater == Thread.currentThread())
+                        updater = null;
+                  }
+               }
+               // waits registered meanwhile are checked against the reloaded content
+               if (broken)
+                  reload();
+            }
+         }
+      }, "vsphere-inventory");
+      updater.setDaemon(true);
+      updater.start();
+   }
+
+   private void reload() {
+      try {
+         load();
+      } catch (RuntimeException e) {
+         logger.warn(e, "could not load the inventory again, it will be loaded on the next read");
+         fireStopped(e);
+      }
+   }
+
+   /**
+    * Applies property collector updates to the mirror.
+    */
+   void apply(UpdateSet updates) {
+      if (updates == null || updates.getFilterSet() == null)
+         return;
+      for (PropertyFilterUpdate filterUpdate : updates.getFilterSet()) {
+         if (filterUpdate.getObjectSet() == null)
+            continue;
+         for (ObjectUpdate update : filterUpdate.getObjectSet()) {
+            ConcurrentMap<String, Map<String, Object>> ofType = objects.get(update.getObj().getType());
+            if (ofType == null)
+               continue;
+            String id = update.getObj().getVal();
+            if (update.getKind() == ObjectUpdateKind.leave) {
+               Map<String, Object> removed = ofType.remove(id);
+               if (removed != null && VIRTUAL_MACHINE.equals(update.getObj().getType())) {
+                  unindex(id, removed.get(NAME));
+                  fireRemoved(id);
+               }
+               continue;
+            }
+            Map<String, Object> values = Maps.newHashMap();
+            Map<String, Object> previous = ofType.get(id);
+            if (update.getKind() == ObjectUpdateKind.modify && previous != null)
+               values.putAll(previous);
+            if (update.getChangeSet() != null) {
+               for (PropertyChange change : update.getChangeSet()) {
+                  if (change.getOp() == PropertyChangeOp.remove || change.getOp() == PropertyChangeOp.indirectRemove
+                          || change.getVal() == null)
+                     values.remove(change.getName());
+                  else
+                     values.put(change.getName(), change.getVal());
+               }
+            }
+            ofType.put(id, Collections.unmodifiableMap(values));
+            if (VIRTUAL_MACHINE.equals(update.getObj().getType())) {
+               Object name = values.get(NAME);
+               if (previous != null && !Objects.equal(previous.get(NAME), name))
+                  unindex(id, previous.get(NAME));
+               if (name != null)
+                  virtualMachineIds.put((String) name, id);
+               fireChanged(VirtualMachineProperties.fromValues(id, values));
+            }
+         }
+      }
+   }
+
+   /**
+    * Drops the name of a virtual machine that left or was renamed from the index, pointing it to
+    * another virtual machine of the same name if there is one.
+    */
+   private void unindex(String id, Object name) {
+      if (name == null || !virtualMachineIds.remove(name, id))
+         return;
+      for (Map.Entry<String, Map<String, Object>> vm : objects.get(VIRTUAL_MACHINE).entrySet()) {
+         if (name.equals(vm.getValue().get(NAME))) {
+            virtualMachineIds.putIfAbsent((String) name, vm.getKey());
+            return;
+         }
+      }
+   }
+
+   private void fireChanged(VirtualMachineProperties vm) {
+      for (Listener listener : listeners) {
+         try {
+            listener.virtualMachineChanged(vm);
+         } catch (RuntimeException e) {
+            logger.warn(e, "inventory listener failed on %s", vm.getId());
+         }
+      }
+   }
+
+   private void fireRemoved(String id) {
+      for (Listener listener : listeners) {
+         try {
+            listener.virtualMachineRemoved(id);
+         } catch (RuntimeException e) {
+            logger.warn(e, "inventory listener failed on %s", id);
+         }
+      }
+   }
+
+   private void fireStopped(Exception cause) {
+      for (Listener listener : listeners) {
+         try {
+            listener.updatesStopped(cause);
+         } catch (RuntimeException e) {
+            logger.warn(e, "inventory listener failed");
+         }
+      }
+   }
+
+   // guarded by this
+   private void logout() {
+      version = null;
+      if (session != null) {
+         try {
+            session.getServerConnection().logout();
+         } catch (Exception e) {
+            logger.debug("could not log out the inventory session: %s", e.getMessage());
+         }
+         session = null;
+      }
+      if (updater != null) {
+         updater.interrupt();
+         updater = null;
+      }
+   }
+
+   @PreDestroy
+   @Override
+   public synchronized void close() {
+      closed = true;
+      logout();
+   }
+}
@@ -19,12 +19,19 @@
 
 package org.jclouds.vsphere.internal;
 
-import java.io.DataOutputStream;
+import com.google.common.io.Closer;
+import org.jclouds.javax.annotation.Nullable;
+import org.jclouds.vsphere.FileManagerApi.UploadListener;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -50,37 +57,81 @@ public class VSphereRestClient {
       return builder.toString();
    }
 
+   private HttpURLConnection open(String url, String method, String cookie) throws IOException {
+      HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+      connection.setRequestMethod(method);
+      connection.setRequestProperty("Cookie", cookie);
+      return connection;
+   }
+
    public int putFile(String cookie, String urlStr, String dcPath, String dsName, File file) throws IOException {
-      String putUrl = buildPutUrl(urlStr, dcPath, dsName);
+      ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(1, Math.min(CHUNKLEN, file.length())));
+      return putFile(cookie, urlStr, dcPath, dsName, file, buffer, null);
+   }
 
-      HttpURLConnection putCon = (HttpURLConnection) new URL(putUrl).openConnection();
-      putCon.setRequestMethod("PUT");
+   /**
+    * Streams a file to a datastore through a buffer, without holding more than the buffer in
+    * memory.
+    *
+    * @param buffer
+    *           the buffer to stream the file through, its content is overwritten
+    * @param listener
+    *           notified after each write of the number of bytes sent so far
+    * @return the response code of the server
+    * @throws IOException
+    *            if the upload failed or the server rejected it
+    */
+   public int putFile(String cookie, String urlStr, String dcPath, String dsName, File file, ByteBuffer buffer,
+                      @Nullable UploadListener listener) throws IOException {
+      HttpURLConnection putCon = open(buildPutUrl(urlStr, dcPath, dsName), "PUT", cookie);
       putCon.setDoOutput(true);
       putCon.setDoInput(true);
-      putCon.setRequestProperty("Cookie", cookie);
       long fileSize = file.length();
-      putCon.setRequestProperty("Content-Length", Long.toString(fileSize));
-      byte[] buffer = new byte[CHUNKLEN];
-      if (fileSize > CHUNKLEN)
-         putCon.setChunkedStreamingMode(CHUNKLEN);
-      else {
-         putCon.setChunkedStreamingMode((int) fileSize);
-         buffer = new byte[(int) fileSize];
-      }
+      if (fileSize <= Integer.MAX_VALUE)
+         putCon.setFixedLengthStreamingMode((int) fileSize);
+      else
+         putCon.setChunkedStreamingMode(buffer.capacity());
 
-      DataOutputStream out = new DataOutputStream(putCon.getOutputStream());
-      FileInputStream in = new FileInputStream(file);
-      int len = 0;
-      while ((len = in.read(buffer)) > 0) {
-         out.write(buffer, 0, len);
+      Closer closer = Closer.create();
+      try {
+         FileChannel in = closer.register(new FileInputStream(file)).getChannel();
+         WritableByteChannel out = closer.register(Channels.newChannel(putCon.getOutputStream()));
+         long sent = 0;
+         buffer.clear();
+         while (in.read(buffer) != -1 || buffer.position() > 0) {
+            buffer.flip();
+            sent += out.write(buffer);
+            buffer.compact();
+            if (listener != null)
+               listener.progress(file, sent, fileSize);
+         }
+      } catch (Throwable t) {
+         throw closer.rethrow(t);
+      } finally {
+         closer.close();
       }
-      if (in != null)
-         in.close();
-      if (out != null) {
-         out.flush();
-         out.close();
+      int responseCode = putCon.getResponseCode();
+      if (responseCode / 100 != 2)
+         throw new IOException("could not upload " + file + " to " + urlStr + ": " + responseCode + " "
+                 + putCon.getResponseMessage());
+      return responseCode;
+   }
+
+   /**
+    * The size of a file on a datastore.
+    *
+    * @return -1 if the file does not exist
+    */
+   public long sizeOf(String cookie, String urlStr, String dcPath, String dsName) throws IOException {
+      HttpURLConnection headCon = open(buildPutUrl(urlStr, dcPath, dsName), "HEAD", cookie);
+      try {
+         if (headCon.getResponseCode() / 100 != 2)
+            return -1;
+         String length = headCon.getHeaderField("Content-Length");
+         return length == null ? -1 : Long.parseLong(length);
+      } finally {
+         headCon.disconnect();
       }
-      return 201;
    }
 
 }
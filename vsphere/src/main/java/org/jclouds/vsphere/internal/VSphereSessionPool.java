@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jclouds.vsphere.internal;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.vmware.vim25.NotAuthenticated;
+import com.vmware.vim25.mo.ServiceInstance;
+import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.logging.Logger;
+import org.jclouds.vsphere.domain.VSphereServiceInstance;
+import org.jclouds.vsphere.functions.CreateAndConnectVSphereClient;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.Closeable;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.jclouds.Constants.PROPERTY_SCHEDULER_THREADS;
+import static org.jclouds.vsphere.config.VSphereConstants.SESSION_POOL_ACQUIRE_TIMEOUT;
+import static org.jclouds.vsphere.config.VSphereConstants.SESSION_POOL_IDLE_TIMEOUT;
+import static org.jclouds.vsphere.config.VSphereConstants.SESSION_POOL_KEEP_ALIVE;
+import static org.jclouds.vsphere.config.VSphereConstants.SESSION_POOL_MAX_SIZE;
+
+/**
+ * A bounded pool of logged in vSphere sessions, so callers don't pay a full SOAP login per call.
+ * <p/>
+ * Every {@link #get()} returns a lease, closing it returns the session to the pool instead of
+ * logging out. A thread that already holds a lease gets another lease on the same session, so
+ * nested calls never need more than one session per thread.
+ * <p/>
+ * Idle sessions are kept alive with a cheap call, and logged out once they stayed idle for too
+ * long. A session that has not been used for a while is checked before it is handed out, and
+ * logged in again if the server dropped it.
+ */
+@Singleton
+public class VSphereSessionPool implements Supplier<VSphereServiceInstance>, Closeable {
+
+   @Resource
+   @Named(ComputeServiceConstants.COMPUTE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final CreateAndConnectVSphereClient connector;
+   private final ScheduledExecutorService scheduler;
+   private final int maxSize;
+   private final long acquireTimeoutNanos;
+   private final long idleTimeoutNanos;
+   private final long keepAliveNanos;
+
+   // guarded by this, most recently used first
+   private final Deque<Session> idle = new ArrayDeque<Session>();
+   // sessions that are logged in or being logged in, guarded by this
+   private int open;
+   private boolean closed;
+   private final ThreadLocal<Session> held = new ThreadLocal<Session>();
+   private ScheduledFuture<?> maintenance;
+
+   private static class Session {
+      private final ServiceInstance instance;
+      private final AtomicInteger holds = new AtomicInteger();
+      private volatile Thread owner;
+      private volatile long lastUsed = System.nanoTime();
+
+      private Session(ServiceInstance instance) {
+         this.instance = checkNotNull(instance, "instance");
+      }
+   }
+
+   private class Lease extends VSphereServiceInstance {
+      private final Session session;
+      private final AtomicBoolean released = new AtomicBoolean();
+
+      private Lease(Session session) {
+         super(session.instance);
+         this.session = session;
+      }
+
+      @Override
+      public void close() {
+         if (released.compareAndSet(false, true) && session.holds.decrementAndGet() == 0) {
+            release(session);
+         }
+      }
+   }
+
+   @Inject
+   public VSphereSessionPool(CreateAndConnectVSphereClient connector,
+                             @Named(PROPERTY_SCHEDULER_THREADS) ScheduledExecutorService scheduler,
+                             @Named(SESSION_POOL_MAX_SIZE) int maxSize,
+                             @Named(SESSION_POOL_ACQUIRE_TIMEOUT) long acquireTimeout,
+                             @Named(SESSION_POOL_IDLE_TIMEOUT) long idleTimeout,
+                             @Named(SESSION_POOL_KEEP_ALIVE) long keepAliveInterval) {
+      checkArgument(maxSize > 0, "the session pool needs at least one session");
+      this.connector = checkNotNull(connector, "connector");
+      this.scheduler = scheduler;
+      this.maxSize = maxSize;
+      this.acquireTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(acquireTimeout);
+      this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+      this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveInterval);
+   }
+
+   @PostConstruct
+   public void start() {
+      long interval = TimeUnit.NANOSECONDS.toMillis(keepAliveNanos);
+      if (interval > 0) {
+         maintenance = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  maintain();
+               } catch (RuntimeException e) {
+                  logger.error(e, "could not maintain the idle vSphere sessions");
+               }
+            }
+         }, interval, interval, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   @Override
+   public VSphereServiceInstance get() {
+      Session session = held.get();
+      if (session == null || session.owner != Thread.currentThread()) {
+         session = acquire();
+         session.owner = Thread.currentThread();
+         held.set(session);
+      }
+      session.holds.incrementAndGet();
+      return new Lease(session);
+   }
+
+   private Session acquire() {
+      long deadline = System.nanoTime() + acquireTimeoutNanos;
+      while (true) {
+         Session session;
+         synchronized (this) {
+            checkState();
+            while (idle.isEmpty() && open >= maxSize) {
+               long remaining = deadline - System.nanoTime();
+               if (remaining <= 0) {
+                  throw new IllegalStateException(String.format(
+                          "no vSphere session became available within %sms, all %s sessions are leased",
+                          TimeUnit.NANOSECONDS.toMillis(acquireTimeoutNanos), maxSize));
+               }
+               try {
+                  TimeUnit.NANOSECONDS.timedWait(this, remaining);
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  throw Throwables.propagate(e);
+               }
+               checkState();
+            }
+            session = idle.pollFirst();
+            if (session == null) {
+               open++;
+            }
+         }
+         if (session == null) {
+            return login();
+         }
+         if (System.nanoTime() - session.lastUsed < keepAliveNanos || validate(session)) {
+            return session;
+         }
+         discard(session);
+      }
+   }
+
+   private void checkState() {
+      if (closed) {
+         throw new IllegalStateException("the vSphere session pool is closed");
+      }
+   }
+
+   private Session login() {
+      try {
+         Session session = new Session(connector.start());
+         logger.debug(">> logged in a new vSphere session");
+         return session;
+      } catch (RuntimeException e) {
+         synchronized (this) {
+            open--;
+            notifyAll();
+         }
+         throw e;
+      }
+   }
+
+   /**
+    * Checks the session is still logged in, logging it in again if the server dropped it.
+    */
+   private boolean validate(Session session) {
+      try {
+         session.instance.currentTime();
+         return true;
+      } catch (NotAuthenticated e) {
+         logger.debug(">> vSphere session is no longer authenticated, logging in again");
+         try {
+            connector.login(session.instance);
+            return true;
+         } catch (RuntimeException reauthentication) {
+            logger.warn(reauthentication, "could not log in the vSphere session again");
+            return false;
+         }
+      } catch (RemoteException e) {
+         logger.debug("vSphere session is no longer usable: %s", e.getMessage());
+         return false;
+      } catch (RuntimeException e) {
+         logger.debug("vSphere session is no longer usable: %s", e.getMessage());
+         return false;
+      }
+   }
+
+   private void release(Session session) {
+      session.owner = null;
+      if (held.get() == session) {
+         held.remove();
+      }
+      session.lastUsed = System.nanoTime();
+      boolean logout;
+      synchronized (this) {
+         logout = closed;
+         if (logout) {
+            open--;
+         } else {
+            idle.addFirst(session);
+         }
+         notifyAll();
+      }
+      if (logout) {
+         logout(session);
+      }
+   }
+
+   private void discard(Session session) {
+      synchronized (this) {
+         open--;
+         notifyAll();
+      }
+      logout(session);
+   }
+
+   private void logout(Session session) {
+      try {
+         session.instance.getServerConnection().logout();
+      } catch (RuntimeException e) {
+         logger.debug("could not log out vSphere session: %s", e.getMessage());
+      }
+   }
+
+   /**
+    * Logs out the sessions that stayed idle for too long, and keeps the others alive.
+    */
+   void maintain() {
+      List<Session> expired = Lists.newArrayList();
+      List<Session> stale = Lists.newArrayList();
+      long now = System.nanoTime();
+      synchronized (this) {
+         for (Iterator<Session> it = idle.iterator(); it.hasNext();) {
+            Session session = it.next();
+            if (now - session.lastUsed >= idleTimeoutNanos) {
+               it.remove();
+               open--;
+               expired.add(session);
+            } else if (now - session.lastUsed >= keepAliveNanos) {
+               it.remove();
+               stale.add(session);
+            }
+         }
+      }
+      for (Session session : expired) {
+         logout(session);
+      }
+      if (!expired.isEmpty()) {
+         logger.debug("<< logged out %s idle vSphere sessions", expired.size());
+      }
+      for (Session session : stale) {
+         if (validate(session)) {
+            session.lastUsed = System.nanoTime();
+            synchronized (this) {
+               if (!closed) {
+                  idle.addLast(session);
+                  notifyAll();
+                  continue;
+               }
+            }
+         }
+         discard(session);
+      }
+   }
+
+   /**
+    * The number of sessions that are logged in, leased or idle.
+    */
+   public synchronized int size() {
+      return open;
+   }
+
+   public synchronized int idleSessions() {
+      return idle.size();
+   }
+
+   @PreDestroy
+   @Override
+   public void close() {
+      if (maintenance != null) {
+         maintenance.cancel(false);
+      }
+      List<Session> sessions;
+      synchronized (this) {
+         closed = true;
+         sessions = Lists.newArrayList(idle);
+         idle.clear();
+         open -= sessions.size();
+         notifyAll();
+      }
+      for (Session session : sessions) {
+         logout(session);
+      }
+   }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.internal;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.RetrieveOptions;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.SelectionSpec;
+import com.vmware.vim25.TraversalSpec;
+import com.vmware.vim25.mo.ContainerView;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.ServiceInstance;
+import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.logging.Logger;
+import org.jclouds.vsphere.domain.VirtualMachineProperties;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.rmi.RemoteException;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.jclouds.vsphere.config.VSphereConstants.INVENTORY_PAGE_SIZE;
+
+/**
+ * Retrieves the {@link VirtualMachineProperties} of virtual machines with the property collector,
+ * instead of one round trip per property and virtual machine.
+ * <p/>
+ * Listing walks a container view of every virtual machine under the root folder and fetches only
+ * the mapped properties, a page at a time.
+ */
+@Singleton
+public class VirtualMachinePropertyCollector {
+
+   @Resource
+   @Named(ComputeServiceConstants.COMPUTE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final int pageSize;
+
+   @Inject
+   public VirtualMachinePropertyCollector(@Named(INVENTORY_PAGE_SIZE) int pageSize) {
+      checkArgument(pageSize > 0, "the page size must be positive");
+      this.pageSize = pageSize;
+   }
+
+   /**
+    * The properties of all the virtual machines and templates of the inventory.
+    */
+   public List<VirtualMachineProperties> collectAll(ServiceInstance instance) throws RemoteException {
+      ContainerView view = instance.getViewManager().createContainerView(instance.getRootFolder(),
+              new String[]{"VirtualMachine"}, true);
+      try {
+         TraversalSpec viewToVirtualMachines = new TraversalSpec();
+         viewToVirtualMachines.setName("traverseView");
+         viewToVirtualMachines.setType("ContainerView");
+         viewToVirtualMachines.setPath("view");
+         viewToVirtualMachines.setSkip(false);
+
+         ObjectSpec objectSpec = new ObjectSpec();
+         objectSpec.setObj(view.getMOR());
+         objectSpec.setSkip(true);
+         objectSpec.setSelectSet(new SelectionSpec[]{viewToVirtualMachines});
+         return collect(instance.getPropertyCollector(), objectSpec);
+      } finally {
+         try {
+            view.destroyView();
+         } catch (RemoteException e) {
+            logger.warn(e, "could not destroy the inventory view");
+         }
+      }
+   }
+
+   /**
+    * The properties of a single virtual machine.
+    *
+    * @return null if the virtual machine does not exist anymore
+    */
+   public VirtualMachineProperties collect(ServiceInstance instance, ManagedObjectReference vm) throws RemoteException {
+      ObjectSpec objectSpec = new ObjectSpec();
+      objectSpec.setObj(vm);
+      objectSpec.setSkip(false);
+      return Iterables.getFirst(collect(instance.getPropertyCollector(), objectSpec), null);
+   }
+
+   private List<VirtualMachineProperties> collect(PropertyCollector collector, ObjectSpec objectSpec) throws RemoteException {
+      PropertySpec propertySpec = new PropertySpec();
+      propertySpec.setType("VirtualMachine");
+      propertySpec.setAll(false);
+      propertySpec.setPathSet(VirtualMachineProperties.PATHS);
+
+      PropertyFilterSpec filterSpec = new PropertyFilterSpec();
+      filterSpec.setPropSet(new PropertySpec[]{propertySpec});
+      filterSpec.setObjectSet(new ObjectSpec[]{objectSpec});
+
+      RetrieveOptions options = new RetrieveOptions();
+      options.setMaxObjects(pageSize);
+
+      List<VirtualMachineProperties> virtualMachines = Lists.newArrayList();
+      RetrieveResult page = collector.retrievePropertiesEx(new PropertyFilterSpec[]{filterSpec}, options);
+      String token = null;
+      try {
+         while (page != null) {
+            if (page.getObjects() != null) {
+               for (ObjectContent content : page.getObjects()) {
+                  virtualMachines.add(VirtualMachineProperties.fromObjectContent(content));
+               }
+            }
+            token = page.getToken();
+            if (token == null)
+               break;
+            page = collector.continueRetrievePropertiesEx(token);
+            token = null;
+         }
+      } finally {
+         if (token != null) {
+            // an interrupted listing keeps its remaining pages on the server until cancelled
+            try {
+               collector.cancelRetrievePropertiesEx(token);
+            } catch (RemoteException e) {
+               logger.debug("could not cancel the retrieval: %s", e.getMessage());
+            }
+         }
+      }
+      return virtualMachines;
+   }
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.internal;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.logging.Logger;
+import org.jclouds.vsphere.domain.VirtualMachineProperties;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.jclouds.Constants.PROPERTY_SCHEDULER_THREADS;
+
+/**
+ * Waits for virtual machines to reach a state, such as running VMware tools or a guest address,
+ * without polling the server.
+ * <p/>
+ * Every wait is a future registered against the {@link VSphereInventory} update stream, so any
+ * number of virtual machines share the single property collector wait of the inventory, and no
+ * thread is held while waiting unless the caller blocks on the future. The waits are checked again
+ * when the inventory is reloaded after its update stream broke, and fail if it could not be.
+ */
+@Singleton
+public class VirtualMachineWaiter implements VSphereInventory.Listener {
+
+   @Resource
+   @Named(ComputeServiceConstants.COMPUTE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final VSphereInventory inventory;
+   private final ScheduledExecutorService scheduler;
+   // guarded by itself
+   private final Map<String, List<Watch>> watches = Maps.newHashMap();
+
+   private static class Watch {
+      private final Predicate<VirtualMachineProperties> condition;
+      private final SettableFuture<VirtualMachineProperties> future = SettableFuture.create();
+
+      private Watch(Predicate<VirtualMachineProperties> condition) {
+         this.condition = condition;
+      }
+
+      private void check(VirtualMachineProperties vm) {
+         if (!future.isDone() && condition.apply(vm))
+            future.set(vm);
+      }
+   }
+
+   @Inject
+   public VirtualMachineWaiter(VSphereInventory inventory,
+                               @Named(PROPERTY_SCHEDULER_THREADS) ScheduledExecutorService scheduler) {
+      this.inventory = checkNotNull(inventory, "inventory");
+      this.scheduler = checkNotNull(scheduler, "scheduler");
+   }
+
+   @PostConstruct
+   public void start() {
+      inventory.addListener(this);
+   }
+
+   /**
+    * Waits for a virtual machine to match a condition.
+    *
+    * @param id
+    *           the managed object reference value of the virtual machine
+    * @return a future that completes with the properties that matched, or fails with a
+    *         {@link TimeoutException} or when the virtual machine is removed
+    */
+   public ListenableFuture<VirtualMachineProperties> await(final String id, Predicate<VirtualMachineProperties> condition,
+                                                           long timeout, TimeUnit unit) {
+      final Watch watch = new Watch(checkNotNull(condition, "condition"));
+      checkNotNull(id, "id");
+      synchronized (watches) {
+         List<Watch> ofVm = watches.get(id);
+         if (ofVm == null)
+            watches.put(id, ofVm = Lists.newArrayList());
+         ofVm.add(watch);
+      }
+
+      final ScheduledFuture<?> expiry = scheduler.schedule(new Runnable() {
+         @Override
+         public void run() {
+            watch.future.setException(new TimeoutException("vm " + id + " did not match " + watch.condition));
+         }
+      }, timeout, unit);
+      watch.future.addListener(new Runnable() {
+         @Override
+         public void run() {
+            expiry.cancel(false);
+            synchronized (watches) {
+               List<Watch> ofVm = watches.get(id);
+               if (ofVm != null && ofVm.remove(watch) && ofVm.isEmpty())
+                  watches.remove(id);
+            }
+         }
+      }, MoreExecutors.sameThreadExecutor());
+
+      // registered first, so a change applied meanwhile is not missed
+      try {
+         VirtualMachineProperties current = inventory.getVirtualMachine(id);
+         if (current != null)
+            watch.check(current);
+      } catch (RuntimeException e) {
+         watch.future.setException(e);
+      }
+      return watch.future;
+   }
+
+   /**
+    * Blocks until a virtual machine matches a condition.
+    *
+    * @return false if it did not match before the timeout, or the wait failed
+    */
+   public boolean waitFor(String id, Predicate<VirtualMachineProperties> condition, long timeout, TimeUnit unit) {
+      try {
+         await(id, condition, timeout, unit).get();
+         return true;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return false;
+      } catch (ExecutionException e) {
+         logger.debug("<< vm %s: %s", id, e.getCause().getMessage());
+         return false;
+      }
+   }
+
+   // completing a watch unregisters it, so the watches are completed outside the lock
+   private List<Watch> watchesOf(String id) {
+      synchronized (watches) {
+         List<Watch> ofVm = watches.get(id);
+         return ofVm == null ? ImmutableList.<Watch>of() : ImmutableList.copyOf(ofVm);
+      }
+   }
+
+   @Override
+   public void virtualMachineChanged(VirtualMachineProperties vm) {
+      for (Watch watch : watchesOf(vm.getId())) {
+         watch.check(vm);
+      }
+   }
+
+   @Override
+   public void virtualMachineRemoved(String id) {
+      for (Watch watch : watchesOf(id)) {
+         watch.future.setException(new IllegalStateException("vm " + id + " was removed"));
+      }
+   }
+
+   @Override
+   public void updatesStopped(Exception cause) {
+      for (Watch watch : allWatches()) {
+         watch.future.setException(new IllegalStateException("inventory updates stopped", cause));
+      }
+   }
+
+   private List<Watch> allWatches() {
+      List<Watch> all = Lists.newArrayList();
+      synchronized (watches) {
+         for (List<Watch> ofVm : watches.values()) {
+            all.addAll(ofVm);
+         }
+      }
+      return all;
+   }
+
+   /**
+    * The number of pending waits.
+    */
+   public int pending() {
+      int pending = 0;
+      synchronized (watches) {
+         for (List<Watch> ofVm : watches.values()) {
+            pending += ofVm.size();
+         }
+      }
+      return pending;
+   }
+
+   @PreDestroy
+   public void close() {
+      inventory.removeListener(this);
+      for (Watch watch : allWatches()) {
+         watch.future.cancel(false);
+      }
+   }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.placement;
+
+import com.google.common.base.Objects;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The capacity of a host at the time a node is placed, net of the capacity reserved by the nodes
+ * being placed concurrently.
+ */
+public class HostCapacity {
+
+   private final String id;
+   private final String name;
+   private final long memoryCapacityMB;
+   private final long memoryFreeMB;
+   private final long cpuCapacityMhz;
+   private final long cpuFreeMhz;
+   private final int clonesInFlight;
+   private final int groupMembers;
+
+   public HostCapacity(String id, String name, long memoryCapacityMB, long memoryFreeMB, long cpuCapacityMhz,
+                       long cpuFreeMhz, int clonesInFlight, int groupMembers) {
+      this.id = checkNotNull(id, "id");
+      this.name = name;
+      this.memoryCapacityMB = memoryCapacityMB;
+      this.memoryFreeMB = memoryFreeMB;
+      this.cpuCapacityMhz = cpuCapacityMhz;
+      this.cpuFreeMhz = cpuFreeMhz;
+      this.clonesInFlight = clonesInFlight;
+      this.groupMembers = groupMembers;
+   }
+
+   /**
+    * The managed object reference value of the host.
+    */
+   public String getId() {
+      return id;
+   }
+
+   public String getName() {
+      return name;
+   }
+
+   public long getMemoryCapacityMB() {
+      return memoryCapacityMB;
+   }
+
+   public long getMemoryFreeMB() {
+      return memoryFreeMB;
+   }
+
+   public long getCpuCapacityMhz() {
+      return cpuCapacityMhz;
+   }
+
+   public long getCpuFreeMhz() {
+      return cpuFreeMhz;
+   }
+
+   /**
+    * The number of clone tasks running onto the host.
+    */
+   public int getClonesInFlight() {
+      return clonesInFlight;
+   }
+
+   /**
+    * The number of nodes of the requested group on the host, or being placed on it.
+    */
+   public int getGroupMembers() {
+      return groupMembers;
+   }
+
+   @Override
+   public String toString() {
+      return Objects.toStringHelper(this).add("id", id).add("name", name).add("memoryFreeMB", memoryFreeMB)
+              .add("cpuFreeMhz", cpuFreeMhz).add("clonesInFlight", clonesInFlight).add("groupMembers", groupMembers)
+              .toString();
+   }
+}
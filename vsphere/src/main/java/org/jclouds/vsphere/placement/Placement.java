@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.placement;
+
+import com.google.common.base.Objects;
+import com.vmware.vim25.ManagedObjectReference;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The host and datastore a node was placed on. The capacity the node needs stays reserved on them
+ * until the placement is closed, once the node is created.
+ */
+public class Placement implements Closeable {
+
+   private final PlacementEngine engine;
+   private final PlacementRequest request;
+   private final ManagedObjectReference host;
+   private final ManagedObjectReference datastore;
+   private final long cpuMhz;
+   private final AtomicBoolean closed = new AtomicBoolean();
+
+   Placement(PlacementEngine engine, PlacementRequest request, ManagedObjectReference host,
+             ManagedObjectReference datastore, long cpuMhz) {
+      this.engine = checkNotNull(engine, "engine");
+      this.request = checkNotNull(request, "request");
+      this.host = checkNotNull(host, "host");
+      this.datastore = checkNotNull(datastore, "datastore");
+      this.cpuMhz = cpuMhz;
+   }
+
+   public ManagedObjectReference getHost() {
+      return host;
+   }
+
+   public ManagedObjectReference getDatastore() {
+      return datastore;
+   }
+
+   PlacementRequest getRequest() {
+      return request;
+   }
+
+   /**
+    * The cpu reserved on the host.
+    */
+   long getCpuMhz() {
+      return cpuMhz;
+   }
+
+   /**
+    * Releases the reserved capacity.
+    */
+   @Override
+   public void close() {
+      if (closed.compareAndSet(false, true))
+         engine.release(this);
+   }
+
+   @Override
+   public String toString() {
+      return Objects.toStringHelper(this).add("host", host.getVal()).add("datastore", datastore.getVal())
+              .add("request", request).toString();
+   }
+}
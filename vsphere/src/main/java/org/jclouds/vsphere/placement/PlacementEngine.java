@@ -0,0 +1,296 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.placement;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.vmware.vim25.CustomFieldDef;
+import com.vmware.vim25.ManagedObjectReference;
+import org.jclouds.compute.reference.ComputeServiceConstants;
+import org.jclouds.javax.annotation.Nullable;
+import org.jclouds.logging.Logger;
+import org.jclouds.rest.InsufficientResourcesException;
+import org.jclouds.vsphere.config.VSphereConstants;
+import org.jclouds.vsphere.domain.VirtualMachineProperties;
+import org.jclouds.vsphere.internal.CloneScheduler;
+import org.jclouds.vsphere.internal.VSphereInventory;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Picks the host and datastore each node is created on.
+ * <p/>
+ * The capacity of the hosts and datastores is read from the {@link VSphereInventory inventory
+ * mirror}, which the server keeps current, so placing a node never calls the server. The hosts with
+ * room for the node are scored by the configured {@link PlacementPolicy} and the node goes to the
+ * best one, on its datastore with the fewest clones running and then the most free space.
+ * <p/>
+ * The memory, cpu and datastore space of a node are reserved when it is placed. The check of the
+ * free memory and space and the reservation are made under a lock, so two nodes racing for the last
+ * room on a host cannot both take it, nor both give it up; the loser tries the next best choice.
+ * Concurrent nodes thereby see the capacity the others took and spread out, instead of all landing
+ * on the host that looked best. Scoring the hosts reads the reservations without the lock.
+ */
+@Singleton
+public class PlacementEngine {
+
+   private static final long MB = 1024 * 1024;
+
+   @Resource
+   @Named(ComputeServiceConstants.COMPUTE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final VSphereInventory inventory;
+   private final CloneScheduler cloneScheduler;
+   private final Supplier<Map<String, CustomFieldDef>> customFields;
+   private final PlacementPolicy policy;
+
+   private final ConcurrentMap<String, HostReservations> hostReservations = Maps.newConcurrentMap();
+   private final ConcurrentMap<String, AtomicLong> datastoreReservations = Maps.newConcurrentMap();
+   // guards checking the free capacity together with reserving it; releasing only ever makes room
+   private final Object reserveLock = new Object();
+
+   private static class HostReservations {
+      private final AtomicLong memoryMB = new AtomicLong();
+      private final AtomicLong cpuMhz = new AtomicLong();
+      private final Multiset<String> groups = ConcurrentHashMultiset.create();
+   }
+
+   @Inject
+   public PlacementEngine(VSphereInventory inventory, CloneScheduler cloneScheduler,
+                          Supplier<Map<String, CustomFieldDef>> customFields, PlacementPolicy policy) {
+      this.inventory = checkNotNull(inventory, "inventory");
+      this.cloneScheduler = checkNotNull(cloneScheduler, "cloneScheduler");
+      this.customFields = checkNotNull(customFields, "customFields");
+      this.policy = checkNotNull(policy, "policy");
+   }
+
+   /**
+    * Places a node and reserves the capacity it needs until the placement is closed.
+    *
+    * @return null if the inventory mirror knows no host
+    * @throws InsufficientResourcesException
+    *            if no host has enough free memory and a datastore with enough free space
+    */
+   @Nullable
+   public Placement place(final PlacementRequest request) {
+      checkNotNull(request, "request");
+      List<ManagedObjectReference> hosts = inventory.list(VSphereInventory.HOST);
+      if (hosts.isEmpty())
+         return null;
+      Map<String, Integer> groupMembers = groupMembers(request.getGroup());
+
+      final Map<ManagedObjectReference, Double> scores = Maps.newHashMap();
+      for (ManagedObjectReference host : hosts) {
+         HostCapacity capacity = capacity(host, request.getGroup(), groupMembers);
+         if (capacity != null && capacity.getMemoryFreeMB() >= request.getMemoryMB())
+            scores.put(host, policy.score(capacity, request));
+      }
+      List<ManagedObjectReference> candidates = Lists.newArrayList(scores.keySet());
+      Collections.sort(candidates, new Comparator<ManagedObjectReference>() {
+         @Override
+         public int compare(ManagedObjectReference a, ManagedObjectReference b) {
+            return Doubles.compare(scores.get(b), scores.get(a));
+         }
+      });
+
+      for (ManagedObjectReference host : candidates) {
+         for (ManagedObjectReference datastore : datastoresByPreference(host, request)) {
+            Placement placement = tryReserve(host, datastore, request);
+            if (placement != null) {
+               logger.debug("placed %s on %s", request, placement);
+               return placement;
+            }
+         }
+      }
+      throw new InsufficientResourcesException("no host has room for " + request + " among " + hosts.size()
+              + " hosts");
+   }
+
+   private Placement tryReserve(ManagedObjectReference host, ManagedObjectReference datastore,
+                                PlacementRequest request) {
+      Placement placement = new Placement(this, request, host, datastore, request.getCpus() * coreMhz(host));
+      synchronized (reserveLock) {
+         // cpu is overcommitted on purpose, only memory and space are checked
+         HostCapacity capacity = capacity(host, null, null);
+         Long freeSpace = freeSpace(datastore);
+         if (capacity == null || capacity.getMemoryFreeMB() < request.getMemoryMB() || freeSpace == null
+                 || freeSpace < request.getDiskBytes())
+            return null;
+         HostReservations reservations = hostReservations(host.getVal());
+         reservations.memoryMB.addAndGet(request.getMemoryMB());
+         reservations.cpuMhz.addAndGet(placement.getCpuMhz());
+         if (request.getGroup() != null)
+            reservations.groups.add(request.getGroup());
+         datastoreReservations(datastore.getVal()).addAndGet(request.getDiskBytes());
+      }
+      return placement;
+   }
+
+   void release(Placement placement) {
+      PlacementRequest request = placement.getRequest();
+      HostReservations reservations = hostReservations(placement.getHost().getVal());
+      reservations.memoryMB.addAndGet(-request.getMemoryMB());
+      reservations.cpuMhz.addAndGet(-placement.getCpuMhz());
+      if (request.getGroup() != null)
+         reservations.groups.remove(request.getGroup());
+      datastoreReservations(placement.getDatastore().getVal()).addAndGet(-request.getDiskBytes());
+   }
+
+   /**
+    * The capacity of a host, net of the reservations on it.
+    *
+    * @param groupMembers
+    *           the number of virtual machines of the group, by host id
+    * @return null if the host is unknown, in maintenance or does not report its memory
+    */
+   HostCapacity capacity(ManagedObjectReference host, @Nullable String group,
+                         @Nullable Map<String, Integer> groupMembers) {
+      Map<String, Object> properties = inventory.getProperties(host);
+      if (properties == null || Boolean.TRUE.equals(properties.get(VSphereInventory.HOST_IN_MAINTENANCE)))
+         return null;
+      Long memoryUsage = longValue(properties.get(VSphereInventory.HOST_MEMORY_USAGE));
+      Long memoryLimit = longValue(properties.get(VSphereInventory.HOST_MEMORY_LIMIT));
+      Long memorySize = longValue(properties.get(VSphereInventory.HOST_MEMORY_SIZE));
+      // hosts without a memory limit report -1
+      long memoryCapacity = memoryLimit != null && memoryLimit > 0 ? memoryLimit
+              : memorySize != null ? memorySize / MB : -1;
+      if (memoryUsage == null || memoryCapacity < 0)
+         return null;
+      Long cpuUsage = longValue(properties.get(VSphereInventory.HOST_CPU_USAGE));
+      long cpuCapacity = coreMhz(host) * cores(properties);
+
+      HostReservations reservations = hostReservations(host.getVal());
+      int members = 0;
+      if (group != null) {
+         Integer existing = groupMembers == null ? null : groupMembers.get(host.getVal());
+         members = reservations.groups.count(group) + (existing == null ? 0 : existing);
+      }
+      return new HostCapacity(host.getVal(), (String) properties.get(VSphereInventory.NAME), memoryCapacity,
+              memoryCapacity - memoryUsage - reservations.memoryMB.get(), cpuCapacity,
+              cpuCapacity - (cpuUsage == null ? 0 : cpuUsage) - reservations.cpuMhz.get(),
+              cloneScheduler.runningOnHost(host.getVal()), members);
+   }
+
+   /**
+    * The accessible datastores of a host with room for the node, those with the fewest clones
+    * running first, then those with the most free space.
+    */
+   private List<ManagedObjectReference> datastoresByPreference(ManagedObjectReference host, PlacementRequest request) {
+      final Map<ManagedObjectReference, Long> freeSpaces = Maps.newHashMap();
+      for (ManagedObjectReference datastore : inventory.datastoresOf(host)) {
+         Map<String, Object> properties = inventory.getProperties(datastore);
+         if (properties == null || Boolean.FALSE.equals(properties.get(VSphereInventory.DATASTORE_ACCESSIBLE)))
+            continue;
+         Long freeSpace = freeSpace(datastore);
+         if (freeSpace != null && freeSpace >= request.getDiskBytes())
+            freeSpaces.put(datastore, freeSpace);
+      }
+      List<ManagedObjectReference> datastores = Lists.newArrayList(freeSpaces.keySet());
+      Collections.sort(datastores, new Comparator<ManagedObjectReference>() {
+         @Override
+         public int compare(ManagedObjectReference a, ManagedObjectReference b) {
+            int clones = Ints.compare(cloneScheduler.runningOnDatastore(a.getVal()),
+                    cloneScheduler.runningOnDatastore(b.getVal()));
+            return clones != 0 ? clones : Longs.compare(freeSpaces.get(b), freeSpaces.get(a));
+         }
+      });
+      return datastores;
+   }
+
+   /**
+    * The free space of a datastore, net of the reservations on it.
+    */
+   private Long freeSpace(ManagedObjectReference datastore) {
+      Map<String, Object> properties = inventory.getProperties(datastore);
+      Long freeSpace = properties == null ? null : longValue(properties.get(VSphereInventory.DATASTORE_FREE_SPACE));
+      return freeSpace == null ? null : freeSpace - datastoreReservations(datastore.getVal()).get();
+   }
+
+   /**
+    * The number of virtual machines of a group on each host, by host id.
+    */
+   private Map<String, Integer> groupMembers(@Nullable String group) {
+      Map<String, Integer> members = Maps.newHashMap();
+      if (group == null)
+         return members;
+      CustomFieldDef groupField = customFields.get().get(VSphereConstants.JCLOUDS_GROUP);
+      if (groupField == null)
+         return members;
+      for (VirtualMachineProperties vm : inventory.virtualMachines()) {
+         if (vm.getHostId() != null && group.equals(vm.getCustomValues().get(groupField.getKey()))) {
+            Integer count = members.get(vm.getHostId());
+            members.put(vm.getHostId(), count == null ? 1 : count + 1);
+         }
+      }
+      return members;
+   }
+
+   private long coreMhz(ManagedObjectReference host) {
+      Map<String, Object> properties = inventory.getProperties(host);
+      Long coreMhz = properties == null ? null : longValue(properties.get(VSphereInventory.HOST_CPU_MHZ));
+      return coreMhz == null ? 0 : coreMhz;
+   }
+
+   private static long cores(Map<String, Object> properties) {
+      Long cores = longValue(properties.get(VSphereInventory.HOST_CPU_CORES));
+      return cores == null ? 0 : cores;
+   }
+
+   private static Long longValue(Object value) {
+      return value instanceof Number ? ((Number) value).longValue() : null;
+   }
+
+   private HostReservations hostReservations(String host) {
+      HostReservations reservations = hostReservations.get(host);
+      if (reservations == null) {
+         HostReservations existing = hostReservations.putIfAbsent(host, reservations = new HostReservations());
+         if (existing != null)
+            reservations = existing;
+      }
+      return reservations;
+   }
+
+   private AtomicLong datastoreReservations(String datastore) {
+      AtomicLong reservations = datastoreReservations.get(datastore);
+      if (reservations == null) {
+         AtomicLong existing = datastoreReservations.putIfAbsent(datastore, reservations = new AtomicLong());
+         if (existing != null)
+            reservations = existing;
+      }
+      return reservations;
+   }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.placement;
+
+/**
+ * The built in placement policies.
+ */
+public enum PlacementPolicies implements PlacementPolicy {
+
+   /**
+    * Places nodes on the least loaded host, so load spreads evenly across hosts. Hosts that clones
+    * are running onto score lower, so concurrent nodes do not all land on the same host.
+    */
+   SPREAD {
+      @Override
+      public double score(HostCapacity host, PlacementRequest request) {
+         return freeAfter(host, request) - CLONE_PENALTY * host.getClonesInFlight();
+      }
+   },
+
+   /**
+    * Places nodes on the most loaded host that has room for them, keeping other hosts free.
+    */
+   PACK {
+      @Override
+      public double score(HostCapacity host, PlacementRequest request) {
+         return -freeAfter(host, request);
+      }
+   },
+
+   /**
+    * Places nodes on the host with the fewest nodes of their group, then like {@link #SPREAD}.
+    */
+   ANTI_AFFINITY {
+      @Override
+      public double score(HostCapacity host, PlacementRequest request) {
+         // one more node of the group outweighs any difference in load
+         return SPREAD.score(host, request) - host.getGroupMembers() * 10;
+      }
+   };
+
+   private static final double CLONE_PENALTY = 0.1;
+
+   /**
+    * The policy for a {@code jclouds.vsphere.placement.policy} value, such as {@code anti-affinity}.
+    *
+    * @return null if the value is not a built in policy
+    */
+   public static PlacementPolicies fromValue(String value) {
+      for (PlacementPolicies policy : values()) {
+         if (policy.value().equalsIgnoreCase(value))
+            return policy;
+      }
+      return null;
+   }
+
+   public String value() {
+      return name().toLowerCase().replace('_', '-');
+   }
+
+   /**
+    * The share of the memory and cpu of a host left free once the node is placed on it, between 0
+    * and 2.
+    */
+   private static double freeAfter(HostCapacity host, PlacementRequest request) {
+      double memory = host.getMemoryCapacityMB() > 0 ?
+              (double) (host.getMemoryFreeMB() - request.getMemoryMB()) / host.getMemoryCapacityMB() : 0;
+      double cpu = host.getCpuCapacityMhz() > 0 ? (double) host.getCpuFreeMhz() / host.getCpuCapacityMhz() : 0;
+      return Math.max(0, memory) + Math.max(0, cpu);
+   }
+}
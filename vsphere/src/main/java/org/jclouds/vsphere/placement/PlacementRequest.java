@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.placement;
+
+import com.google.common.base.Objects;
+import org.jclouds.javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * What a node needs from the host and the datastore it is placed on.
+ */
+public class PlacementRequest {
+
+   private final String group;
+   private final long memoryMB;
+   private final int cpus;
+   private final long diskBytes;
+
+   /**
+    * @param group
+    *           the group of the node, placed apart from the other nodes of the group under the
+    *           {@code anti-affinity} policy
+    * @param memoryMB
+    *           the memory of the node
+    * @param cpus
+    *           the virtual cpus of the node
+    * @param diskBytes
+    *           the space the node takes on its datastore
+    */
+   public PlacementRequest(@Nullable String group, long memoryMB, int cpus, long diskBytes) {
+      checkArgument(memoryMB >= 0, "memoryMB must be positive");
+      checkArgument(cpus >= 0, "cpus must be positive");
+      checkArgument(diskBytes >= 0, "diskBytes must be positive");
+      this.group = group;
+      this.memoryMB = memoryMB;
+      this.cpus = cpus;
+      this.diskBytes = diskBytes;
+   }
+
+   @Nullable
+   public String getGroup() {
+      return group;
+   }
+
+   public long getMemoryMB() {
+      return memoryMB;
+   }
+
+   public int getCpus() {
+      return cpus;
+   }
+
+   public long getDiskBytes() {
+      return diskBytes;
+   }
+
+   @Override
+   public String toString() {
+      return Objects.toStringHelper(this).omitNullValues().add("group", group).add("memoryMB", memoryMB)
+              .add("cpus", cpus).add("diskBytes", diskBytes).toString();
+   }
+}
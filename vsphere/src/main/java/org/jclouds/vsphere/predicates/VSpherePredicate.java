@@ -19,12 +19,15 @@
 package org.jclouds.vsphere.predicates;
 
 import com.google.common.base.Predicate;
+import com.google.common.base.Strings;
 import com.google.common.net.InetAddresses;
+import com.vmware.vim25.VirtualMachinePowerState;
 import com.vmware.vim25.VirtualMachineToolsStatus;
 import com.vmware.vim25.mo.HostSystem;
 import com.vmware.vim25.mo.ResourcePool;
 import com.vmware.vim25.mo.VirtualMachine;
 import org.jclouds.util.Predicates2;
+import org.jclouds.vsphere.domain.VirtualMachineProperties;
 
 import java.net.Inet4Address;
 import java.net.Inet6Address;
@@ -80,14 +83,78 @@ public class VSpherePredicate {
         }
 
     };
+    /**
+     * @deprecated polls the server, wait for {@link #hasNicAddresses} with the
+     *             {@link org.jclouds.vsphere.internal.VirtualMachineWaiter} instead
+     */
+    @Deprecated
     public static final Predicate<VirtualMachine> WAIT_FOR_NIC(Integer timeout, TimeUnit timeUnit) {
         return new WaitForNic(timeout,timeUnit);
     }
 
+    /**
+     * @deprecated polls the server, wait for {@link #isToolsRunning} with the
+     *             {@link org.jclouds.vsphere.internal.VirtualMachineWaiter} instead
+     */
+    @Deprecated
     public static final Predicate<VirtualMachine> WAIT_FOR_VMTOOLS(Integer timeout, TimeUnit timeUnit) {
         return new WaitForVmTools(timeout,timeUnit);
     }
 
+    /**
+     * Whether the VMware tools of a vm are running, to be used with the
+     * {@link org.jclouds.vsphere.internal.VirtualMachineWaiter}.
+     */
+    public static final Predicate<VirtualMachineProperties> isToolsRunning = new Predicate<VirtualMachineProperties>() {
+        @Override
+        public boolean apply(VirtualMachineProperties vm) {
+            return vm.getToolsStatus() == VirtualMachineToolsStatus.toolsOk || vm.getToolsStatus() == VirtualMachineToolsStatus.toolsOld;
+        }
+
+        @Override
+        public String toString() {
+            return "isToolsRunning()";
+        }
+    };
+
+    public static final Predicate<VirtualMachineProperties> hasIpAddress = new Predicate<VirtualMachineProperties>() {
+        @Override
+        public boolean apply(VirtualMachineProperties vm) {
+            return !Strings.isNullOrEmpty(vm.getIpAddress());
+        }
+
+        @Override
+        public String toString() {
+            return "hasIpAddress()";
+        }
+    };
+
+    public static final Predicate<VirtualMachineProperties> hasNicAddresses = new Predicate<VirtualMachineProperties>() {
+        @Override
+        public boolean apply(VirtualMachineProperties vm) {
+            return !vm.getNicAddresses().isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "hasNicAddresses()";
+        }
+    };
+
+    public static Predicate<VirtualMachineProperties> isPowerState(final VirtualMachinePowerState state) {
+        return new Predicate<VirtualMachineProperties>() {
+            @Override
+            public boolean apply(VirtualMachineProperties vm) {
+                return vm.getPowerState() == state;
+            }
+
+            @Override
+            public String toString() {
+                return "isPowerState(" + state + ")";
+            }
+        };
+    }
+
     public static Predicate<ResourcePool> isResourcePoolOf(String hostname) {
         return new IsResourcePoolOf(hostname);
     }
@@ -22,18 +22,25 @@ import com.google.common.base.Function;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.io.Closeables;
+import com.vmware.vim25.mo.Datastore;
 import com.vmware.vim25.mo.HostSystem;
 import com.vmware.vim25.mo.InventoryNavigator;
 import com.vmware.vim25.mo.ManagedEntity;
+import com.vmware.vim25.mo.ServerConnection;
 import org.jclouds.compute.reference.ComputeServiceConstants;
 import org.jclouds.logging.Logger;
 import org.jclouds.vsphere.domain.VSphereHost;
 import org.jclouds.vsphere.domain.VSphereServiceInstance;
+import org.jclouds.vsphere.placement.Placement;
+import org.jclouds.vsphere.placement.PlacementEngine;
+import org.jclouds.vsphere.placement.PlacementRequest;
 
 import javax.annotation.Resource;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.io.IOException;
 import java.util.Arrays;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -46,18 +53,33 @@ public class VSphereHostSupplier implements Supplier<VSphereHost> {
    protected Logger logger = Logger.NULL;
 
    private Supplier<VSphereServiceInstance> serviceInstance;
-   private Function<HostSystem, VSphereHost> systemHostToVSphereHost;
+   private final PlacementEngine placementEngine;
 
    @Inject
-   public VSphereHostSupplier(Supplier<VSphereServiceInstance> serviceInstance, Function<HostSystem, VSphereHost> systemHostToVSphereHost) {
+   public VSphereHostSupplier(Supplier<VSphereServiceInstance> serviceInstance, PlacementEngine placementEngine) {
       this.serviceInstance = checkNotNull(serviceInstance, "serviceInstance");
-      this.systemHostToVSphereHost = checkNotNull(systemHostToVSphereHost, "systemHostToVSphereHost");
+      this.placementEngine = checkNotNull(placementEngine, "placementEngine");
    }
 
-   private HostSystem getSystemHost() {
+   /**
+    * Asks the placement engine for the best host and datastore for an empty node.
+    *
+    * @return null if the inventory mirror has no host
+    */
+   private VSphereHost getPlacedHost(VSphereServiceInstance instance) {
+      Placement placement = placementEngine.place(new PlacementRequest(null, 0, 0, 0));
+      if (placement == null)
+         return null;
+      // nothing to reserve for an empty node
+      placement.close();
+      ServerConnection connection = instance.getInstance().getServerConnection();
+      return new VSphereHost(new HostSystem(connection, placement.getHost()), instance,
+              new Datastore(connection, placement.getDatastore()));
+   }
+
+   private HostSystem getSystemHost(VSphereServiceInstance instance) {
       Iterable<HostSystem> hosts = ImmutableSet.<HostSystem>of();
       try {
-         VSphereServiceInstance instance = serviceInstance.get();
          ManagedEntity[] hostEntities = new InventoryNavigator(instance.getInstance().getRootFolder()).searchManagedEntities("HostSystem");
          hosts = Iterables.transform(Arrays.asList(hostEntities), new Function<ManagedEntity, HostSystem>() {
             public HostSystem apply(ManagedEntity input) {
@@ -85,7 +107,25 @@ public class VSphereHostSupplier implements Supplier<VSphereHost> {
 
    @Override
    public VSphereHost get() {
-      return systemHostToVSphereHost.apply(getSystemHost());
+      // the host keeps the session it was found with, closing the host returns it
+      VSphereServiceInstance instance = serviceInstance.get();
+      try {
+         VSphereHost placed = getPlacedHost(instance);
+         if (placed != null)
+            return placed;
+      } catch (RuntimeException e) {
+         logger.debug("inventory unavailable, searching the hosts on the server: %s", e.getMessage());
+      }
+      HostSystem host = getSystemHost(instance);
+      if (host == null) {
+         try {
+            Closeables.close(instance, true);
+         } catch (IOException e) {
+            // swallowed by close
+         }
+         return null;
+      }
+      return new VSphereHost(host, instance);
    }
 
 }
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.vmware.vim25.ArrayOfCustomFieldValue;
+import com.vmware.vim25.ArrayOfGuestNicInfo;
+import com.vmware.vim25.CustomFieldStringValue;
+import com.vmware.vim25.CustomFieldValue;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.GuestNicInfo;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.VirtualMachinePowerState;
+import com.vmware.vim25.VirtualMachineToolsStatus;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+@Test(groups = "unit", testName = "VirtualMachinePropertiesTest")
+public class VirtualMachinePropertiesTest {
+
+   public void testFromObjectContent() {
+      GuestNicInfo nic = new GuestNicInfo();
+      nic.setIpAddress(new String[]{"10.0.0.5", "fe80::1"});
+      ArrayOfGuestNicInfo nics = new ArrayOfGuestNicInfo();
+      nics.GuestNicInfo = new GuestNicInfo[]{nic};
+
+      CustomFieldStringValue group = new CustomFieldStringValue();
+      group.setKey(101);
+      group.setValue("web");
+      ArrayOfCustomFieldValue customValues = new ArrayOfCustomFieldValue();
+      customValues.CustomFieldValue = new CustomFieldValue[]{group};
+
+      VirtualMachineProperties properties = VirtualMachineProperties.fromObjectContent(content("vm-42",
+              property("name", "web-1"),
+              property("runtime.powerState", VirtualMachinePowerState.poweredOn),
+              property("summary.config.uuid", "4207-abcd"),
+              property("config.template", Boolean.FALSE),
+              property("guest.ipAddress", "10.0.0.5"),
+              property("guest.toolsStatus", VirtualMachineToolsStatus.toolsOk),
+              property("guest.net", nics),
+              property("customValue", customValues)));
+
+      assertEquals(properties.getId(), "vm-42");
+      assertEquals(properties.getName(), "web-1");
+      assertEquals(properties.getPowerState(), VirtualMachinePowerState.poweredOn);
+      assertEquals(properties.getUuid(), "4207-abcd");
+      assertFalse(properties.isTemplate());
+      assertEquals(properties.getIpAddress(), "10.0.0.5");
+      assertEquals(properties.getToolsStatus(), VirtualMachineToolsStatus.toolsOk);
+      assertEquals(properties.getNicAddresses(), ImmutableList.of("10.0.0.5", "fe80::1"));
+      assertEquals(properties.getCustomValues(), ImmutableMap.of(101, "web"));
+   }
+
+   public void testMissingGuestPropertiesAreEmpty() {
+      VirtualMachineProperties properties = VirtualMachineProperties.fromObjectContent(content("vm-7",
+              property("name", "ubuntu-template"),
+              property("runtime.powerState", VirtualMachinePowerState.poweredOff),
+              property("config.template", Boolean.TRUE)));
+
+      assertTrue(properties.isTemplate());
+      assertNull(properties.getIpAddress());
+      assertNull(properties.getToolsStatus());
+      assertTrue(properties.getNicAddresses().isEmpty());
+      assertTrue(properties.getCustomValues().isEmpty());
+   }
+
+   static ObjectContent content(String id, DynamicProperty... properties) {
+      ManagedObjectReference mor = new ManagedObjectReference();
+      mor.setType("VirtualMachine");
+      mor.set_value(id);
+      ObjectContent content = new ObjectContent();
+      content.setObj(mor);
+      content.setPropSet(properties);
+      return content;
+   }
+
+   static DynamicProperty property(String name, Object value) {
+      DynamicProperty property = new DynamicProperty();
+      property.setName(name);
+      property.setVal(value);
+      return property;
+   }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.internal;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.vmware.vim25.LocalizedMethodFault;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.VirtualMachineCloneSpec;
+import com.vmware.vim25.mo.Folder;
+import com.vmware.vim25.mo.Task;
+import com.vmware.vim25.mo.VirtualMachine;
+import org.easymock.IAnswer;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+@Test(groups = "unit", testName = "CloneSchedulerTest")
+public class CloneSchedulerTest {
+
+   private final ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
+
+   @AfterClass(alwaysRun = true)
+   public void shutdown() {
+      executor.shutdownNow();
+   }
+
+   public void testCapsClonesPerHost() throws Exception {
+      CountDownLatch release = new CountDownLatch(1);
+      VirtualMachine master = master("vm-10", release, "clone-1", "clone-2", "clone-3");
+      CloneScheduler scheduler = new CloneScheduler(executor, 2, 10);
+
+      ListenableFuture<VirtualMachine> first = submit(scheduler, master, "clone-1", "host-1", "datastore-1");
+      ListenableFuture<VirtualMachine> second = submit(scheduler, master, "clone-2", "host-1", "datastore-2");
+      ListenableFuture<VirtualMachine> third = submit(scheduler, master, "clone-3", "host-1", "datastore-3");
+      assertEquals(scheduler.runningOnHost("host-1"), 2);
+      assertEquals(scheduler.queued(), 1);
+      assertFalse(third.isDone());
+
+      release.countDown();
+      assertEquals(first.get(10, TimeUnit.SECONDS).getMOR().getVal(), "clone-1");
+      assertEquals(second.get(10, TimeUnit.SECONDS).getMOR().getVal(), "clone-2");
+      assertEquals(third.get(10, TimeUnit.SECONDS).getMOR().getVal(), "clone-3");
+      assertEquals(scheduler.queued(), 0);
+      assertEquals(scheduler.runningOnHost("host-1"), 0);
+   }
+
+   public void testCapsClonesPerDatastoreAcrossHosts() throws Exception {
+      CountDownLatch release = new CountDownLatch(1);
+      VirtualMachine master = master("vm-11", release, "clone-4", "clone-5", "clone-6");
+      CloneScheduler scheduler = new CloneScheduler(executor, 10, 1);
+
+      ListenableFuture<VirtualMachine> first = submit(scheduler, master, "clone-4", "host-1", "datastore-1");
+      ListenableFuture<VirtualMachine> second = submit(scheduler, master, "clone-5", "host-2", "datastore-1");
+      ListenableFuture<VirtualMachine> other = submit(scheduler, master, "clone-6", "host-2", "datastore-2");
+      assertEquals(scheduler.runningOnDatastore("datastore-1"), 1);
+      assertEquals(scheduler.runningOnDatastore("datastore-2"), 1);
+      assertEquals(scheduler.queued(), 1);
+
+      release.countDown();
+      first.get(10, TimeUnit.SECONDS);
+      second.get(10, TimeUnit.SECONDS);
+      other.get(10, TimeUnit.SECONDS);
+      assertEquals(scheduler.runningOnDatastore("datastore-1"), 0);
+   }
+
+   public void testTemplateWriteLockWaitsForRunningClones() throws Exception {
+      CountDownLatch release = new CountDownLatch(1);
+      VirtualMachine master = master("vm-12", release, "clone-7");
+      CloneScheduler scheduler = new CloneScheduler(executor, 1, 1);
+
+      ListenableFuture<VirtualMachine> clone = submit(scheduler, master, "clone-7", "host-1", "datastore-1");
+      while (scheduler.templateLock(master).writeLock().tryLock()) {
+         // the clone has not taken the read lock yet
+         scheduler.templateLock(master).writeLock().unlock();
+         Thread.sleep(10);
+      }
+      release.countDown();
+      clone.get(10, TimeUnit.SECONDS);
+      assertTrue(scheduler.templateLock(master).writeLock().tryLock(10, TimeUnit.SECONDS));
+      scheduler.templateLock(master).writeLock().unlock();
+   }
+
+   public void testFailedCloneFreesItsSlot() throws Exception {
+      VirtualMachine master = createNiceMock(VirtualMachine.class);
+      expect(master.getMOR()).andReturn(mor("VirtualMachine", "vm-13")).anyTimes();
+      Task task = createNiceMock(Task.class);
+      expect(task.waitForTask()).andReturn("error");
+      TaskInfo info = new TaskInfo();
+      LocalizedMethodFault error = new LocalizedMethodFault();
+      error.setLocalizedMessage("insufficient disk space");
+      info.setError(error);
+      expect(task.getTaskInfo()).andReturn(info).anyTimes();
+      expect(master.cloneVM_Task(anyObject(Folder.class), eq("clone-8"), anyObject(VirtualMachineCloneSpec.class)))
+              .andReturn(task);
+      replay(master, task);
+      CloneScheduler scheduler = new CloneScheduler(executor, 1, 1);
+
+      try {
+         submit(scheduler, master, "clone-8", "host-1", "datastore-1").get(10, TimeUnit.SECONDS);
+         fail("the clone should have failed");
+      } catch (ExecutionException e) {
+         assertTrue(e.getCause() instanceof IllegalStateException);
+         assertTrue(e.getCause().getMessage().contains("insufficient disk space"));
+      }
+      assertEquals(scheduler.runningOnHost("host-1"), 0);
+      assertEquals(scheduler.runningOnDatastore("datastore-1"), 0);
+   }
+
+   private static ListenableFuture<VirtualMachine> submit(CloneScheduler scheduler, VirtualMachine master, String name,
+                                                          String host, String datastore) {
+      return scheduler.submit(master, createNiceMock(Folder.class), name, new VirtualMachineCloneSpec(), host, datastore);
+   }
+
+   private static VirtualMachine master(String id, final CountDownLatch release, String... clones) throws Exception {
+      VirtualMachine master = createNiceMock(VirtualMachine.class);
+      expect(master.getMOR()).andReturn(mor("VirtualMachine", id)).anyTimes();
+      for (String clone : clones) {
+         Task task = createNiceMock(Task.class);
+         expect(task.waitForTask()).andAnswer(new IAnswer<String>() {
+            @Override
+            public String answer() throws Throwable {
+               release.await();
+               return Task.SUCCESS;
+            }
+         });
+         TaskInfo info = new TaskInfo();
+         info.setResult(mor("VirtualMachine", clone));
+         expect(task.getTaskInfo()).andReturn(info).anyTimes();
+         expect(master.cloneVM_Task(anyObject(Folder.class), eq(clone), anyObject(VirtualMachineCloneSpec.class)))
+                 .andReturn(task);
+         replay(task);
+      }
+      replay(master);
+      return master;
+   }
+
+   private static ManagedObjectReference mor(String type, String id) {
+      ManagedObjectReference mor = new ManagedObjectReference();
+      mor.setType(type);
+      mor.set_value(id);
+      return mor;
+   }
+}
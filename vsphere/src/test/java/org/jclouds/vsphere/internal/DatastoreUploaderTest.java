@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.internal;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jclouds.vsphere.FileManagerApi.UploadListener;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+@Test(groups = "unit", testName = "DatastoreUploaderTest", singleThreaded = true)
+public class DatastoreUploaderTest {
+
+   private final ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
+   // the uploaded sizes by path
+   private final Map<String, Long> uploaded = Maps.newConcurrentMap();
+   private final AtomicInteger failuresToInject = new AtomicInteger();
+   private HttpServer server;
+   private VSphereRestClient client;
+
+   @BeforeClass
+   public void startServer() throws IOException {
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.createContext("/folder/", new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            long size = ByteStreams.copy(exchange.getRequestBody(), ByteStreams.nullOutputStream());
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+               Long uploadedSize = uploaded.get(path);
+               if (uploadedSize == null) {
+                  exchange.sendResponseHeaders(404, -1);
+               } else {
+                  exchange.getResponseHeaders().add("Content-Length", uploadedSize.toString());
+                  exchange.sendResponseHeaders(200, -1);
+               }
+            } else {
+               if (failuresToInject.getAndDecrement() > 0) {
+                  exchange.sendResponseHeaders(503, -1);
+               } else {
+                  uploaded.put(path, size);
+                  exchange.sendResponseHeaders(201, -1);
+               }
+            }
+            exchange.close();
+         }
+      });
+      server.start();
+      client = new VSphereRestClient("http://localhost:" + server.getAddress().getPort());
+   }
+
+   @AfterClass(alwaysRun = true)
+   public void stopServer() {
+      server.stop(0);
+      executor.shutdownNow();
+   }
+
+   public void testUploadsFilesConcurrentlyWithProgress() throws Exception {
+      failuresToInject.set(0);
+      DatastoreUploader uploader = new DatastoreUploader(executor, 2, 0);
+      File first = file(3 * VSphereRestClient.CHUNKLEN + 17);
+      File second = file(1000);
+      final AtomicLong reported = new AtomicLong();
+      UploadListener listener = new UploadListener() {
+         @Override
+         public void progress(File file, long sent, long size) {
+            if (sent == size)
+               reported.addAndGet(size);
+         }
+      };
+
+      uploader.upload(client, "cookie", "dc", "ds", first, "isos/first.iso", listener).get(10, TimeUnit.SECONDS);
+      uploader.upload(client, "cookie", "dc", "ds", second, "isos/second.iso", listener).get(10, TimeUnit.SECONDS);
+      assertEquals(uploaded.get("/folder/isos/first.iso"), Long.valueOf(first.length()));
+      assertEquals(uploaded.get("/folder/isos/second.iso"), Long.valueOf(second.length()));
+      assertEquals(reported.get(), first.length() + second.length());
+      assertEquals(uploader.availableBuffers(), 2);
+   }
+
+   public void testRetriesFailedUploads() throws Exception {
+      failuresToInject.set(1);
+      DatastoreUploader uploader = new DatastoreUploader(executor, 1, 1);
+      File file = file(5000);
+
+      uploader.upload(client, "cookie", "dc", "ds", file, "retried.vmdk", null).get(10, TimeUnit.SECONDS);
+      assertEquals(uploaded.get("/folder/retried.vmdk"), Long.valueOf(5000));
+   }
+
+   public void testFailsOnceRetriesAreExhausted() throws Exception {
+      failuresToInject.set(2);
+      DatastoreUploader uploader = new DatastoreUploader(executor, 1, 1);
+
+      try {
+         uploader.upload(client, "cookie", "dc", "ds", file(10), "failed.vmdk", null).get(10, TimeUnit.SECONDS);
+         fail("the upload should have failed");
+      } catch (ExecutionException e) {
+         assertTrue(e.getCause() instanceof IOException, e.getCause().toString());
+      }
+      assertEquals(uploader.availableBuffers(), 1);
+   }
+
+   private static File file(int size) throws IOException {
+      File file = File.createTempFile("upload", ".bin");
+      file.deleteOnExit();
+      byte[] content = new byte[size];
+      new Random().nextBytes(content);
+      Files.write(content, file);
+      return file;
+   }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.internal;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.vmware.vim25.FileTransferInformation;
+import com.vmware.vim25.GuestAuthentication;
+import com.vmware.vim25.GuestFileAttributes;
+import com.vmware.vim25.GuestProcessInfo;
+import com.vmware.vim25.GuestProgramSpec;
+import com.vmware.vim25.NamePasswordAuthentication;
+import com.vmware.vim25.mo.GuestFileManager;
+import com.vmware.vim25.mo.GuestOperationsManager;
+import com.vmware.vim25.mo.GuestProcessManager;
+import com.vmware.vim25.mo.VirtualMachine;
+import org.jclouds.compute.domain.ExecResponse;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.aryEq;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+@Test(groups = "unit", testName = "GuestScriptRunnerTest", singleThreaded = true)
+public class GuestScriptRunnerTest {
+
+   private static final String SCRIPT_PATH = "/tmp/jclouds-1.sh";
+   private static final String OUTPUT_PATH = SCRIPT_PATH + ".out";
+
+   private final AtomicReference<String> uploaded = new AtomicReference<String>();
+   private HttpServer server;
+   private String baseUrl;
+
+   @BeforeClass
+   public void startServer() throws IOException {
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.createContext("/guestFile", new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+            if ("PUT".equals(exchange.getRequestMethod())) {
+               uploaded.set(new String(body, Charsets.UTF_8));
+               exchange.sendResponseHeaders(200, -1);
+            } else {
+               byte[] output = "configured\n".getBytes(Charsets.UTF_8);
+               exchange.sendResponseHeaders(200, output.length);
+               exchange.getResponseBody().write(output);
+            }
+            exchange.close();
+         }
+      });
+      server.start();
+      baseUrl = "http://localhost:" + server.getAddress().getPort() + "/guestFile?id=";
+   }
+
+   @AfterClass(alwaysRun = true)
+   public void stopServer() {
+      server.stop(0);
+   }
+
+   public void testUploadsAndRunsTheScriptOnce() throws Exception {
+      NamePasswordAuthentication auth = auth();
+      VirtualMachine vm = createNiceMock(VirtualMachine.class);
+      GuestFileManager files = files(auth);
+      FileTransferInformation transfer = new FileTransferInformation();
+      transfer.setUrl(baseUrl + "2");
+      expect(files.initiateFileTransferFromGuest(auth, OUTPUT_PATH)).andReturn(transfer);
+      replay(files);
+
+      GuestProcessManager processes = createMock(GuestProcessManager.class);
+      expect(processes.startProgramInGuest(eq(auth), anyObject(GuestProgramSpec.class))).andReturn(42L);
+      expect(processes.listProcessesInGuest(eq(auth), aryEq(new long[]{42L})))
+              .andReturn(new GuestProcessInfo[]{process(null)})
+              .andReturn(new GuestProcessInfo[]{process(3)});
+      replay(processes);
+
+      GuestOperationsManager gom = gom(vm, files, processes);
+      GuestScriptRunner runner = new GuestScriptRunner(MoreExecutors.sameThreadExecutor(), 2);
+      ExecResponse response = runner.run(gom, vm, auth, "hostname node-1\nservice network reload\n", 10,
+              TimeUnit.SECONDS);
+
+      assertEquals(uploaded.get(), "hostname node-1\nservice network reload\n");
+      assertEquals(response.getOutput(), "configured\n");
+      assertEquals(response.getExitStatus(), 3);
+      assertEquals(runner.availableSlots(), 2);
+      verify(files, processes);
+   }
+
+   public void testTerminatesScriptsThatDoNotExit() throws Exception {
+      NamePasswordAuthentication auth = auth();
+      VirtualMachine vm = createNiceMock(VirtualMachine.class);
+      GuestFileManager files = files(auth);
+      replay(files);
+
+      GuestProcessManager processes = createMock(GuestProcessManager.class);
+      expect(processes.startProgramInGuest(eq(auth), anyObject(GuestProgramSpec.class))).andReturn(7L);
+      expect(processes.listProcessesInGuest(eq(auth), aryEq(new long[]{7L})))
+              .andReturn(new GuestProcessInfo[]{process(null)}).anyTimes();
+      processes.terminateProcessInGuest(auth, 7L);
+      expectLastCall();
+      replay(processes);
+
+      GuestScriptRunner runner = new GuestScriptRunner(MoreExecutors.sameThreadExecutor(), 1);
+      try {
+         runner.run(gom(vm, files, processes), vm, auth, "sleep 3600\n", 300, TimeUnit.MILLISECONDS);
+         fail("the script should have timed out");
+      } catch (IllegalStateException expected) {
+      }
+      assertEquals(runner.availableSlots(), 1);
+      verify(files, processes);
+   }
+
+   private GuestFileManager files(GuestAuthentication auth) throws Exception {
+      GuestFileManager files = createMock(GuestFileManager.class);
+      expect(files.createTemporaryFileInGuest(auth, "jclouds-", ".sh", null)).andReturn(SCRIPT_PATH);
+      expect(files.initiateFileTransferToGuest(eq(auth), eq(SCRIPT_PATH), anyObject(GuestFileAttributes.class),
+              anyLong(), eq(true))).andReturn(baseUrl + "1");
+      files.deleteFileInGuest(auth, SCRIPT_PATH);
+      files.deleteFileInGuest(auth, OUTPUT_PATH);
+      return files;
+   }
+
+   private static GuestOperationsManager gom(VirtualMachine vm, GuestFileManager files, GuestProcessManager processes) {
+      GuestOperationsManager gom = createMock(GuestOperationsManager.class);
+      expect(gom.getFileManager(vm)).andReturn(files);
+      expect(gom.getProcessManager(vm)).andReturn(processes);
+      replay(vm, gom);
+      return gom;
+   }
+
+   private static GuestProcessInfo process(Integer exitCode) {
+      GuestProcessInfo info = new GuestProcessInfo();
+      info.setExitCode(exitCode);
+      return info;
+   }
+
+   private static NamePasswordAuthentication auth() {
+      NamePasswordAuthentication auth = new NamePasswordAuthentication();
+      auth.setUsername("root");
+      auth.setPassword("password");
+      return auth;
+   }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.internal;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.VirtualMachineConfigInfo;
+import com.vmware.vim25.mo.HostSystem;
+import com.vmware.vim25.mo.ResourcePool;
+import com.vmware.vim25.mo.Task;
+import com.vmware.vim25.mo.VirtualMachine;
+import com.vmware.vim25.mo.VirtualMachineSnapshot;
+import org.testng.annotations.Test;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.reset;
+import static org.easymock.EasyMock.verify;
+import static org.jclouds.vsphere.config.VSphereConstants.VSPHERE_SNAPSHOT_DESCRITPION;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+@Test(groups = "unit", testName = "TemplateSnapshotsTest")
+public class TemplateSnapshotsTest {
+
+   public void testSnapshotsATemplateOnce() throws Exception {
+      ResourcePool pool = createNiceMock(ResourcePool.class);
+      HostSystem host = createNiceMock(HostSystem.class);
+      ManagedObjectReference snapshot = mor("VirtualMachineSnapshot", "snapshot-1");
+      Task task = createNiceMock(Task.class);
+      expect(task.waitForTask()).andReturn(Task.SUCCESS);
+      TaskInfo info = new TaskInfo();
+      info.setResult(snapshot);
+      expect(task.getTaskInfo()).andReturn(info).anyTimes();
+
+      VirtualMachine template = createMock(VirtualMachine.class);
+      expect(template.getMOR()).andReturn(mor("VirtualMachine", "vm-10")).anyTimes();
+      expect(template.getName()).andReturn("ubuntu").anyTimes();
+      expect(template.getCurrentSnapShot()).andReturn(null);
+      VirtualMachineConfigInfo config = new VirtualMachineConfigInfo();
+      config.setTemplate(true);
+      expect(template.getConfig()).andReturn(config);
+      template.markAsVirtualMachine(pool, host);
+      expect(template.createSnapshot_Task(TemplateSnapshots.SNAPSHOT_NAME, VSPHERE_SNAPSHOT_DESCRITPION, false, false))
+              .andReturn(task);
+      template.markAsTemplate();
+      expectLastCall();
+      replay(pool, host, task, template);
+
+      TemplateSnapshots snapshots = snapshots();
+      assertSame(snapshots.get(template, pool, host), snapshot);
+      assertSame(snapshots.get(template, pool, host), snapshot);
+      verify(template);
+   }
+
+   public void testUsesTheCurrentSnapshot() throws Exception {
+      VirtualMachineSnapshot current = createMock(VirtualMachineSnapshot.class);
+      expect(current.getMOR()).andReturn(mor("VirtualMachineSnapshot", "snapshot-2"));
+      VirtualMachine template = createMock(VirtualMachine.class);
+      expect(template.getMOR()).andReturn(mor("VirtualMachine", "vm-11")).anyTimes();
+      expect(template.getName()).andReturn("centos").anyTimes();
+      expect(template.getCurrentSnapShot()).andReturn(current).times(2);
+      replay(current, template);
+
+      TemplateSnapshots snapshots = snapshots();
+      assertEquals(snapshots.get(template, null, null).getVal(), "snapshot-2");
+      snapshots.invalidate(template);
+      reset(current);
+      expect(current.getMOR()).andReturn(mor("VirtualMachineSnapshot", "snapshot-3"));
+      replay(current);
+      assertEquals(snapshots.get(template, null, null).getVal(), "snapshot-3");
+      verify(template);
+   }
+
+   private static TemplateSnapshots snapshots() {
+      return new TemplateSnapshots(new CloneScheduler(MoreExecutors.sameThreadExecutor(), 1, 1));
+   }
+
+   private static ManagedObjectReference mor(String type, String id) {
+      ManagedObjectReference mor = new ManagedObjectReference();
+      mor.setType(type);
+      mor.set_value(id);
+      return mor;
+   }
+}
@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.internal;
+
+import com.vmware.vim25.ArrayOfManagedObjectReference;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VirtualMachinePowerState;
+import com.vmware.vim25.WaitOptions;
+import com.vmware.vim25.mo.ContainerView;
+import com.vmware.vim25.mo.Folder;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.ViewManager;
+import org.easymock.IAnswer;
+import org.jclouds.vsphere.domain.VirtualMachineProperties;
+import org.jclouds.vsphere.functions.CreateAndConnectVSphereClient;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.easymock.EasyMock.anyBoolean;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.jclouds.vsphere.internal.VSphereInventory.reference;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+@Test(groups = "unit", testName = "VSphereInventoryTest")
+public class VSphereInventoryTest {
+
+   public void testLoadsOnceAndAppliesUpdates() throws Exception {
+      ServiceInstance si = createNiceMock(ServiceInstance.class);
+      PropertyCollector collector = createMock(PropertyCollector.class);
+      ViewManager viewManager = createMock(ViewManager.class);
+      ContainerView view = createNiceMock(ContainerView.class);
+      Folder rootFolder = createNiceMock(Folder.class);
+      CreateAndConnectVSphereClient connector = createMock(CreateAndConnectVSphereClient.class);
+
+      expect(connector.start()).andReturn(si).once();
+      expect(si.getPropertyCollector()).andReturn(collector).anyTimes();
+      expect(si.getViewManager()).andReturn(viewManager).anyTimes();
+      expect(si.getRootFolder()).andReturn(rootFolder).anyTimes();
+      expect(viewManager.createContainerView(eq(rootFolder), isA(String[].class), eq(true))).andReturn(view);
+      expect(view.getMOR()).andReturn(reference("ContainerView", "view-1")).anyTimes();
+      expect(collector.createFilter(isA(PropertyFilterSpec.class), anyBoolean())).andReturn(null);
+      expect(collector.waitForUpdatesEx(eq(""), isA(WaitOptions.class))).andReturn(updates("1",
+              update(ObjectUpdateKind.enter, reference("VirtualMachine", "vm-1"),
+                      change("name", "web-1"), change("runtime.powerState", VirtualMachinePowerState.poweredOff)),
+              update(ObjectUpdateKind.enter, reference("VirtualMachine", "vm-2"), change("name", "web-2")),
+              update(ObjectUpdateKind.enter, reference("HostSystem", "host-1"),
+                      change("name", "esx1"), change("parent", reference("ComputeResource", "domain-s1")),
+                      change("datastore", datastores(reference("Datastore", "datastore-1")))),
+              update(ObjectUpdateKind.enter, reference("ResourcePool", "resgroup-2"),
+                      change("name", "child"), change("owner", reference("ComputeResource", "domain-s1")),
+                      change("parent", reference("ResourcePool", "resgroup-1"))),
+              update(ObjectUpdateKind.enter, reference("ResourcePool", "resgroup-1"),
+                      change("name", "Resources"), change("owner", reference("ComputeResource", "domain-s1")),
+                      change("parent", reference("ComputeResource", "domain-s1")))));
+      // the updater waits until the inventory is closed
+      expect(collector.waitForUpdatesEx(eq("1"), isA(WaitOptions.class))).andAnswer(new IAnswer<UpdateSet>() {
+         @Override
+         public UpdateSet answer() throws Throwable {
+            Thread.sleep(Long.MAX_VALUE);
+            return null;
+         }
+      }).anyTimes();
+      replay(si, collector, viewManager, view, rootFolder, connector);
+
+      VSphereInventory inventory = new VSphereInventory(connector);
+      try {
+         assertEquals(inventory.virtualMachines().size(), 2);
+         assertTrue(inventory.isCurrent());
+         assertEquals(inventory.findVirtualMachine("web-1").getId(), "vm-1");
+         assertEquals(inventory.getVirtualMachine("vm-1").getPowerState(), VirtualMachinePowerState.poweredOff);
+         assertEquals(inventory.findResourcePoolOf("esx1").getVal(), "resgroup-1");
+         assertEquals(inventory.datastoresOf(reference("HostSystem", "host-1")).get(0).getVal(), "datastore-1");
+
+         inventory.apply(updates("2",
+                 update(ObjectUpdateKind.modify, reference("VirtualMachine", "vm-1"),
+                         change("runtime.powerState", VirtualMachinePowerState.poweredOn)),
+                 update(ObjectUpdateKind.leave, reference("VirtualMachine", "vm-2"))));
+
+         assertEquals(inventory.getVirtualMachine("vm-1").getName(), "web-1");
+         assertEquals(inventory.getVirtualMachine("vm-1").getPowerState(), VirtualMachinePowerState.poweredOn);
+         assertNull(inventory.findVirtualMachine("web-2"));
+
+         PropertyChange removed = change("runtime.powerState", null);
+         removed.setOp(PropertyChangeOp.remove);
+         inventory.apply(updates("3", update(ObjectUpdateKind.modify, reference("VirtualMachine", "vm-1"), removed)));
+         assertNull(inventory.getVirtualMachine("vm-1").getPowerState());
+         assertEquals(inventory.getVirtualMachine("vm-1").getName(), "web-1");
+
+         inventory.apply(updates("4", update(ObjectUpdateKind.modify, reference("VirtualMachine", "vm-1"),
+                 change("name", "web-3"))));
+         assertNull(inventory.findVirtualMachine("web-1"));
+         assertEquals(inventory.findVirtualMachine("web-3").getId(), "vm-1");
+         assertEquals(inventory.find("VirtualMachine", "web-3").getVal(), "vm-1");
+      } finally {
+         inventory.close();
+      }
+      verify(connector, viewManager);
+   }
+
+   public void testReloadsWhenTheUpdateStreamBreaks() throws Exception {
+      PropertyCollector broken = createNiceMock(PropertyCollector.class);
+      expect(broken.waitForUpdatesEx(eq(""), isA(WaitOptions.class))).andReturn(updates("1",
+              update(ObjectUpdateKind.enter, reference("VirtualMachine", "vm-1"), change("name", "web-1")),
+              update(ObjectUpdateKind.enter, reference("VirtualMachine", "vm-2"), change("name", "web-2"))));
+      expect(broken.waitForUpdatesEx(eq("1"), isA(WaitOptions.class)))
+              .andThrow(new RuntimeException("connection reset"));
+      PropertyCollector reloaded = createNiceMock(PropertyCollector.class);
+      expect(reloaded.waitForUpdatesEx(eq(""), isA(WaitOptions.class))).andReturn(updates("1",
+              update(ObjectUpdateKind.enter, reference("VirtualMachine", "vm-1"), change("name", "web-1"),
+                      change("runtime.powerState", VirtualMachinePowerState.poweredOn))));
+      expect(reloaded.waitForUpdatesEx(eq("1"), isA(WaitOptions.class))).andAnswer(new IAnswer<UpdateSet>() {
+         @Override
+         public UpdateSet answer() throws Throwable {
+            Thread.sleep(Long.MAX_VALUE);
+            return null;
+         }
+      }).anyTimes();
+      CreateAndConnectVSphereClient connector = createMock(CreateAndConnectVSphereClient.class);
+      expect(connector.start()).andReturn(session(broken)).andReturn(session(reloaded));
+      replay(broken, reloaded, connector);
+
+      RecordingListener listener = new RecordingListener();
+      VSphereInventory inventory = new VSphereInventory(connector);
+      inventory.addListener(listener);
+      try {
+         inventory.getVirtualMachine("vm-1");
+         // the virtual machine that left while the stream was broken is reported as removed
+         assertTrue(listener.removed.await(10, TimeUnit.SECONDS));
+         assertEquals(inventory.getVirtualMachine("vm-1").getPowerState(), VirtualMachinePowerState.poweredOn);
+         assertNull(inventory.findVirtualMachine("web-2"));
+         assertEquals(listener.stopped.getCount(), 1);
+      } finally {
+         inventory.close();
+      }
+      verify(connector);
+   }
+
+   public void testTellsTheListenersWhenTheInventoryCannotBeLoadedAgain() throws Exception {
+      PropertyCollector broken = createNiceMock(PropertyCollector.class);
+      expect(broken.waitForUpdatesEx(eq(""), isA(WaitOptions.class))).andReturn(updates("1",
+              update(ObjectUpdateKind.enter, reference("VirtualMachine", "vm-1"), change("name", "web-1"))));
+      expect(broken.waitForUpdatesEx(eq("1"), isA(WaitOptions.class)))
+              .andThrow(new RuntimeException("connection reset"));
+      CreateAndConnectVSphereClient connector = createMock(CreateAndConnectVSphereClient.class);
+      expect(connector.start()).andReturn(session(broken)).andThrow(new IllegalStateException("server down"));
+      replay(broken, connector);
+
+      RecordingListener listener = new RecordingListener();
+      VSphereInventory inventory = new VSphereInventory(connector);
+      inventory.addListener(listener);
+      try {
+         inventory.getVirtualMachine("vm-1");
+         assertTrue(listener.stopped.await(10, TimeUnit.SECONDS));
+         assertFalse(inventory.isCurrent());
+      } finally {
+         inventory.close();
+      }
+      verify(connector);
+   }
+
+   private static class RecordingListener implements VSphereInventory.Listener {
+      private final CountDownLatch removed = new CountDownLatch(1);
+      private final CountDownLatch stopped = new CountDownLatch(1);
+
+      @Override
+      public void virtualMachineChanged(VirtualMachineProperties vm) {
+      }
+
+      @Override
+      public void virtualMachineRemoved(String id) {
+         removed.countDown();
+      }
+
+      @Override
+      public void updatesStopped(Exception cause) {
+         stopped.countDown();
+      }
+   }
+
+   private static ServiceInstance session(PropertyCollector collector) throws Exception {
+      ServiceInstance si = createNiceMock(ServiceInstance.class);
+      ViewManager viewManager = createNiceMock(ViewManager.class);
+      ContainerView view = createNiceMock(ContainerView.class);
+      expect(si.getPropertyCollector()).andReturn(collector).anyTimes();
+      expect(si.getViewManager()).andReturn(viewManager).anyTimes();
+      expect(viewManager.createContainerView(anyObject(Folder.class), isA(String[].class), eq(true))).andReturn(view);
+      expect(view.getMOR()).andReturn(reference("ContainerView", "view-1")).anyTimes();
+      replay(si, viewManager, view);
+      return si;
+   }
+
+   private static UpdateSet updates(String version, ObjectUpdate... objects) {
+      PropertyFilterUpdate filterUpdate = new PropertyFilterUpdate();
+      filterUpdate.setObjectSet(objects);
+      UpdateSet updates = new UpdateSet();
+      updates.setVersion(version);
+      updates.setFilterSet(new PropertyFilterUpdate[]{filterUpdate});
+      return updates;
+   }
+
+   private static ObjectUpdate update(ObjectUpdateKind kind, ManagedObjectReference obj, PropertyChange... changes) {
+      ObjectUpdate update = new ObjectUpdate();
+      update.setKind(kind);
+      update.setObj(obj);
+      update.setChangeSet(changes);
+      return update;
+   }
+
+   private static PropertyChange change(String name, Object value) {
+      PropertyChange change = new PropertyChange();
+      change.setName(name);
+      change.setOp(PropertyChangeOp.assign);
+      change.setVal(value);
+      return change;
+   }
+
+   private static ArrayOfManagedObjectReference datastores(ManagedObjectReference... datastores) {
+      ArrayOfManagedObjectReference array = new ArrayOfManagedObjectReference();
+      array.ManagedObjectReference = datastores;
+      return array;
+   }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.internal;
+
+import com.vmware.vim25.NotAuthenticated;
+import com.vmware.vim25.mo.ServiceInstance;
+import org.jclouds.vsphere.domain.VSphereServiceInstance;
+import org.jclouds.vsphere.functions.CreateAndConnectVSphereClient;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+@Test(groups = "unit", testName = "VSphereSessionPoolTest")
+public class VSphereSessionPoolTest {
+
+   public void testNestedLeasesShareTheSession() throws Exception {
+      ServiceInstance si = createMock(ServiceInstance.class);
+      CreateAndConnectVSphereClient connector = createMock(CreateAndConnectVSphereClient.class);
+      expect(connector.start()).andReturn(si).once();
+      replay(si, connector);
+
+      VSphereSessionPool pool = new VSphereSessionPool(connector, null, 2, 1000, 60000, 60000);
+      VSphereServiceInstance outer = pool.get();
+      VSphereServiceInstance inner = pool.get();
+      assertSame(inner.getInstance(), outer.getInstance());
+      inner.close();
+      assertEquals(pool.idleSessions(), 0);
+      outer.close();
+      assertEquals(pool.idleSessions(), 1);
+
+      // reused without logging in again
+      VSphereServiceInstance next = pool.get();
+      assertSame(next.getInstance(), si);
+      next.close();
+      assertEquals(pool.size(), 1);
+      verify(connector);
+   }
+
+   public void testLeasesAreBounded() throws Exception {
+      ServiceInstance si = createMock(ServiceInstance.class);
+      CreateAndConnectVSphereClient connector = createMock(CreateAndConnectVSphereClient.class);
+      expect(connector.start()).andReturn(si).once();
+      replay(si, connector);
+
+      final VSphereSessionPool pool = new VSphereSessionPool(connector, null, 1, 10, 60000, 60000);
+      VSphereServiceInstance held = pool.get();
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+         executor.submit(new Callable<VSphereServiceInstance>() {
+            @Override
+            public VSphereServiceInstance call() {
+               return pool.get();
+            }
+         }).get();
+         throw new AssertionError("expected the second thread to time out");
+      } catch (ExecutionException e) {
+         assertTrue(e.getCause() instanceof IllegalStateException, e.getCause().toString());
+      } finally {
+         executor.shutdownNow();
+      }
+      held.close();
+   }
+
+   public void testReauthenticatesStaleSessions() throws Exception {
+      ServiceInstance si = createMock(ServiceInstance.class);
+      CreateAndConnectVSphereClient connector = createMock(CreateAndConnectVSphereClient.class);
+      expect(connector.start()).andReturn(si).once();
+      expect(si.currentTime()).andThrow(new NotAuthenticated());
+      connector.login(si);
+      expectLastCall();
+      replay(si, connector);
+
+      // sessions are checked as soon as they are idle
+      VSphereSessionPool pool = new VSphereSessionPool(connector, null, 1, 1000, 60000, 0);
+      pool.get().close();
+      VSphereServiceInstance lease = pool.get();
+      assertSame(lease.getInstance(), si);
+      lease.close();
+      verify(si, connector);
+   }
+
+}
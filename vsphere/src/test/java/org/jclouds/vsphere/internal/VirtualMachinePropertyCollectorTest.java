@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.internal;
+
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.RetrieveOptions;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.mo.ContainerView;
+import com.vmware.vim25.mo.Folder;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.ViewManager;
+import org.jclouds.vsphere.domain.VirtualMachineProperties;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.easymock.EasyMock.aryEq;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertEquals;
+
+@Test(groups = "unit", testName = "VirtualMachinePropertyCollectorTest")
+public class VirtualMachinePropertyCollectorTest {
+
+   public void testCollectAllFollowsTheContinuationToken() throws Exception {
+      ServiceInstance si = createMock(ServiceInstance.class);
+      ViewManager viewManager = createMock(ViewManager.class);
+      ContainerView view = createMock(ContainerView.class);
+      PropertyCollector collector = createMock(PropertyCollector.class);
+      Folder rootFolder = createMock(Folder.class);
+
+      expect(si.getRootFolder()).andReturn(rootFolder);
+      expect(si.getViewManager()).andReturn(viewManager);
+      expect(si.getPropertyCollector()).andReturn(collector);
+      expect(viewManager.createContainerView(eq(rootFolder), aryEq(new String[]{"VirtualMachine"}), eq(true))).andReturn(view);
+      expect(view.getMOR()).andReturn(mor("ContainerView", "session[1]view"));
+      expect(collector.retrievePropertiesEx(isA(PropertyFilterSpec[].class), isA(RetrieveOptions.class)))
+              .andReturn(page("next", content("vm-1", "web-1"), content("vm-2", "web-2")));
+      expect(collector.continueRetrievePropertiesEx("next")).andReturn(page(null, content("vm-3", "web-3")));
+      view.destroyView();
+      expectLastCall();
+      replay(si, viewManager, view, collector, rootFolder);
+
+      List<VirtualMachineProperties> vms = new VirtualMachinePropertyCollector(2).collectAll(si);
+
+      assertEquals(vms.size(), 3);
+      assertEquals(vms.get(0).getId(), "vm-1");
+      assertEquals(vms.get(2).getName(), "web-3");
+      verify(si, viewManager, view, collector);
+   }
+
+   private static RetrieveResult page(String token, ObjectContent... objects) {
+      RetrieveResult result = new RetrieveResult();
+      result.setToken(token);
+      result.setObjects(objects);
+      return result;
+   }
+
+   private static ObjectContent content(String id, String name) {
+      DynamicProperty property = new DynamicProperty();
+      property.setName("name");
+      property.setVal(name);
+      ObjectContent content = new ObjectContent();
+      content.setObj(mor("VirtualMachine", id));
+      content.setPropSet(new DynamicProperty[]{property});
+      return content;
+   }
+
+   private static ManagedObjectReference mor(String type, String id) {
+      ManagedObjectReference mor = new ManagedObjectReference();
+      mor.setType(type);
+      mor.set_value(id);
+      return mor;
+   }
+}
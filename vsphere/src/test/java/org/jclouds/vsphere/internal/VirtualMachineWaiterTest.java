@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.internal;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.vmware.vim25.VirtualMachinePowerState;
+import org.jclouds.vsphere.domain.VirtualMachineProperties;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.jclouds.vsphere.predicates.VSpherePredicate.hasIpAddress;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+@Test(groups = "unit", testName = "VirtualMachineWaiterTest")
+public class VirtualMachineWaiterTest {
+
+   private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+   @AfterClass(alwaysRun = true)
+   public void shutdown() {
+      scheduler.shutdownNow();
+   }
+
+   public void testCompletesWhenTheVmChanges() throws Exception {
+      VirtualMachineWaiter waiter = waiter(vm("vm-1", null));
+
+      ListenableFuture<VirtualMachineProperties> ip = waiter.await("vm-1", hasIpAddress, 1, TimeUnit.MINUTES);
+      assertFalse(ip.isDone());
+      assertEquals(waiter.pending(), 1);
+
+      waiter.virtualMachineChanged(vm("vm-2", "10.0.0.6"));
+      assertFalse(ip.isDone());
+      waiter.virtualMachineChanged(vm("vm-1", "10.0.0.5"));
+      assertEquals(ip.get().getIpAddress(), "10.0.0.5");
+      assertEquals(waiter.pending(), 0);
+   }
+
+   public void testCompletesAtOnceWhenTheVmAlreadyMatches() throws Exception {
+      VirtualMachineWaiter waiter = waiter(vm("vm-1", "10.0.0.5"));
+
+      assertTrue(waiter.await("vm-1", hasIpAddress, 1, TimeUnit.MINUTES).isDone());
+      assertEquals(waiter.pending(), 0);
+   }
+
+   public void testTimesOut() throws Exception {
+      VirtualMachineWaiter waiter = waiter(vm("vm-1", null));
+
+      try {
+         waiter.await("vm-1", hasIpAddress, 10, TimeUnit.MILLISECONDS).get();
+         fail("the wait should have timed out");
+      } catch (ExecutionException e) {
+         assertTrue(e.getCause() instanceof TimeoutException);
+      }
+      assertFalse(waiter.waitFor("vm-1", hasIpAddress, 10, TimeUnit.MILLISECONDS));
+      assertEquals(waiter.pending(), 0);
+   }
+
+   public void testFailsWhenTheVmIsRemoved() throws Exception {
+      VirtualMachineWaiter waiter = waiter(vm("vm-1", null));
+
+      ListenableFuture<VirtualMachineProperties> ip = waiter.await("vm-1", hasIpAddress, 1, TimeUnit.MINUTES);
+      waiter.virtualMachineRemoved("vm-1");
+      try {
+         ip.get();
+         fail("the wait should have failed");
+      } catch (ExecutionException e) {
+         assertTrue(e.getCause() instanceof IllegalStateException);
+      }
+      assertEquals(waiter.pending(), 0);
+   }
+
+   public void testFailsWhenTheInventoryUpdatesStop() throws Exception {
+      VirtualMachineWaiter waiter = waiter(vm("vm-1", null));
+
+      ListenableFuture<VirtualMachineProperties> ip = waiter.await("vm-1", hasIpAddress, 1, TimeUnit.MINUTES);
+      waiter.updatesStopped(new RuntimeException("connection reset"));
+      try {
+         ip.get();
+         fail("the wait should have failed");
+      } catch (ExecutionException e) {
+         assertEquals(e.getCause().getCause().getMessage(), "connection reset");
+      }
+      assertEquals(waiter.pending(), 0);
+   }
+
+   private VirtualMachineWaiter waiter(VirtualMachineProperties current) {
+      VSphereInventory inventory = createMock(VSphereInventory.class);
+      expect(inventory.getVirtualMachine(current.getId())).andReturn(current).anyTimes();
+      replay(inventory);
+      return new VirtualMachineWaiter(inventory, scheduler);
+   }
+
+   private static VirtualMachineProperties vm(String id, String ipAddress) {
+      return new VirtualMachineProperties(id, id, VirtualMachinePowerState.poweredOn, null, false, ipAddress, null,
+              ImmutableList.<String>of(), ImmutableMap.<Integer, String>of());
+   }
+}
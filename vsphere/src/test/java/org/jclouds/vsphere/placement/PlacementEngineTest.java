@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.vsphere.placement;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.vmware.vim25.CustomFieldDef;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.VirtualMachinePowerState;
+import org.jclouds.rest.InsufficientResourcesException;
+import org.jclouds.vsphere.config.VSphereConstants;
+import org.jclouds.vsphere.domain.VirtualMachineProperties;
+import org.jclouds.vsphere.internal.CloneScheduler;
+import org.jclouds.vsphere.internal.VSphereInventory;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+
+@Test(groups = "unit", testName = "PlacementEngineTest")
+public class PlacementEngineTest {
+
+   private static final long GB = 1024L * 1024 * 1024;
+
+   private final ManagedObjectReference host1 = mor(VSphereInventory.HOST, "host-1");
+   private final ManagedObjectReference host2 = mor(VSphereInventory.HOST, "host-2");
+   private final ManagedObjectReference datastore1 = mor(VSphereInventory.DATASTORE, "datastore-1");
+   private final ManagedObjectReference datastore2 = mor(VSphereInventory.DATASTORE, "datastore-2");
+
+   public void testConcurrentNodesSpreadAcrossHosts() {
+      PlacementEngine engine = engine(PlacementPolicies.SPREAD, 16384, 16000, ImmutableList.<VirtualMachineProperties>of());
+
+      Placement first = engine.place(new PlacementRequest("web", 4096, 2, 10 * GB));
+      Placement second = engine.place(new PlacementRequest("web", 4096, 2, 10 * GB));
+      assertEquals(first.getHost().getVal(), "host-1");
+      assertEquals(second.getHost().getVal(), "host-2");
+
+      first.close();
+      assertEquals(engine.place(new PlacementRequest("web", 4096, 2, 10 * GB)).getHost().getVal(), "host-1");
+   }
+
+   public void testPackFillsTheBusiestHost() {
+      PlacementEngine engine = engine(PlacementPolicies.PACK, 16384, 16000, ImmutableList.<VirtualMachineProperties>of());
+
+      assertEquals(engine.place(new PlacementRequest(null, 4096, 1, GB)).getHost().getVal(), "host-2");
+      assertEquals(engine.place(new PlacementRequest(null, 4096, 1, GB)).getHost().getVal(), "host-2");
+   }
+
+   public void testAntiAffinityKeepsGroupsApart() {
+      VirtualMachineProperties member = new VirtualMachineProperties("vm-1", "web-1", VirtualMachinePowerState.poweredOn,
+              null, false, null, null, ImmutableList.<String>of(), ImmutableMap.of(7, "web"), "host-1");
+      PlacementEngine engine = engine(PlacementPolicies.ANTI_AFFINITY, 16384, 16000, ImmutableList.of(member));
+
+      assertEquals(engine.place(new PlacementRequest("web", 1024, 1, GB)).getHost().getVal(), "host-2");
+      Placement other = engine.place(new PlacementRequest("db", 1024, 1, GB));
+      assertEquals(other.getHost().getVal(), "host-1");
+   }
+
+   public void testReservationsRejectOvercommit() {
+      PlacementEngine engine = engine(PlacementPolicies.SPREAD, 16384, 16000, ImmutableList.<VirtualMachineProperties>of());
+
+      Placement first = engine.place(new PlacementRequest(null, 8192, 1, GB));
+      Placement second = engine.place(new PlacementRequest(null, 8192, 1, GB));
+      assertNotEquals(first.getHost().getVal(), second.getHost().getVal());
+      try {
+         engine.place(new PlacementRequest(null, 8192, 1, GB));
+         throw new AssertionError("the hosts should be full");
+      } catch (InsufficientResourcesException expected) {
+      }
+   }
+
+   public void testRacingNodesTakeAllTheRoomThereIs() throws Exception {
+      for (int round = 0; round < 50; round++) {
+         // room for one 8 GB node on each host
+         final PlacementEngine engine = engine(PlacementPolicies.SPREAD, 16384, 16000,
+                 ImmutableList.<VirtualMachineProperties>of());
+         final CountDownLatch start = new CountDownLatch(1);
+         ExecutorService executor = Executors.newFixedThreadPool(6);
+         List<Future<Placement>> placements = Lists.newArrayList();
+         for (int i = 0; i < 6; i++) {
+            placements.add(executor.submit(new Callable<Placement>() {
+               @Override
+               public Placement call() throws Exception {
+                  start.await();
+                  try {
+                     return engine.place(new PlacementRequest(null, 8192, 1, GB));
+                  } catch (InsufficientResourcesException e) {
+                     return null;
+                  }
+               }
+            }));
+         }
+         start.countDown();
+         int placed = 0;
+         for (Future<Placement> placement : placements) {
+            if (placement.get() != null)
+               placed++;
+         }
+         executor.shutdown();
+         assertEquals(placed, 2);
+      }
+   }
+
+   public void testNoHostInTheInventory() {
+      VSphereInventory inventory = createNiceMock(VSphereInventory.class);
+      expect(inventory.list(VSphereInventory.HOST)).andReturn(ImmutableList.<ManagedObjectReference>of());
+      replay(inventory);
+      assertNull(new PlacementEngine(inventory, scheduler(), fields(), PlacementPolicies.SPREAD)
+              .place(new PlacementRequest(null, 1024, 1, GB)));
+   }
+
+   /**
+    * Two hosts of {@code memoryMB}, host-1 using 4 GB and host-2 using 8 GB, each with its own
+    * datastore.
+    */
+   private PlacementEngine engine(PlacementPolicy policy, long memoryMB, long cpuMhz,
+                                  ImmutableList<VirtualMachineProperties> vms) {
+      VSphereInventory inventory = createNiceMock(VSphereInventory.class);
+      expect(inventory.list(VSphereInventory.HOST)).andReturn(ImmutableList.of(host1, host2)).anyTimes();
+      expect(inventory.getProperties(host1)).andReturn(host("esx-1", memoryMB, 4096, cpuMhz)).anyTimes();
+      expect(inventory.getProperties(host2)).andReturn(host("esx-2", memoryMB, 8192, cpuMhz)).anyTimes();
+      expect(inventory.datastoresOf(host1)).andReturn(ImmutableList.of(datastore1)).anyTimes();
+      expect(inventory.datastoresOf(host2)).andReturn(ImmutableList.of(datastore2)).anyTimes();
+      expect(inventory.getProperties(datastore1)).andReturn(datastore(100 * GB)).anyTimes();
+      expect(inventory.getProperties(datastore2)).andReturn(datastore(100 * GB)).anyTimes();
+      expect(inventory.virtualMachines()).andReturn(vms).anyTimes();
+      replay(inventory);
+      return new PlacementEngine(inventory, scheduler(), fields(), policy);
+   }
+
+   private static Map<String, Object> host(String name, long memoryMB, long memoryUsageMB, long cpuMhz) {
+      return ImmutableMap.<String, Object>builder()
+              .put(VSphereInventory.NAME, name)
+              .put(VSphereInventory.HOST_MEMORY_LIMIT, -1L)
+              .put(VSphereInventory.HOST_MEMORY_SIZE, memoryMB * 1024 * 1024)
+              .put(VSphereInventory.HOST_MEMORY_USAGE, (int) memoryUsageMB)
+              .put(VSphereInventory.HOST_CPU_MHZ, (int) cpuMhz / 8)
+              .put(VSphereInventory.HOST_CPU_CORES, (short) 8)
+              .put(VSphereInventory.HOST_CPU_USAGE, 1000)
+              .put(VSphereInventory.HOST_IN_MAINTENANCE, false)
+              .build();
+   }
+
+   private static Map<String, Object> datastore(long freeSpace) {
+      return ImmutableMap.<String, Object>of(VSphereInventory.DATASTORE_FREE_SPACE, freeSpace,
+              VSphereInventory.DATASTORE_ACCESSIBLE, true);
+   }
+
+   private static CloneScheduler scheduler() {
+      return new CloneScheduler(MoreExecutors.sameThreadExecutor(), 1, 1);
+   }
+
+   private static Supplier<Map<String, CustomFieldDef>> fields() {
+      CustomFieldDef group = new CustomFieldDef();
+      group.setKey(7);
+      group.setName(VSphereConstants.JCLOUDS_GROUP);
+      return Suppliers.<Map<String, CustomFieldDef>>ofInstance(ImmutableMap.of(VSphereConstants.JCLOUDS_GROUP, group));
+   }
+
+   private static ManagedObjectReference mor(String type, String id) {
+      ManagedObjectReference mor = new ManagedObjectReference();
+      mor.setType(type);
+      mor.set_value(id);
+      return mor;
+   }
+}